@@ -0,0 +1,593 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.Segment;
+import io.github.luccaflower.hack.vm.VmClass;
+import io.github.luccaflower.hack.vm.VmCommand;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Translates the VM code of a whole program to Hack assembly, written as
+ * {@link ObjectCode} that the {@link Assembler} finishes without reading it back from
+ * text.
+ * <p>
+ * The program starts with bootstrap code that sets up the stack and calls
+ * {@code Sys.init}, or {@code Main.main} for programs without the OS. Calls, returns and
+ * the signed comparisons jump to routines shared by the whole program rather than being
+ * spelled out at every use. A comparison checks the signs first, so that it doesn't
+ * overflow for operands that are far apart. Labels, the translation's own included, are
+ * scoped to their function as {@code Function$label}, and statics to their class as
+ * {@code Class.index}. So a label without a {@code $} starts a function, and one that
+ * starts with a {@code $} starts a shared routine.
+ * <p>
+ * A push followed by a pop, an arithmetic operation or an {@code if-goto} moves the value
+ * through D instead of the stack. Functions are translated one at a time, each in a
+ * {@link Mode}: {@link Mode#SIZE} also shares {@code eq}, sets the number of arguments of
+ * a call in a shared routine per arity and zeroes locals in a loop, which is slower but
+ * smaller. With a ROM budget, functions switch to {@link Mode#SIZE} one by one, those
+ * that shrink the most first, until the program fits.
+ */
+public class AsmWriter {
+
+    public static final int ROM_SIZE = 32768;
+
+    static final String CALL = "$call";
+
+    static final String RETURN = "$return";
+
+    static final String HALT = "$halt";
+
+    private static final String EQ = "$eq";
+
+    private static final List<String> ENTRY_POINTS = List.of("Sys.init", "Main.main");
+
+    private final Mode defaultMode;
+
+    private final int romBudget;
+
+    private ObjectCode out = new ObjectCode();
+
+    private Set<String> routines = new TreeSet<>();
+
+    private Mode mode = Mode.SPEED;
+
+    private String className = "";
+
+    private String function = "";
+
+    private int labels = 0;
+
+    public AsmWriter() {
+        this(Mode.SPEED);
+    }
+
+    public AsmWriter(Mode mode) {
+        this(mode, Integer.MAX_VALUE);
+    }
+
+    private AsmWriter(Mode defaultMode, int romBudget) {
+        this.defaultMode = defaultMode;
+        this.romBudget = romBudget;
+    }
+
+    /**
+     * Translates for speed, except for as many functions as it takes to fit the program
+     * in {@code romBudget} instructions. A program that doesn't fit even in
+     * {@link Mode#SIZE} is still translated, and left to the caller to reject.
+     */
+    public static AsmWriter withinBudget(int romBudget) {
+        return new AsmWriter(Mode.SPEED, romBudget);
+    }
+
+    public Program write(List<VmClass> classes) {
+        var functions = functions(classes);
+        var defined = new LinkedHashSet<String>();
+        var called = new TreeSet<String>();
+        for (var f : functions) {
+            defined.add(f.header().name());
+            for (var command : f.body()) {
+                if (command instanceof VmCommand.Call call) {
+                    called.add(call.function());
+                }
+            }
+        }
+        called.removeAll(defined);
+        if (!called.isEmpty()) {
+            throw new IllegalArgumentException("Calls to undefined functions " + called);
+        }
+        var entryPoint = ENTRY_POINTS.stream()
+            .filter(defined::contains)
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Program has no entry point, expected one of "
+                    + ENTRY_POINTS));
+
+        var translations = new ArrayList<Translation>();
+        for (var f : functions) {
+            translations.add(translate(f, defaultMode));
+        }
+        var bootstrap = translate(Mode.SPEED, () -> bootstrap(entryPoint));
+        if (size(bootstrap, translations) > romBudget) {
+            var smaller = new ArrayList<Translation>();
+            for (var f : functions) {
+                smaller.add(translate(f, Mode.SIZE));
+            }
+            var bySaving = new ArrayList<Integer>();
+            for (int i = 0; i < functions.size(); i++) {
+                bySaving.add(i);
+            }
+            bySaving.sort(Comparator.comparingInt((Integer i) -> smaller.get(i).instructions()
+                    - translations.get(i).instructions()));
+            for (var i : bySaving) {
+                if (size(bootstrap, translations) <= romBudget) {
+                    break;
+                }
+                translations.set(i, smaller.get(i));
+            }
+        }
+
+        var code = new ObjectCode();
+        code.append(bootstrap.code());
+        translations.forEach(t -> code.append(t.code()));
+        code.append(sharedRoutines(translations).code());
+        var usage = new ArrayList<FunctionSize>();
+        for (int i = 0; i < functions.size(); i++) {
+            var t = translations.get(i);
+            usage.add(new FunctionSize(functions.get(i).header().name(), t.mode(), t.instructions()));
+        }
+        return new Program(code, usage);
+    }
+
+    private static List<FunctionCode> functions(List<VmClass> classes) {
+        var functions = new ArrayList<FunctionCode>();
+        for (var c : classes) {
+            for (var command : c.commands()) {
+                if (command instanceof VmCommand.Function f) {
+                    functions.add(new FunctionCode(c.name(), f, new ArrayList<>()));
+                }
+                else if (functions.isEmpty() || !functions.getLast().className().equals(c.name())) {
+                    throw new IllegalArgumentException("%s.vm: %s outside of a function".formatted(c.name(), command));
+                }
+                else {
+                    functions.getLast().body().add(command);
+                }
+            }
+        }
+        return functions;
+    }
+
+    private int size(Translation bootstrap, List<Translation> translations) {
+        return bootstrap.instructions() + translations.stream().mapToInt(Translation::instructions).sum()
+                + sharedRoutines(translations).instructions();
+    }
+
+    private Translation translate(FunctionCode f, Mode mode) {
+        return translate(mode, () -> {
+            className = f.className();
+            write(f.header());
+            var body = f.body();
+            for (int i = 0; i < body.size(); i++) {
+                if (i + 1 < body.size() && body.get(i) instanceof VmCommand.Push push && fused(push, body.get(i + 1))) {
+                    i++;
+                }
+                else {
+                    write(body.get(i));
+                }
+            }
+        });
+    }
+
+    private Translation translate(Mode mode, Runnable writer) {
+        this.mode = mode;
+        out = new ObjectCode();
+        routines = new TreeSet<>();
+        writer.run();
+        return new Translation(out, routines, mode);
+    }
+
+    private void bootstrap(String entryPoint) {
+        function = "";
+        emit("@256", "D=A", "@SP", "M=D");
+        call(entryPoint, 0);
+        // if the entry point ever returns, stay put
+        label(HALT);
+        emit("@" + HALT, "0;JMP");
+    }
+
+    private void write(VmCommand command) {
+        switch (command) {
+            case VmCommand.Push(Segment segment, int index) -> push(segment, index);
+            case VmCommand.Pop(Segment segment, int index) -> pop(segment, index);
+            case VmCommand.Arithmetic(VmCommand.Operation operation) -> arithmetic(operation);
+            case VmCommand.Label(String name) -> label(function + "$" + name);
+            case VmCommand.Goto(String label) -> emit("@" + function + "$" + label, "0;JMP");
+            case VmCommand.IfGoto(String label) -> {
+                popIntoD();
+                emit("@" + function + "$" + label, "D;JNE");
+            }
+            case VmCommand.Function(String name, int locals) -> {
+                function = name;
+                label(name);
+                zeroLocals(locals);
+            }
+            case VmCommand.Call(String name, int arguments) -> call(name, arguments);
+            case VmCommand.Return() -> emit("@" + RETURN, "0;JMP");
+        }
+    }
+
+    /**
+     * Writes a push together with the command after it, when the value can go straight
+     * from D to where that command wants it.
+     */
+    private boolean fused(VmCommand.Push push, VmCommand next) {
+        switch (next) {
+            case VmCommand.Pop(Segment segment, int index) -> {
+                if (push.segment() == Segment.CONSTANT && push.index() <= 1
+                        && (hasFixedAddress(segment) || index < 6)) {
+                    address(segment, index);
+                    emit("M=" + push.index());
+                    return true;
+                }
+                if (!hasFixedAddress(segment) && index >= 6) {
+                    emit("@" + base(segment), "D=M", "@" + index, "D=D+A", "@R13", "M=D");
+                    loadIntoD(push.segment(), push.index());
+                    emit("@R13", "A=M", "M=D");
+                    return true;
+                }
+                loadIntoD(push.segment(), push.index());
+                address(segment, index);
+                emit("M=D");
+                return true;
+            }
+            case VmCommand.Arithmetic(VmCommand.Operation operation) -> {
+                if (push.segment() == Segment.CONSTANT && push.index() == 1
+                        && (operation == VmCommand.Operation.ADD || operation == VmCommand.Operation.SUB)) {
+                    emit("@SP", "A=M-1", operation == VmCommand.Operation.ADD ? "M=M+1" : "M=M-1");
+                    return true;
+                }
+                var combine = switch (operation) {
+                    case ADD -> "M=D+M";
+                    case SUB -> "M=M-D";
+                    case AND -> "M=D&M";
+                    case OR -> "M=D|M";
+                    default -> null;
+                };
+                if (combine == null) {
+                    return false;
+                }
+                loadIntoD(push.segment(), push.index());
+                emit("@SP", "A=M-1", combine);
+                return true;
+            }
+            case VmCommand.IfGoto(String label) -> {
+                loadIntoD(push.segment(), push.index());
+                emit("@" + function + "$" + label, "D;JNE");
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private void push(Segment segment, int index) {
+        if (segment == Segment.CONSTANT && (index == 0 || index == 1)) {
+            emit("@SP", "AM=M+1", "A=A-1", "M=" + index);
+            return;
+        }
+        loadIntoD(segment, index);
+        pushD();
+    }
+
+    private void loadIntoD(Segment segment, int index) {
+        switch (segment) {
+            case CONSTANT -> {
+                if (index == 0 || index == 1) {
+                    emit("D=" + index);
+                }
+                else {
+                    emit("@" + constant(index), "D=A");
+                }
+            }
+            case ARGUMENT, LOCAL, THIS, THAT -> {
+                var base = base(segment);
+                switch (index) {
+                    case 0 -> emit("@" + base, "A=M", "D=M");
+                    case 1 -> emit("@" + base, "A=M+1", "D=M");
+                    default -> emit("@" + base, "D=M", "@" + index, "A=D+A", "D=M");
+                }
+            }
+            default -> emit("@" + fixedAddress(segment, index), "D=M");
+        }
+    }
+
+    private void pop(Segment segment, int index) {
+        if (hasFixedAddress(segment) || index < 6) {
+            popIntoD();
+            address(segment, index);
+            emit("M=D");
+            return;
+        }
+        emit("@" + base(segment), "D=M", "@" + index, "D=D+A", "@R13", "M=D");
+        popIntoD();
+        emit("@R13", "A=M", "M=D");
+    }
+
+    /**
+     * Points A at a fixed address, or at one of the first few words of a segment
+     * without touching D.
+     */
+    private void address(Segment segment, int index) {
+        if (hasFixedAddress(segment)) {
+            emit("@" + fixedAddress(segment, index));
+            return;
+        }
+        emit("@" + base(segment), index == 0 ? "A=M" : "A=M+1");
+        for (int i = 1; i < index; i++) {
+            emit("A=A+1");
+        }
+    }
+
+    private void arithmetic(VmCommand.Operation operation) {
+        switch (operation) {
+            case NEG, NOT -> emit("@SP", "A=M-1", operation == VmCommand.Operation.NEG ? "M=-M" : "M=!M");
+            case ADD -> binary("M=D+M");
+            case SUB -> binary("M=M-D");
+            case AND -> binary("M=D&M");
+            case OR -> binary("M=D|M");
+            case EQ -> {
+                if (mode == Mode.SIZE) {
+                    routines.add(EQ);
+                    jumpAndReturn(EQ);
+                    return;
+                }
+                // x - y is only zero for equal operands, even when it overflows
+                var equal = function + "$eq." + labels++;
+                binary("D=M-D");
+                emit("M=-1", "@" + equal, "D;JEQ", "@SP", "A=M-1", "M=0");
+                label(equal);
+            }
+            case LT, GT -> jumpAndReturn("$" + operation.keyword());
+        }
+    }
+
+    private void jumpAndReturn(String routine) {
+        var back = function + "$back." + labels++;
+        emit("@" + back, "D=A", "@" + routine, "0;JMP");
+        label(back);
+    }
+
+    /**
+     * Pops y into D and leaves A at x, for the instruction that combines them.
+     */
+    private void binary(String combine) {
+        emit("@SP", "AM=M-1", "D=M", "A=A-1", combine);
+    }
+
+    private void call(String name, int arguments) {
+        var back = "%s$ret.%d".formatted(function.isEmpty() ? HALT : function, labels++);
+        emit("@" + name, "D=A", "@R13", "M=D");
+        if (mode == Mode.SIZE) {
+            var routine = CALL + "." + arguments;
+            routines.add(routine);
+            emit("@" + back, "D=A", "@" + routine, "0;JMP");
+            label(back);
+            return;
+        }
+        if (arguments <= 1) {
+            emit("@R14", "M=" + arguments);
+        }
+        else {
+            emit("@" + arguments, "D=A", "@R14", "M=D");
+        }
+        emit("@" + back, "D=A", "@" + CALL, "0;JMP");
+        label(back);
+    }
+
+    private void zeroLocals(int locals) {
+        if (locals <= 2) {
+            for (int i = 0; i < locals; i++) {
+                emit("@SP", "AM=M+1", "A=A-1", "M=0");
+            }
+            return;
+        }
+        if (mode == Mode.SIZE) {
+            var loop = function + "$zero." + labels++;
+            emit("@" + locals, "D=A");
+            label(loop);
+            emit("@SP", "AM=M+1", "A=A-1", "M=0", "D=D-1", "@" + loop, "D;JGT");
+            return;
+        }
+        emit("@SP", "A=M");
+        for (int i = 0; i < locals; i++) {
+            emit("M=0", "A=A+1");
+        }
+        emit("D=A", "@SP", "M=D");
+    }
+
+    private Translation sharedRoutines(List<Translation> translations) {
+        var needed = new TreeSet<String>();
+        translations.forEach(t -> needed.addAll(t.routines()));
+        return translate(Mode.SPEED, () -> sharedRoutines(needed));
+    }
+
+    private void sharedRoutines(Set<String> needed) {
+        // R14 is set without touching D, which holds the return address
+        for (var routine : needed.stream().filter(r -> r.startsWith(CALL + ".")).toList()) {
+            var arguments = Integer.parseInt(routine.substring(CALL.length() + 1));
+            label(routine);
+            emit("@R14", arguments == 0 ? "M=0" : "M=1");
+            for (int i = 1; i < arguments; i++) {
+                emit("M=M+1");
+            }
+            emit("@" + CALL, "0;JMP");
+        }
+
+        // D: return address, R13: function, R14: number of arguments
+        label(CALL);
+        pushD();
+        for (var saved : List.of("LCL", "ARG", "THIS", "THAT")) {
+            emit("@" + saved, "D=M");
+            pushD();
+        }
+        emit("@R14", "D=M", "@5", "D=D+A", "@SP", "D=M-D", "@ARG", "M=D");
+        emit("@SP", "D=M", "@LCL", "M=D");
+        emit("@R13", "A=M", "0;JMP");
+
+        // the return address is read before the return value may overwrite it
+        label(RETURN);
+        emit("@LCL", "D=M", "@R13", "M=D", "@5", "A=D-A", "D=M", "@R14", "M=D");
+        popIntoD();
+        emit("@ARG", "A=M", "M=D", "@ARG", "D=M+1", "@SP", "M=D");
+        for (var restored : List.of("THAT", "THIS", "ARG", "LCL")) {
+            emit("@R13", "AM=M-1", "D=M", "@" + restored, "M=D");
+        }
+        emit("@R14", "A=M", "0;JMP");
+
+        if (needed.contains(EQ)) {
+            label(EQ);
+            emit("@R15", "M=D");
+            binary("D=M-D");
+            emit("@$true", "D;JEQ", "@$false", "0;JMP");
+        }
+        comparison(VmCommand.Operation.LT);
+        comparison(VmCommand.Operation.GT);
+        label("$true");
+        emit("@SP", "A=M-1", "M=-1", "@R15", "A=M", "0;JMP");
+        label("$false");
+        emit("@SP", "A=M-1", "M=0", "@R15", "A=M", "0;JMP");
+    }
+
+    /**
+     * D: return address. Operands of different signs are told apart by the sign of x
+     * alone, and only operands of the same sign are subtracted.
+     */
+    private void comparison(VmCommand.Operation operation) {
+        var name = "$" + operation.keyword();
+        var lessThan = operation == VmCommand.Operation.LT;
+        label(name);
+        emit("@R15", "M=D");
+        popIntoD();
+        emit("@R13", "M=D", "@SP", "A=M-1", "D=M", "@" + name + ".negative", "D;JLT");
+        // x >= 0, so y < 0 settles it
+        emit("@R13", "D=M", "@" + (lessThan ? "$false" : "$true"), "D;JLT", "@" + name + ".same", "0;JMP");
+        label(name + ".negative");
+        emit("@R13", "D=M", "@" + (lessThan ? "$true" : "$false"), "D;JGE");
+        label(name + ".same");
+        emit("@R13", "D=M", "@SP", "A=M-1", "D=M-D", "@$true", lessThan ? "D;JLT" : "D;JGT", "@$false", "0;JMP");
+    }
+
+    private void pushD() {
+        emit("@SP", "AM=M+1", "A=A-1", "M=D");
+    }
+
+    private void popIntoD() {
+        emit("@SP", "AM=M-1", "D=M");
+    }
+
+    private void label(String name) {
+        out.label(name);
+    }
+
+    private void emit(String... instructions) {
+        for (var instruction : instructions) {
+            out.add(instruction);
+        }
+    }
+
+    private static boolean hasFixedAddress(Segment segment) {
+        return switch (segment) {
+            case ARGUMENT, LOCAL, THIS, THAT -> false;
+            default -> true;
+        };
+    }
+
+    private static String base(Segment segment) {
+        return switch (segment) {
+            case ARGUMENT -> "ARG";
+            case LOCAL -> "LCL";
+            case THIS -> "THIS";
+            case THAT -> "THAT";
+            default -> throw new IllegalArgumentException("No base address for " + segment.keyword());
+        };
+    }
+
+    private String fixedAddress(Segment segment, int index) {
+        return switch (segment) {
+            case STATIC -> className + "." + index;
+            case POINTER -> {
+                if (index > 1) {
+                    throw new IllegalArgumentException("No pointer " + index);
+                }
+                yield index == 0 ? "THIS" : "THAT";
+            }
+            case TEMP -> {
+                if (index > 7) {
+                    throw new IllegalArgumentException("No temp " + index);
+                }
+                yield "R" + (5 + index);
+            }
+            default -> throw new IllegalArgumentException("No fixed address for " + segment.keyword());
+        };
+    }
+
+    private static int constant(int value) {
+        if (value < 0 || value > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Constant out of range " + value);
+        }
+        return value;
+    }
+
+    public enum Mode {
+
+        /**
+         * Spells out what is short enough to spell out at every use.
+         */
+        SPEED,
+
+        /**
+         * Jumps to shared routines wherever that saves instructions.
+         */
+        SIZE
+
+    }
+
+    /**
+     * @param code the program's instructions, with the routines shared by all functions
+     * at the end
+     * @param functions the functions in the order they are laid out in ROM
+     */
+    public record Program(ObjectCode code, List<FunctionSize> functions) {
+
+        public long instructions() {
+            return code.size();
+        }
+
+        /**
+         * @return the program as assembly, for writing it out
+         */
+        public String asm() {
+            return code.asm();
+        }
+
+    }
+
+    public record FunctionSize(String name, Mode mode, int instructions) {
+    }
+
+    private record FunctionCode(String className, VmCommand.Function header, List<VmCommand> body) {
+    }
+
+    private record Translation(ObjectCode code, Set<String> routines, Mode mode) {
+
+        int instructions() {
+            return code.size();
+        }
+
+    }
+
+}
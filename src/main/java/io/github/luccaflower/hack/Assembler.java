@@ -0,0 +1,213 @@
+package io.github.luccaflower.hack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Assembles Hack assembly into the {@code .hack} text format, one 16-bit instruction per
+ * line. The first pass reads the text into {@link ObjectCode}, which takes down the
+ * address of every label and encodes what it can, and the second resolves the rest
+ * straight to the output. Code that is written as instructions rather than text, as the
+ * {@link AsmWriter} writes it, skips the first pass.
+ */
+public class Assembler {
+
+    /**
+     * @return the number of instructions written
+     */
+    public int assemble(String asm, Writer out) {
+        return assemble(read(asm), out);
+    }
+
+    /**
+     * @return the number of instructions written
+     */
+    public int assemble(ObjectCode code, Writer out) {
+        var word = new char[17];
+        word[16] = '\n';
+        try {
+            var instructions = code.assemble(instruction -> {
+                for (int bit = 0; bit < 16; bit++) {
+                    word[bit] = (instruction & 1 << 15 - bit) == 0 ? '0' : '1';
+                }
+                try {
+                    out.write(word);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+            return instructions;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Assembles into memory, for running the program rather than writing it out.
+     */
+    public Binary assemble(String asm) {
+        return assemble(read(asm));
+    }
+
+    public Binary assemble(ObjectCode code) {
+        var words = new short[code.size()];
+        var next = new int[1];
+        code.assemble(instruction -> words[next[0]++] = (short) instruction);
+        return new Binary(words, code.labels());
+    }
+
+    /**
+     * The first pass, which keeps the instructions with comments and whitespace stripped.
+     */
+    public ObjectCode read(String asm) {
+        var code = new ObjectCode();
+        var lineNumber = 0;
+        for (var line : (Iterable<String>) asm.lines()::iterator) {
+            lineNumber++;
+            var instruction = strip(line);
+            if (instruction.isEmpty()) {
+                code.skipLine();
+            }
+            else if (instruction.startsWith("(")) {
+                if (!instruction.endsWith(")") || instruction.length() < 3) {
+                    throw error(lineNumber, "Malformed label " + instruction);
+                }
+                code.label(instruction.substring(1, instruction.length() - 1));
+            }
+            else {
+                code.add(instruction);
+            }
+        }
+        return code;
+    }
+
+    static SymbolTable predefinedSymbols() {
+        var symbols = new SymbolTable(1024);
+        var pointers = new String[] { "SP", "LCL", "ARG", "THIS", "THAT" };
+        for (int i = 0; i < pointers.length; i++) {
+            symbols.put(pointers[i], i);
+        }
+        for (int i = 0; i < 16; i++) {
+            symbols.put("R" + i, i);
+        }
+        symbols.put("SCREEN", 16384);
+        symbols.put("KBD", 24576);
+        return symbols;
+    }
+
+    private static String strip(String line) {
+        var comment = line.indexOf("//");
+        var code = comment >= 0 ? line.substring(0, comment) : line;
+        return code.indexOf(' ') >= 0 || code.indexOf('\t') >= 0 ? code.replaceAll("\\s", "") : code;
+    }
+
+    static int constant(String value) {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid constant " + value);
+        }
+        if (number > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Constant out of range " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Encodes {@code dest=comp;jump}, where both dest and jump are optional.
+     */
+    static int compute(String instruction) {
+        var equals = instruction.indexOf('=');
+        var semicolon = instruction.indexOf(';');
+        var dest = equals >= 0 ? instruction.substring(0, equals) : "";
+        var comp = instruction.substring(equals + 1, semicolon >= 0 ? semicolon : instruction.length());
+        var jump = semicolon >= 0 ? instruction.substring(semicolon + 1) : "";
+        return 0b111 << 13 | comp(comp) << 6 | dest(dest) << 3 | jump(jump);
+    }
+
+    /**
+     * @return the a bit followed by the six c bits
+     */
+    private static int comp(String comp) {
+        return switch (comp) {
+            case "0" -> 0b0101010;
+            case "1" -> 0b0111111;
+            case "-1" -> 0b0111010;
+            case "D" -> 0b0001100;
+            case "A" -> 0b0110000;
+            case "M" -> 0b1110000;
+            case "!D" -> 0b0001101;
+            case "!A" -> 0b0110001;
+            case "!M" -> 0b1110001;
+            case "-D" -> 0b0001111;
+            case "-A" -> 0b0110011;
+            case "-M" -> 0b1110011;
+            case "D+1", "1+D" -> 0b0011111;
+            case "A+1", "1+A" -> 0b0110111;
+            case "M+1", "1+M" -> 0b1110111;
+            case "D-1" -> 0b0001110;
+            case "A-1" -> 0b0110010;
+            case "M-1" -> 0b1110010;
+            case "D+A", "A+D" -> 0b0000010;
+            case "D+M", "M+D" -> 0b1000010;
+            case "D-A" -> 0b0010011;
+            case "D-M" -> 0b1010011;
+            case "A-D" -> 0b0000111;
+            case "M-D" -> 0b1000111;
+            case "D&A", "A&D" -> 0b0000000;
+            case "D&M", "M&D" -> 0b1000000;
+            case "D|A", "A|D" -> 0b0010101;
+            case "D|M", "M|D" -> 0b1010101;
+            default -> throw new IllegalArgumentException("Invalid computation " + comp);
+        };
+    }
+
+    private static int dest(String dest) {
+        var bits = 0;
+        for (int i = 0; i < dest.length(); i++) {
+            var bit = switch (dest.charAt(i)) {
+                case 'A' -> 0b100;
+                case 'D' -> 0b010;
+                case 'M' -> 0b001;
+                default -> throw new IllegalArgumentException("Invalid destination " + dest);
+            };
+            if ((bits & bit) != 0) {
+                throw new IllegalArgumentException("Invalid destination " + dest);
+            }
+            bits |= bit;
+        }
+        return bits;
+    }
+
+    private static int jump(String jump) {
+        return switch (jump) {
+            case "" -> 0;
+            case "JGT" -> 1;
+            case "JEQ" -> 2;
+            case "JGE" -> 3;
+            case "JLT" -> 4;
+            case "JNE" -> 5;
+            case "JLE" -> 6;
+            case "JMP" -> 7;
+            default -> throw new IllegalArgumentException("Invalid jump " + jump);
+        };
+    }
+
+    private static IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException("line %d: %s".formatted(line, message));
+    }
+
+    /**
+     * @param labels the address of every label, in the order they appear
+     */
+    public record Binary(short[] rom, Map<String, Integer> labels) {
+    }
+
+}
@@ -0,0 +1,241 @@
+package io.github.luccaflower.hack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs Hack machine code one instruction per cycle, as the Hack CPU does, over a
+ * {@code short[]} ROM and RAM.
+ * <p>
+ * A program stops when it reaches the halt idiom, {@code @X} at address X followed by
+ * an unconditional jump, or runs out of cycles. With counters enabled, every ROM address
+ * counts how often it ran, which the label map of an {@link AsmWriter} translation turns
+ * into cycles per function: labels without a {@code $} start functions, and labels
+ * starting with one start shared routines.
+ * <p>
+ * A and D hold signed 16-bit values, as the ALU sees them. As an address, A is read
+ * unsigned, so one with the top bit set is outside of RAM and ROM.
+ */
+public class Cpu {
+
+    private static final int JUMP = 0b1110101010000111;
+
+    private final short[] rom;
+
+    private final Map<String, Integer> labels;
+
+    private final short[] ram = new short[32768];
+
+    private final boolean[] halts;
+
+    private long[] counters;
+
+    private int pc = 0;
+
+    private int a = 0;
+
+    private int d = 0;
+
+    private long cycles = 0;
+
+    private Status status = Status.READY;
+
+    public Cpu(Assembler.Binary binary) {
+        this(binary.rom(), binary.labels());
+    }
+
+    public Cpu(short[] rom, Map<String, Integer> labels) {
+        this.rom = rom.clone();
+        this.labels = Map.copyOf(labels);
+        halts = new boolean[rom.length];
+        for (int i = 0; i + 1 < rom.length; i++) {
+            halts[i] = rom[i] == i && (rom[i + 1] & 0xFFFF) == JUMP;
+        }
+    }
+
+    /**
+     * Reads the {@code .hack} text format. Without labels, only the counters per address
+     * are available.
+     */
+    public static Cpu fromHack(String hack) {
+        var words = hack.lines().filter(l -> !l.isBlank()).mapToInt(l -> Integer.parseInt(l.trim(), 2)).toArray();
+        var rom = new short[words.length];
+        for (int i = 0; i < words.length; i++) {
+            rom[i] = (short) words[i];
+        }
+        return new Cpu(rom, Map.of());
+    }
+
+    public short[] ram() {
+        return ram;
+    }
+
+    /**
+     * Counts how often each ROM address runs from now on, at some cost in speed.
+     */
+    public Cpu countInstructions() {
+        if (counters == null) {
+            counters = new long[rom.length];
+        }
+        return this;
+    }
+
+    /**
+     * Runs until the program halts or {@code budget} more cycles have passed. A run that
+     * stops on the budget can be resumed with another.
+     */
+    public Result run(long budget) {
+        if (status != Status.READY && status != Status.OUT_OF_CYCLES) {
+            return new Result(status, cycles);
+        }
+        var rom = this.rom;
+        var ram = this.ram;
+        var halts = this.halts;
+        var counters = this.counters;
+        int pc = this.pc, a = this.a, d = this.d;
+        long cycles = this.cycles;
+        long limit = budget > Long.MAX_VALUE - cycles ? Long.MAX_VALUE : cycles + budget;
+        var status = Status.OUT_OF_CYCLES;
+        try {
+            while (cycles < limit) {
+                if (halts[pc]) {
+                    status = Status.HALTED;
+                    break;
+                }
+                if (counters != null) {
+                    counters[pc]++;
+                }
+                cycles++;
+                int instruction = rom[pc];
+                if (instruction >= 0) {
+                    a = instruction;
+                    pc++;
+                    continue;
+                }
+                int y = (instruction & 0x1000) == 0 ? a : ram[a & 0xFFFF];
+                int out = switch (instruction >> 6 & 0x3F) {
+                    case 0b101010 -> 0;
+                    case 0b111111 -> 1;
+                    case 0b111010 -> -1;
+                    case 0b001100 -> d;
+                    case 0b110000 -> y;
+                    case 0b001101 -> ~d;
+                    case 0b110001 -> ~y;
+                    case 0b001111 -> (short) -d;
+                    case 0b110011 -> (short) -y;
+                    case 0b011111 -> (short) (d + 1);
+                    case 0b110111 -> (short) (y + 1);
+                    case 0b001110 -> (short) (d - 1);
+                    case 0b110010 -> (short) (y - 1);
+                    case 0b000010 -> (short) (d + y);
+                    case 0b010011 -> (short) (d - y);
+                    case 0b000111 -> (short) (y - d);
+                    case 0b000000 -> d & y;
+                    case 0b010101 -> d | y;
+                    default -> alu(instruction >> 6 & 0x3F, d, y);
+                };
+                if ((instruction & 0b001000) != 0) {
+                    ram[a & 0xFFFF] = (short) out;
+                }
+                if ((instruction & 0b100000) != 0) {
+                    a = (short) out;
+                }
+                if ((instruction & 0b010000) != 0) {
+                    d = out;
+                }
+                var jump = instruction & 0b111;
+                if (jump != 0 && (jump & (out < 0 ? 0b100 : out == 0 ? 0b010 : 0b001)) != 0) {
+                    pc = a & 0xFFFF;
+                }
+                else {
+                    pc++;
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            status = Status.FAULT;
+        }
+        this.pc = pc;
+        this.a = a;
+        this.d = d;
+        this.cycles = cycles;
+        this.status = status;
+        return new Result(status, cycles);
+    }
+
+    /**
+     * Computes what the ALU does for control bits no assembler mnemonic stands for.
+     */
+    private static int alu(int control, int x, int y) {
+        if ((control & 0b100000) != 0) {
+            x = 0;
+        }
+        if ((control & 0b010000) != 0) {
+            x = ~x;
+        }
+        if ((control & 0b001000) != 0) {
+            y = 0;
+        }
+        if ((control & 0b000100) != 0) {
+            y = ~y;
+        }
+        var out = (control & 0b000010) != 0 ? x + y : x & y;
+        if ((control & 0b000001) != 0) {
+            out = ~out;
+        }
+        return (short) out;
+    }
+
+    /**
+     * @return how often each ROM address ran
+     */
+    public long[] counters() {
+        if (counters == null) {
+            throw new IllegalStateException("Instructions aren't counted");
+        }
+        return counters.clone();
+    }
+
+    /**
+     * @return the cycles spent in each function and shared routine, largest first, with
+     * the bootstrap code before the first label as {@code $bootstrap}
+     */
+    public Map<String, Long> cyclesPerFunction() {
+        var counts = counters();
+        var starts = new TreeMap<Integer, String>();
+        starts.put(0, "$bootstrap");
+        labels.forEach((label, address) -> {
+            if (label.indexOf('$') <= 0) {
+                starts.put(address, label);
+            }
+        });
+        var cycles = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                cycles.merge(starts.floorEntry(i).getValue(), counts[i], Long::sum);
+            }
+        }
+        var sorted = new LinkedHashMap<String, Long>();
+        cycles.entrySet()
+            .stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+        return sorted;
+    }
+
+    public enum Status {
+
+        READY, HALTED, OUT_OF_CYCLES,
+
+        /**
+         * An access outside of RAM, or a jump outside of ROM.
+         */
+        FAULT
+
+    }
+
+    public record Result(Status status, long cycles) {
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.VmBinary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Prints binary {@code .vmb} files as the VM code they hold.
+ */
+public class Disassembler {
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: Disassembler <file.vmb>...");
+        }
+        Arrays.stream(args).map(File::new).forEach(file -> {
+            try {
+                System.out.print(VmBinary.read(Files.readAllBytes(file.toPath())).code());
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+}
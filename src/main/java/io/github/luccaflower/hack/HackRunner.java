@@ -0,0 +1,91 @@
+package io.github.luccaflower.hack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a {@code .asm} or {@code .hack} file on the {@link Cpu} and reports how it
+ * stopped. {@code --cycles=N} stops it after N cycles, and {@code --profile} lists the
+ * cycles spent per function, which takes the labels of a {@code .asm} file.
+ * {@code --dump=FILE} writes the RAM the program stopped with, an {@code address value}
+ * line per word that isn't 0.
+ */
+public class HackRunner {
+
+    private static final int LISTED = 20;
+
+    public static void main(String[] args) {
+        var flags = Arrays.stream(args).filter(a -> a.startsWith("-")).toList();
+        var paths = Arrays.stream(args).filter(a -> !a.startsWith("-")).toList();
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Usage: HackRunner <file.asm|file.hack> [--cycles=N] [--profile] [--dump=FILE]");
+        }
+        var file = new File(paths.getFirst());
+        var budget = flags.stream()
+            .filter(f -> f.startsWith("--cycles="))
+            .map(f -> Long.parseLong(f.substring("--cycles=".length())))
+            .reduce((first, second) -> second)
+            .orElse(Long.MAX_VALUE);
+        var cpu = file.getName().endsWith(".hack") ? Cpu.fromHack(read(file))
+                : new Cpu(new Assembler().assemble(read(file)));
+        var profile = flags.contains("--profile");
+        if (profile) {
+            cpu.countInstructions();
+        }
+        var start = System.nanoTime();
+        var result = cpu.run(budget);
+        var nanos = Math.max(System.nanoTime() - start, 1);
+        System.out.printf("%s after %d cycles, %.1f M instructions/s%n", result.status(), result.cycles(),
+                result.cycles() * 1e3 / nanos);
+        if (profile) {
+            cpu.cyclesPerFunction()
+                .entrySet()
+                .stream()
+                .limit(LISTED)
+                .forEach(e -> System.out.printf("%12d  %5.1f%%  %s%n", e.getValue(),
+                        100.0 * e.getValue() / result.cycles(), e.getKey()));
+        }
+        dump(flags, cpu.ram());
+    }
+
+    /**
+     * Writes the RAM to the file given by {@code --dump=FILE}, if any.
+     */
+    static void dump(List<String> flags, short[] ram) {
+        flags.stream()
+            .filter(f -> f.startsWith("--dump="))
+            .map(f -> new File(f.substring("--dump=".length())))
+            .reduce((first, second) -> second)
+            .ifPresent(file -> {
+                var out = new StringBuilder();
+                for (int address = 0; address < ram.length; address++) {
+                    if (ram[address] != 0) {
+                        out.append(address).append(' ').append(ram[address]).append('\n');
+                    }
+                }
+                try {
+                    Files.writeString(file.toPath(), out, StandardCharsets.UTF_8);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                System.out.printf("Wrote %s%n", file.getName());
+            });
+    }
+
+    private static String read(File file) {
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
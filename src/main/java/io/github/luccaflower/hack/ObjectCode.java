@@ -0,0 +1,190 @@
+package io.github.luccaflower.hack;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Hack instructions encoded as they are added, as far as they can be before the whole
+ * program is known: a C-instruction, a constant or a predefined symbol right away, and an
+ * A-instruction naming a label or variable when the code is assembled, which is the
+ * second pass of the {@link Assembler}. Code written in pieces, such as a function at a
+ * time, is joined with {@link #append(ObjectCode)}, which moves the labels of a piece
+ * along with its instructions.
+ * <p>
+ * Each instruction keeps its text, so that the code can still be written out as
+ * assembly, and errors name the line it has there.
+ */
+public final class ObjectCode {
+
+    private static final int FIRST_VARIABLE = 16;
+
+    private static final int UNRESOLVED = -1;
+
+    private static final SymbolTable PREDEFINED = Assembler.predefinedSymbols();
+
+    private int[] words = new int[64];
+
+    private String[] text = new String[64];
+
+    private int[] lines = new int[64];
+
+    private final Map<String, Integer> labels = new LinkedHashMap<>();
+
+    private int size = 0;
+
+    private int line = 0;
+
+    /**
+     * Adds an instruction, such as {@code @Main.0} or {@code AM=M+1}, without whitespace
+     * or comments.
+     */
+    public void add(String instruction) {
+        line++;
+        int word;
+        try {
+            word = encode(instruction);
+        }
+        catch (RuntimeException e) {
+            throw error(line, e.getMessage());
+        }
+        if (size == words.length) {
+            grow(size * 2);
+        }
+        words[size] = word;
+        text[size] = instruction;
+        lines[size] = line;
+        size++;
+    }
+
+    /**
+     * Points a label at the next instruction.
+     */
+    public void label(String name) {
+        line++;
+        if (labels.containsKey(name) || PREDEFINED.get(name) != SymbolTable.MISSING) {
+            throw error(line, "Duplicate label " + name);
+        }
+        labels.put(name, size);
+    }
+
+    /**
+     * Takes up a line without adding anything, for a blank line or a comment.
+     */
+    void skipLine() {
+        line++;
+    }
+
+    /**
+     * Adds the instructions and labels of another piece of code after these.
+     */
+    public void append(ObjectCode other) {
+        for (var label : other.labels.entrySet()) {
+            if (labels.containsKey(label.getKey())) {
+                throw new IllegalArgumentException("Duplicate label " + label.getKey());
+            }
+        }
+        if (size + other.size > words.length) {
+            grow(Math.max(words.length * 2, size + other.size));
+        }
+        System.arraycopy(other.words, 0, words, size, other.size);
+        System.arraycopy(other.text, 0, text, size, other.size);
+        for (int i = 0; i < other.size; i++) {
+            lines[size + i] = line + other.lines[i];
+        }
+        other.labels.forEach((name, address) -> labels.put(name, size + address));
+        size += other.size;
+        line += other.line;
+    }
+
+    /**
+     * @return the number of instructions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the address of every label, in the order they were added
+     */
+    public Map<String, Integer> labels() {
+        return Collections.unmodifiableMap(labels);
+    }
+
+    /**
+     * Resolves labels and variables, allocating variables from address 16 in the order
+     * they first appear, and hands each instruction to {@code out}. A label or variable
+     * that doesn't fit in the 15 bits of an A-instruction is an error.
+     *
+     * @return the number of instructions
+     */
+    public int assemble(IntConsumer out) {
+        var symbols = Assembler.predefinedSymbols();
+        labels.forEach(symbols::put);
+        var nextVariable = FIRST_VARIABLE;
+        for (int i = 0; i < size; i++) {
+            var word = words[i];
+            if (word == UNRESOLVED) {
+                var symbol = text[i].substring(1);
+                word = symbols.get(symbol);
+                if (word == SymbolTable.MISSING) {
+                    word = nextVariable++;
+                    symbols.put(symbol, word);
+                }
+                // anything wider would set the top bit, which makes a C-instruction
+                if (word > Short.MAX_VALUE) {
+                    throw error(lines[i], "Address out of range " + symbol);
+                }
+            }
+            out.accept(word);
+        }
+        return size;
+    }
+
+    /**
+     * @return the code as assembly, one label or instruction per line
+     */
+    public String asm() {
+        var out = new StringBuilder(size * 8);
+        var labels = this.labels.entrySet().iterator();
+        var next = labels.hasNext() ? labels.next() : null;
+        for (int i = 0; i <= size; i++) {
+            while (next != null && next.getValue() == i) {
+                out.append('(').append(next.getKey()).append(")\n");
+                next = labels.hasNext() ? labels.next() : null;
+            }
+            if (i < size) {
+                out.append(text[i]).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static int encode(String instruction) {
+        if (instruction.charAt(0) != '@') {
+            return Assembler.compute(instruction);
+        }
+        var symbol = instruction.substring(1);
+        if (symbol.isEmpty()) {
+            throw new IllegalArgumentException("Missing address");
+        }
+        if (Character.isDigit(symbol.charAt(0))) {
+            return Assembler.constant(symbol);
+        }
+        var predefined = PREDEFINED.get(symbol);
+        return predefined == SymbolTable.MISSING ? UNRESOLVED : predefined;
+    }
+
+    private void grow(int capacity) {
+        words = Arrays.copyOf(words, capacity);
+        text = Arrays.copyOf(text, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+    }
+
+    private static IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException("line %d: %s".formatted(line, message));
+    }
+
+}
@@ -0,0 +1,83 @@
+package io.github.luccaflower.hack;
+
+/**
+ * Maps symbols to addresses, with linear probing over parallel arrays of keys and
+ * values rather than a node per entry. It only ever grows, as an assembler's symbol
+ * table does.
+ */
+final class SymbolTable {
+
+    static final int MISSING = -1;
+
+    private String[] keys;
+
+    private int[] values;
+
+    private int size = 0;
+
+    SymbolTable() {
+        this(64);
+    }
+
+    SymbolTable(int expected) {
+        var capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * @return the address of the symbol, or {@link #MISSING}
+     */
+    int get(String symbol) {
+        var mask = keys.length - 1;
+        for (int i = slot(symbol, mask);; i = (i + 1) & mask) {
+            var key = keys[i];
+            if (key == null) {
+                return MISSING;
+            }
+            if (key.equals(symbol)) {
+                return values[i];
+            }
+        }
+    }
+
+    void put(String symbol, int address) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        var mask = keys.length - 1;
+        int i = slot(symbol, mask);
+        while (keys[i] != null && !keys[i].equals(symbol)) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == null) {
+            keys[i] = symbol;
+            size++;
+        }
+        values[i] = address;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slot(String symbol, int mask) {
+        // symbols like Main.0 and Main.1 differ in few bits, which the multiplication spreads
+        var hash = symbol.hashCode();
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9 >>> 7 & mask;
+    }
+
+}
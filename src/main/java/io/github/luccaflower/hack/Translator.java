@@ -0,0 +1,164 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.VmBinary;
+import io.github.luccaflower.hack.vm.VmClass;
+import io.github.luccaflower.jack.JackCompiler;
+import io.github.luccaflower.jack.Main;
+import io.github.luccaflower.jack.codewriter.SourceMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a whole program into a single {@code .hack} file named after its directory, and
+ * writes its assembly to a {@code .asm} file next to it unless {@code --no-asm} is given.
+ * The assembly is only written out, and not read back to assemble the program.
+ * Jack sources are compiled in the same process, with the same flags as the compiler
+ * takes, and VM files without a Jack source next to them, such as the OS, are linked in
+ * as they are, from a binary {@code .vmb} file rather than the {@code .vm} file if
+ * there's one.
+ * <p>
+ * Functions are translated for speed as long as the program fits in ROM, or in the
+ * budget given by {@code --rom-budget=N}, and for size beyond that; {@code --size}
+ * translates all of them for size. {@code --rom-report} lists how much ROM each function
+ * takes, largest first. A program that doesn't fit in ROM even so is an error, and
+ * nothing is written for it.
+ */
+public class Translator {
+
+    public static void main(String[] args) {
+        var flags = Arrays.stream(args).filter(a -> a.startsWith("-")).toList();
+        var paths = Arrays.stream(args).filter(a -> !a.startsWith("-")).toList();
+        var directory = new File(paths.isEmpty() ? "." : paths.getFirst());
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Invalid directory " + directory);
+        }
+        var classes = load(directory, JackCompiler.fromFlags(flags, System.out)).classes();
+        var program = writer(flags).write(classes);
+        var name = directory.getAbsoluteFile().getName();
+        var binary = new File(directory, name + ".hack");
+        if (flags.contains("--rom-report")) {
+            program.functions()
+                .stream()
+                .sorted(Comparator.comparingInt(AsmWriter.FunctionSize::instructions).reversed())
+                .forEach(f -> System.out.printf("%6d  %-5s %s%n", f.instructions(),
+                        f.mode().name().toLowerCase(), f.name()));
+        }
+        if (program.instructions() > AsmWriter.ROM_SIZE) {
+            // past the end of ROM, labels no longer fit in an A-instruction
+            throw new IllegalStateException("%s takes %d instructions, which don't fit in the %d words of ROM"
+                .formatted(binary.getName(), program.instructions(), AsmWriter.ROM_SIZE));
+        }
+        if (!flags.contains("--no-asm")) {
+            var file = new File(directory, name + ".asm");
+            write(file, program.asm());
+            System.out.printf("Wrote %s%n", file.getName());
+        }
+        try (var out = Files.newBufferedWriter(binary.toPath(), StandardCharsets.US_ASCII)) {
+            new Assembler().assemble(program.code(), out);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf("Wrote %s: %d instructions%n", binary.getName(), program.instructions());
+    }
+
+    static AsmWriter writer(List<String> flags) {
+        if (flags.contains("--size")) {
+            return new AsmWriter(AsmWriter.Mode.SIZE);
+        }
+        var budget = flags.stream()
+            .filter(f -> f.startsWith("--rom-budget="))
+            .map(f -> Integer.parseInt(f.substring("--rom-budget=".length())))
+            .reduce((first, second) -> second)
+            .orElse(AsmWriter.ROM_SIZE);
+        return AsmWriter.withinBudget(budget);
+    }
+
+    /**
+     * The classes of the program in the directory, with the source map of each that has
+     * one: those compiled here if the compiler keeps them, and {@code Name.vm.map} next to
+     * those read from files.
+     */
+    static Program load(File directory, JackCompiler compiler) {
+        var classes = new ArrayList<VmClass>();
+        var sourceMaps = new HashMap<String, SourceMap>();
+        compiler.compile(Main.readSources(directory)).forEach(c -> {
+            classes.add(c.vmClass());
+            if (!c.sourceMap().entries().isEmpty()) {
+                sourceMaps.put(c.name(), c.sourceMap());
+            }
+        });
+        var compiled = new HashSet<>(classes.stream().map(VmClass::name).toList());
+        var files = Arrays.stream(directory.listFiles())
+            .filter(f -> f.getName().endsWith(".vm") || f.getName().endsWith(".vmb"))
+            .sorted(Comparator.comparing(File::getName))
+            .toList();
+        var binaries = new HashSet<>(files.stream()
+            .map(File::getName)
+            .filter(n -> n.endsWith(".vmb"))
+            .map(n -> n.substring(0, n.length() - ".vmb".length()))
+            .toList());
+        for (var f : files) {
+            if (f.getName().endsWith(".vmb")) {
+                var vmClass = VmBinary.read(readBytes(f));
+                if (!compiled.contains(vmClass.name())) {
+                    classes.add(vmClass);
+                }
+                continue;
+            }
+            var name = f.getName().substring(0, f.getName().length() - ".vm".length());
+            if (!compiled.contains(name) && !binaries.contains(name)) {
+                classes.add(VmClass.parse(name, read(f)));
+            }
+        }
+        for (var vmClass : classes) {
+            var map = new File(directory, vmClass.name() + ".vm.map");
+            if (!compiled.contains(vmClass.name()) && map.isFile()) {
+                sourceMaps.put(vmClass.name(), SourceMap.read(readBytes(map)));
+            }
+        }
+        return new Program(classes, sourceMaps);
+    }
+
+    record Program(List<VmClass> classes, Map<String, SourceMap> sourceMaps) {
+    }
+
+    private static String read(File file) {
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] readBytes(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
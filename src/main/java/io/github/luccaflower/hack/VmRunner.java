@@ -0,0 +1,135 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.Interpreter;
+import io.github.luccaflower.hack.vm.Jit;
+import io.github.luccaflower.hack.vm.NativeOs;
+import io.github.luccaflower.jack.JackCompiler;
+import io.github.luccaflower.jack.Main;
+import io.github.luccaflower.jack.codewriter.SourceMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs a whole program on the {@link Interpreter}, loaded the same way the
+ * {@link Translator} loads it, and reports how it stopped. {@code --budget=N} stops it
+ * after N VM commands, and {@code --jit} runs it on the {@link Jit} instead.
+ * <p>
+ * The OS runs on the {@link NativeOs}, so the program needs no VM code for it, and what
+ * it prints is printed after the report. {@code --interpreted-os} runs the program's own
+ * OS instead, to check the native one against it.
+ * <p>
+ * {@code --profile} runs it on a profiling interpreter and prints the most expensive
+ * functions, calls and VM commands, and the Jack lines that cost the most: those of the
+ * classes it compiles, which it keeps source maps for, and of the classes with a
+ * {@code Name.vm.map} next to them. {@code --collapsed=FILE} writes its call stacks for a
+ * flame graph as well.
+ * <p>
+ * {@code --dump=FILE} writes the RAM the program stopped with, as the {@link HackRunner}
+ * does, for reading the counters of an instrumented build.
+ * <p>
+ * {@code --stack-report} prints how much stack the program can take, worked out from
+ * its code, before running it.
+ */
+public class VmRunner {
+
+    private static final int LISTED = 20;
+
+    public static void main(String[] args) {
+        var flags = Arrays.stream(args).filter(a -> a.startsWith("-")).toList();
+        var paths = Arrays.stream(args).filter(a -> !a.startsWith("-")).toList();
+        var directory = new File(paths.isEmpty() ? "." : paths.getFirst());
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Invalid directory " + directory);
+        }
+        var budget = flags.stream()
+            .filter(f -> f.startsWith("--budget="))
+            .map(f -> Long.parseLong(f.substring("--budget=".length())))
+            .reduce((first, second) -> second)
+            .orElse(Long.MAX_VALUE);
+        // source maps leave the code as it is, and a profile reports by line with them
+        var compilerFlags = new ArrayList<>(flags);
+        if (flags.contains("--profile")) {
+            compilerFlags.add("--source-map");
+        }
+        var program = Translator.load(directory, JackCompiler.fromFlags(compilerFlags, System.out));
+        var classes = program.classes();
+        if (flags.contains("--stack-report")) {
+            System.out.println(Main.stackReport(classes));
+        }
+        var os = flags.contains("--interpreted-os") ? null : new NativeOs();
+        var collapsed = flags.stream()
+            .filter(f -> f.startsWith("--collapsed="))
+            .map(f -> new File(f.substring("--collapsed=".length())))
+            .reduce((first, second) -> second);
+        var profiling = flags.contains("--profile") || collapsed.isPresent();
+        if (flags.contains("--jit") && profiling) {
+            throw new IllegalArgumentException("Only the interpreter profiles, not the JIT");
+        }
+        if (flags.contains("--jit")) {
+            var jit = new Jit(classes, os);
+            var start = System.nanoTime();
+            var result = jit.run(budget);
+            report(result, System.nanoTime() - start);
+            if (result.status() == Interpreter.Status.FINISHED) {
+                System.out.println("Returned " + jit.ram()[Interpreter.STACK]);
+            }
+            print(os);
+            HackRunner.dump(flags, jit.ram());
+            return;
+        }
+        var interpreter = new Interpreter(classes, os);
+        if (profiling) {
+            interpreter.profiling();
+        }
+        var start = System.nanoTime();
+        var result = interpreter.run(budget);
+        report(result, System.nanoTime() - start);
+        if (result.status() == Interpreter.Status.FINISHED) {
+            System.out.println("Returned " + interpreter.ram()[Interpreter.STACK]);
+        }
+        else {
+            System.out.println("Stopped in " + interpreter.function());
+        }
+        print(os);
+        HackRunner.dump(flags, interpreter.ram());
+        if (flags.contains("--profile")) {
+            System.out.println();
+            System.out.print(interpreter.profile().report(LISTED));
+            if (!program.sourceMaps().isEmpty()) {
+                System.out.println();
+                System.out.print(interpreter.profile().lineReport(LISTED, (className, command) -> {
+                    var map = program.sourceMaps().get(className);
+                    return map == null ? 0 : map.at(command).map(SourceMap.Entry::line).orElse(0);
+                }));
+            }
+        }
+        collapsed.ifPresent(file -> {
+            try {
+                Files.writeString(file.toPath(), interpreter.profile().collapsedStacks(), StandardCharsets.UTF_8);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            System.out.printf("Wrote %s%n", file.getName());
+        });
+    }
+
+    private static void print(NativeOs os) {
+        if (os != null && !os.output().isEmpty()) {
+            System.out.println("Output:");
+            System.out.println(os.output());
+        }
+    }
+
+    private static void report(Interpreter.Result result, long nanos) {
+        System.out.printf("%s after %d VM commands, %.1f M commands/s%n", result.status(), result.executed(),
+                result.executed() * 1e3 / Math.max(nanos, 1));
+    }
+
+}
@@ -0,0 +1,425 @@
+package io.github.luccaflower.hack.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * VM code decoded into a flat array of opcodes and their operands, for the
+ * {@link Interpreter}. Labels and call targets are resolved to indices into the array,
+ * and statics and temps to addresses, so running the code looks nothing up.
+ * <p>
+ * Frequent sequences are decoded into one superinstruction, such as
+ * {@code push local i, push constant k, add, pop local i} into {@link #INC_LOCAL}, which
+ * still counts as the commands it stands for. Sequences never span a label, so jumps
+ * only ever land on the start of one.
+ * <p>
+ * Calls to the functions a {@link NativeOs} binds decode to {@link #NATIVE}, so those
+ * need no VM code of their own.
+ */
+final class Bytecode {
+
+    static final int PUSH_CONSTANT = 0, PUSH_LOCAL = 1, PUSH_ARGUMENT = 2, PUSH_THIS = 3, PUSH_THAT = 4,
+            PUSH_ADDRESS = 5, PUSH_THIS_POINTER = 6, PUSH_THAT_POINTER = 7;
+
+    static final int POP_LOCAL = 8, POP_ARGUMENT = 9, POP_THIS = 10, POP_THAT = 11, POP_ADDRESS = 12,
+            POP_THIS_POINTER = 13, POP_THAT_POINTER = 14;
+
+    static final int ADD = 15, SUB = 16, NEG = 17, EQ = 18, GT = 19, LT = 20, AND = 21, OR = 22, NOT = 23;
+
+    static final int GOTO = 24, IF_GOTO = 25, CALL = 26, ENTER = 27, RETURN = 28;
+
+    /**
+     * {@code push constant k, add}, with {@code sub} as adding -k.
+     */
+    static final int ADD_CONSTANT = 29;
+
+    /**
+     * {@code push local i, push constant k, add}.
+     */
+    static final int PUSH_LOCAL_ADD_CONSTANT = 30;
+
+    /**
+     * {@code push local i, push constant k, add, pop local i}.
+     */
+    static final int INC_LOCAL = 31;
+
+    /**
+     * {@code push constant k, pop local i}.
+     */
+    static final int SET_LOCAL = 32;
+
+    /**
+     * A comparison followed by {@code if-goto}.
+     */
+    static final int IF_EQ = 33, IF_GT = 34, IF_LT = 35;
+
+    /**
+     * A call to a function of the {@link NativeOs}, with its number and the number of
+     * arguments.
+     */
+    static final int NATIVE = 36;
+
+    static final int FIRST_STATIC = 16;
+
+    private static final int TEMP = 5;
+
+    private final int[] code;
+
+    private final String[] functions;
+
+    private final int[] starts;
+
+    private final int[] positions;
+
+    private final String[] classes;
+
+    private final int[] classStarts;
+
+    private Bytecode(int[] code, String[] functions, int[] starts, int[] positions, String[] classes,
+            int[] classStarts) {
+        this.code = code;
+        this.functions = functions;
+        this.starts = starts;
+        this.positions = positions;
+        this.classes = classes;
+        this.classStarts = classStarts;
+    }
+
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * @return the index of the function's {@link #ENTER}
+     */
+    int start(String function) {
+        for (int i = 0; i < functions.length; i++) {
+            if (functions[i].equals(function)) {
+                return starts[i];
+            }
+        }
+        throw new IllegalArgumentException("No function " + function);
+    }
+
+    boolean defines(String function) {
+        return List.of(functions).contains(function);
+    }
+
+    /**
+     * @return the names of the functions, in the order they were decoded
+     */
+    String[] functions() {
+        return functions;
+    }
+
+    /**
+     * @return where each of {@link #functions()} starts
+     */
+    int[] starts() {
+        return starts;
+    }
+
+    /**
+     * @return the command the opcode at {@code index} was decoded from, counting the
+     * commands of all classes in order, or -1 for an operand
+     */
+    int position(int index) {
+        return positions[index];
+    }
+
+    /**
+     * @return the class of the command at {@code position}
+     */
+    String classAt(int position) {
+        return classes[classIndex(position)];
+    }
+
+    /**
+     * @return the index of the command at {@code position} among its class's commands
+     */
+    int commandAt(int position) {
+        return position - classStarts[classIndex(position)];
+    }
+
+    private int classIndex(int position) {
+        var i = Arrays.binarySearch(classStarts, position);
+        if (i < 0) {
+            return -i - 2;
+        }
+        // classes without commands start where the next one does
+        while (i + 1 < classStarts.length && classStarts[i + 1] == position) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return how many commands {@code opcode} stands for
+     */
+    static int width(int opcode) {
+        return switch (opcode) {
+            case ADD_CONSTANT, SET_LOCAL, IF_EQ, IF_GT, IF_LT -> 2;
+            case PUSH_LOCAL_ADD_CONSTANT -> 3;
+            case INC_LOCAL -> 4;
+            default -> 1;
+        };
+    }
+
+    /**
+     * @return the function the code at {@code index} belongs to
+     */
+    String functionAt(int index) {
+        var found = "";
+        for (int i = 0; i < starts.length && starts[i] <= index; i++) {
+            found = functions[i];
+        }
+        return found;
+    }
+
+    static Bytecode decode(List<VmClass> classes) {
+        return decode(classes, true);
+    }
+
+    static Bytecode decode(List<VmClass> classes, boolean superinstructions) {
+        return decode(classes, superinstructions, null);
+    }
+
+    /**
+     * @param os the OS whose functions are called natively, or null to run the program's
+     * own
+     */
+    static Bytecode decode(List<VmClass> classes, boolean superinstructions, NativeOs os) {
+        return new Decoder(superinstructions, os).decode(classes);
+    }
+
+    private static final class Decoder {
+
+        private final boolean superinstructions;
+
+        private final NativeOs os;
+
+        private final List<Integer> code = new ArrayList<>();
+
+        private final List<Integer> positions = new ArrayList<>();
+
+        private final List<String> classes = new ArrayList<>();
+
+        private final List<Integer> classStarts = new ArrayList<>();
+
+        private int position = 0;
+
+        private final Map<String, Integer> functions = new LinkedHashMap<>();
+
+        private final Map<String, Integer> labels = new HashMap<>();
+
+        // index of the operand to patch, and the label or function it points at
+        private final Map<Integer, String> jumps = new HashMap<>();
+
+        private final Map<Integer, String> calls = new HashMap<>();
+
+        private int nextStatic = FIRST_STATIC;
+
+        private String function = "";
+
+        private Decoder(boolean superinstructions, NativeOs os) {
+            this.superinstructions = superinstructions;
+            this.os = os;
+        }
+
+        private Bytecode decode(List<VmClass> classes) {
+            var base = 0;
+            for (var c : classes) {
+                var statics = new HashMap<Integer, Integer>();
+                var commands = c.commands();
+                this.classes.add(c.name());
+                classStarts.add(base);
+                for (int i = 0; i < commands.size();) {
+                    position = base + i;
+                    i += decode(commands, i, index -> statics.computeIfAbsent(index, x -> nextStatic++));
+                }
+                base += commands.size();
+            }
+            jumps.forEach((at, label) -> {
+                var target = labels.get(label);
+                if (target == null) {
+                    throw new IllegalArgumentException("No label " + label.replace("$", " in "));
+                }
+                code.set(at, target);
+            });
+            var undefined = new TreeSet<String>();
+            calls.forEach((at, name) -> {
+                var target = functions.get(name);
+                if (target == null) {
+                    undefined.add(name);
+                }
+                else {
+                    code.set(at, target);
+                }
+            });
+            if (!undefined.isEmpty()) {
+                throw new IllegalArgumentException("Calls to undefined functions " + undefined);
+            }
+            return new Bytecode(code.stream().mapToInt(Integer::intValue).toArray(),
+                    functions.keySet().toArray(String[]::new),
+                    functions.values().stream().mapToInt(Integer::intValue).toArray(),
+                    positions.stream().mapToInt(Integer::intValue).toArray(), this.classes.toArray(String[]::new),
+                    classStarts.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        /**
+         * @return how many commands were decoded
+         */
+        private int decode(List<VmCommand> commands, int i, IntUnaryOperator statics) {
+            if (superinstructions) {
+                var fused = fuse(commands, i);
+                if (fused > 0) {
+                    return fused;
+                }
+            }
+            switch (commands.get(i)) {
+                case VmCommand.Push(Segment segment, int index) -> {
+                    switch (segment) {
+                        case CONSTANT -> emit(PUSH_CONSTANT, index);
+                        case LOCAL -> emit(PUSH_LOCAL, index);
+                        case ARGUMENT -> emit(PUSH_ARGUMENT, index);
+                        case THIS -> emit(PUSH_THIS, index);
+                        case THAT -> emit(PUSH_THAT, index);
+                        case STATIC -> emit(PUSH_ADDRESS, statics.applyAsInt(index));
+                        case TEMP -> emit(PUSH_ADDRESS, temp(index));
+                        case POINTER -> emit(pointer(index) == 0 ? PUSH_THIS_POINTER : PUSH_THAT_POINTER);
+                    }
+                }
+                case VmCommand.Pop(Segment segment, int index) -> {
+                    switch (segment) {
+                        case LOCAL -> emit(POP_LOCAL, index);
+                        case ARGUMENT -> emit(POP_ARGUMENT, index);
+                        case THIS -> emit(POP_THIS, index);
+                        case THAT -> emit(POP_THAT, index);
+                        case STATIC -> emit(POP_ADDRESS, statics.applyAsInt(index));
+                        case TEMP -> emit(POP_ADDRESS, temp(index));
+                        case POINTER -> emit(pointer(index) == 0 ? POP_THIS_POINTER : POP_THAT_POINTER);
+                        case CONSTANT -> throw new IllegalStateException();
+                    }
+                }
+                case VmCommand.Arithmetic(VmCommand.Operation operation) -> emit(switch (operation) {
+                    case ADD -> ADD;
+                    case SUB -> SUB;
+                    case NEG -> NEG;
+                    case EQ -> EQ;
+                    case GT -> GT;
+                    case LT -> LT;
+                    case AND -> AND;
+                    case OR -> OR;
+                    case NOT -> NOT;
+                });
+                case VmCommand.Label(String name) -> {
+                    if (labels.put(function + "$" + name, code.size()) != null) {
+                        throw new IllegalArgumentException("Duplicate label %s in %s".formatted(name, function));
+                    }
+                }
+                case VmCommand.Goto(String label) -> jump(GOTO, label);
+                case VmCommand.IfGoto(String label) -> jump(IF_GOTO, label);
+                case VmCommand.Function(String name, int locals) -> {
+                    function = name;
+                    if (functions.put(name, code.size()) != null) {
+                        throw new IllegalArgumentException("Duplicate function " + name);
+                    }
+                    emit(ENTER, locals);
+                }
+                case VmCommand.Call(String name, int arguments) -> {
+                    var id = os == null ? -1 : os.id(name, arguments);
+                    if (id >= 0) {
+                        emit(NATIVE, id, arguments);
+                    }
+                    else {
+                        calls.put(code.size() + 1, name);
+                        emit(CALL, -1, arguments);
+                    }
+                }
+                case VmCommand.Return() -> emit(RETURN);
+            }
+            return 1;
+        }
+
+        /**
+         * @return how many commands went into a superinstruction at {@code i}, or 0
+         */
+        private int fuse(List<VmCommand> commands, int i) {
+            var first = commands.get(i);
+            var second = i + 1 < commands.size() ? commands.get(i + 1) : null;
+            var third = i + 2 < commands.size() ? commands.get(i + 2) : null;
+            var fourth = i + 3 < commands.size() ? commands.get(i + 3) : null;
+            if (first instanceof VmCommand.Push(Segment s1, int local) && s1 == Segment.LOCAL
+                    && second instanceof VmCommand.Push(Segment s2, int constant) && s2 == Segment.CONSTANT
+                    && third instanceof VmCommand.Arithmetic(VmCommand.Operation operation)
+                    && (operation == VmCommand.Operation.ADD || operation == VmCommand.Operation.SUB)) {
+                var k = operation == VmCommand.Operation.ADD ? constant : -constant;
+                if (fourth instanceof VmCommand.Pop(Segment s4, int target) && s4 == Segment.LOCAL
+                        && target == local) {
+                    emit(INC_LOCAL, local, k);
+                    return 4;
+                }
+                emit(PUSH_LOCAL_ADD_CONSTANT, local, k);
+                return 3;
+            }
+            if (first instanceof VmCommand.Push(Segment s1, int constant) && s1 == Segment.CONSTANT) {
+                if (second instanceof VmCommand.Arithmetic(VmCommand.Operation operation)
+                        && (operation == VmCommand.Operation.ADD || operation == VmCommand.Operation.SUB)) {
+                    emit(ADD_CONSTANT, operation == VmCommand.Operation.ADD ? constant : -constant);
+                    return 2;
+                }
+                if (second instanceof VmCommand.Pop(Segment s2, int local) && s2 == Segment.LOCAL) {
+                    emit(SET_LOCAL, local, constant);
+                    return 2;
+                }
+            }
+            if (first instanceof VmCommand.Arithmetic(VmCommand.Operation operation)
+                    && second instanceof VmCommand.IfGoto(String label)) {
+                switch (operation) {
+                    case EQ -> jump(IF_EQ, label);
+                    case GT -> jump(IF_GT, label);
+                    case LT -> jump(IF_LT, label);
+                    default -> {
+                        return 0;
+                    }
+                }
+                return 2;
+            }
+            return 0;
+        }
+
+        private void jump(int opcode, String label) {
+            jumps.put(code.size() + 1, function + "$" + label);
+            emit(opcode, -1);
+        }
+
+        private void emit(int... words) {
+            for (int i = 0; i < words.length; i++) {
+                code.add(words[i]);
+                positions.add(i == 0 ? position : -1);
+            }
+        }
+
+        private static int temp(int index) {
+            if (index > 7) {
+                throw new IllegalArgumentException("No temp " + index);
+            }
+            return TEMP + index;
+        }
+
+        private static int pointer(int index) {
+            if (index > 1) {
+                throw new IllegalArgumentException("No pointer " + index);
+            }
+            return index;
+        }
+
+    }
+
+}
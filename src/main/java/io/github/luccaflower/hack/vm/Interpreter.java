@@ -0,0 +1,481 @@
+package io.github.luccaflower.hack.vm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.luccaflower.hack.vm.Bytecode.*;
+
+/**
+ * Runs a whole program's VM code without translating it to Hack first, over a RAM laid
+ * out like the Hack platform's: the stack from 256, statics from 16 and temps from 5.
+ * <p>
+ * The stack, frame and segment pointers live in the interpreter while it runs and are
+ * written back to RAM whenever a run stops. A call pushes the same five words a Hack
+ * translation does, but the return address is kept aside, since bytecode indices don't
+ * fit in a word; its slot holds the depth of the call instead. The stack ends where the
+ * heap starts, at 2048, and a call that would start its frame beyond that stops the
+ * run.
+ * <p>
+ * Given a {@link NativeOs}, calls to the OS functions it binds run as Java instead, and
+ * an OS error calls {@code Sys.error} with its code as if the failing function had.
+ */
+public class Interpreter {
+
+    public static final int STACK = 256;
+
+    public static final int HEAP = 2048;
+
+    private static final List<String> ENTRY_POINTS = List.of("Sys.init", "Main.main");
+
+    private final Bytecode bytecode;
+
+    private final NativeOs os;
+
+    private final int sysError;
+
+    private final short[] ram = new short[32768];
+
+    private int[] returns = new int[64];
+
+    private int depth = 0;
+
+    private int pc;
+
+    private int sp = STACK;
+
+    private int lcl = STACK;
+
+    private int arg = STACK;
+
+    private int thisPointer = 0;
+
+    private int thatPointer = 0;
+
+    private long executed = 0;
+
+    private Status status = Status.READY;
+
+    private Profile profile;
+
+    public Interpreter(List<VmClass> classes) {
+        this(Bytecode.decode(classes), null);
+    }
+
+    public Interpreter(List<VmClass> classes, NativeOs os) {
+        this(Bytecode.decode(classes, true, os), os);
+    }
+
+    Interpreter(Bytecode bytecode) {
+        this(bytecode, null);
+    }
+
+    private Interpreter(Bytecode bytecode, NativeOs os) {
+        this.bytecode = bytecode;
+        this.os = os;
+        sysError = bytecode.defines("Sys.error") ? bytecode.start("Sys.error") : -1;
+        var entryPoint = ENTRY_POINTS.stream()
+            .filter(bytecode::defines)
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Program has no entry point, expected one of "
+                    + ENTRY_POINTS));
+        pc = bytecode.start(entryPoint);
+        ram[0] = (short) sp;
+        // the entry point's frame, so that it returns like any other function
+        Arrays.fill(ram, STACK, STACK + 5, (short) 0);
+        sp += 5;
+        lcl = sp;
+        depth = 1;
+    }
+
+    /**
+     * Records a {@link Profile} of the runs from here on, which makes them slower.
+     *
+     * @throws IllegalStateException if the program has already run
+     */
+    public Interpreter profiling() {
+        if (status != Status.READY || executed > 0) {
+            throw new IllegalStateException("Profiling has to start before the program runs");
+        }
+        profile = new Profile(bytecode, os);
+        profile.call(pc, 0);
+        return this;
+    }
+
+    /**
+     * @throws IllegalStateException unless {@link #profiling()} was turned on
+     */
+    public Profile profile() {
+        if (profile == null) {
+            throw new IllegalStateException("The interpreter isn't profiling");
+        }
+        return profile;
+    }
+
+    /**
+     * The program's memory, which stays live across runs.
+     */
+    public short[] ram() {
+        return ram;
+    }
+
+    /**
+     * Runs until the entry point returns, the stack overflows, or {@code budget} more VM
+     * commands have been executed. The same program with the same budget always stops at
+     * the same point, so a budget is also a deterministic timeout, though a
+     * superinstruction started just before the budget runs out still finishes. A run that
+     * stops on the budget can be resumed with another.
+     */
+    public Result run(long budget) {
+        if (status != Status.READY && status != Status.OUT_OF_BUDGET) {
+            return new Result(status, executed);
+        }
+        var code = bytecode.code();
+        var ram = this.ram;
+        var profile = this.profile;
+        var hits = profile == null ? null : profile.hits();
+        int pc = this.pc, sp = this.sp, lcl = this.lcl, arg = this.arg, thisPointer = this.thisPointer,
+                thatPointer = this.thatPointer;
+        long executed = this.executed;
+        long limit = budget > Long.MAX_VALUE - executed ? Long.MAX_VALUE : executed + budget;
+        var status = Status.OUT_OF_BUDGET;
+        try {
+            loop: while (executed < limit) {
+                if (hits != null) {
+                    hits[pc]++;
+                }
+                switch (code[pc]) {
+                    case PUSH_CONSTANT -> {
+                        ram[sp++] = (short) code[pc + 1];
+                        pc += 2;
+                        executed++;
+                    }
+                    case PUSH_LOCAL -> {
+                        ram[sp++] = ram[lcl + code[pc + 1]];
+                        pc += 2;
+                        executed++;
+                    }
+                    case PUSH_ARGUMENT -> {
+                        ram[sp++] = ram[arg + code[pc + 1]];
+                        pc += 2;
+                        executed++;
+                    }
+                    case PUSH_THIS -> {
+                        ram[sp++] = ram[thisPointer + code[pc + 1]];
+                        pc += 2;
+                        executed++;
+                    }
+                    case PUSH_THAT -> {
+                        ram[sp++] = ram[thatPointer + code[pc + 1]];
+                        pc += 2;
+                        executed++;
+                    }
+                    case PUSH_ADDRESS -> {
+                        ram[sp++] = ram[code[pc + 1]];
+                        pc += 2;
+                        executed++;
+                    }
+                    case PUSH_THIS_POINTER -> {
+                        ram[sp++] = (short) thisPointer;
+                        pc++;
+                        executed++;
+                    }
+                    case PUSH_THAT_POINTER -> {
+                        ram[sp++] = (short) thatPointer;
+                        pc++;
+                        executed++;
+                    }
+                    case POP_LOCAL -> {
+                        ram[lcl + code[pc + 1]] = ram[--sp];
+                        pc += 2;
+                        executed++;
+                    }
+                    case POP_ARGUMENT -> {
+                        ram[arg + code[pc + 1]] = ram[--sp];
+                        pc += 2;
+                        executed++;
+                    }
+                    case POP_THIS -> {
+                        ram[thisPointer + code[pc + 1]] = ram[--sp];
+                        pc += 2;
+                        executed++;
+                    }
+                    case POP_THAT -> {
+                        ram[thatPointer + code[pc + 1]] = ram[--sp];
+                        pc += 2;
+                        executed++;
+                    }
+                    case POP_ADDRESS -> {
+                        ram[code[pc + 1]] = ram[--sp];
+                        pc += 2;
+                        executed++;
+                    }
+                    case POP_THIS_POINTER -> {
+                        thisPointer = ram[--sp] & 0xFFFF;
+                        pc++;
+                        executed++;
+                    }
+                    case POP_THAT_POINTER -> {
+                        thatPointer = ram[--sp] & 0xFFFF;
+                        pc++;
+                        executed++;
+                    }
+                    case ADD -> {
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] + ram[sp]);
+                        pc++;
+                        executed++;
+                    }
+                    case SUB -> {
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]);
+                        pc++;
+                        executed++;
+                    }
+                    case NEG -> {
+                        ram[sp - 1] = (short) -ram[sp - 1];
+                        pc++;
+                        executed++;
+                    }
+                    case EQ -> {
+                        sp--;
+                        ram[sp - 1] = ram[sp - 1] == ram[sp] ? (short) -1 : 0;
+                        pc++;
+                        executed++;
+                    }
+                    case GT -> {
+                        sp--;
+                        ram[sp - 1] = ram[sp - 1] > ram[sp] ? (short) -1 : 0;
+                        pc++;
+                        executed++;
+                    }
+                    case LT -> {
+                        sp--;
+                        ram[sp - 1] = ram[sp - 1] < ram[sp] ? (short) -1 : 0;
+                        pc++;
+                        executed++;
+                    }
+                    case AND -> {
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] & ram[sp]);
+                        pc++;
+                        executed++;
+                    }
+                    case OR -> {
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] | ram[sp]);
+                        pc++;
+                        executed++;
+                    }
+                    case NOT -> {
+                        ram[sp - 1] = (short) ~ram[sp - 1];
+                        pc++;
+                        executed++;
+                    }
+                    case GOTO -> {
+                        pc = code[pc + 1];
+                        executed++;
+                    }
+                    case IF_GOTO -> {
+                        pc = ram[--sp] != 0 ? code[pc + 1] : pc + 2;
+                        executed++;
+                    }
+                    case CALL -> {
+                        if (sp + 5 > HEAP) {
+                            status = Status.STACK_OVERFLOW;
+                            break loop;
+                        }
+                        if (depth == returns.length) {
+                            returns = Arrays.copyOf(returns, depth * 2);
+                        }
+                        returns[depth] = pc + 3;
+                        ram[sp] = (short) depth++;
+                        ram[sp + 1] = (short) lcl;
+                        ram[sp + 2] = (short) arg;
+                        ram[sp + 3] = (short) thisPointer;
+                        ram[sp + 4] = (short) thatPointer;
+                        arg = sp - code[pc + 2];
+                        sp += 5;
+                        lcl = sp;
+                        pc = code[pc + 1];
+                        executed++;
+                        if (profile != null) {
+                            profile.call(pc, executed);
+                        }
+                    }
+                    case ENTER -> {
+                        var locals = code[pc + 1];
+                        Arrays.fill(ram, sp, sp + locals, (short) 0);
+                        sp += locals;
+                        pc += 2;
+                        executed++;
+                    }
+                    case RETURN -> {
+                        var frame = lcl;
+                        ram[arg] = ram[sp - 1];
+                        sp = arg + 1;
+                        thatPointer = ram[frame - 1] & 0xFFFF;
+                        thisPointer = ram[frame - 2] & 0xFFFF;
+                        arg = ram[frame - 3];
+                        lcl = ram[frame - 4];
+                        executed++;
+                        if (profile != null) {
+                            profile.exit(executed);
+                        }
+                        pc = returns[--depth];
+                        if (depth == 0) {
+                            status = Status.FINISHED;
+                            break loop;
+                        }
+                    }
+                    case NATIVE -> {
+                        if (profile != null) {
+                            profile.callNative(code[pc + 1], executed);
+                        }
+                        sp -= code[pc + 2];
+                        try {
+                            ram[sp] = (short) os.call(code[pc + 1], ram, sp);
+                        }
+                        catch (NativeOs.Failure failure) {
+                            if (profile != null) {
+                                profile.exit(executed);
+                            }
+                            if (sysError < 0) {
+                                sp += code[pc + 2];
+                                status = Status.OS_ERROR;
+                                break loop;
+                            }
+                            if (sp + 6 > HEAP) {
+                                sp += code[pc + 2];
+                                status = Status.STACK_OVERFLOW;
+                                break loop;
+                            }
+                            if (depth == returns.length) {
+                                returns = Arrays.copyOf(returns, depth * 2);
+                            }
+                            // Sys.error(code), returning where the failed call would have
+                            returns[depth] = pc + 3;
+                            ram[sp] = (short) failure.code;
+                            ram[sp + 1] = (short) depth++;
+                            ram[sp + 2] = (short) lcl;
+                            ram[sp + 3] = (short) arg;
+                            ram[sp + 4] = (short) thisPointer;
+                            ram[sp + 5] = (short) thatPointer;
+                            arg = sp;
+                            sp += 6;
+                            lcl = sp;
+                            pc = sysError;
+                            executed++;
+                            if (profile != null) {
+                                profile.call(pc, executed);
+                            }
+                            continue;
+                        }
+                        sp++;
+                        pc += 3;
+                        executed++;
+                        if (profile != null) {
+                            profile.exit(executed);
+                        }
+                    }
+                    case ADD_CONSTANT -> {
+                        ram[sp - 1] = (short) (ram[sp - 1] + code[pc + 1]);
+                        pc += 2;
+                        executed += 2;
+                    }
+                    case PUSH_LOCAL_ADD_CONSTANT -> {
+                        ram[sp++] = (short) (ram[lcl + code[pc + 1]] + code[pc + 2]);
+                        pc += 3;
+                        executed += 3;
+                    }
+                    case INC_LOCAL -> {
+                        var local = lcl + code[pc + 1];
+                        ram[local] = (short) (ram[local] + code[pc + 2]);
+                        pc += 3;
+                        executed += 4;
+                    }
+                    case SET_LOCAL -> {
+                        ram[lcl + code[pc + 1]] = (short) code[pc + 2];
+                        pc += 3;
+                        executed += 2;
+                    }
+                    case IF_EQ -> {
+                        sp -= 2;
+                        pc = ram[sp] == ram[sp + 1] ? code[pc + 1] : pc + 2;
+                        executed += 2;
+                    }
+                    case IF_GT -> {
+                        sp -= 2;
+                        pc = ram[sp] > ram[sp + 1] ? code[pc + 1] : pc + 2;
+                        executed += 2;
+                    }
+                    case IF_LT -> {
+                        sp -= 2;
+                        pc = ram[sp] < ram[sp + 1] ? code[pc + 1] : pc + 2;
+                        executed += 2;
+                    }
+                    default -> throw new IllegalStateException("Unknown opcode " + code[pc]);
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            status = Status.MEMORY_FAULT;
+        }
+        if (profile != null) {
+            profile.count(executed);
+        }
+        this.pc = pc;
+        this.sp = sp;
+        this.lcl = lcl;
+        this.arg = arg;
+        this.thisPointer = thisPointer;
+        this.thatPointer = thatPointer;
+        this.executed = executed;
+        this.status = status;
+        ram[0] = (short) sp;
+        ram[1] = (short) lcl;
+        ram[2] = (short) arg;
+        ram[3] = (short) thisPointer;
+        ram[4] = (short) thatPointer;
+        return new Result(status, executed);
+    }
+
+    /**
+     * @return the function that was running when the last run stopped
+     */
+    public String function() {
+        return bytecode.functionAt(pc);
+    }
+
+    public enum Status {
+
+        READY,
+
+        /**
+         * The entry point returned, leaving its value at the bottom of the stack.
+         */
+        FINISHED,
+
+        OUT_OF_BUDGET,
+
+        STACK_OVERFLOW,
+
+        /**
+         * An access outside of RAM, through a pointer or off the end of the stack.
+         */
+        MEMORY_FAULT,
+
+        /**
+         * A native OS function failed in a program without a {@code Sys.error} to report
+         * it.
+         */
+        OS_ERROR
+
+    }
+
+    /**
+     * @param executed the VM commands executed over all runs so far
+     */
+    public record Result(Status status, long executed) {
+    }
+
+}
@@ -0,0 +1,558 @@
+package io.github.luccaflower.hack.vm;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a whole program as JVM code, for workloads too long for the {@link Interpreter}.
+ * Each VM function becomes a method of one hidden class, which HotSpot then compiles
+ * like any other code.
+ * <p>
+ * The operand stack lives in the method's locals, one per stack slot, which works
+ * because the stack is the same depth every time a command runs. Everything else lives
+ * in RAM just as it does for the interpreter: a call writes its arguments and the same
+ * five words of frame, and locals and arguments are read and written through LCL and
+ * ARG. Only the values below a call's arguments are never written to RAM. Labels become
+ * cases of a switch in a loop, so a jump is setting the case and going round.
+ * <p>
+ * The budget is checked at the start of every straight-line run of commands, so the JIT
+ * stops at a different point than the interpreter would, and a run can't be resumed.
+ * Calls to a {@link NativeOs} call it directly, as they do in the interpreter.
+ * <p>
+ * When {@link StackDepth} finds that the whole program fits on the stack, calls don't
+ * check for overflow at all.
+ */
+public class Jit {
+
+    private static final String CLASS_NAME = "JitProgram";
+
+    private static final List<String> ENTRY_POINTS = List.of("Sys.init", "Main.main");
+
+    private static final Stop OUT_OF_BUDGET = new Stop(Interpreter.Status.OUT_OF_BUDGET);
+
+    private static final Stop STACK_OVERFLOW = new Stop(Interpreter.Status.STACK_OVERFLOW);
+
+    private static final Stop OS_ERROR = new Stop(Interpreter.Status.OS_ERROR);
+
+    private final Code code;
+
+    private Interpreter.Status status = Interpreter.Status.READY;
+
+    public Jit(List<VmClass> classes) {
+        this(classes, null);
+    }
+
+    public Jit(List<VmClass> classes, NativeOs os) {
+        var source = new Generator(classes, os).generate();
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(compile(source), true);
+            code = (Code) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+            code.os = os;
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("Could not load the compiled program", e);
+        }
+    }
+
+    public short[] ram() {
+        return code.ram;
+    }
+
+    /**
+     * Runs until the entry point returns, the stack overflows, or about {@code budget}
+     * VM commands have been executed.
+     */
+    public Interpreter.Result run(long budget) {
+        if (status != Interpreter.Status.READY) {
+            return new Interpreter.Result(status, code.executed);
+        }
+        code.limit = budget;
+        try {
+            code.ram[Interpreter.STACK] = (short) code.entry();
+            Arrays.fill(code.ram, 1, 5, (short) 0);
+            code.ram[0] = Interpreter.STACK + 1;
+            status = Interpreter.Status.FINISHED;
+        }
+        catch (Stop stop) {
+            status = stop.status;
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            status = Interpreter.Status.MEMORY_FAULT;
+        }
+        return new Interpreter.Result(status, code.executed);
+    }
+
+    private static byte[] compile(String source) {
+        var compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("The JIT needs the compiler of a JDK");
+        }
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        var bytes = new ByteArrayOutputStream();
+        var files = new ForwardingJavaFileManager<>(compiler.getStandardFileManager(diagnostics, null,
+                StandardCharsets.UTF_8)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        var file = new SimpleJavaFileObject(URI.create("mem:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        var options = List.of("-classpath", classPath(), "-proc:none", "-g:none");
+        if (!compiler.getTask(null, files, diagnostics, options, null, List.of(file)).call()) {
+            throw new IllegalStateException("Could not compile the program: " + diagnostics.getDiagnostics()
+                .stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> d.getMessage(null))
+                .collect(Collectors.joining("; ")));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String classPath() {
+        try {
+            return new File(Jit.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        }
+        catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * What the generated class extends, and the state its methods share.
+     */
+    abstract static class Code {
+
+        final short[] ram = new short[32768];
+
+        long executed = 0;
+
+        long limit = Long.MAX_VALUE;
+
+        int depth = 1;
+
+        NativeOs os;
+
+        abstract int entry();
+
+        static void outOfBudget() {
+            throw OUT_OF_BUDGET;
+        }
+
+        static void stackOverflow() {
+            throw STACK_OVERFLOW;
+        }
+
+        static void osError() {
+            throw OS_ERROR;
+        }
+
+    }
+
+    private static final class Stop extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter.Status status;
+
+        private Stop(Interpreter.Status status) {
+            super(status.name(), null, false, false);
+            this.status = status;
+        }
+
+    }
+
+    private static final class Generator {
+
+        private final List<VmClass> classes;
+
+        private final NativeOs os;
+
+        private final Map<String, Integer> methods = new LinkedHashMap<>();
+
+        private final StringBuilder out = new StringBuilder();
+
+        private int nextStatic = Bytecode.FIRST_STATIC;
+
+        private boolean overflowChecked = true;
+
+        private Generator(List<VmClass> classes, NativeOs os) {
+            this.classes = classes;
+            this.os = os;
+        }
+
+        private String generate() {
+            var called = new TreeSet<String>();
+            for (var c : classes) {
+                for (var command : c.commands()) {
+                    switch (command) {
+                        case VmCommand.Function f -> {
+                            if (methods.put(f.name(), methods.size()) != null) {
+                                throw new IllegalArgumentException("Duplicate function " + f.name());
+                            }
+                        }
+                        case VmCommand.Call call -> {
+                            if (os == null || os.id(call.function(), call.arguments()) < 0) {
+                                called.add(call.function());
+                            }
+                        }
+                        default -> {
+                        }
+                    }
+                }
+            }
+            called.removeAll(methods.keySet());
+            if (!called.isEmpty()) {
+                throw new IllegalArgumentException("Calls to undefined functions " + called);
+            }
+            var entryPoint = ENTRY_POINTS.stream()
+                .filter(methods::containsKey)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Program has no entry point, expected one of "
+                        + ENTRY_POINTS));
+            // a native OS can call Sys.error from anywhere, which the call graph doesn't show
+            if (os == null || !methods.containsKey("Sys.error")) {
+                var worstCase = StackDepth.of(classes).worstCase(entryPoint);
+                overflowChecked = worstCase.isEmpty() || Interpreter.STACK + worstCase.getAsInt() > Interpreter.HEAP;
+            }
+
+            out.append("package ").append(Jit.class.getPackageName()).append(";\n\n");
+            out.append("final class ").append(CLASS_NAME).append(" extends Jit.Code {\n\n");
+            out.append("    int entry() {\n");
+            out.append("        return ").append(method(entryPoint)).append("(%d, %d, 0, 0);\n"
+                .formatted(Interpreter.STACK, Interpreter.STACK + 5));
+            out.append("    }\n");
+            for (var c : classes) {
+                var statics = new HashMap<Integer, Integer>();
+                var commands = c.commands();
+                var start = -1;
+                for (int i = 0; i <= commands.size(); i++) {
+                    if (i == commands.size() || commands.get(i) instanceof VmCommand.Function) {
+                        if (start >= 0) {
+                            function(commands.subList(start, i), statics);
+                        }
+                        start = i;
+                    }
+                    else if (start < 0) {
+                        throw new IllegalArgumentException("%s.vm: %s outside of a function".formatted(c.name(),
+                                commands.get(i)));
+                    }
+                }
+            }
+            out.append("\n}\n");
+            return out.toString();
+        }
+
+        private String method(String function) {
+            return "f" + methods.get(function);
+        }
+
+        /**
+         * @param commands the function's commands, starting with its {@code function}
+         */
+        private void function(List<VmCommand> commands, Map<Integer, Integer> statics) {
+            var header = (VmCommand.Function) commands.getFirst();
+            var depths = depths(commands);
+            var blocks = new HashMap<String, Integer>();
+            for (var command : commands) {
+                if (command instanceof VmCommand.Label(String name)) {
+                    blocks.putIfAbsent(name, blocks.size() + 1);
+                }
+            }
+            var maxDepth = Arrays.stream(depths).max().orElse(0) + 1;
+            out.append("\n    // ").append(header.name()).append('\n');
+            out.append("    int ").append(method(header.name())).append("(int arg, int lcl, int th, int tt) {\n");
+            out.append("        final short[] ram = this.ram;\n");
+            // the function command itself counts, as it does for the interpreter
+            out.append("        executed++;\n");
+            if (header.locals() > 0) {
+                out.append("        java.util.Arrays.fill(ram, lcl, lcl + %d, (short) 0);\n".formatted(header.locals()));
+            }
+            out.append("        int ");
+            for (int i = 0; i < maxDepth; i++) {
+                out.append(i == 0 ? "" : ", ").append("s").append(i).append(" = 0");
+            }
+            out.append(";\n");
+            out.append("        int block = 0;\n");
+            out.append("        while (true) {\n");
+            out.append("            switch (block) {\n");
+            out.append("            case 0:\n");
+            var reachable = true;
+            var segmentStart = true;
+            for (int i = 1; i < commands.size(); i++) {
+                var command = commands.get(i);
+                if (command instanceof VmCommand.Label(String name)) {
+                    out.append("            case ").append(blocks.get(name)).append(":\n");
+                    reachable = depths[i] >= 0;
+                    segmentStart = true;
+                    continue;
+                }
+                if (!reachable || depths[i] < 0) {
+                    continue;
+                }
+                if (segmentStart) {
+                    segment(commands, i);
+                    segmentStart = false;
+                }
+                var d = depths[i];
+                var line = switch (command) {
+                    case VmCommand.Push(Segment segment, int index) -> "s%d = %s;".formatted(d,
+                            read(segment, index, statics));
+                    case VmCommand.Pop(Segment segment, int index) -> write(segment, index, statics, "s" + (d - 1));
+                    case VmCommand.Arithmetic(VmCommand.Operation operation) -> arithmetic(operation, d);
+                    case VmCommand.Goto(String label) -> {
+                        reachable = false;
+                        yield "block = %d; continue;".formatted(blocks.get(label));
+                    }
+                    case VmCommand.IfGoto(String label) -> {
+                        segmentStart = true;
+                        yield "if (s%d != 0) { block = %d; continue; }".formatted(d - 1, blocks.get(label));
+                    }
+                    case VmCommand.Call(String function, int arguments) -> call(function, arguments, d,
+                            header.locals());
+                    case VmCommand.Return() -> {
+                        reachable = false;
+                        yield "ram[arg] = (short) s%1$d; return s%1$d;".formatted(d - 1);
+                    }
+                    case VmCommand.Label label -> throw new IllegalStateException();
+                    case VmCommand.Function f -> throw new IllegalStateException();
+                };
+                out.append("                ").append(line).append('\n');
+            }
+            if (reachable) {
+                out.append("                throw new IllegalStateException(\"")
+                    .append(header.name())
+                    .append(" ran past its end\");\n");
+            }
+            out.append("            default:\n");
+            out.append("                throw new IllegalStateException();\n");
+            out.append("            }\n");
+            out.append("        }\n");
+            out.append("    }\n");
+        }
+
+        /**
+         * Counts the straight-line run of commands starting at {@code from}, and checks the
+         * budget before running them.
+         */
+        private void segment(List<VmCommand> commands, int from) {
+            var length = 0;
+            for (int i = from; i < commands.size(); i++) {
+                var command = commands.get(i);
+                if (command instanceof VmCommand.Label) {
+                    break;
+                }
+                length++;
+                if (command instanceof VmCommand.Goto || command instanceof VmCommand.IfGoto
+                        || command instanceof VmCommand.Return) {
+                    break;
+                }
+            }
+            out.append("                if ((executed += %d) > limit) outOfBudget();\n".formatted(length));
+        }
+
+        /**
+         * @return the stack depth before each command, or -1 for commands that never run
+         */
+        private static int[] depths(List<VmCommand> commands) {
+            var labels = new HashMap<String, Integer>();
+            for (int i = 0; i < commands.size(); i++) {
+                if (commands.get(i) instanceof VmCommand.Label(String name)) {
+                    labels.put(name, i);
+                }
+            }
+            var depths = new int[commands.size()];
+            Arrays.fill(depths, -1);
+            var work = new ArrayDeque<int[]>();
+            work.add(new int[] { 1, 0 });
+            while (!work.isEmpty()) {
+                var next = work.poll();
+                var i = next[0];
+                var depth = next[1];
+                while (i < commands.size()) {
+                    if (depths[i] >= 0) {
+                        if (depths[i] != depth) {
+                            throw new IllegalArgumentException("Stack depth differs between paths to " + commands.get(i));
+                        }
+                        break;
+                    }
+                    depths[i] = depth;
+                    var command = commands.get(i);
+                    switch (command) {
+                        case VmCommand.Push push -> depth++;
+                        case VmCommand.Pop pop -> depth--;
+                        case VmCommand.Arithmetic(VmCommand.Operation operation) -> {
+                            if (operation != VmCommand.Operation.NEG && operation != VmCommand.Operation.NOT) {
+                                depth--;
+                            }
+                        }
+                        case VmCommand.Call(String function, int arguments) -> depth += 1 - arguments;
+                        case VmCommand.IfGoto(String label) -> {
+                            depth--;
+                            work.add(new int[] { target(labels, label), depth });
+                        }
+                        default -> {
+                        }
+                    }
+                    if (depth < 0) {
+                        throw new IllegalArgumentException("Stack underflow at " + command);
+                    }
+                    if (command instanceof VmCommand.Goto(String label)) {
+                        work.add(new int[] { target(labels, label), depth });
+                        break;
+                    }
+                    if (command instanceof VmCommand.Return) {
+                        break;
+                    }
+                    i++;
+                }
+            }
+            return depths;
+        }
+
+        private static int target(Map<String, Integer> labels, String label) {
+            var target = labels.get(label);
+            if (target == null) {
+                throw new IllegalArgumentException("No label " + label);
+            }
+            return target;
+        }
+
+        private String read(Segment segment, int index, Map<Integer, Integer> statics) {
+            return switch (segment) {
+                case CONSTANT -> String.valueOf((short) index);
+                case LOCAL -> "ram[lcl + %d]".formatted(index);
+                case ARGUMENT -> "ram[arg + %d]".formatted(index);
+                case THIS -> "ram[th + %d]".formatted(index);
+                case THAT -> "ram[tt + %d]".formatted(index);
+                case STATIC -> "ram[%d]".formatted(staticAddress(statics, index));
+                case TEMP -> "ram[%d]".formatted(temp(index));
+                case POINTER -> pointer(index) == 0 ? "(short) th" : "(short) tt";
+            };
+        }
+
+        private String write(Segment segment, int index, Map<Integer, Integer> statics, String value) {
+            return switch (segment) {
+                case LOCAL -> "ram[lcl + %d] = (short) %s;".formatted(index, value);
+                case ARGUMENT -> "ram[arg + %d] = (short) %s;".formatted(index, value);
+                case THIS -> "ram[th + %d] = (short) %s;".formatted(index, value);
+                case THAT -> "ram[tt + %d] = (short) %s;".formatted(index, value);
+                case STATIC -> "ram[%d] = (short) %s;".formatted(staticAddress(statics, index), value);
+                case TEMP -> "ram[%d] = (short) %s;".formatted(temp(index), value);
+                case POINTER -> "%s = %s & 0xFFFF;".formatted(pointer(index) == 0 ? "th" : "tt", value);
+                case CONSTANT -> throw new IllegalStateException();
+            };
+        }
+
+        private static String arithmetic(VmCommand.Operation operation, int depth) {
+            var x = "s" + (depth - 2);
+            var y = "s" + (depth - 1);
+            return switch (operation) {
+                case ADD -> "%s = (short) (%1$s + %s);".formatted(x, y);
+                case SUB -> "%s = (short) (%1$s - %s);".formatted(x, y);
+                case AND -> "%s = %1$s & %s;".formatted(x, y);
+                case OR -> "%s = %1$s | %s;".formatted(x, y);
+                case EQ -> "%s = %1$s == %s ? -1 : 0;".formatted(x, y);
+                case GT -> "%s = %1$s > %s ? -1 : 0;".formatted(x, y);
+                case LT -> "%s = %1$s < %s ? -1 : 0;".formatted(x, y);
+                case NEG -> "%s = (short) -%1$s;".formatted(y);
+                case NOT -> "%s = ~%1$s;".formatted(y);
+            };
+        }
+
+        /**
+         * Writes the arguments and the frame where the interpreter would, and calls the
+         * method with the callee's ARG and LCL.
+         */
+        private String call(String function, int arguments, int depth, int locals) {
+            var first = depth - arguments;
+            var call = new StringBuilder("{ int base = lcl + %d; ".formatted(locals + first));
+            for (int i = 0; i < arguments; i++) {
+                call.append("ram[base + %d] = (short) s%d; ".formatted(i, first + i));
+            }
+            var id = os == null ? -1 : os.id(function, arguments);
+            if (id < 0) {
+                call.append(frame(function, "base + " + arguments, "s" + first));
+            }
+            else if (methods.containsKey("Sys.error")) {
+                call.append("try { s%d = os.call(%d, ram, base); } ".formatted(first, id));
+                call.append("catch (NativeOs.Failure failure) { ram[base] = (short) failure.code; ");
+                call.append(frame("Sys.error", "base + 1", "s" + first)).append("} ");
+            }
+            else {
+                call.append("try { s%d = os.call(%d, ram, base); } ".formatted(first, id));
+                call.append("catch (NativeOs.Failure failure) { osError(); } ");
+            }
+            return call.append("}").toString();
+        }
+
+        /**
+         * Writes the frame above the arguments at {@code base} and calls the function,
+         * leaving its value in {@code result}. The stack is only checked for room if the
+         * program could run out of it.
+         */
+        private String frame(String function, String sp, String result) {
+            var check = overflowChecked ? "if (sp + 5 > %d) stackOverflow(); ".formatted(Interpreter.HEAP) : "";
+            return "int sp = %s; ".formatted(sp) + check
+                    + "ram[sp] = (short) depth++; ram[sp + 1] = (short) lcl; ram[sp + 2] = (short) arg; "
+                    + "ram[sp + 3] = (short) th; ram[sp + 4] = (short) tt; "
+                    + "%s = %s(base, sp + 5, th, tt); depth--; ".formatted(result, method(function));
+        }
+
+        private int staticAddress(Map<Integer, Integer> statics, int index) {
+            return statics.computeIfAbsent(index, i -> nextStatic++);
+        }
+
+        private static int temp(int index) {
+            if (index > 7) {
+                throw new IllegalArgumentException("No temp " + index);
+            }
+            return 5 + index;
+        }
+
+        private static int pointer(int index) {
+            if (index > 1) {
+                throw new IllegalArgumentException("No pointer " + index);
+            }
+            return index;
+        }
+
+    }
+
+}
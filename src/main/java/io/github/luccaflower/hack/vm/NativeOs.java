@@ -0,0 +1,300 @@
+package io.github.luccaflower.hack.vm;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java implementations of the Jack OS's Math, Memory, Array, String and Output classes,
+ * which the {@link Interpreter} and the {@link Jit} call instead of running the VM code
+ * of the functions they stand in for. Each works on the program's RAM, taking its
+ * arguments from where a call would leave them, and a call to one counts as a single
+ * command.
+ * <p>
+ * Math and the string conversions compute what the reference OS computes. Whatever has
+ * state has it in RAM, in a layout of its own: the heap runs from {@link #HEAP} to the
+ * screen, its first word holding the head of a first-fit free list, and a string is
+ * three words pointing at its characters and holding its length and capacity. Output
+ * writes to a text {@link #output() console} rather than the screen. A class is therefore
+ * bound whole, and a program's own code for it never runs. Errors are reported by
+ * calling {@code Sys.error} with the reference OS's codes.
+ */
+public final class NativeOs {
+
+    public static final int HEAP = Interpreter.HEAP;
+
+    private static final int SCREEN = 16384;
+
+    private static final Function[] FUNCTIONS = Function.values();
+
+    private static final int NEW_LINE = 128, BACKSPACE = 129, DOUBLE_QUOTE = 34;
+
+    private static final int CHARS = 0, LENGTH = 1, CAPACITY = 2;
+
+    private final StringBuilder console = new StringBuilder();
+
+    /**
+     * @return the number {@link #call} knows the function by, or -1 if it isn't bound
+     */
+    int id(String function, int arguments) {
+        for (var f : FUNCTIONS) {
+            if (f.function.equals(function) && f.arguments == arguments) {
+                return f.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the names of the bound functions, in the order of their numbers
+     */
+    List<String> functions() {
+        return Arrays.stream(FUNCTIONS).map(f -> f.function).toList();
+    }
+
+    /**
+     * @return everything Output printed so far
+     */
+    public String output() {
+        return console.toString();
+    }
+
+    /**
+     * @param args the address of the first argument
+     * @return the function's value, 0 for void functions as the OS returns
+     * @throws Failure with the code to call {@code Sys.error} with
+     */
+    int call(int id, short[] ram, int args) {
+        var x = ram[args];
+        return switch (FUNCTIONS[id]) {
+            case MATH_INIT, OUTPUT_INIT, OUTPUT_MOVE_CURSOR -> 0;
+            case MEMORY_INIT -> {
+                initHeap(ram);
+                yield 0;
+            }
+            case MATH_ABS -> (short) Math.abs(x);
+            case MATH_MULTIPLY -> (short) (x * ram[args + 1]);
+            case MATH_DIVIDE -> {
+                if (ram[args + 1] == 0) {
+                    throw new Failure(3);
+                }
+                yield (short) (x / ram[args + 1]);
+            }
+            case MATH_MIN -> Math.min(x, ram[args + 1]);
+            case MATH_MAX -> Math.max(x, ram[args + 1]);
+            case MATH_SQRT -> {
+                if (x < 0) {
+                    throw new Failure(4);
+                }
+                yield (int) Math.sqrt(x);
+            }
+            case MEMORY_PEEK -> ram[x & 0xFFFF];
+            case MEMORY_POKE -> {
+                ram[x & 0xFFFF] = ram[args + 1];
+                yield 0;
+            }
+            case MEMORY_ALLOC -> alloc(ram, x, 5);
+            case MEMORY_DE_ALLOC, ARRAY_DISPOSE -> {
+                deAlloc(ram, x);
+                yield 0;
+            }
+            case ARRAY_NEW -> alloc(ram, x, 2);
+            case STRING_NEW -> {
+                if (x < 0) {
+                    throw new Failure(14);
+                }
+                var string = alloc(ram, 3, 5);
+                ram[string + CHARS] = (short) (x > 0 ? alloc(ram, x, 5) : 0);
+                ram[string + LENGTH] = 0;
+                ram[string + CAPACITY] = x;
+                yield string;
+            }
+            case STRING_DISPOSE -> {
+                if (ram[x + CHARS] != 0) {
+                    deAlloc(ram, ram[x + CHARS]);
+                }
+                deAlloc(ram, x);
+                yield 0;
+            }
+            case STRING_LENGTH -> ram[x + LENGTH];
+            case STRING_CHAR_AT -> ram[ram[x + CHARS] + index(ram, x, ram[args + 1], 15)];
+            case STRING_SET_CHAR_AT -> {
+                ram[ram[x + CHARS] + index(ram, x, ram[args + 1], 16)] = ram[args + 2];
+                yield 0;
+            }
+            case STRING_APPEND_CHAR -> {
+                if (ram[x + LENGTH] == ram[x + CAPACITY]) {
+                    throw new Failure(17);
+                }
+                ram[ram[x + CHARS] + ram[x + LENGTH]++] = ram[args + 1];
+                yield x;
+            }
+            case STRING_ERASE_LAST_CHAR -> {
+                if (ram[x + LENGTH] == 0) {
+                    throw new Failure(18);
+                }
+                ram[x + LENGTH]--;
+                yield 0;
+            }
+            case STRING_INT_VALUE -> intValue(ram, x);
+            case STRING_SET_INT -> {
+                var digits = String.valueOf(ram[args + 1]);
+                if (digits.length() > ram[x + CAPACITY]) {
+                    throw new Failure(19);
+                }
+                for (int i = 0; i < digits.length(); i++) {
+                    ram[ram[x + CHARS] + i] = (short) digits.charAt(i);
+                }
+                ram[x + LENGTH] = (short) digits.length();
+                yield 0;
+            }
+            case STRING_BACK_SPACE -> BACKSPACE;
+            case STRING_DOUBLE_QUOTE -> DOUBLE_QUOTE;
+            case STRING_NEW_LINE -> NEW_LINE;
+            case OUTPUT_PRINT_CHAR -> {
+                print(x);
+                yield 0;
+            }
+            case OUTPUT_PRINT_STRING -> {
+                for (int i = 0; i < ram[x + LENGTH]; i++) {
+                    print(ram[ram[x + CHARS] + i]);
+                }
+                yield 0;
+            }
+            case OUTPUT_PRINT_INT -> {
+                console.append(x);
+                yield 0;
+            }
+            case OUTPUT_PRINTLN -> {
+                print(NEW_LINE);
+                yield 0;
+            }
+            case OUTPUT_BACK_SPACE -> {
+                print(BACKSPACE);
+                yield 0;
+            }
+        };
+    }
+
+    private void print(int c) {
+        switch (c) {
+            case NEW_LINE -> console.append('\n');
+            case BACKSPACE -> console.setLength(Math.max(console.length() - 1, 0));
+            default -> console.append((char) c);
+        }
+    }
+
+    /**
+     * Takes the first free block big enough, splitting off what's left if that holds
+     * another block. A block is its size followed by its words, and while it's free the
+     * first of those links to the next free block, or back to the head at
+     * {@link #HEAP} for the last.
+     */
+    private static int alloc(short[] ram, int size, int error) {
+        if (size <= 0) {
+            throw new Failure(error);
+        }
+        if (ram[HEAP] == 0) {
+            // Memory.init hasn't run
+            initHeap(ram);
+        }
+        var previous = HEAP - 1;
+        for (int block = ram[HEAP]; block != HEAP; previous = block, block = ram[block + 1]) {
+            var available = ram[block];
+            if (available < size) {
+                continue;
+            }
+            var next = ram[block + 1];
+            if (available >= size + 2) {
+                var rest = block + 1 + size;
+                ram[rest] = (short) (available - size - 1);
+                ram[rest + 1] = next;
+                next = (short) rest;
+                ram[block] = (short) size;
+            }
+            ram[previous + 1] = next;
+            return block + 1;
+        }
+        throw new Failure(6);
+    }
+
+    /**
+     * Makes the whole heap one free block.
+     */
+    private static void initHeap(short[] ram) {
+        ram[HEAP] = HEAP + 1;
+        ram[HEAP + 1] = SCREEN - HEAP - 2;
+        ram[HEAP + 2] = HEAP;
+    }
+
+    private static void deAlloc(short[] ram, int address) {
+        ram[address] = ram[HEAP];
+        ram[HEAP] = (short) (address - 1);
+    }
+
+    private static int index(short[] ram, int string, int i, int error) {
+        if (i < 0 || i >= ram[string + LENGTH]) {
+            throw new Failure(error);
+        }
+        return i;
+    }
+
+    /**
+     * Reads an optional minus sign and the digits after it, stopping at anything else.
+     */
+    private static int intValue(short[] ram, int string) {
+        var chars = ram[string + CHARS];
+        var length = ram[string + LENGTH];
+        var negative = length > 0 && ram[chars] == '-';
+        var value = 0;
+        for (int i = negative ? 1 : 0; i < length && ram[chars + i] >= '0' && ram[chars + i] <= '9'; i++) {
+            value = (short) (value * 10 + ram[chars + i] - '0');
+        }
+        return (short) (negative ? -value : value);
+    }
+
+    private enum Function {
+
+        MATH_INIT("Math.init", 0), MATH_ABS("Math.abs", 1), MATH_MULTIPLY("Math.multiply", 2),
+        MATH_DIVIDE("Math.divide", 2), MATH_MIN("Math.min", 2), MATH_MAX("Math.max", 2), MATH_SQRT("Math.sqrt", 1),
+        MEMORY_INIT("Memory.init", 0), MEMORY_PEEK("Memory.peek", 1), MEMORY_POKE("Memory.poke", 2),
+        MEMORY_ALLOC("Memory.alloc", 1), MEMORY_DE_ALLOC("Memory.deAlloc", 1), ARRAY_NEW("Array.new", 1),
+        ARRAY_DISPOSE("Array.dispose", 1), STRING_NEW("String.new", 1), STRING_DISPOSE("String.dispose", 1),
+        STRING_LENGTH("String.length", 1), STRING_CHAR_AT("String.charAt", 2),
+        STRING_SET_CHAR_AT("String.setCharAt", 3), STRING_APPEND_CHAR("String.appendChar", 2),
+        STRING_ERASE_LAST_CHAR("String.eraseLastChar", 1), STRING_INT_VALUE("String.intValue", 1),
+        STRING_SET_INT("String.setInt", 2), STRING_BACK_SPACE("String.backSpace", 0),
+        STRING_DOUBLE_QUOTE("String.doubleQuote", 0), STRING_NEW_LINE("String.newLine", 0),
+        OUTPUT_INIT("Output.init", 0), OUTPUT_MOVE_CURSOR("Output.moveCursor", 2),
+        OUTPUT_PRINT_CHAR("Output.printChar", 1), OUTPUT_PRINT_STRING("Output.printString", 1),
+        OUTPUT_PRINT_INT("Output.printInt", 1), OUTPUT_PRINTLN("Output.println", 0),
+        OUTPUT_BACK_SPACE("Output.backSpace", 0);
+
+        private final String function;
+
+        private final int arguments;
+
+        Function(String function, int arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+    }
+
+    /**
+     * An OS error, which the engine reports by calling {@code Sys.error} in place of the
+     * function that failed.
+     */
+    static final class Failure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        Failure(int code) {
+            super("OS error " + code, null, false, false);
+            this.code = code;
+        }
+
+    }
+
+}
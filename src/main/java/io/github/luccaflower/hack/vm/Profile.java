@@ -0,0 +1,340 @@
+package io.github.luccaflower.hack.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where a {@link Interpreter#profile() profiled} run spent its VM commands. The
+ * interpreter keeps a tree of the call stacks it has seen, adding up the commands run
+ * with each stack on top, and counts how often each instruction ran; everything else is
+ * worked out from those when asked for.
+ * <p>
+ * A function's exclusive count is the commands run in its own body, and its inclusive
+ * count adds those of everything it called, counting a recursive function once however
+ * deep it goes. Calls to a {@link NativeOs} show up as functions of one command each.
+ * <p>
+ * Given where each command came from, the counts of the commands add up to the cost of
+ * each line of the Jack source.
+ */
+public final class Profile {
+
+    private static final int ROOT = 0;
+
+    private final Bytecode bytecode;
+
+    private final String[] names;
+
+    // the function starting at each index of the code, or -1
+    private final int[] functionAt;
+
+    private final long[] hits;
+
+    private final Map<Long, Integer> children = new HashMap<>();
+
+    private int[] parents = new int[64];
+
+    private int[] functions = new int[64];
+
+    private long[] self = new long[64];
+
+    private long[] calls = new long[64];
+
+    private int nodes = 1;
+
+    private int current = ROOT;
+
+    private long counted = 0;
+
+    Profile(Bytecode bytecode, NativeOs os) {
+        this.bytecode = bytecode;
+        var defined = bytecode.functions();
+        var natives = os == null ? List.<String>of() : os.functions();
+        names = new String[defined.length + natives.size()];
+        System.arraycopy(defined, 0, names, 0, defined.length);
+        for (int i = 0; i < natives.size(); i++) {
+            names[defined.length + i] = natives.get(i);
+        }
+        functionAt = new int[bytecode.code().length];
+        Arrays.fill(functionAt, -1);
+        var starts = bytecode.starts();
+        for (int i = 0; i < starts.length; i++) {
+            functionAt[starts[i]] = i;
+        }
+        hits = new long[bytecode.code().length];
+        functions[ROOT] = -1;
+    }
+
+    long[] hits() {
+        return hits;
+    }
+
+    /**
+     * Enters the function starting at {@code start}, having run {@code executed}
+     * commands.
+     */
+    void call(int start, long executed) {
+        enter(functionAt[start], executed);
+    }
+
+    void callNative(int id, long executed) {
+        enter(bytecode.functions().length + id, executed);
+    }
+
+    void exit(long executed) {
+        count(executed);
+        current = parents[current];
+    }
+
+    /**
+     * Counts the commands run since the last call or return, for the function on top.
+     */
+    void count(long executed) {
+        self[current] += executed - counted;
+        counted = executed;
+    }
+
+    private void enter(int function, long executed) {
+        count(executed);
+        var key = (long) current << 32 | function;
+        var child = children.get(key);
+        if (child == null) {
+            child = add(current, function);
+            children.put(key, child);
+        }
+        current = child;
+        calls[current]++;
+    }
+
+    private int add(int parent, int function) {
+        if (nodes == parents.length) {
+            parents = Arrays.copyOf(parents, nodes * 2);
+            functions = Arrays.copyOf(functions, nodes * 2);
+            self = Arrays.copyOf(self, nodes * 2);
+            calls = Arrays.copyOf(calls, nodes * 2);
+        }
+        parents[nodes] = parent;
+        functions[nodes] = function;
+        return nodes++;
+    }
+
+    /**
+     * @return every function that ran, the most expensive in its own body first
+     */
+    public List<FunctionCost> functions() {
+        var exclusive = new long[names.length];
+        var inclusive = new long[names.length];
+        var called = new long[names.length];
+        var total = new long[nodes];
+        for (int node = nodes - 1; node > ROOT; node--) {
+            total[node] += self[node];
+            total[parents[node]] += total[node];
+            exclusive[functions[node]] += self[node];
+            called[functions[node]] += calls[node];
+        }
+        // a node counts towards its function's inclusive cost unless a caller further up
+        // ran the same function, so each node is visited knowing what's on its stack
+        var firstChild = new int[nodes];
+        var nextSibling = new int[nodes];
+        Arrays.fill(firstChild, -1);
+        for (int node = nodes - 1; node > ROOT; node--) {
+            nextSibling[node] = firstChild[parents[node]];
+            firstChild[parents[node]] = node;
+        }
+        var onStack = new int[names.length];
+        var work = new int[2 * nodes];
+        var size = 0;
+        for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+            work[size++] = child;
+        }
+        while (size > 0) {
+            var node = work[--size];
+            if (node < 0) {
+                onStack[functions[~node]]--;
+                continue;
+            }
+            if (onStack[functions[node]]++ == 0) {
+                inclusive[functions[node]] += total[node];
+            }
+            work[size++] = ~node;
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                work[size++] = child;
+            }
+        }
+        var costs = new ArrayList<FunctionCost>();
+        for (int f = 0; f < names.length; f++) {
+            if (called[f] > 0) {
+                costs.add(new FunctionCost(names[f], called[f], exclusive[f], inclusive[f]));
+            }
+        }
+        costs.sort(Comparator.comparingLong(FunctionCost::exclusive).reversed());
+        return costs;
+    }
+
+    /**
+     * @return how often each function called each other, the most frequent first
+     */
+    public List<Edge> edges() {
+        var edges = new HashMap<Long, Long>();
+        for (int node = ROOT + 1; node < nodes; node++) {
+            if (parents[node] != ROOT) {
+                edges.merge((long) functions[parents[node]] << 32 | functions[node], calls[node], Long::sum);
+            }
+        }
+        return edges.entrySet()
+            .stream()
+            .map(e -> new Edge(names[(int) (e.getKey() >>> 32)], names[e.getKey().intValue()], e.getValue()))
+            .sorted(Comparator.comparingLong(Edge::calls)
+                .reversed()
+                .thenComparing(Edge::caller)
+                .thenComparing(Edge::callee))
+            .toList();
+    }
+
+    /**
+     * @return how often each VM command ran, by class and position among the class's
+     * commands, the most frequent first
+     */
+    public List<CommandCost> commands() {
+        var costs = new ArrayList<CommandCost>();
+        var code = bytecode.code();
+        for (int pc = 0; pc < hits.length; pc++) {
+            if (hits[pc] == 0) {
+                continue;
+            }
+            // a superinstruction runs each of the commands it stands for
+            var position = bytecode.position(pc);
+            for (int i = 0; i < Bytecode.width(code[pc]); i++) {
+                costs.add(new CommandCost(bytecode.classAt(position + i), bytecode.commandAt(position + i),
+                        hits[pc]));
+            }
+        }
+        costs.sort(Comparator.comparingLong(CommandCost::executed).reversed());
+        return costs;
+    }
+
+    /**
+     * @return how many VM commands ran for each line of the Jack source, by class, the
+     * most first, leaving out commands whose line isn't known
+     */
+    public List<LineCost> lines(Lines lines) {
+        var executed = new HashMap<String, Map<Integer, Long>>();
+        for (var command : commands()) {
+            var line = lines.line(command.className(), command.command());
+            if (line > 0) {
+                executed.computeIfAbsent(command.className(), c -> new HashMap<>())
+                    .merge(line, command.executed(), Long::sum);
+            }
+        }
+        var costs = new ArrayList<LineCost>();
+        executed.forEach((className, byLine) -> byLine
+            .forEach((line, count) -> costs.add(new LineCost(className, line, count))));
+        costs.sort(Comparator.comparingLong(LineCost::executed)
+            .reversed()
+            .thenComparing(LineCost::className)
+            .thenComparingInt(LineCost::line));
+        return costs;
+    }
+
+    /**
+     * @return the {@code top} Jack lines that ran the most VM commands, as text
+     */
+    public String lineReport(int top, Lines lines) {
+        var costs = lines(lines);
+        var total = costs.stream().mapToLong(LineCost::executed).sum();
+        var out = new StringBuilder();
+        out.append("%-40s %14s %7s%n".formatted("Jack line", "Executed", "%"));
+        for (var c : costs.subList(0, Math.min(top, costs.size()))) {
+            out.append("%-40s %14d %6.1f%%%n".formatted(c.className() + ".jack:" + c.line(), c.executed(),
+                    100.0 * c.executed() / Math.max(total, 1)));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return a line per call stack that ran commands of its own, its functions from the
+     * entry point up separated by {@code ;} and followed by the count, the format flame
+     * graph tools read
+     */
+    public String collapsedStacks() {
+        var out = new StringBuilder();
+        var stack = new ArrayList<String>();
+        for (int node = ROOT + 1; node < nodes; node++) {
+            if (self[node] == 0) {
+                continue;
+            }
+            stack.clear();
+            for (int up = node; up != ROOT; up = parents[up]) {
+                stack.add(names[functions[up]]);
+            }
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                out.append(stack.get(i)).append(i > 0 ? ";" : " ");
+            }
+            out.append(self[node]).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return the {@code top} most expensive functions, call edges and VM commands, as
+     * text
+     */
+    public String report(int top) {
+        var functions = functions();
+        var total = functions.stream().mapToLong(FunctionCost::exclusive).sum();
+        var out = new StringBuilder();
+        out.append("%-40s %12s %14s %7s %14s%n".formatted("Function", "Calls", "Exclusive", "%", "Inclusive"));
+        for (var f : functions.subList(0, Math.min(top, functions.size()))) {
+            out.append("%-40s %12d %14d %6.1f%% %14d%n".formatted(f.name(), f.calls(), f.exclusive(),
+                    100.0 * f.exclusive() / Math.max(total, 1), f.inclusive()));
+        }
+        out.append("%n%-60s %12s%n".formatted("Call", "Count"));
+        var edges = edges();
+        for (var e : edges.subList(0, Math.min(top, edges.size()))) {
+            out.append("%-60s %12d%n".formatted(e.caller() + " -> " + e.callee(), e.calls()));
+        }
+        out.append("%n%-40s %14s%n".formatted("VM command", "Executed"));
+        var commands = commands();
+        for (var c : commands.subList(0, Math.min(top, commands.size()))) {
+            out.append("%-40s %14d%n".formatted(c.className() + ".vm #" + c.command(), c.executed()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param exclusive the commands run in the function's own body
+     * @param inclusive the commands run in it and everything it called
+     */
+    public record FunctionCost(String name, long calls, long exclusive, long inclusive) {
+    }
+
+    public record Edge(String caller, String callee, long calls) {
+    }
+
+    /**
+     * @param command the command's index among its class's commands
+     */
+    public record CommandCost(String className, int command, long executed) {
+    }
+
+    public record LineCost(String className, int line, long executed) {
+    }
+
+    /**
+     * Where in the Jack source each VM command came from, as a source map tells.
+     */
+    @FunctionalInterface
+    public interface Lines {
+
+        /**
+         * @param command the command's index among its class's commands
+         * @return the line of the source the command came from, or 0 if unknown
+         */
+        int line(String className, int command);
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package io.github.luccaflower.hack.vm;
+
+public enum Segment {
+
+    ARGUMENT("argument"), LOCAL("local"), STATIC("static"), CONSTANT("constant"), THIS("this"), THAT("that"),
+    POINTER("pointer"), TEMP("temp");
+
+    private final String keyword;
+
+    Segment(String keyword) {
+        this.keyword = keyword;
+    }
+
+    public String keyword() {
+        return keyword;
+    }
+
+    public static Segment from(String keyword) {
+        for (var segment : values()) {
+            if (segment.keyword.equals(keyword)) {
+                return segment;
+            }
+        }
+        throw new IllegalArgumentException("Unknown segment " + keyword);
+    }
+
+}
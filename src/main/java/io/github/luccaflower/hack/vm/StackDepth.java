@@ -0,0 +1,319 @@
+package io.github.luccaflower.hack.vm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * How much of the stack a program's functions take, worked out from their VM code
+ * without running it.
+ * <p>
+ * A function's operand depth is the most words its own code has on the stack above its
+ * locals, following every path through it. Its total adds its locals, and, at each call,
+ * the five words the call saves and the total of the function called, so the total of
+ * an entry point is all the stack a run from there can take. A function that can end up
+ * calling itself has no bound, and neither has one whose stack can grow around a loop,
+ * or anything that calls either. Calls to functions without code, such as a native OS,
+ * count as the frame of the call alone.
+ */
+public final class StackDepth {
+
+    /**
+     * The words a call saves above the arguments.
+     */
+    public static final int FRAME = 5;
+
+    private static final int UNBOUNDED = -1;
+
+    private final Map<String, Function> functions = new LinkedHashMap<>();
+
+    private final Map<String, Integer> totals = new HashMap<>();
+
+    private final Set<String> recursive = new TreeSet<>();
+
+    private final Set<String> unresolved = new TreeSet<>();
+
+    private StackDepth(List<VmClass> classes) {
+        for (var vmClass : classes) {
+            var commands = vmClass.commands();
+            for (int i = 0; i < commands.size(); i++) {
+                if (commands.get(i) instanceof VmCommand.Function(String name, int locals)) {
+                    var end = i + 1;
+                    while (end < commands.size() && !(commands.get(end) instanceof VmCommand.Function)) {
+                        end++;
+                    }
+                    functions.put(name, analyse(name, locals, commands.subList(i + 1, end)));
+                    i = end - 1;
+                }
+            }
+        }
+        functions.values()
+            .forEach(f -> f.calls().stream()
+                .map(Call::function)
+                .filter(callee -> !functions.containsKey(callee))
+                .forEach(unresolved::add));
+        findRecursion();
+        functions.keySet().forEach(this::total);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a function pops more than it pushed
+     */
+    public static StackDepth of(List<VmClass> classes) {
+        return new StackDepth(classes);
+    }
+
+    /**
+     * @return every function with code, in the order of the code
+     */
+    public List<FunctionStack> functions() {
+        return functions.values()
+            .stream()
+            .map(f -> new FunctionStack(f.name(), f.locals(), optional(f.operands()),
+                    optional(totals.get(f.name())), recursive.contains(f.name())))
+            .toList();
+    }
+
+    /**
+     * @return the stack a run from the entry point takes at most, including the frame of
+     * the call into it, or empty if it has no bound
+     * @throws IllegalArgumentException if there is no such function
+     */
+    public OptionalInt worstCase(String entry) {
+        if (!functions.containsKey(entry)) {
+            throw new IllegalArgumentException("No function " + entry);
+        }
+        var total = totals.get(entry);
+        return total == UNBOUNDED ? OptionalInt.empty() : OptionalInt.of(FRAME + total);
+    }
+
+    /**
+     * @return the functions called but without code, which only count as the call
+     */
+    public Set<String> unresolved() {
+        return unresolved;
+    }
+
+    /**
+     * @return the worst case from the entry point and the functions taking the most
+     * stack, as text
+     */
+    public String report(String entry, int top) {
+        var out = new StringBuilder();
+        var worstCase = worstCase(entry);
+        out.append(worstCase.isPresent()
+                ? "%s needs at most %d words of stack%n".formatted(entry, worstCase.getAsInt())
+                : "%s has no bound on its stack%n".formatted(entry));
+        if (!recursive.isEmpty()) {
+            out.append("Recursive: %s%n".formatted(String.join(", ", recursive)));
+        }
+        if (!unresolved.isEmpty()) {
+            out.append("Without code: %s%n".formatted(String.join(", ", unresolved)));
+        }
+        out.append("%n%-40s %8s %9s %10s%n".formatted("Function", "Locals", "Operands", "Total"));
+        functions().stream()
+            .sorted(Comparator.comparingInt((FunctionStack f) -> f.total().orElse(Integer.MAX_VALUE)).reversed())
+            .limit(top)
+            .forEach(f -> out.append("%-40s %8d %9s %10s%n".formatted(f.name(), f.locals(), text(f.operands()),
+                    text(f.total()))));
+        return out.toString();
+    }
+
+    private static String text(OptionalInt words) {
+        return words.isPresent() ? String.valueOf(words.getAsInt()) : "unbounded";
+    }
+
+    private static OptionalInt optional(int words) {
+        return words == UNBOUNDED ? OptionalInt.empty() : OptionalInt.of(words);
+    }
+
+    /**
+     * Follows every path through the function's code, from its first command on.
+     */
+    private static Function analyse(String name, int locals, List<VmCommand> code) {
+        var labels = new HashMap<String, Integer>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i) instanceof VmCommand.Label(String label)) {
+                labels.put(label, i);
+            }
+        }
+        var depths = new int[code.size() + 1];
+        Arrays.fill(depths, -1);
+        var calls = new ArrayList<Call>();
+        var work = new ArrayDeque<Integer>();
+        var max = 0;
+        depths[0] = 0;
+        work.push(0);
+        while (!work.isEmpty()) {
+            var at = work.pop();
+            if (at == code.size()) {
+                // running off the end goes on into whatever follows, which isn't this function's
+                continue;
+            }
+            var depth = depths[at];
+            var command = code.get(at);
+            var after = depth + switch (command) {
+                case VmCommand.Push push -> 1;
+                case VmCommand.Pop pop -> -1;
+                case VmCommand.Arithmetic(VmCommand.Operation operation) -> switch (operation) {
+                    case NEG, NOT -> 0;
+                    default -> -1;
+                };
+                case VmCommand.IfGoto ifGoto -> -1;
+                case VmCommand.Call(String function, int arguments) -> {
+                    calls.add(new Call(function, depth));
+                    yield 1 - arguments;
+                }
+                case VmCommand.Return r -> -1;
+                default -> 0;
+            };
+            if (depth < needed(command)) {
+                throw new IllegalArgumentException("%s pops more than it pushed at %s".formatted(name, command));
+            }
+            max = Math.max(max, after);
+            var next = switch (command) {
+                case VmCommand.Goto(String label) -> List.of(target(name, labels, label));
+                case VmCommand.IfGoto(String label) -> List.of(at + 1, target(name, labels, label));
+                case VmCommand.Return r -> List.<Integer>of();
+                default -> List.of(at + 1);
+            };
+            for (var n : next) {
+                if (depths[n] < 0) {
+                    depths[n] = after;
+                    work.push(n);
+                }
+                else if (depths[n] != after) {
+                    // the stack is deeper every time around, or depends on the way taken
+                    return new Function(name, locals, UNBOUNDED, calls);
+                }
+            }
+        }
+        return new Function(name, locals, max, calls);
+    }
+
+    private static int needed(VmCommand command) {
+        return switch (command) {
+            case VmCommand.Call(String function, int arguments) -> arguments;
+            case VmCommand.Arithmetic(VmCommand.Operation operation) -> switch (operation) {
+                case NEG, NOT -> 1;
+                default -> 2;
+            };
+            case VmCommand.Pop pop -> 1;
+            case VmCommand.IfGoto ifGoto -> 1;
+            case VmCommand.Return r -> 1;
+            default -> 0;
+        };
+    }
+
+    private static int target(String function, Map<String, Integer> labels, String label) {
+        var target = labels.get(label);
+        if (target == null) {
+            throw new IllegalArgumentException("%s has no label %s".formatted(function, label));
+        }
+        return target;
+    }
+
+    /**
+     * Marks the functions in a cycle of calls, as the strongly connected components of
+     * the call graph with more than one function or a call to itself.
+     */
+    private void findRecursion() {
+        var index = new HashMap<String, Integer>();
+        var lowLink = new HashMap<String, Integer>();
+        var stack = new ArrayDeque<String>();
+        var onStack = new HashMap<String, Boolean>();
+        for (var name : functions.keySet()) {
+            if (!index.containsKey(name)) {
+                connect(name, index, lowLink, stack, onStack);
+            }
+        }
+    }
+
+    private void connect(String name, Map<String, Integer> index, Map<String, Integer> lowLink,
+            ArrayDeque<String> stack, Map<String, Boolean> onStack) {
+        index.put(name, index.size());
+        lowLink.put(name, index.get(name));
+        stack.push(name);
+        onStack.put(name, true);
+        for (var call : functions.get(name).calls()) {
+            var callee = call.function();
+            if (!functions.containsKey(callee)) {
+                continue;
+            }
+            if (callee.equals(name)) {
+                recursive.add(name);
+            }
+            if (!index.containsKey(callee)) {
+                connect(callee, index, lowLink, stack, onStack);
+                lowLink.put(name, Math.min(lowLink.get(name), lowLink.get(callee)));
+            }
+            else if (onStack.getOrDefault(callee, false)) {
+                lowLink.put(name, Math.min(lowLink.get(name), index.get(callee)));
+            }
+        }
+        if (lowLink.get(name).equals(index.get(name))) {
+            var component = new ArrayList<String>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.put(member, false);
+                component.add(member);
+            } while (!member.equals(name));
+            if (component.size() > 1) {
+                recursive.addAll(component);
+            }
+        }
+    }
+
+    private int total(String name) {
+        var known = totals.get(name);
+        if (known != null) {
+            return known;
+        }
+        var function = functions.get(name);
+        var total = UNBOUNDED;
+        if (function.operands() != UNBOUNDED && !recursive.contains(name)) {
+            // no cycles are left, so this ends
+            var deepest = function.operands();
+            for (var call : function.calls()) {
+                var callee = functions.containsKey(call.function()) ? total(call.function()) : 0;
+                if (callee == UNBOUNDED) {
+                    deepest = UNBOUNDED;
+                    break;
+                }
+                deepest = Math.max(deepest, call.depth() + FRAME + callee);
+            }
+            total = deepest == UNBOUNDED ? UNBOUNDED : function.locals() + deepest;
+        }
+        totals.put(name, total);
+        return total;
+    }
+
+    private record Function(String name, int locals, int operands, List<Call> calls) {
+    }
+
+    /**
+     * @param depth the operand depth just before the call, arguments included
+     */
+    private record Call(String function, int depth) {
+    }
+
+    /**
+     * @param operands the most words the function's own code has on the stack above its
+     * locals
+     * @param total the most words it and everything it calls take above its arguments
+     * @param recursive whether it can end up calling itself
+     */
+    public record FunctionStack(String name, int locals, OptionalInt operands, OptionalInt total,
+            boolean recursive) {
+    }
+
+}
@@ -0,0 +1,199 @@
+package io.github.luccaflower.hack.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of a {@link VmClass}, which loads without reading any text.
+ * <p>
+ * A file starts with {@code HVM} and a version byte, followed by a table of the names
+ * it uses, each once and the class's own first, and the commands. A command
+ * is an opcode byte followed by its operands as varints: the segment of a push or pop
+ * is part of the opcode, and labels and functions are indices into the table.
+ */
+public final class VmBinary {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = "HVM".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Segment[] SEGMENTS = Segment.values();
+
+    private static final VmCommand.Operation[] OPERATIONS = VmCommand.Operation.values();
+
+    private static final int PUSH = 0x00, POP = 0x08, ARITHMETIC = 0x10, LABEL = 0x20, GOTO = 0x21, IF_GOTO = 0x22,
+            FUNCTION = 0x23, CALL = 0x24, RETURN = 0x25;
+
+    private VmBinary() {
+    }
+
+    public static byte[] write(VmClass vmClass) {
+        var names = new LinkedHashMap<String, Integer>();
+        names.put(vmClass.name(), 0);
+        var commands = new ByteArrayOutputStream();
+        for (var command : vmClass.commands()) {
+            switch (command) {
+                case VmCommand.Push(Segment segment, int index) -> {
+                    commands.write(PUSH + segment.ordinal());
+                    writeVarint(commands, index);
+                }
+                case VmCommand.Pop(Segment segment, int index) -> {
+                    commands.write(POP + segment.ordinal());
+                    writeVarint(commands, index);
+                }
+                case VmCommand.Arithmetic(VmCommand.Operation operation) ->
+                    commands.write(ARITHMETIC + operation.ordinal());
+                case VmCommand.Label(String label) -> writeName(commands, LABEL, label, names);
+                case VmCommand.Goto(String label) -> writeName(commands, GOTO, label, names);
+                case VmCommand.IfGoto(String label) -> writeName(commands, IF_GOTO, label, names);
+                case VmCommand.Function(String function, int locals) -> {
+                    writeName(commands, FUNCTION, function, names);
+                    writeVarint(commands, locals);
+                }
+                case VmCommand.Call(String function, int arguments) -> {
+                    writeName(commands, CALL, function, names);
+                    writeVarint(commands, arguments);
+                }
+                case VmCommand.Return() -> commands.write(RETURN);
+            }
+        }
+        var out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, names.size());
+        for (var name : names.keySet()) {
+            var bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+        writeVarint(out, vmClass.commands().size());
+        out.writeBytes(commands.toByteArray());
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes aren't a class of this version
+     */
+    public static VmClass read(byte[] bytes) {
+        var in = new Reader(bytes);
+        for (var b : MAGIC) {
+            if (in.next() != b) {
+                throw new IllegalArgumentException("Not a binary VM class");
+            }
+        }
+        var version = in.next();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary VM version " + version);
+        }
+        var names = new String[in.count()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.string(in.varint());
+        }
+        if (names.length == 0) {
+            throw new IllegalArgumentException("Binary VM class without a name");
+        }
+        var count = in.count();
+        var commands = new ArrayList<VmCommand>(count);
+        for (int i = 0; i < count; i++) {
+            var opcode = in.next();
+            commands.add(switch (opcode) {
+                case LABEL -> new VmCommand.Label(in.name(names));
+                case GOTO -> new VmCommand.Goto(in.name(names));
+                case IF_GOTO -> new VmCommand.IfGoto(in.name(names));
+                case FUNCTION -> new VmCommand.Function(in.name(names), in.varint());
+                case CALL -> new VmCommand.Call(in.name(names), in.varint());
+                case RETURN -> new VmCommand.Return();
+                default -> {
+                    if (opcode >= PUSH && opcode < PUSH + SEGMENTS.length) {
+                        yield new VmCommand.Push(SEGMENTS[opcode - PUSH], in.varint());
+                    }
+                    if (opcode >= POP && opcode < POP + SEGMENTS.length) {
+                        yield new VmCommand.Pop(SEGMENTS[opcode - POP], in.varint());
+                    }
+                    if (opcode >= ARITHMETIC && opcode < ARITHMETIC + OPERATIONS.length) {
+                        yield new VmCommand.Arithmetic(OPERATIONS[opcode - ARITHMETIC]);
+                    }
+                    throw new IllegalArgumentException("Unknown opcode " + opcode);
+                }
+            });
+        }
+        return new VmClass(names[0], List.copyOf(commands));
+    }
+
+    private static void writeName(ByteArrayOutputStream out, int opcode, String name, Map<String, Integer> names) {
+        out.write(opcode);
+        writeVarint(out, names.computeIfAbsent(name, n -> names.size()));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+
+        private int at = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int next() {
+            if (at == bytes.length) {
+                throw new IllegalArgumentException("Binary VM class ends early");
+            }
+            return bytes[at++] & 0xFF;
+        }
+
+        int varint() {
+            var value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                var b = next();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        /**
+         * A number of things that follow, each taking at least a byte.
+         */
+        int count() {
+            var count = varint();
+            if (count < 0 || count > bytes.length - at) {
+                throw new IllegalArgumentException("Binary VM class ends early");
+            }
+            return count;
+        }
+
+        String string(int length) {
+            if (length > bytes.length - at) {
+                throw new IllegalArgumentException("Binary VM class ends early");
+            }
+            var s = new String(bytes, at, length, StandardCharsets.UTF_8);
+            at += length;
+            return s;
+        }
+
+        String name(String[] names) {
+            var index = varint();
+            if (index >= names.length) {
+                throw new IllegalArgumentException("No name " + index);
+            }
+            return names[index];
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package io.github.luccaflower.hack.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The VM code of one class. Its name scopes the class's statics.
+ */
+public record VmClass(String name, List<VmCommand> commands) {
+
+    /**
+     * Reads VM code, one command per line. Blank lines and {@code //} comments are
+     * skipped.
+     */
+    public static VmClass parse(String name, String code) {
+        var commands = new ArrayList<VmCommand>();
+        var lines = code.lines().toList();
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+            var comment = line.indexOf("//");
+            var words = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            try {
+                commands.add(parse(words));
+            }
+            catch (RuntimeException e) {
+                throw new IllegalArgumentException("%s.vm:%d: %s".formatted(name, i + 1, e.getMessage()), e);
+            }
+        }
+        return new VmClass(name, List.copyOf(commands));
+    }
+
+    /**
+     * @return the commands as VM code, one per line
+     */
+    public String code() {
+        var out = new StringBuilder();
+        for (var command : commands) {
+            out.append(switch (command) {
+                case VmCommand.Push(Segment segment, int index) -> "push " + segment.keyword() + " " + index;
+                case VmCommand.Pop(Segment segment, int index) -> "pop " + segment.keyword() + " " + index;
+                case VmCommand.Arithmetic(VmCommand.Operation operation) -> operation.keyword();
+                case VmCommand.Label(String label) -> "label " + label;
+                case VmCommand.Goto(String label) -> "goto " + label;
+                case VmCommand.IfGoto(String label) -> "if-goto " + label;
+                case VmCommand.Function(String function, int locals) -> "function " + function + " " + locals;
+                case VmCommand.Call(String function, int arguments) -> "call " + function + " " + arguments;
+                case VmCommand.Return() -> "return";
+            }).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static VmCommand parse(String[] words) {
+        return switch (words[0]) {
+            case "push" -> new VmCommand.Push(Segment.from(operand(words, 1)), Integer.parseInt(operand(words, 2)));
+            case "pop" -> new VmCommand.Pop(Segment.from(operand(words, 1)), Integer.parseInt(operand(words, 2)));
+            case "label" -> new VmCommand.Label(operand(words, 1));
+            case "goto" -> new VmCommand.Goto(operand(words, 1));
+            case "if-goto" -> new VmCommand.IfGoto(operand(words, 1));
+            case "function" -> new VmCommand.Function(operand(words, 1), Integer.parseInt(operand(words, 2)));
+            case "call" -> new VmCommand.Call(operand(words, 1), Integer.parseInt(operand(words, 2)));
+            case "return" -> new VmCommand.Return();
+            default -> new VmCommand.Arithmetic(VmCommand.Operation.valueOf(words[0].toUpperCase()));
+        };
+    }
+
+    private static String operand(String[] words, int position) {
+        if (words.length <= position) {
+            throw new IllegalArgumentException("Missing operand of " + words[0]);
+        }
+        return words[position];
+    }
+
+}
@@ -0,0 +1,50 @@
+package io.github.luccaflower.hack.vm;
+
+/**
+ * One command of the VM language, as written by the Jack compiler.
+ */
+public sealed interface VmCommand {
+
+    record Push(Segment segment, int index) implements VmCommand {
+    }
+
+    record Pop(Segment segment, int index) implements VmCommand {
+        public Pop {
+            if (segment == Segment.CONSTANT) {
+                throw new IllegalArgumentException("Can't pop into the constant segment");
+            }
+        }
+    }
+
+    record Arithmetic(Operation operation) implements VmCommand {
+    }
+
+    record Label(String name) implements VmCommand {
+    }
+
+    record Goto(String label) implements VmCommand {
+    }
+
+    record IfGoto(String label) implements VmCommand {
+    }
+
+    record Function(String name, int locals) implements VmCommand {
+    }
+
+    record Call(String function, int arguments) implements VmCommand {
+    }
+
+    record Return() implements VmCommand {
+    }
+
+    enum Operation {
+
+        ADD, SUB, NEG, EQ, GT, LT, AND, OR, NOT;
+
+        public String keyword() {
+            return name().toLowerCase();
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.github.luccaflower.jack;
+
+import io.github.luccaflower.jack.codewriter.Counters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the counters of a program compiled with {@code --instrument} back from a dump of
+ * its RAM, and prints how often each subroutine was called, each arm of an {@code if}
+ * taken and each loop run around.
+ * <p>
+ * The dump is text, one word per line in decimal: either {@code address value}, as the
+ * runners' {@code --dump} writes, or just the value, for consecutive words from address
+ * 0. The counters sit above the keyboard, from address {@value Counters#START}, so the
+ * dump has to come from an emulator with RAM there: the Hack hardware has none.
+ */
+public class CounterReport {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: CounterReport <directory> <ram dump>");
+        }
+        var directory = new File(args[0]);
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Invalid directory " + directory);
+        }
+        var counters = Arrays.stream(directory.listFiles())
+            .filter(f -> f.getName().endsWith(".vm.counters"))
+            .sorted(Comparator.comparing(File::getName))
+            .flatMap(f -> Counters.readLayout(read(f)).stream())
+            .toList();
+        System.out.print(Counters.report(counters, readDump(read(new File(args[1])))));
+    }
+
+    static Map<Integer, Integer> readDump(String dump) {
+        var ram = new HashMap<Integer, Integer>();
+        var next = 0;
+        for (var line : dump.lines().map(String::trim).filter(l -> !l.isEmpty()).toList()) {
+            var words = line.split("\\s+");
+            var address = words.length == 2 ? Integer.parseInt(words[0]) : next;
+            ram.put(address, Integer.parseInt(words[words.length - 1]));
+            next = address + 1;
+        }
+        return ram;
+    }
+
+    private static String read(File file) {
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package io.github.luccaflower.jack;
+
+import io.github.luccaflower.hack.vm.VmClass;
+import io.github.luccaflower.hack.vm.VmCommand;
+import io.github.luccaflower.jack.codewriter.ClassWriter;
+import io.github.luccaflower.jack.codewriter.Counters;
+import io.github.luccaflower.jack.codewriter.Intrinsic;
+import io.github.luccaflower.jack.codewriter.Options;
+import io.github.luccaflower.jack.codewriter.SourceMap;
+import io.github.luccaflower.jack.optimizer.PassManager;
+import io.github.luccaflower.jack.parser.JackClass;
+import io.github.luccaflower.jack.parser.Parser;
+import io.github.luccaflower.jack.tokenizer.IteratingTokenizer;
+import io.github.luccaflower.jack.tokenizer.Position;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles the sources of a whole program to VM code in memory, with the optimizations
+ * picked by command-line flags.
+ */
+public class JackCompiler {
+
+    private final Options options;
+
+    private final Set<String> passes;
+
+    private final Set<Intrinsic> requested;
+
+    private final PrintStream log;
+
+    public JackCompiler(Options options, Set<String> passes, PrintStream log) {
+        this(options, passes, Set.of(), log);
+    }
+
+    /**
+     * @param requested intrinsics to lower even in a program that defines the class they
+     * belong to, which otherwise calls its own
+     */
+    public JackCompiler(Options options, Set<String> passes, Set<Intrinsic> requested, PrintStream log) {
+        this.options = options;
+        this.passes = Set.copyOf(passes);
+        this.requested = Set.copyOf(requested);
+        this.log = log;
+    }
+
+    /**
+     * Understands {@code -O0} to {@code -O2}, {@code --pool-strings},
+     * {@code --no-intrinsic=Class.name}, {@code --intrinsic=Class.name},
+     * {@code --source-map}, {@code --instrument} and {@code --<pass>} for each standard
+     * pass, and ignores anything else.
+     */
+    public static JackCompiler fromFlags(List<String> flags, PrintStream log) {
+        var level = flags.stream()
+            .filter(a -> a.matches("-O\\d"))
+            .reduce((first, second) -> second)
+            .map(OptimizationLevel::of)
+            .orElse(OptimizationLevel.O1);
+        // e.g. --no-intrinsic=Math.abs keeps calling the OS for that subroutine
+        var disabledIntrinsics = flags.stream()
+            .filter(f -> f.startsWith("--no-intrinsic="))
+            .map(f -> f.substring("--no-intrinsic=".length()))
+            .collect(Collectors.toSet());
+        // e.g. --intrinsic=Memory.peek lowers it even when the program has its own Memory
+        var requestedIntrinsics = flags.stream()
+            .filter(f -> f.startsWith("--intrinsic="))
+            .map(f -> f.substring("--intrinsic=".length()))
+            .collect(Collectors.toSet());
+        var builder = level.options()
+            .poolStrings(flags.contains("--pool-strings"))
+            .sourceMap(flags.contains("--source-map"))
+            .instrument(flags.contains("--instrument"));
+        var intrinsics = builder.build()
+            .intrinsics()
+            .stream()
+            .filter(i -> !disabledIntrinsics.contains(i.toString()))
+            .collect(Collectors.toSet());
+        // passes can also be asked for one by one, e.g. --inline
+        var passes = new HashSet<>(level.passes());
+        PassManager.standard(classes -> 0)
+            .names()
+            .stream()
+            .filter(name -> flags.contains("--" + name))
+            .forEach(passes::add);
+        var requested = intrinsics.stream()
+            .filter(i -> requestedIntrinsics.contains(i.toString()))
+            .collect(Collectors.toSet());
+        return new JackCompiler(builder.intrinsics(intrinsics).build(), passes, requested, log);
+    }
+
+    public List<CompiledClass> compile(List<String> sources) {
+        var tokenizers = sources.stream().map(IteratingTokenizer::new).toList();
+        var classes = tokenizers.stream().map(t -> new Parser().parse(t)).toList();
+        var options = options(classes);
+        var positions = new IdentityHashMap<Object, Position>();
+        tokenizers.forEach(t -> positions.putAll(t.positions()));
+        if (!passes.isEmpty()) {
+            var declared = new HashMap<String, Position>();
+            classes.forEach(c -> c.subroutines()
+                .values()
+                .forEach(s -> declared.put(c.name() + "." + s.name(), positions.get(s))));
+            var run = PassManager.standard(cs -> instructionCount(cs, options)).run(classes, passes);
+            run.reports().forEach(log::println);
+            classes = run.classes();
+            // the passes rebuild what they change, which keeps its place in the source only
+            // as far as the subroutine it's in
+            classes.forEach(c -> c.subroutines()
+                .values()
+                .forEach(s -> positions.putIfAbsent(s, declared.get(c.name() + "." + s.name()))));
+        }
+        var counters = new Counters();
+        return classes.stream().map(c -> compile(c, options, positions, counters)).toList();
+    }
+
+    /**
+     * The options without the intrinsics of a class the program defines, unless they were
+     * requested, since the program's own subroutine may not do what the OS's does.
+     */
+    private Options options(List<JackClass> classes) {
+        var defined = classes.stream().map(JackClass::name).collect(Collectors.toSet());
+        var shadowed = options.intrinsics()
+            .stream()
+            .filter(i -> defined.contains(i.className()) && !requested.contains(i))
+            .collect(Collectors.toSet());
+        if (shadowed.isEmpty()) {
+            return options;
+        }
+        log.println("Calling " + shadowed.stream().map(Intrinsic::toString).sorted().toList()
+                + " rather than lowering them, as the program defines its own");
+        var intrinsics = new HashSet<>(options.intrinsics());
+        intrinsics.removeAll(shadowed);
+        return options.withIntrinsics(intrinsics);
+    }
+
+    private static CompiledClass compile(JackClass c, Options options, Map<Object, Position> positions,
+            Counters counters) {
+        var writer = new ClassWriter(c, options, positions, counters);
+        var code = withoutBlankLines(writer.write());
+        // read back once here, so that nothing downstream parses the text again
+        return new CompiledClass(c.name(), code, VmClass.parse(c.name(), code).commands(), writer.sourceMap(),
+                writer.counters());
+    }
+
+    private static long instructionCount(List<JackClass> classes, Options options) {
+        return classes.stream()
+            .mapToLong(c -> withoutBlankLines(new ClassWriter(c, options).write()).lines()
+                .filter(l -> !l.startsWith("label "))
+                .count())
+            .sum();
+    }
+
+    private static String withoutBlankLines(String code) {
+        return code.lines().filter(l -> !l.isBlank()).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * @param code the class's VM code, as written to its {@code .vm} file
+     * @param commands the same code, for everything that runs or translates it
+     * @param sourceMap where the code comes from, empty unless asked for
+     * @param counters the execution counters the code increments, if it's instrumented
+     */
+    public record CompiledClass(String name, String code, List<VmCommand> commands, SourceMap sourceMap,
+            List<Counters.Counter> counters) {
+
+        public VmClass vmClass() {
+            return new VmClass(name, commands);
+        }
+
+    }
+
+}
@@ -1,52 +1,99 @@
 package io.github.luccaflower.jack;
 
-import io.github.luccaflower.jack.codewriter.ClassWriter;
-import io.github.luccaflower.jack.parser.JackClass;
-import io.github.luccaflower.jack.parser.Parser;
-import io.github.luccaflower.jack.tokenizer.IteratingTokenizer;
+import io.github.luccaflower.hack.vm.StackDepth;
+import io.github.luccaflower.hack.vm.VmBinary;
+import io.github.luccaflower.hack.vm.VmClass;
+import io.github.luccaflower.jack.codewriter.Counters;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class Main {
 
+    private static final List<String> ENTRY_POINTS = List.of("Sys.init", "Main.main");
+
+    private static final int LISTED = 20;
+
     private static String path;
 
     public static void main(String[] args) {
-        if (args.length == 0) {
+        var flags = Arrays.stream(args).filter(a -> a.startsWith("-")).toList();
+        var paths = Arrays.stream(args).filter(a -> !a.startsWith("-")).toList();
+        if (paths.isEmpty()) {
             path = ".";
         }
         else {
-            path = args[0];
+            path = paths.getFirst();
         }
         var directory = new File(path);
         if (!directory.isDirectory()) {
             throw new IllegalArgumentException("Invalid directory " + path);
         }
-        List<File> files = Arrays.stream(directory.listFiles()).filter(f -> f.getName().endsWith(".jack")).toList();
-        var classes = files.stream()
+        var compiler = JackCompiler.fromFlags(flags, System.out);
+        // --binary writes a .vmb file next to each .vm file, and --binary-only instead of it
+        var text = !flags.contains("--binary-only");
+        var binary = flags.contains("--binary") || !text;
+        var compiled = compiler.compile(readSources(directory));
+        compiled.forEach(c -> writeClass(c, text, binary));
+        if (flags.contains("--stack-report")) {
+            System.out.print(stackReport(compiled.stream().map(JackCompiler.CompiledClass::vmClass).toList()));
+        }
+    }
+
+    /**
+     * How much stack the program needs from its entry point, and which functions need
+     * the most, for {@code --stack-report}.
+     */
+    public static String stackReport(List<VmClass> classes) {
+        var depth = StackDepth.of(classes);
+        var names = depth.functions().stream().map(StackDepth.FunctionStack::name).toList();
+        return ENTRY_POINTS.stream()
+            .filter(names::contains)
+            .findFirst()
+            .map(entry -> depth.report(entry, LISTED))
+            .orElse("No entry point, expected one of %s%n".formatted(ENTRY_POINTS));
+    }
+
+    /**
+     * Every {@code .jack} file in the directory, ordered by name so that output doesn't
+     * depend on the file system.
+     */
+    public static List<String> readSources(File directory) {
+        return Arrays.stream(directory.listFiles())
+            .filter(f -> f.getName().endsWith(".jack"))
+            .sorted(Comparator.comparing(File::getName))
             .map(Main::inputStream)
             .map(BufferedInputStream::new)
             .map(Main::readAllBytes)
             .map(b -> new String(b, StandardCharsets.UTF_8))
-            .map(IteratingTokenizer::new)
-            .map(t -> new Parser().parse(t))
             .toList();
-        classes.forEach(Main::writeClass);
+    }
 
+    private static void writeClass(JackCompiler.CompiledClass c, boolean text, boolean binary) {
+        if (text) {
+            write(new File("%s/%s.vm".formatted(path, c.name())), c.code().getBytes(StandardCharsets.UTF_8));
+        }
+        if (binary) {
+            write(new File("%s/%s.vmb".formatted(path, c.name())), VmBinary.write(c.vmClass()));
+        }
+        if (!c.sourceMap().entries().isEmpty()) {
+            write(new File("%s/%s.vm.map".formatted(path, c.name())), c.sourceMap().toBytes());
+        }
+        if (!c.counters().isEmpty()) {
+            write(new File("%s/%s.vm.counters".formatted(path, c.name())),
+                    Counters.layout(c.counters()).getBytes(StandardCharsets.UTF_8));
+        }
     }
 
-    private static void writeClass(JackClass c) {
-        var compiled = new ClassWriter(c).write().lines().filter(l -> !l.isBlank()).collect(Collectors.joining("\n"));
-        var file = new File("%s/%s.vm".formatted(path, c.name()));
+    private static void write(File file, byte[] content) {
         if (file.exists() && !file.delete()) {
             throw new IllegalStateException("Cannot overwrite file " + file.getName());
         }
         try (var os = new FileOutputStream(file)) {
-            os.write(compiled.getBytes(StandardCharsets.UTF_8));
+            os.write(content);
         }
         catch (IOException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,56 @@
+package io.github.luccaflower.jack;
+
+import io.github.luccaflower.jack.codewriter.Options;
+import io.github.luccaflower.jack.optimizer.PassManager;
+
+import java.util.Set;
+
+/**
+ * Presets trading compile time for faster code, selected with {@code -O0} to {@code -O2}.
+ * Level 1, the code writer's own optimizations and nothing else, is the default.
+ */
+public enum OptimizationLevel {
+
+    /**
+     * A plain syntax-directed translation.
+     */
+    O0(Set.of()),
+    /**
+     * Optimizations made while writing code, which cost next to nothing.
+     */
+    O1(Set.of()),
+    /**
+     * Every pass over the whole program as well.
+     */
+    O2(Set.of(PassManager.INLINE, PassManager.DATAFLOW, PassManager.LICM, PassManager.WHOLE_PROGRAM));
+
+    private final Set<String> passes;
+
+    OptimizationLevel(Set<String> passes) {
+        this.passes = passes;
+    }
+
+    public Set<String> passes() {
+        return passes;
+    }
+
+    public Options.Builder options() {
+        var options = Options.builder();
+        if (this == O0) {
+            options.optimizeBranches(false)
+                .reuseLocals(false)
+                .eliminateTailCalls(false)
+                .optimizeArrays(false)
+                .intrinsics(Set.of());
+        }
+        return options;
+    }
+
+    /**
+     * The level a command-line flag such as {@code -O2} stands for.
+     */
+    public static OptimizationLevel of(String flag) {
+        return valueOf(flag.substring(1));
+    }
+
+}
@@ -0,0 +1,74 @@
+package io.github.luccaflower.jack.codewriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Drops setting {@code pointer 1} to a variable it already holds, within straight-line
+ * code. Returning from a call restores the pointer, so only the variable itself changing
+ * invalidates it, and for fields and statics anything that may write to memory: a call
+ * or a store through {@code that}.
+ */
+final class ArrayPointers {
+
+    private static final Set<String> FRAME_SEGMENTS = Set.of("argument", "local", "constant");
+
+    private ArrayPointers() {
+    }
+
+    static String reuse(String code) {
+        var lines = code.lines().toList();
+        var kept = new ArrayList<String>(lines.size());
+        String held = null;
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+            var next = nextInstruction(lines, i);
+            if (line.startsWith("push ") && next >= 0 && lines.get(next).equals("pop pointer 1")) {
+                var source = line.substring("push ".length());
+                if (source.equals(held)) {
+                    // the blank lines in between go as well
+                    i = next;
+                    continue;
+                }
+                held = isVariable(source) ? source : null;
+                kept.addAll(lines.subList(i, next + 1));
+                i = next;
+                continue;
+            }
+            kept.add(line);
+            if (held != null && invalidates(line, held)) {
+                held = null;
+            }
+        }
+        return String.join("\n", kept);
+    }
+
+    private static int nextInstruction(List<String> lines, int from) {
+        for (int i = from + 1; i < lines.size(); i++) {
+            if (!lines.get(i).isBlank()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isVariable(String source) {
+        var segment = source.substring(0, source.indexOf(' '));
+        return FRAME_SEGMENTS.contains(segment) || segment.equals("this") || segment.equals("static");
+    }
+
+    private static boolean invalidates(String line, String held) {
+        if (line.equals("pop " + held) || line.equals("pop pointer 1") || line.startsWith("label ")
+                || line.startsWith("goto ") || line.equals("return") || line.startsWith("function ")) {
+            return true;
+        }
+        var segment = held.substring(0, held.indexOf(' '));
+        if (FRAME_SEGMENTS.contains(segment)) {
+            return false;
+        }
+        return line.startsWith("call ") || line.startsWith("pop that ")
+                || segment.equals("this") && line.equals("pop pointer 0");
+    }
+
+}
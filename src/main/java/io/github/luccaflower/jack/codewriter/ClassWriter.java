@@ -1,14 +1,18 @@
 package io.github.luccaflower.jack.codewriter;
 
 import io.github.luccaflower.jack.parser.*;
-import io.github.luccaflower.jack.tokenizer.SyntaxError;
+import io.github.luccaflower.jack.tokenizer.Position;
 import io.github.luccaflower.jack.tokenizer.Token;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static io.github.luccaflower.jack.codewriter.SymbolTable.Scope.*;
 
@@ -16,6 +20,8 @@ public class ClassWriter {
 
     private final JackClass jackClass;
 
+    private final Options options;
+
     private final SymbolTable statics;
 
     private final SymbolTable fields;
@@ -24,8 +30,49 @@ public class ClassWriter {
 
     private int ifCounter = 0;
 
+    private int intrinsicCounter = 0;
+
+    private final Map<String, Integer> stringPool = new LinkedHashMap<>();
+
+    // whether the subroutine being written uses a pooled string
+    private boolean pooling = false;
+
+    private final Map<Object, Position> positions;
+
+    // the position of the innermost node being written that has one
+    private Position located = null;
+
+    private SourceMap sourceMap = SourceMap.empty();
+
+    private final Counters counters;
+
+    private final List<Counters.Counter> counted = new ArrayList<>();
+
     public ClassWriter(JackClass jackClass) {
+        this(jackClass, Options.defaults());
+    }
+
+    public ClassWriter(JackClass jackClass, Options options) {
+        this(jackClass, options, Map.of());
+    }
+
+    /**
+     * @param positions where the class's nodes were parsed from, for the
+     * {@link #sourceMap() source map}
+     */
+    public ClassWriter(JackClass jackClass, Options options, Map<Object, Position> positions) {
+        this(jackClass, options, positions, new Counters());
+    }
+
+    /**
+     * @param counters where to put the counters of an instrumented class, shared by the
+     * classes of a program
+     */
+    public ClassWriter(JackClass jackClass, Options options, Map<Object, Position> positions, Counters counters) {
         this.jackClass = jackClass;
+        this.options = options;
+        this.positions = positions;
+        this.counters = counters;
         statics = from(jackClass.statics(), STATIC);
         fields = from(jackClass.fields(), FIELD);
     }
@@ -42,21 +89,95 @@ public class ClassWriter {
     }
 
     public String write() {
-        return jackClass.subroutines().values().stream().map(s -> switch (s) {
-            case Subroutine.JackFunction f -> {
-                List<SymbolTable.Identifier> identifiers = f.arguments().stream().map(p -> new SymbolTable.Identifier(p.name(), p.type().name())).toList();
-                yield new SubroutineWriter(f, SymbolTable.create(List.of(), FIELD), SymbolTable.create(identifiers, ARGUMENT));
-            }
-            case Subroutine.JackConstructor c -> {
-                var arguments = c.arguments().stream().map(p -> new SymbolTable.Identifier(p.name(), p.type().name())).toList();
-                yield new SubroutineWriter(c, fields, SymbolTable.create(arguments, ARGUMENT));
-            }
-            case Subroutine.JackMethod m -> {
-                var argsNames = new ArrayList<>(m.arguments().stream().map(p -> new SymbolTable.Identifier(p.name(), p.type().name())).toList());
-                argsNames.addFirst(new SymbolTable.Identifier("this", jackClass.name()));
-                yield new SubroutineWriter(m, fields, SymbolTable.create(argsNames, ARGUMENT));
-            }
-        }).map(SubroutineWriter::write).collect(Collectors.joining("\n"));
+        var code = jackClass.subroutines()
+            .values()
+            .stream()
+            .map(SubroutineWriter::new)
+            .map(SubroutineWriter::write)
+            .collect(Collectors.joining("\n"));
+        if (!stringPool.isEmpty()) {
+            code = String.join("\n", code, stringPool());
+        }
+        if (!options.sourceMap()) {
+            return code;
+        }
+        var builder = new SourceMap.Builder();
+        code = builder.strip(code);
+        sourceMap = builder.build();
+        return code;
+    }
+
+    /**
+     * A function building every pooled string of the class into its static, which the
+     * subroutines using them call on entry until the first of them is built.
+     */
+    private String stringPool() {
+        var build = stringPool.entrySet()
+            .stream()
+            .map(e -> String.join("\n", TermWriter.newString(e.getKey()), "pop static " + e.getValue()))
+            .collect(Collectors.joining("\n"));
+        var function = String.join("\n", "function " + stringPoolFunction() + " 0", build, "push constant 0",
+                "return");
+        // the pool belongs to none of the subroutines before it
+        return options.sourceMap() ? String.join("\n", SourceMap.Builder.marker(0, 0), function) : function;
+    }
+
+    /**
+     * A name no subroutine can have, as Jack names have no dots.
+     */
+    private String stringPoolFunction() {
+        return jackClass.name() + ".strings.pool";
+    }
+
+    /**
+     * @return where the code last {@link #write() written} comes from, empty unless the
+     * options ask for it
+     */
+    public SourceMap sourceMap() {
+        return sourceMap;
+    }
+
+    /**
+     * @return the counters the code last {@link #write() written} increments, in the
+     * order they were added, empty unless the options ask to instrument it
+     */
+    public List<Counters.Counter> counters() {
+        return List.copyOf(counted);
+    }
+
+    /**
+     * Writes the code of a node, marked with where the node was parsed from, if known,
+     * and with where the enclosing node was after it, for what follows.
+     */
+    private String located(Object node, Supplier<String> write) {
+        var position = options.sourceMap() ? positions.get(node) : null;
+        if (position == null) {
+            return write.get();
+        }
+        var enclosing = located;
+        located = position;
+        var code = write.get();
+        located = enclosing;
+        var resume = enclosing == null ? "" : SourceMap.Builder.marker(enclosing.line(), enclosing.column());
+        return String.join("\n", SourceMap.Builder.marker(position.line(), position.column()), code, resume);
+    }
+
+    private SymbolTable localsFor(Subroutine subroutine) {
+        var locals = from(subroutine.locals(), LOCAL);
+        return options.reuseLocals() ? locals.withIndices(LocalSlots.allocate(subroutine)) : locals;
+    }
+
+    private Frame frameFor(Subroutine subroutine, SymbolTable locals) {
+        var arguments = new ArrayList<>(subroutine.arguments()
+            .stream()
+            .map(p -> new SymbolTable.Identifier(p.name(), p.type().name()))
+            .toList());
+        if (subroutine instanceof Subroutine.JackMethod) {
+            arguments.addFirst(new SymbolTable.Identifier("this", jackClass.name()));
+        }
+        var visibleFields = subroutine instanceof Subroutine.JackFunction ? SymbolTable.create(List.of(), FIELD)
+                : fields;
+        return new Frame(SymbolTable.create(arguments, ARGUMENT), locals, visibleFields, statics);
     }
 
     class SubroutineWriter {
@@ -65,40 +186,114 @@ public class ClassWriter {
 
         private final SymbolTable locals;
 
-        private final SymbolTable argNames;
+        private final Frame frame;
 
-        private SymbolTable fields;
+        private int tailCalls = 0;
 
-        public SubroutineWriter(Subroutine subroutine, SymbolTable fields, SymbolTable argNames) {
+        public SubroutineWriter(Subroutine subroutine) {
             this.subroutine = subroutine;
-            var localNames = new ArrayList<>(getList(subroutine.locals()));
-            this.argNames = argNames;
-            locals = SymbolTable.create(localNames, LOCAL);
-            this.fields = fields;
+            this.locals = localsFor(subroutine);
+            this.frame = frameFor(subroutine, locals);
         }
 
         public String write() {
-            var functionDec = "function %s.%s %d".formatted(jackClass.name(), subroutine.name(),
-                    subroutine.locals().size());
+            if (!options.sourceMap()) {
+                return code();
+            }
+            // what a subroutine without a position writes must not go to the one before
+            return String.join("\n", SourceMap.Builder.marker(0, 0), located(subroutine, this::code));
+        }
+
+        private String code() {
+            var functionDec = "function %s.%s %d".formatted(jackClass.name(), subroutine.name(), locals.slots());
             var header = switch (subroutine) {
                 case Subroutine.JackConstructor c -> """
                         push constant %d
                         call Memory.alloc 1
                         pop pointer 0""".formatted(jackClass.fields().size());
-                case Subroutine.JackFunction f -> {
-                    fields = SymbolTable.create(List.of(), FIELD);
-                    yield "";
-                }
+                case Subroutine.JackFunction f -> "";
                 case Subroutine.JackMethod m -> """
                         push argument 0
                         pop pointer 0""";
             };
+            var entered = count(Counters.Kind.ENTRY, subroutine);
+            pooling = false;
             var statements = subroutine.statements()
                 .stream()
-                .map(s -> new StatementWriter(s, locals, argNames, fields))
+                .map(s -> new StatementWriter(s, this))
                 .map(StatementWriter::write)
                 .collect(Collectors.joining("\n"));
-            return String.join("\n", functionDec, header, statements);
+            var pool = pooling ? """
+                    push static %d
+                    if-goto strings-built
+                    call %s 0
+                    pop temp 0
+                    label strings-built""".formatted(stringPool.values().iterator().next(), stringPoolFunction())
+                    : "";
+            var entry = tailCalls > 0 ? "label entry" : "";
+            // a tail call loops back to the entry, and so isn't counted as a call, nor builds the pool again
+            var code = String.join("\n", functionDec, header, entered, pool, entry, statements);
+            return options.optimizeArrays() ? ArrayPointers.reuse(code) : code;
+        }
+
+        /**
+         * @return code adding one to a new counter for the node, if the class is
+         * instrumented
+         */
+        String count(Counters.Kind kind, Object node) {
+            if (!options.instrument()) {
+                return "";
+            }
+            var address = counters.allocate();
+            counted.add(new Counters.Counter(address, kind, jackClass.name() + "." + subroutine.name(),
+                    positions.get(node)));
+            return Counters.increment(address);
+        }
+
+        /**
+         * The arguments of a call to this very subroutine, if the expression is nothing
+         * but that call.
+         */
+        Optional<List<Expression>> selfCallArguments(Expression value) {
+            if (!options.eliminateTailCalls() || value.continuation().isPresent()
+                    || subroutine instanceof Subroutine.JackConstructor) {
+                return Optional.empty();
+            }
+            var arguments = switch (value.term()) {
+                case Term.LocalSubroutineCall(String name, List<Expression> a) when name.equals(subroutine.name()) -> a;
+                case Term.ObjectSubroutineCall(String target, String name, List<Expression> a) when subroutine
+                    instanceof Subroutine.JackFunction && target.equals(jackClass.name())
+                        && name.equals(subroutine.name()) && frame.slot(target) == Frame.UNRESOLVED ->
+                    a;
+                default -> null;
+            };
+            return Optional.ofNullable(arguments).filter(a -> a.size() == subroutine.arguments().size());
+        }
+
+        /**
+         * Reuses the current frame for a call to this subroutine in tail position: the
+         * arguments are overwritten and control jumps back to the entry.
+         */
+        String tailCall(List<Expression> arguments) {
+            tailCalls++;
+            // every new argument is evaluated before any of the old ones is overwritten
+            var pushArguments = arguments.stream()
+                .map(a -> new ExpressionWriter(frame).write(a))
+                .collect(Collectors.joining("\n"));
+            var first = subroutine instanceof Subroutine.JackMethod ? 1 : 0;
+            var popArguments = IntStream.range(0, arguments.size())
+                .map(i -> first + arguments.size() - 1 - i)
+                .mapToObj(i -> "pop argument " + i)
+                .collect(Collectors.joining("\n"));
+            // locals read before they are assigned expect the zeroes of a fresh frame
+            var zeroLocals = LocalSlots.liveOnEntry(subroutine)
+                .stream()
+                .map(name -> Frame.index(frame.require(name)))
+                .distinct()
+                .sorted()
+                .map("push constant 0\npop local %d"::formatted)
+                .collect(Collectors.joining("\n"));
+            return String.join("\n", pushArguments, popArguments, zeroLocals, "goto entry");
         }
 
     }
@@ -107,100 +302,41 @@ public class ClassWriter {
 
         private final Statement statement;
 
-        private final SymbolTable locals;
+        private final SubroutineWriter enclosing;
 
-        private final SymbolTable arguments;
+        private final Frame frame;
 
-        private final SymbolTable fields;
-
-        public StatementWriter(Statement statement, SymbolTable locals, SymbolTable arguments, SymbolTable fields) {
+        public StatementWriter(Statement statement, SubroutineWriter enclosing) {
             this.statement = statement;
-            this.locals = locals;
-            this.arguments = arguments;
-            this.fields = fields;
+            this.enclosing = enclosing;
+            this.frame = enclosing.frame;
         }
 
         public String write() {
+            return located(statement, this::code);
+        }
+
+        private String code() {
             return switch (statement) {
-                case Term.LocalSubroutineCall s -> {
-                    var subroutine = jackClass.subroutines().get(s.subroutineName());
-                    var pushThis = switch (subroutine) {
-                        case Subroutine.JackMethod m -> "push pointer 0";
-                        default -> "";
-                    };
-                    var pushArgs = s.arguments()
-                        .stream()
-                        .map(a -> new ExpressionWriter(locals, arguments).write(a))
-                        .collect(Collectors.joining("\n"));
-                    var argCount = switch (subroutine) {
-                        case Subroutine.JackMethod m -> m.arguments().size() + 1;
-                        default -> s.arguments().size();
-                    };
-                    var call = "call %s.%s %d".formatted(ClassWriter.this.jackClass.name(), s.subroutineName(),
-                            argCount);
-                    var popReturnToTemp = "pop temp 0";
-                    yield String.join("\n", pushThis, pushArgs, call, popReturnToTemp);
-                }
-                case Term.ObjectSubroutineCall s -> {
-                    var push = s.arguments()
-                        .stream()
-                        .map(a -> new ExpressionWriter(locals, arguments).write(a))
-                        .collect(Collectors.joining("\n"));
-                    Optional<SymbolTable.Symbol> symbol = arguments.resolve(s.target())
-                        .or(() -> locals.resolve(s.target()))
-                        .or(() -> fields.resolve(s.target()))
-                        .or(() -> statics.resolve(s.target()));
-                    var target = symbol.map(SymbolTable.Symbol::type).orElse(s.target());
-                    var pushObject = symbol.map(sy -> {
-                        var scope = switch (sy.scope()) {
-                            case ARGUMENT -> "argument";
-                            case LOCAL -> "local";
-                            case STATIC -> "static";
-                            case FIELD -> "this";
-                            case SUBROUTINE -> throw new RuntimeException("what the fuck");
-                        };
-                        return "push %s %d".formatted(scope, sy.index());
-                    }).orElse("");
-                    var argCount = symbol.map(ignored -> s.arguments().size() + 1)
-                            .orElse(s.arguments().size());
-                    var call = "call %s.%s %d".formatted(target, s.subroutineName(), argCount);
-                    var popReturn = "pop temp 0";
-                    yield String.join("\n", pushObject, push, call, popReturn);
-                }
+                // there is no result to throw away
+                case Term.ObjectSubroutineCall call when intrinsicFor(call, frame).filter(i -> !i.returnsValue())
+                    .isPresent() -> lower(intrinsicFor(call, frame).get(), call.arguments(), frame);
+                case Term.SubroutineCall call -> String.join("\n", new TermWriter(call, frame).write(), "pop temp 0");
                 case Statement.NonIndexedLetStatement(String name, Expression value) -> {
-                    var symbol = arguments.resolve(name)
-                        .or(() -> locals.resolve(name))
-                        .or(() -> fields.resolve(name))
-                        .or(() -> statics.resolve(name))
-                        .orElseThrow(() -> new SyntaxError("Unknown identifier '%s'".formatted(name)));
-                    var pushValue = new ExpressionWriter(locals, arguments).write(value);
-                    var popToSymbol = switch (symbol.scope()) {
-                        case ARGUMENT -> "pop argument " + symbol.index();
-                        case LOCAL -> "pop local " + symbol.index();
-                        case FIELD -> "pop this " + symbol.index();
-                        case STATIC -> "pop static " + symbol.index();
-                        case SUBROUTINE -> throw new SyntaxError("Can't assign value to subroutine");
-                    };
-                    yield String.join("\n", pushValue, popToSymbol);
+                    var slot = frame.require(name);
+                    var pushValue = new ExpressionWriter(frame).write(value);
+                    yield String.join("\n", pushValue, Frame.pop(slot));
                 }
                 case Statement.IndexedLetStatement(String name, Expression index, Expression value) -> {
-                    var symbol = arguments.resolve(name)
-                            .or(() -> locals.resolve(name))
-                            .or(() -> fields.resolve(name))
-                            .or(() -> statics.resolve(name))
-                            .orElseThrow(() -> new SyntaxError("Unknown identifier '%s'".formatted(name)));
-                    var scope = switch (symbol.scope()) {
-                        case ARGUMENT -> "argument";
-                        case LOCAL -> "local";
-                        case FIELD -> "this";
-                        case STATIC -> "static";
-                        case SUBROUTINE -> throw new SyntaxError("Invalid assignment to subroutine '%s'".formatted(name));
-                    };
+                    var direct = options.optimizeArrays() ? writeElement(name, index, value) : Optional.<String>empty();
+                    if (direct.isPresent()) {
+                        yield direct.get();
+                    }
                     var pushArr = """
-                            push %s %d
                             %s
-                            add""".formatted(scope, symbol.index(), new ExpressionWriter(locals, arguments).write(index));
-                    var pushValue = new ExpressionWriter(locals, arguments).write(value);
+                            %s
+                            add""".formatted(Frame.push(frame.require(name)), new ExpressionWriter(frame).write(index));
+                    var pushValue = new ExpressionWriter(frame).write(value);
                     var popIntoArray = """
                             pop temp 0
                             pop pointer 1
@@ -210,46 +346,106 @@ public class ClassWriter {
                     yield String.join("\n", pushArr, pushValue, popIntoArray);
                 }
                 case Statement.ReturnStatement r -> {
+                    var selfCall = r.returnValue().flatMap(enclosing::selfCallArguments);
+                    if (selfCall.isPresent()) {
+                        yield enclosing.tailCall(selfCall.get());
+                    }
                     var returnVal = r.returnValue()
-                        .map(v -> new ExpressionWriter(locals, arguments).write(v))
+                        .map(v -> new ExpressionWriter(frame).write(v))
                         .orElse("push constant 0");
                     yield String.join("\n", returnVal, "return");
                 }
+                case Statement.WhileStatement(Expression condition, List<Statement> statements) when options
+                    .optimizeBranches() -> {
+                    var label = "while.%d".formatted(whileCounter++);
+                    var gotoCondition = "goto %s.condition".formatted(label);
+                    var blockLabel = "label %s.block".formatted(label);
+                    var iteration = enclosing.count(Counters.Kind.LOOP, statement);
+                    var statementInstructions = statements.stream()
+                        .map(s -> new StatementWriter(s, enclosing).write())
+                        .collect(Collectors.joining("\n"));
+                    var conditionLabel = "label %s.condition".formatted(label);
+                    var loopBack = new BranchWriter(frame).write(condition, true, label + ".block");
+                    yield String.join("\n", gotoCondition, blockLabel, iteration, statementInstructions,
+                            conditionLabel, loopBack);
+                }
                 case Statement.WhileStatement(Expression condition, List<Statement> statements) -> {
                     var label = "while.%d".formatted(whileCounter++);
                     var startLabel = "label %s.start".formatted(label);
-                    var value = new ExpressionWriter(locals, arguments).write(condition);
+                    var value = new ExpressionWriter(frame).write(condition);
                     var shouldContinue = """
                             if-goto %s.block
                             goto %s.end""".formatted(label, label);
                     var blockLabel = "label %s.block".formatted(label);
+                    var iteration = enclosing.count(Counters.Kind.LOOP, statement);
                     var statementInstructions = statements.stream()
-                        .map(s -> new StatementWriter(s, locals, arguments, fields).write())
+                        .map(s -> new StatementWriter(s, enclosing).write())
                         .collect(Collectors.joining("\n"));
                     var gotoStart = "goto %s.start".formatted(label);
                     var endLabel = "label %s.end".formatted(label);
-                    yield String.join("\n", startLabel, value, shouldContinue, blockLabel, statementInstructions,
-                            gotoStart, endLabel);
+                    yield String.join("\n", startLabel, value, shouldContinue, blockLabel, iteration,
+                            statementInstructions, gotoStart, endLabel);
+                }
+                case Statement.IfStatement ifStatement when options.optimizeBranches() -> {
+                    var ifCounter = ClassWriter.this.ifCounter++;
+                    var ifTrueLabel = "if-true.%s".formatted(ifCounter);
+                    var elseLabel = "if-not.%s".formatted(ifCounter);
+                    var endLabel = "if-end.%s".formatted(ifCounter);
+                    // the arms' counters are next to each other, then below else
+                    var countThen = enclosing.count(Counters.Kind.THEN, statement);
+                    var countElse = enclosing.count(Counters.Kind.ELSE, statement);
+                    var ifTrueStatements = Stream.concat(Stream.of(countThen), ifStatement.statements()
+                        .stream()
+                        .map(s -> new StatementWriter(s, enclosing).write()))
+                        .collect(Collectors.joining("\n"));
+                    var branches = new BranchWriter(frame);
+                    if (ifStatement.elseBlock().isEmpty() && countElse.isEmpty()) {
+                        var skip = branches.write(ifStatement.condition(), false, endLabel);
+                        var enter = branches.write(ifStatement.condition(), true, ifTrueLabel);
+                        // a condition that can't be negated cheaply is better off jumping over a goto
+                        if (instructionCount(enter) + 1 < instructionCount(skip)) {
+                            yield String.join("\n", enter, "goto " + endLabel, "label " + ifTrueLabel,
+                                    ifTrueStatements, "label " + endLabel);
+                        }
+                        yield String.join("\n", skip, ifTrueStatements, "label " + endLabel);
+                    }
+                    var elseBlock = Stream.concat(Stream.of(countElse), ifStatement.elseBlock()
+                        .map(Statement.ElseBlock::statements)
+                        .orElse(List.of())
+                        .stream()
+                        .map(s -> new StatementWriter(s, enclosing).write()))
+                        .collect(Collectors.joining("\n"));
+                    var skipToElse = branches.write(ifStatement.condition(), false, elseLabel);
+                    var jumpToTrue = branches.write(ifStatement.condition(), true, ifTrueLabel);
+                    if (instructionCount(jumpToTrue) < instructionCount(skipToElse)) {
+                        yield String.join("\n", jumpToTrue, elseBlock, "goto " + endLabel, "label " + ifTrueLabel,
+                                ifTrueStatements, "label " + endLabel);
+                    }
+                    yield String.join("\n", skipToElse, ifTrueStatements, "goto " + endLabel, "label " + elseLabel,
+                            elseBlock, "label " + endLabel);
                 }
                 case Statement.IfStatement ifStatement -> {
                     var ifCounter = ClassWriter.this.ifCounter++;
-                    var condition = new ExpressionWriter(locals, arguments).write(ifStatement.condition());
+                    var condition = new ExpressionWriter(frame).write(ifStatement.condition());
                     var evaluate = """
                             if-goto if-true.%s
                             goto if-not.%s""".formatted(ifCounter, ifCounter);
                     var ifTrueLabel = "label if-true.%s".formatted(ifCounter);
-                    var ifTrueStatements = ifStatement.statements()
+                    // the arms' counters are next to each other, then below else
+                    var countThen = enclosing.count(Counters.Kind.THEN, statement);
+                    var countElse = enclosing.count(Counters.Kind.ELSE, statement);
+                    var ifTrueStatements = Stream.concat(Stream.of(countThen), ifStatement.statements()
                         .stream()
-                        .map(s -> new StatementWriter(s, locals, arguments, fields).write())
+                        .map(s -> new StatementWriter(s, enclosing).write()))
                         .collect(Collectors.joining("\n"));
                     var gotoEnd = "goto if-end.%s".formatted(ifCounter);
                     var elseLabel = "label if-not.%s".formatted(ifCounter);
-                    var elseBlock = ifStatement.elseBlock()
-                        .map(b -> b.statements()
-                            .stream()
-                            .map(s -> new StatementWriter(s, locals, arguments, fields).write())
-                            .collect(Collectors.joining("\n")))
-                        .orElse("");
+                    var elseBlock = Stream.concat(Stream.of(countElse), ifStatement.elseBlock()
+                        .map(Statement.ElseBlock::statements)
+                        .orElse(List.of())
+                        .stream()
+                        .map(s -> new StatementWriter(s, enclosing).write()))
+                        .collect(Collectors.joining("\n"));
                     var endLabel = "label if-end.%s".formatted(ifCounter);
 
                     yield String.join("\n", condition, evaluate, ifTrueLabel, ifTrueStatements, gotoEnd, elseLabel,
@@ -259,23 +455,260 @@ public class ClassWriter {
             };
         }
 
+        /**
+         * Sets up {@code pointer 1} once for the store. Reads of the same element, for an
+         * index without calls, or of the same array for a constant index, in a value that
+         * leaves the pointer alone go through it as well. Empty if the store has to go
+         * through {@code temp 0}.
+         */
+        private Optional<String> writeElement(String name, Expression index, Expression value) {
+            var pushArray = Frame.push(frame.require(name));
+            var offset = constantIndex(index);
+            // reading the element again would skip the calls in computing its index
+            var that = offset.isPresent() ? new That(name, Optional.empty())
+                    : hasCalls(index) ? null : new That(name, Optional.of(index));
+            var store = "pop that " + offset.orElse(0);
+            if (keepsPointer(value, that)) {
+                var address = offset.isPresent() ? pushArray
+                        : String.join("\n", pushArray, new ExpressionWriter(frame).write(index), "add");
+                var pushValue = new ExpressionWriter(frame, Optional.ofNullable(that)).write(value);
+                return Optional.of(String.join("\n", address, "pop pointer 1", pushValue, store));
+            }
+            // the array is only looked up after the value, which is fine as long as the value can't change it
+            var segment = Frame.segment(frame.require(name));
+            if (offset.isPresent()
+                    && (segment.equals("local") || segment.equals("argument") || !hasCalls(value))) {
+                return Optional.of(String.join("\n", new ExpressionWriter(frame).write(value), pushArray,
+                        "pop pointer 1", store));
+            }
+            return Optional.empty();
+        }
+
+    }
+
+    /**
+     * What {@code pointer 1} is known to hold while an expression is written: the address
+     * of an array, or of one of its elements.
+     */
+    private record That(String array, Optional<Expression> element) {
+
+        Optional<Integer> offset(String name, Expression index) {
+            if (!array.equals(name)) {
+                return Optional.empty();
+            }
+            return element.map(e -> e.equals(index) ? Optional.of(0) : Optional.<Integer>empty())
+                .orElseGet(() -> constantIndex(index));
+        }
+
+    }
+
+    private static Optional<Integer> constantIndex(Expression index) {
+        return index.continuation().isEmpty() && index.term() instanceof Term.Constant(Token.IntegerLiteral(int i))
+                ? Optional.of(i) : Optional.empty();
+    }
+
+    /**
+     * Whether writing the expression leaves {@code pointer 1} as it is, given what it
+     * holds, if anything. Calls made for operators don't count, as returning from a call
+     * restores it.
+     */
+    private static boolean keepsPointer(Expression expression, That that) {
+        return keepsPointer(expression.term(), that)
+                && expression.continuation().map(c -> keepsPointer(c.term(), that)).orElse(true);
+    }
+
+    private static boolean keepsPointer(Term term, That that) {
+        return switch (term) {
+            case Term.Constant(Token.StringLiteral s) -> false;
+            case Term.SubroutineCall call -> false;
+            case Term.IndexedVarname(String name, Expression index) ->
+                that != null && that.offset(name, index).isPresent();
+            case Term.ParenthesisExpression(Expression e) -> keepsPointer(e, that);
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> keepsPointer(t, that);
+            default -> true;
+        };
+    }
+
+    private static boolean hasCalls(Expression expression) {
+        return hasCalls(expression.term()) || expression.continuation().map(c -> hasCalls(c.term())).orElse(false);
+    }
+
+    private static boolean hasCalls(Term term) {
+        return switch (term) {
+            case Term.Constant(Token.StringLiteral s) -> true;
+            case Term.SubroutineCall call -> true;
+            case Term.IndexedVarname(String name, Expression index) -> hasCalls(index);
+            case Term.ParenthesisExpression(Expression e) -> hasCalls(e);
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> hasCalls(t);
+            default -> false;
+        };
+    }
+
+    private Optional<Intrinsic> intrinsicFor(Term.ObjectSubroutineCall call, Frame frame) {
+        if (frame.slot(call.target()) != Frame.UNRESOLVED) {
+            return Optional.empty();
+        }
+        return Intrinsic.of(call.target(), call.subroutineName(), call.arguments().size())
+            .filter(options.intrinsics()::contains);
+    }
+
+    /**
+     * Code in place of a call to the intrinsic, leaving its result on the stack if it
+     * has one.
+     */
+    private String lower(Intrinsic intrinsic, List<Expression> arguments, Frame frame) {
+        var pushArguments = arguments.stream()
+            .map(a -> new ExpressionWriter(frame).write(a))
+            .collect(Collectors.joining("\n"));
+        var label = "intrinsic.%d".formatted(intrinsicCounter++);
+        return switch (intrinsic) {
+            case MEMORY_PEEK -> String.join("\n", pushArguments, "pop pointer 1", "push that 0");
+            case MEMORY_POKE -> {
+                var value = arguments.getLast();
+                if (keepsPointer(value, null)) {
+                    yield String.join("\n", new ExpressionWriter(frame).write(arguments.getFirst()), "pop pointer 1",
+                            new ExpressionWriter(frame).write(value), "pop that 0");
+                }
+                yield String.join("\n", pushArguments, """
+                        pop temp 0
+                        pop pointer 1
+                        push temp 0
+                        pop that 0""");
+            }
+            case MATH_ABS -> String.join("\n", pushArguments, """
+                    pop temp 0
+                    push temp 0
+                    push constant 0
+                    lt
+                    not
+                    if-goto %1$s
+                    push temp 0
+                    neg
+                    pop temp 0
+                    label %1$s
+                    push temp 0""".formatted(label));
+            // the first argument wins when it compares as asked, the second otherwise
+            case MATH_MIN, MATH_MAX -> String.join("\n", pushArguments, """
+                    pop temp 1
+                    pop temp 0
+                    push temp 0
+                    push temp 1
+                    %1$s
+                    if-goto %2$s
+                    push temp 1
+                    pop temp 0
+                    label %2$s
+                    push temp 0""".formatted(intrinsic == Intrinsic.MATH_MIN ? "lt" : "gt", label));
+        };
+    }
+
+    private static long instructionCount(String code) {
+        return code.lines()
+            .filter(l -> !l.isBlank() && !l.startsWith("label ") && !l.startsWith(SourceMap.Builder.MARKER))
+            .count();
+    }
+
+    /**
+     * Lowers a condition straight into a jump. Comparisons against zero and negations
+     * are folded into the branch instead of being computed as a value first.
+     */
+    class BranchWriter {
+
+        private final Frame frame;
+
+        BranchWriter(Frame frame) {
+            this.frame = frame;
+        }
+
+        public String write(Expression condition, boolean jumpWhen, String label) {
+            if (condition.continuation().isEmpty()) {
+                switch (condition.term()) {
+                    case Term.ParenthesisExpression(Expression inner):
+                        return write(inner, jumpWhen, label);
+                    case Term.UnaryOpTerm(Term.UnaryOp op, Term t) when op == Term.UnaryOp.NOT && isBoolean(t):
+                        return write(new Expression(t, Optional.empty()), !jumpWhen, label);
+                    case Term.KeywordLiteral(Token.KeywordType k) when k != Token.KeywordType.THIS:
+                        return (k == Token.KeywordType.TRUE) == jumpWhen ? "goto " + label : "";
+                    default:
+                        break;
+                }
+            }
+            var comparedToZero = comparedToZero(condition);
+            if (comparedToZero.isPresent()) {
+                return write(comparedToZero.get(), !jumpWhen, label);
+            }
+            var value = new ExpressionWriter(frame).write(condition);
+            if (jumpWhen) {
+                return String.join("\n", value, "if-goto " + label);
+            }
+            var negate = isBoolean(condition) ? "not" : """
+                    push constant 0
+                    eq""";
+            return String.join("\n", value, negate, "if-goto " + label);
+        }
+
+        private static Optional<Expression> comparedToZero(Expression condition) {
+            return condition.continuation()
+                .filter(c -> c.op() == Expression.Operator.EQUALS)
+                .flatMap(c -> {
+                    if (isZero(c.term())) {
+                        return Optional.of(new Expression(condition.term(), Optional.empty()));
+                    }
+                    if (condition.term() instanceof Term.Constant(Token.IntegerLiteral(int i)) && i == 0) {
+                        return Optional.of(c.term());
+                    }
+                    return Optional.empty();
+                });
+        }
+
+        private static boolean isZero(Expression expression) {
+            return expression.continuation().isEmpty()
+                    && expression.term() instanceof Term.Constant(Token.IntegerLiteral(int i)) && i == 0;
+        }
+
+        /**
+         * Whether the expression always evaluates to 0 or -1, in which case a bitwise
+         * {@code not} is also a logical one.
+         */
+        private static boolean isBoolean(Expression expression) {
+            return expression.continuation().map(c -> switch (c.op()) {
+                case LESS_THAN, GREATER_THAN, EQUALS -> true;
+                case BITWISE_AND, BITWISE_OR -> isBoolean(expression.term()) && isBoolean(c.term());
+                default -> false;
+            }).orElseGet(() -> isBoolean(expression.term()));
+        }
+
+        private static boolean isBoolean(Term term) {
+            return switch (term) {
+                case Term.KeywordLiteral(Token.KeywordType k) -> k == Token.KeywordType.TRUE
+                        || k == Token.KeywordType.FALSE;
+                case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> op == Term.UnaryOp.NOT && isBoolean(t);
+                case Term.ParenthesisExpression(Expression e) -> isBoolean(e);
+                default -> false;
+            };
+        }
+
     }
 
     class ExpressionWriter {
 
-        private final SymbolTable locals;
+        private final Frame frame;
 
-        private final SymbolTable arguments;
+        private final Optional<That> that;
 
-        ExpressionWriter(SymbolTable locals, SymbolTable arguments) {
-            this.locals = locals;
-            this.arguments = arguments;
+        ExpressionWriter(Frame frame) {
+            this(frame, Optional.empty());
+        }
+
+        ExpressionWriter(Frame frame, Optional<That> that) {
+            this.frame = frame;
+            this.that = that;
         }
 
         public String write(Expression expression) {
-            var firstTerm = new TermWriter(expression.term(), locals, arguments).write();
+            var firstTerm = new TermWriter(expression.term(), frame, that).write();
             var continuation = expression.continuation()
-                .map(e -> String.join("\n", new ExpressionWriter(locals, arguments).write(e.term()),
+                .map(e -> String.join("\n", new ExpressionWriter(frame, that).write(e.term()),
                         new OperatorWriter(e.op()).write()))
                 .orElse("");
             return String.join("\n", firstTerm, continuation);
@@ -287,26 +720,31 @@ public class ClassWriter {
 
         private final Term term;
 
-        private final SymbolTable locals;
+        private final Frame frame;
 
-        private final SymbolTable arguments;
+        private final Optional<That> that;
 
-        public TermWriter(Term term, SymbolTable locals, SymbolTable arguments) {
+        public TermWriter(Term term, Frame frame) {
+            this(term, frame, Optional.empty());
+        }
+
+        TermWriter(Term term, Frame frame, Optional<That> that) {
             this.term = term;
-            this.locals = locals;
-            this.arguments = arguments;
+            this.frame = frame;
+            this.that = that;
         }
 
         public String write() {
             return switch (term) {
                 case Term.Constant(Token.IntegerLiteral(int i)) -> "push constant " + i;
-                case Term.Constant(Token.StringLiteral(String s)) -> {
-                    var createString = """
-                    push constant %d
-                    call String.new 1""".formatted(s.length());
-                    var appendChars = s.chars().mapToObj("push constant %s\ncall String.appendChar 2"::formatted).collect(Collectors.joining("\n"));
-                    yield String.join("\n", createString, appendChars);
+                case Term.Constant(Token.StringLiteral(String s)) when options.poolStrings() -> {
+                    // pooled literals live in statics after the class's own, built by the pool function
+                    var index = stringPool.computeIfAbsent(s,
+                            ignored -> jackClass.statics().size() + stringPool.size());
+                    pooling = true;
+                    yield "push static " + index;
                 }
+                case Term.Constant(Token.StringLiteral(String s)) -> newString(s);
                 case Term.KeywordLiteral(Token.KeywordType k) -> switch (k) {
                     case TRUE -> """
                             push constant 0
@@ -315,35 +753,18 @@ public class ClassWriter {
                     case THIS -> "push pointer 0";
                     default -> throw new RuntimeException("Not implemented " + k.keyword());
                 };
-                case Term.NonIndexedVarName(String name) -> {
-                    var symbol = arguments.resolve(name)
-                        .or(() -> locals.resolve(name))
-                        .or(() -> fields.resolve(name))
-                        .or(() -> statics.resolve(name))
-                        .orElseThrow(() -> new SyntaxError("Unknown identifier '%s'".formatted(name)));
-                    yield switch (symbol.scope()) {
-                        case ARGUMENT -> "push argument " + symbol.index();
-                        case LOCAL -> "push local " + symbol.index();
-                        case FIELD -> "push this " + symbol.index();
-                        case STATIC -> "push static " + symbol.index();
-                        case SUBROUTINE -> throw new SyntaxError("Unexpected subroutine name");
-                    };
-                }
+                case Term.NonIndexedVarName(String name) -> Frame.push(frame.require(name));
                 case Term.IndexedVarname(String name, Expression index) -> {
-                    var symbol = arguments.resolve(name)
-                            .or(() -> locals.resolve(name))
-                            .or(() -> fields.resolve(name))
-                            .or(() -> statics.resolve(name))
-                            .orElseThrow(() -> new SyntaxError("Unknown identifier '%s'".formatted(name)));
-                    var scope = switch (symbol.scope()) {
-                        case LOCAL -> "local";
-                        case FIELD -> "this";
-                        case STATIC -> "static";
-                        case ARGUMENT -> "argument";
-                        case SUBROUTINE -> throw new SyntaxError("Unexpected subroutine name");
-                    };
-                    var pushArray = "push %s %d".formatted(scope, symbol.index());
-                    var pushIndex = new ExpressionWriter(locals, arguments).write(index);
+                    var pushArray = Frame.push(frame.require(name));
+                    var offset = that.flatMap(t -> t.offset(name, index));
+                    if (offset.isPresent()) {
+                        yield "push that " + offset.get();
+                    }
+                    var constant = constantIndex(index);
+                    if (options.optimizeArrays() && constant.isPresent()) {
+                        yield String.join("\n", pushArray, "pop pointer 1", "push that " + constant.get());
+                    }
+                    var pushIndex = new ExpressionWriter(frame).write(index);
                     var pushValueAtIndex = """
                             add
                             pop pointer 1
@@ -352,52 +773,54 @@ public class ClassWriter {
 
                     yield String.join("\n", pushArray, pushIndex, pushValueAtIndex);
                 }
-                case Term.ParenthesisExpression(Expression e) -> new ExpressionWriter(locals, arguments).write(e);
+                case Term.ParenthesisExpression(Expression e) -> new ExpressionWriter(frame, that).write(e);
                 case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> {
-                    var pushTerm = new TermWriter(t, locals, arguments).write();
+                    var pushTerm = new TermWriter(t, frame, that).write();
                     var doOp = op.instruction();
                     yield String.join("\n", pushTerm, doOp);
                 }
-                case Term.LocalSubroutineCall call -> {
+                case Term.LocalSubroutineCall call -> located(call, () -> {
+                    // methods of this class are called on the current object
+                    var isMethod = jackClass.subroutines()
+                        .get(call.subroutineName()) instanceof Subroutine.JackMethod;
+                    var pushThis = isMethod ? "push pointer 0" : "";
                     var pushArguments = call.arguments()
                         .stream()
-                        .map(a -> new ExpressionWriter(locals, arguments).write(a))
+                        .map(a -> new ExpressionWriter(frame).write(a))
                         .collect(Collectors.joining("\n"));
+                    var argCount = isMethod ? call.arguments().size() + 1 : call.arguments().size();
                     var doCall = "call %s.%s %d".formatted(ClassWriter.this.jackClass.name(), call.subroutineName(),
-                            call.arguments().size());
-                    yield String.join("\n", pushArguments, doCall);
+                            argCount);
+                    return String.join("\n", pushThis, pushArguments, doCall);
+                });
+                case Term.ObjectSubroutineCall call when intrinsicFor(call, frame).isPresent() -> {
+                    var intrinsic = intrinsicFor(call, frame).get();
+                    var lowered = lower(intrinsic, call.arguments(), frame);
+                    yield intrinsic.returnsValue() ? lowered : String.join("\n", lowered, "push constant 0");
                 }
-                case Term.ObjectSubroutineCall call -> {
-                    Optional<SymbolTable.Symbol> symbol = arguments.resolve(call.target())
-                        .or(() -> locals.resolve(call.target()))
-                        .or(() -> fields.resolve(call.target()))
-                        .or(() -> statics.resolve(call.target()));
-                    var pushObject = symbol.map(s -> "push %s %d".formatted(nameFor(s), s.index())).orElse("");
+                case Term.ObjectSubroutineCall call -> located(call, () -> {
+                    var slot = frame.slot(call.target());
+                    var isObject = slot != Frame.UNRESOLVED;
+                    var pushObject = isObject ? Frame.push(slot) : "";
                     var pushArguments = call.arguments()
                         .stream()
-                        .map(a -> new ExpressionWriter(locals, arguments).write(a))
+                        .map(a -> new ExpressionWriter(frame).write(a))
                         .collect(Collectors.joining("\n"));
-                    var target = symbol.map(SymbolTable.Symbol::type).orElse(call.target());
-
-                    int argSize = call.arguments().size();
-                    if (!pushObject.isBlank()) {
-                        argSize++;
-                    }
-                    var doCall = "call %s.%s %d".formatted(target, call.subroutineName(), argSize);
-                    yield String.join("\n", pushObject, pushArguments, doCall);
-                }
+                    var target = isObject ? frame.type(call.target()) : call.target();
+                    var argCount = isObject ? call.arguments().size() + 1 : call.arguments().size();
+                    var doCall = "call %s.%s %d".formatted(target, call.subroutineName(), argCount);
+                    return String.join("\n", pushObject, pushArguments, doCall);
+                });
                 default -> throw new RuntimeException("Not implemented: " + term.getClass().getSimpleName());
             };
         }
 
-        private static String nameFor(SymbolTable.Symbol s) {
-            return switch (s.scope()) {
-                case ARGUMENT -> "argument";
-                case LOCAL -> "local";
-                case FIELD -> "this";
-                case STATIC -> "static";
-                case SUBROUTINE -> throw new SyntaxError("what the fuck");
-            };
+        private static String newString(String s) {
+            var createString = """
+                    push constant %d
+                    call String.new 1""".formatted(s.length());
+            var appendChars = s.chars().mapToObj("push constant %s\ncall String.appendChar 2"::formatted).collect(Collectors.joining("\n"));
+            return String.join("\n", createString, appendChars);
         }
 
     }
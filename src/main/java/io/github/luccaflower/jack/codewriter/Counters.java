@@ -0,0 +1,142 @@
+package io.github.luccaflower.jack.codewriter;
+
+import io.github.luccaflower.jack.tokenizer.Position;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The execution counters of an instrumented program, one word of RAM each. The block
+ * starts right above the keyboard and runs up to the end of the 32K words of RAM, where
+ * neither the OS nor the heap ever writes, so counters and a program's data can't
+ * corrupt each other however the OS allocates. That leaves room for 8191 counters, and
+ * counters wrap around after 65535.
+ * <p>
+ * The Hack hardware itself has nothing above the keyboard, so an instrumented program
+ * only runs on an emulator whose RAM is the full 32K words, as the Hack emulators' is, and
+ * the interpreter's, the JIT's and the {@code Cpu}'s.
+ * <p>
+ * The layout of a class's counters is kept next to its VM code as text, a line per
+ * counter holding its address, kind, function and position in the source, so that a
+ * dump of the RAM after a run on any emulator can be read back into a {@link #report}.
+ */
+public final class Counters {
+
+    public static final int START = 24577;
+
+    public static final int END = 32768;
+
+    private int next = START;
+
+    /**
+     * @return the address of a new counter, the word after the one before
+     */
+    int allocate() {
+        if (next == END) {
+            throw new IllegalStateException("No room for more counters");
+        }
+        return next++;
+    }
+
+    /**
+     * @return the VM code that adds one to the counter
+     */
+    static String increment(int address) {
+        return """
+                push constant %d
+                pop pointer 1
+                push that 0
+                push constant 1
+                add
+                pop that 0""".formatted(address);
+    }
+
+    public static String layout(List<Counter> counters) {
+        return counters.stream().map(Counter::toString).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line isn't a counter
+     */
+    public static List<Counter> readLayout(String layout) {
+        return layout.lines().filter(l -> !l.isBlank()).map(Counter::parse).toList();
+    }
+
+    /**
+     * @param ram the words of the dump, by address, with those missing taken to be 0
+     * @return a line per counter, grouped by function, with the share each arm of an
+     * {@code if} got and the iterations a loop ran per call of its function
+     */
+    public static String report(List<Counter> counters, Map<Integer, Integer> ram) {
+        var byFunction = new LinkedHashMap<String, List<Counter>>();
+        counters.forEach(c -> byFunction.computeIfAbsent(c.function(), f -> new ArrayList<>()).add(c));
+        var out = new StringBuilder();
+        out.append("%-40s %-9s %-6s %8s %10s%n".formatted("Function", "Line", "Kind", "Count", "Share"));
+        byFunction.forEach((function, own) -> {
+            var calls = own.stream()
+                .filter(c -> c.kind() == Kind.ENTRY)
+                .mapToInt(c -> c.value(ram))
+                .sum();
+            for (var c : own) {
+                var share = switch (c.kind()) {
+                    case ENTRY -> "";
+                    case THEN, ELSE -> {
+                        // the else arm's counter is the word after the then arm's
+                        var other = c.kind() == Kind.THEN ? c.address() + 1 : c.address() - 1;
+                        var total = c.value(ram) + (ram.getOrDefault(other, 0) & 0xFFFF);
+                        yield total == 0 ? "" : "%.1f%%".formatted(100.0 * c.value(ram) / total);
+                    }
+                    case LOOP -> calls == 0 ? "" : "%.1f/call".formatted((double) c.value(ram) / calls);
+                };
+                out.append("%-40s %-9s %-6s %8d %10s%n".formatted(function, c.line() + ":" + c.column(),
+                        c.kind().name().toLowerCase(), c.value(ram), share));
+            }
+        });
+        return out.toString();
+    }
+
+    /**
+     * Where a counter is counted: on entering a subroutine, on taking either arm of an
+     * {@code if}, or on each iteration of a {@code while}.
+     */
+    public enum Kind {
+
+        ENTRY, THEN, ELSE, LOOP
+
+    }
+
+    /**
+     * @param line the line of the subroutine or statement counted, or 0 if unknown
+     */
+    public record Counter(int address, Kind kind, String function, int line, int column) {
+
+        Counter(int address, Kind kind, String function, Position position) {
+            this(address, kind, function, position == null ? 0 : position.line(),
+                    position == null ? 0 : position.column());
+        }
+
+        int value(Map<Integer, Integer> ram) {
+            return ram.getOrDefault(address, 0) & 0xFFFF;
+        }
+
+        static Counter parse(String line) {
+            var words = line.trim().split("\\s+");
+            if (words.length != 4 || !words[3].contains(":")) {
+                throw new IllegalArgumentException("Not a counter: " + line);
+            }
+            var position = words[3].split(":");
+            return new Counter(Integer.parseInt(words[0]), Kind.valueOf(words[1].toUpperCase()), words[2],
+                    Integer.parseInt(position[0]), Integer.parseInt(position[1]));
+        }
+
+        @Override
+        public String toString() {
+            return "%d %s %s %d:%d".formatted(address, kind.name().toLowerCase(), function, line, column);
+        }
+
+    }
+
+}
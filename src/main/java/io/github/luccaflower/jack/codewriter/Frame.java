@@ -0,0 +1,76 @@
+package io.github.luccaflower.jack.codewriter;
+
+import io.github.luccaflower.jack.tokenizer.SyntaxError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every name visible inside one subroutine, resolved once to the segment and index it
+ * lives at. A slot packs the segment in its high half and the index in its low half, so
+ * looking up a variable is a single map lookup. Tables given first shadow the ones after
+ * them.
+ */
+final class Frame {
+
+    static final int UNRESOLVED = -1;
+
+    private static final String[] SEGMENTS = new String[SymbolTable.Scope.values().length];
+
+    static {
+        SEGMENTS[SymbolTable.Scope.ARGUMENT.ordinal()] = "argument";
+        SEGMENTS[SymbolTable.Scope.LOCAL.ordinal()] = "local";
+        SEGMENTS[SymbolTable.Scope.FIELD.ordinal()] = "this";
+        SEGMENTS[SymbolTable.Scope.STATIC.ordinal()] = "static";
+    }
+
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    private final Map<String, String> types = new HashMap<>();
+
+    Frame(SymbolTable... tables) {
+        for (var table : tables) {
+            if (SEGMENTS[table.scope().ordinal()] == null) {
+                throw new IllegalArgumentException("No segment for " + table.scope());
+            }
+            table.symbols().forEach((name, symbol) -> {
+                if (slots.putIfAbsent(name, symbol.scope().ordinal() << 16 | symbol.index()) == null) {
+                    types.put(name, symbol.type());
+                }
+            });
+        }
+    }
+
+    int slot(String name) {
+        return slots.getOrDefault(name, UNRESOLVED);
+    }
+
+    int require(String name) {
+        var slot = slot(name);
+        if (slot == UNRESOLVED) {
+            throw new SyntaxError("Unknown identifier '%s'".formatted(name));
+        }
+        return slot;
+    }
+
+    String type(String name) {
+        return types.get(name);
+    }
+
+    static String segment(int slot) {
+        return SEGMENTS[slot >>> 16];
+    }
+
+    static int index(int slot) {
+        return slot & 0xFFFF;
+    }
+
+    static String push(int slot) {
+        return "push %s %d".formatted(segment(slot), index(slot));
+    }
+
+    static String pop(int slot) {
+        return "pop %s %d".formatted(segment(slot), index(slot));
+    }
+
+}
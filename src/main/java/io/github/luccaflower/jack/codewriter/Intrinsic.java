@@ -0,0 +1,49 @@
+package io.github.luccaflower.jack.codewriter;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * OS subroutines the code writer can lower in place instead of calling, with the same
+ * result as the OS implementation.
+ */
+public enum Intrinsic {
+
+    MEMORY_PEEK("Memory", "peek", 1, true), MEMORY_POKE("Memory", "poke", 2, false), MATH_ABS("Math", "abs", 1, true),
+    MATH_MIN("Math", "min", 2, true), MATH_MAX("Math", "max", 2, true);
+
+    private final String className;
+
+    private final String subroutineName;
+
+    private final int arity;
+
+    private final boolean returnsValue;
+
+    Intrinsic(String className, String subroutineName, int arity, boolean returnsValue) {
+        this.className = className;
+        this.subroutineName = subroutineName;
+        this.arity = arity;
+        this.returnsValue = returnsValue;
+    }
+
+    public String className() {
+        return className;
+    }
+
+    public boolean returnsValue() {
+        return returnsValue;
+    }
+
+    static Optional<Intrinsic> of(String className, String subroutineName, int arity) {
+        return Arrays.stream(values())
+            .filter(i -> i.className.equals(className) && i.subroutineName.equals(subroutineName) && i.arity == arity)
+            .findFirst();
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + subroutineName;
+    }
+
+}
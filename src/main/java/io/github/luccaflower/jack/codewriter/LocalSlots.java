@@ -0,0 +1,167 @@
+package io.github.luccaflower.jack.codewriter;
+
+import io.github.luccaflower.jack.parser.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Packs a subroutine's locals into as few slots as possible. Liveness is computed
+ * backwards over the statement tree, iterating loops until their live sets stop growing.
+ * Two locals interfere when both are live at the same point, or when one is assigned
+ * while the other is live. Locals that don't interfere share a slot.
+ */
+final class LocalSlots {
+
+    private final Set<String> candidates;
+
+    private final Map<String, Set<String>> interference = new HashMap<>();
+
+    private LocalSlots(Subroutine subroutine) {
+        candidates = new HashSet<>(subroutine.locals().keySet());
+        // a local shadowed by an argument can never be referenced
+        subroutine.arguments().forEach(p -> candidates.remove(p.name()));
+    }
+
+    /**
+     * Slot for every local of the subroutine, in declaration order. Slots are numbered
+     * from zero without gaps.
+     */
+    static Map<String, Integer> allocate(Subroutine subroutine) {
+        var slots = new LocalSlots(subroutine);
+        slots.liveIn(subroutine.statements(), Set.of());
+        return slots.colour(subroutine.locals().keySet());
+    }
+
+    /**
+     * Locals whose value at entry is read, i.e. that rely on the frame starting out zeroed.
+     */
+    static Set<String> liveOnEntry(Subroutine subroutine) {
+        return new LocalSlots(subroutine).liveIn(subroutine.statements(), Set.of());
+    }
+
+    private Map<String, Integer> colour(Collection<String> locals) {
+        var slots = new LinkedHashMap<String, Integer>();
+        for (var name : locals) {
+            var taken = interference.getOrDefault(name, Set.of())
+                .stream()
+                .map(slots::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+            var slot = 0;
+            while (taken.contains(slot)) {
+                slot++;
+            }
+            slots.put(name, slot);
+        }
+        return slots;
+    }
+
+    private Set<String> liveIn(List<Statement> statements, Set<String> liveOut) {
+        var live = liveOut;
+        for (var statement : statements.reversed()) {
+            live = liveIn(statement, live);
+        }
+        return live;
+    }
+
+    private Set<String> liveIn(Statement statement, Set<String> liveOut) {
+        var live = switch (statement) {
+            case Statement.NonIndexedLetStatement(String name, Expression value) -> assign(name, value, liveOut);
+            case Statement.IndexedLetStatement(String name, Expression index, Expression value) -> {
+                var in = new HashSet<>(liveOut);
+                use(name, in);
+                uses(index, in);
+                uses(value, in);
+                yield in;
+            }
+            case Statement.OldLetStatement(String name, Optional<Expression> index, Expression value) -> index
+                .map(i -> liveIn(new Statement.IndexedLetStatement(name, i, value), liveOut))
+                .orElseGet(() -> assign(name, value, liveOut));
+            case Term.SubroutineCall call -> {
+                var in = new HashSet<>(liveOut);
+                uses(call, in);
+                yield in;
+            }
+            case Statement.ReturnStatement(Optional<Expression> value) -> {
+                var in = new HashSet<String>();
+                value.ifPresent(v -> uses(v, in));
+                yield in;
+            }
+            case Statement.IfStatement(Expression condition, List<Statement> statements,
+                    Optional<Statement.ElseBlock> elseBlock) -> {
+                var in = new HashSet<>(liveIn(statements, liveOut));
+                in.addAll(elseBlock.map(b -> liveIn(b.statements(), liveOut)).orElse(liveOut));
+                uses(condition, in);
+                yield in;
+            }
+            case Statement.WhileStatement(Expression condition, List<Statement> statements) -> {
+                var head = new HashSet<>(liveOut);
+                uses(condition, head);
+                // the body's live-in flows back to the condition until nothing changes
+                boolean grew;
+                do {
+                    grew = head.addAll(liveIn(statements, Set.copyOf(head)));
+                }
+                while (grew);
+                yield head;
+            }
+        };
+        live.forEach(name -> interfere(name, live));
+        return live;
+    }
+
+    private Set<String> assign(String name, Expression value, Set<String> liveOut) {
+        if (candidates.contains(name)) {
+            // the store clobbers the slot even if the value is never read
+            interfere(name, liveOut);
+        }
+        var in = new HashSet<>(liveOut);
+        in.remove(name);
+        uses(value, in);
+        return in;
+    }
+
+    private void interfere(String name, Set<String> others) {
+        for (var other : others) {
+            if (!other.equals(name)) {
+                interference.computeIfAbsent(name, ignored -> new HashSet<>()).add(other);
+                interference.computeIfAbsent(other, ignored -> new HashSet<>()).add(name);
+            }
+        }
+    }
+
+    private void use(String name, Set<String> live) {
+        if (candidates.contains(name)) {
+            live.add(name);
+        }
+    }
+
+    private void uses(Expression expression, Set<String> live) {
+        uses(expression.term(), live);
+        expression.continuation().ifPresent(c -> uses(c.term(), live));
+    }
+
+    private void uses(Term term, Set<String> live) {
+        switch (term) {
+            case Term.NonIndexedVarName(String name) -> use(name, live);
+            case Term.IndexedVarname(String name, Expression index) -> {
+                use(name, live);
+                uses(index, live);
+            }
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> uses(t, live);
+            case Term.ParenthesisExpression(Expression e) -> uses(e, live);
+            case Term.LocalSubroutineCall(String name, List<Expression> arguments) ->
+                arguments.forEach(a -> uses(a, live));
+            case Term.ObjectSubroutineCall(String target, String name, List<Expression> arguments) -> {
+                use(target, live);
+                arguments.forEach(a -> uses(a, live));
+            }
+            case Term.Constant c -> {
+            }
+            case Term.KeywordLiteral k -> {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package io.github.luccaflower.jack.codewriter;
+
+import java.util.Set;
+
+/**
+ * Switches for the code writer's optimizations.
+ *
+ * @param optimizeBranches lower conditions straight into jumps and rotate loops
+ * @param poolStrings build each distinct string literal once and keep it in a static,
+ * all of a class's at once, the first time a subroutine using one is entered. Programs
+ * that modify or dispose literal strings will see the change everywhere the literal is
+ * used
+ * @param reuseLocals let locals that are never live at the same time share a slot
+ * @param eliminateTailCalls turn a subroutine returning a call to itself into a loop
+ * @param optimizeArrays address constant indices directly off the array, and keep
+ * {@code pointer 1} pointing where it already does instead of setting it up again
+ * @param intrinsics OS subroutines to lower in place instead of calling
+ * @param sourceMap keep a {@link SourceMap} of where the code comes from, which changes
+ * nothing about the code itself
+ * @param instrument count subroutine calls, the arms of {@code if}s taken and the
+ * iterations of {@code while}s in a block of RAM, see {@link Counters}
+ */
+public record Options(boolean optimizeBranches, boolean poolStrings, boolean reuseLocals,
+        boolean eliminateTailCalls, boolean optimizeArrays, Set<Intrinsic> intrinsics, boolean sourceMap,
+        boolean instrument) {
+
+    public static Options defaults() {
+        return builder().build();
+    }
+
+    public Options withIntrinsics(Set<Intrinsic> intrinsics) {
+        return new Options(optimizeBranches, poolStrings, reuseLocals, eliminateTailCalls, optimizeArrays,
+                Set.copyOf(intrinsics), sourceMap, instrument);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private boolean optimizeBranches = true;
+
+        private boolean poolStrings = false;
+
+        private boolean reuseLocals = true;
+
+        private boolean eliminateTailCalls = true;
+
+        private boolean optimizeArrays = true;
+
+        private Set<Intrinsic> intrinsics = Set.of(Intrinsic.values());
+
+        private boolean sourceMap = false;
+
+        private boolean instrument = false;
+
+        private Builder() {
+        }
+
+        public Builder optimizeBranches(boolean optimizeBranches) {
+            this.optimizeBranches = optimizeBranches;
+            return this;
+        }
+
+        public Builder poolStrings(boolean poolStrings) {
+            this.poolStrings = poolStrings;
+            return this;
+        }
+
+        public Builder reuseLocals(boolean reuseLocals) {
+            this.reuseLocals = reuseLocals;
+            return this;
+        }
+
+        public Builder eliminateTailCalls(boolean eliminateTailCalls) {
+            this.eliminateTailCalls = eliminateTailCalls;
+            return this;
+        }
+
+        public Builder optimizeArrays(boolean optimizeArrays) {
+            this.optimizeArrays = optimizeArrays;
+            return this;
+        }
+
+        public Builder intrinsics(Set<Intrinsic> intrinsics) {
+            this.intrinsics = Set.copyOf(intrinsics);
+            return this;
+        }
+
+        public Builder sourceMap(boolean sourceMap) {
+            this.sourceMap = sourceMap;
+            return this;
+        }
+
+        public Builder instrument(boolean instrument) {
+            this.instrument = instrument;
+            return this;
+        }
+
+        public Options build() {
+            return new Options(optimizeBranches, poolStrings, reuseLocals, eliminateTailCalls, optimizeArrays,
+                    intrinsics, sourceMap, instrument);
+        }
+
+    }
+
+}
@@ -0,0 +1,264 @@
+package io.github.luccaflower.jack.codewriter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where in the Jack source the VM code of a class comes from. Each entry starts a range
+ * of commands, counted the way the {@code .vm} file counts its non-blank lines, that runs
+ * up to the next entry and belongs to the statement or subroutine call at the entry's
+ * line and column. The header of a function maps to the subroutine's declaration.
+ * Nodes rebuilt by optimization passes have no position of their own and map to the
+ * node around them, and the code of a subroutine with no known declaration to line 0.
+ * <p>
+ * Written out, the map starts with {@code JSM} and a version byte, then lists the
+ * function names once and the entries after them, each as varints relative to the
+ * entry before: a statement per a handful of bytes.
+ */
+public final class SourceMap {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = "JSM".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<Entry> entries;
+
+    /**
+     * @param entries ordered by the command they start at
+     */
+    public SourceMap(List<Entry> entries) {
+        this.entries = List.copyOf(entries);
+    }
+
+    public static SourceMap empty() {
+        return new SourceMap(List.of());
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * @param command the index of a command among the class's commands
+     * @return the entry of the range the command falls in, if any
+     */
+    public Optional<Entry> at(int command) {
+        int low = 0, high = entries.size() - 1, found = -1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            if (entries.get(middle).command() <= command) {
+                found = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return found < 0 ? Optional.empty() : Optional.of(entries.get(found));
+    }
+
+    public byte[] toBytes() {
+        var out = new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        out.write(VERSION);
+        var functions = new LinkedHashMap<String, Integer>();
+        entries.forEach(e -> functions.putIfAbsent(e.function(), functions.size()));
+        writeVarint(out, functions.size());
+        for (var function : functions.keySet()) {
+            var name = function.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, name.length);
+            out.writeBytes(name);
+        }
+        writeVarint(out, entries.size());
+        var previous = new Entry(0, 0, 0, "");
+        for (var e : entries) {
+            writeVarint(out, e.command() - previous.command());
+            writeVarint(out, zigzag(e.line() - previous.line()));
+            writeVarint(out, e.column());
+            writeVarint(out, functions.get(e.function()));
+            previous = e;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes aren't a source map of this version
+     */
+    public static SourceMap read(byte[] bytes) {
+        var in = new Reader(bytes);
+        for (var b : MAGIC) {
+            if (in.next() != b) {
+                throw new IllegalArgumentException("Not a source map");
+            }
+        }
+        var version = in.next();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported source map version " + version);
+        }
+        var functions = new String[in.varint()];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = in.string(in.varint());
+        }
+        var count = in.varint();
+        var entries = new ArrayList<Entry>(count);
+        int command = 0, line = 0;
+        for (int i = 0; i < count; i++) {
+            command += in.varint();
+            line += unzigzag(in.varint());
+            var column = in.varint();
+            var function = in.varint();
+            if (function >= functions.length) {
+                throw new IllegalArgumentException("No function " + function);
+            }
+            entries.add(new Entry(command, line, column, functions[function]));
+        }
+        return new SourceMap(entries);
+    }
+
+    /**
+     * @return the entries as {@code command line:column function} lines
+     */
+    @Override
+    public String toString() {
+        var out = new StringBuilder();
+        entries.forEach(e -> out.append("%d %d:%d %s%n".formatted(e.command(), e.line(), e.column(), e.function())));
+        return out.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SourceMap other && entries.equals(other.entries);
+    }
+
+    @Override
+    public int hashCode() {
+        return entries.hashCode();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int zigzag(int value) {
+        return value << 1 ^ value >> 31;
+    }
+
+    private static int unzigzag(int value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * Builds a map from the markers {@link ClassWriter} leaves in front of the code of
+     * each located node, dropping them from the code.
+     */
+    static final class Builder {
+
+        static final String MARKER = "// @";
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        private final List<String> code = new ArrayList<>();
+
+        static String marker(int line, int column) {
+            return MARKER + line + ":" + column;
+        }
+
+        /**
+         * @return the code without the markers
+         */
+        String strip(String marked) {
+            String function = null;
+            int[] pending = null;
+            var command = 0;
+            for (var line : marked.lines().toList()) {
+                if (line.startsWith(MARKER)) {
+                    var position = line.substring(MARKER.length()).split(":");
+                    pending = new int[] { Integer.parseInt(position[0]), Integer.parseInt(position[1]) };
+                    continue;
+                }
+                code.add(line);
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (line.startsWith("function ")) {
+                    function = line.split(" ")[1];
+                }
+                if (pending != null && function != null) {
+                    add(new Entry(command, pending[0], pending[1], function));
+                    pending = null;
+                }
+                command++;
+            }
+            return String.join("\n", code);
+        }
+
+        private void add(Entry entry) {
+            var last = entries.isEmpty() ? null : entries.getLast();
+            if (last == null || last.line() != entry.line() || last.column() != entry.column()
+                    || !last.function().equals(entry.function())) {
+                entries.add(entry);
+            }
+        }
+
+        SourceMap build() {
+            return new SourceMap(entries);
+        }
+
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+
+        private int at = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int next() {
+            if (at == bytes.length) {
+                throw new IllegalArgumentException("Source map ends early");
+            }
+            return bytes[at++] & 0xFF;
+        }
+
+        int varint() {
+            var value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                var b = next();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String string(int length) {
+            if (length > bytes.length - at) {
+                throw new IllegalArgumentException("Source map ends early");
+            }
+            var s = new String(bytes, at, length, StandardCharsets.UTF_8);
+            at += length;
+            return s;
+        }
+
+    }
+
+    /**
+     * @param command the first command of the range
+     * @param function the VM function the range is in, such as {@code Main.main}
+     */
+    public record Entry(int command, int line, int column, String function) {
+    }
+
+}
@@ -1,5 +1,6 @@
 package io.github.luccaflower.jack.codewriter;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -11,7 +12,26 @@ public record SymbolTable(Map<String, Symbol> symbols, Scope scope) {
     public static SymbolTable create(List<Identifier> entries, Scope scope) {
         return new SymbolTable(IntStream.range(0, entries.size())
             .mapToObj(i -> new Symbol(i, scope, entries.get(i).type()))
-            .collect(Collectors.toMap(e -> entries.get(e.index()).name(), e -> e)), scope);
+            .collect(Collectors.toMap(e -> entries.get(e.index()).name(), e -> e, (a, b) -> {
+                throw new IllegalStateException("Duplicate identifier at index " + b.index());
+            }, LinkedHashMap::new)), scope);
+    }
+
+    /**
+     * The same names and types moved to the given indices. Several names may share an
+     * index.
+     */
+    public SymbolTable withIndices(Map<String, Integer> indices) {
+        var moved = new LinkedHashMap<String, Symbol>();
+        symbols.forEach((name, symbol) -> moved.put(name, new Symbol(indices.get(name), scope, symbol.type())));
+        return new SymbolTable(moved, scope);
+    }
+
+    /**
+     * Number of slots the symbols occupy.
+     */
+    public int slots() {
+        return symbols.values().stream().mapToInt(Symbol::index).max().orElse(-1) + 1;
     }
 
     Optional<Symbol> resolve(String name) {
@@ -0,0 +1,146 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+
+import java.util.*;
+
+/**
+ * Calls between subroutines of a whole program, keyed by qualified name
+ * ({@code Class.subroutine}). Calls the code writer emits implicitly, such as
+ * {@code Math.multiply} for {@code *}, are included as edges.
+ */
+public record CallGraph(Map<String, Set<String>> calls) {
+
+    public static CallGraph of(List<JackClass> classes) {
+        var calls = new LinkedHashMap<String, Set<String>>();
+        for (var jackClass : classes) {
+            for (var subroutine : jackClass.subroutines().values()) {
+                var callees = new LinkedHashSet<String>();
+                var collector = new CallCollector(jackClass, subroutine, callees);
+                if (subroutine instanceof Subroutine.JackConstructor) {
+                    callees.add("Memory.alloc");
+                }
+                subroutine.statements().forEach(collector::collect);
+                calls.put(qualifiedName(jackClass, subroutine), callees);
+            }
+        }
+        return new CallGraph(calls);
+    }
+
+    public static String qualifiedName(JackClass jackClass, Subroutine subroutine) {
+        return jackClass.name() + "." + subroutine.name();
+    }
+
+    public Set<String> callees(String subroutine) {
+        return calls.getOrDefault(subroutine, Set.of());
+    }
+
+    public Set<String> reachableFrom(Collection<String> entryPoints) {
+        var reachable = new LinkedHashSet<String>();
+        var pending = new ArrayDeque<>(entryPoints);
+        while (!pending.isEmpty()) {
+            var next = pending.pop();
+            if (reachable.add(next)) {
+                pending.addAll(callees(next));
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Resolves the class a call is dispatched to, following the same scoping rules as
+     * the code writer: arguments shadow locals, which shadow fields and statics. A
+     * target that isn't a variable is a class name.
+     */
+    static String targetClass(JackClass jackClass, Subroutine subroutine, Term.SubroutineCall call) {
+        return switch (call) {
+            case Term.LocalSubroutineCall ignored -> jackClass.name();
+            case Term.ObjectSubroutineCall c -> subroutine.arguments()
+                .stream()
+                .filter(p -> p.name().equals(c.target()))
+                .map(Parameter::type)
+                .findFirst()
+                .or(() -> Optional.ofNullable(subroutine.locals().get(c.target())))
+                .or(() -> Optional.ofNullable(jackClass.fields().get(c.target())))
+                .or(() -> Optional.ofNullable(jackClass.statics().get(c.target())))
+                .map(Type::name)
+                .orElse(c.target());
+        };
+    }
+
+    static String subroutineName(Term.SubroutineCall call) {
+        return switch (call) {
+            case Term.LocalSubroutineCall c -> c.subroutineName();
+            case Term.ObjectSubroutineCall c -> c.subroutineName();
+        };
+    }
+
+    static List<Expression> arguments(Term.SubroutineCall call) {
+        return switch (call) {
+            case Term.LocalSubroutineCall c -> c.arguments();
+            case Term.ObjectSubroutineCall c -> c.arguments();
+        };
+    }
+
+    private record CallCollector(JackClass jackClass, Subroutine subroutine, Set<String> callees) {
+
+        void collect(Statement statement) {
+            switch (statement) {
+                case Term.SubroutineCall call -> collect((Term) call);
+                case Statement.LetStatement let -> {
+                    if (let instanceof Statement.IndexedLetStatement indexed) {
+                        collect(indexed.index());
+                    }
+                    if (let instanceof Statement.OldLetStatement old) {
+                        old.index().ifPresent(this::collect);
+                    }
+                    collect(let.value());
+                }
+                case Statement.ReturnStatement r -> r.returnValue().ifPresent(this::collect);
+                case Statement.WhileStatement w -> {
+                    collect(w.condition());
+                    w.statements().forEach(this::collect);
+                }
+                case Statement.IfStatement i -> {
+                    collect(i.condition());
+                    i.statements().forEach(this::collect);
+                    i.elseBlock().ifPresent(e -> e.statements().forEach(this::collect));
+                }
+            }
+        }
+
+        void collect(Expression expression) {
+            collect(expression.term());
+            expression.continuation().ifPresent(c -> {
+                switch (c.op()) {
+                    case TIMES -> callees.add("Math.multiply");
+                    case DIVIDED_BY -> callees.add("Math.divide");
+                    default -> {
+                    }
+                }
+                collect(c.term());
+            });
+        }
+
+        void collect(Term term) {
+            switch (term) {
+                case Term.Constant(Token.StringLiteral ignored) -> {
+                    callees.add("String.new");
+                    callees.add("String.appendChar");
+                }
+                case Term.IndexedVarname v -> collect(v.index());
+                case Term.ParenthesisExpression p -> collect(p.expression());
+                case Term.UnaryOpTerm u -> collect(u.term());
+                case Term.SubroutineCall call -> {
+                    callees.add(targetClass(jackClass, subroutine, call) + "." + subroutineName(call));
+                    arguments(call).forEach(this::collect);
+                }
+                default -> {
+                }
+            }
+        }
+
+    }
+
+}
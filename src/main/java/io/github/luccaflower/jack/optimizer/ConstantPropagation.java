@@ -0,0 +1,135 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Block;
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Node;
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Frame variables known to hold a constant. Locals start out as 0, as the VM zeroes
+ * them, while arguments are unknown. An edge out of a condition that is known to go the
+ * other way isn't followed, and blocks no followed edge leads to have a null fact.
+ */
+final class ConstantPropagation implements Dataflow.Analysis<Map<String, Integer>> {
+
+    private final ControlFlowGraph graph;
+
+    private final Map<String, Integer> boundary = new HashMap<>();
+
+    ConstantPropagation(ControlFlowGraph graph, Subroutine subroutine) {
+        this.graph = graph;
+        subroutine.locals().keySet().forEach(name -> boundary.put(name, 0));
+        // arguments shadow locals of the same name
+        subroutine.arguments().forEach(p -> boundary.remove(p.name()));
+    }
+
+    @Override
+    public boolean forward() {
+        return true;
+    }
+
+    @Override
+    public Map<String, Integer> boundary() {
+        return boundary;
+    }
+
+    @Override
+    public Map<String, Integer> initial() {
+        return null;
+    }
+
+    @Override
+    public Map<String, Integer> join(Map<String, Integer> left, Map<String, Integer> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        var joined = new HashMap<String, Integer>();
+        left.forEach((name, value) -> {
+            if (value.equals(right.get(name))) {
+                joined.put(name, value);
+            }
+        });
+        return joined;
+    }
+
+    @Override
+    public Map<String, Integer> transfer(Node node, Map<String, Integer> constants) {
+        if (constants == null) {
+            return null;
+        }
+        return graph.definition(node).map(d -> {
+            var after = new HashMap<>(constants);
+            evaluate(d.value(), constants).ifPresentOrElse(v -> after.put(d.name(), v), () -> after.remove(d.name()));
+            return (Map<String, Integer>) after;
+        }).orElse(constants);
+    }
+
+    @Override
+    public Map<String, Integer> edge(Block from, Block to, Map<String, Integer> constants) {
+        if (constants == null || from.nodes().isEmpty()
+                || !(from.nodes().getLast() instanceof Node.Condition(Statement owner, Expression condition))) {
+            return constants;
+        }
+        var value = evaluate(condition, constants);
+        if (value.isEmpty()) {
+            return constants;
+        }
+        var taken = from.successors().get(value.get() != 0 ? 0 : 1);
+        return taken == to ? constants : null;
+    }
+
+    /**
+     * Value of the expression if it only depends on the given constants, evaluated the
+     * way the VM would, in 16 bits.
+     */
+    static Optional<Integer> evaluate(Expression expression, Map<String, Integer> constants) {
+        var left = evaluate(expression.term(), constants);
+        if (expression.continuation().isEmpty() || left.isEmpty()) {
+            return left;
+        }
+        var continuation = expression.continuation().get();
+        return evaluate(continuation.term(), constants).flatMap(right -> apply(continuation.op(), left.get(), right));
+    }
+
+    private static Optional<Integer> evaluate(Term term, Map<String, Integer> constants) {
+        return switch (term) {
+            case Term.Constant(Token.IntegerLiteral(int i)) -> Optional.of(i);
+            case Term.KeywordLiteral(Token.KeywordType k) -> switch (k) {
+                case TRUE -> Optional.of(-1);
+                case FALSE, NULL -> Optional.of(0);
+                default -> Optional.empty();
+            };
+            case Term.NonIndexedVarName(String name) -> Optional.ofNullable(constants.get(name));
+            case Term.ParenthesisExpression(Expression e) -> evaluate(e, constants);
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> evaluate(t, constants)
+                .map(v -> op == Term.UnaryOp.NEGATIVE ? wrap(-v) : ~v);
+            default -> Optional.empty();
+        };
+    }
+
+    private static Optional<Integer> apply(Expression.Operator op, int left, int right) {
+        return switch (op) {
+            case PLUS -> Optional.of(wrap(left + right));
+            case MINUS -> Optional.of(wrap(left - right));
+            case TIMES -> Optional.of(wrap(left * right));
+            case DIVIDED_BY -> right == 0 ? Optional.empty() : Optional.of(wrap(left / right));
+            case BITWISE_AND -> Optional.of(left & right);
+            case BITWISE_OR -> Optional.of(left | right);
+            case LESS_THAN -> Optional.of(left < right ? -1 : 0);
+            case GREATER_THAN -> Optional.of(left > right ? -1 : 0);
+            case EQUALS -> Optional.of(left == right ? -1 : 0);
+        };
+    }
+
+    private static int wrap(int value) {
+        return (short) value;
+    }
+
+}
@@ -0,0 +1,265 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+
+import java.util.*;
+
+/**
+ * Basic blocks of a subroutine and the edges between them. Lets, dos and returns are
+ * nodes inside a block. The condition of an if or while ends its block, which then has
+ * two successors, the one taken when the condition holds first. Statements following a
+ * return start a block that no edge leads to.
+ */
+public final class ControlFlowGraph {
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    private final Set<String> variables = new LinkedHashSet<>();
+
+    private final Block entry;
+
+    private final Block exit;
+
+    private ControlFlowGraph(Subroutine subroutine) {
+        variables.addAll(subroutine.locals().keySet());
+        subroutine.arguments().forEach(p -> variables.add(p.name()));
+        entry = block();
+        var returning = new ArrayList<Block>();
+        var end = build(subroutine.statements(), entry, returning);
+        exit = block();
+        returning.forEach(b -> link(b, exit));
+        if (end != null) {
+            link(end, exit);
+        }
+    }
+
+    public static ControlFlowGraph of(Subroutine subroutine) {
+        return new ControlFlowGraph(subroutine);
+    }
+
+    public List<Block> blocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    public Block entry() {
+        return entry;
+    }
+
+    public Block exit() {
+        return exit;
+    }
+
+    /**
+     * Names that live in the subroutine's frame, its arguments and locals. Only these
+     * are tracked by the analyses: fields and statics may change in any call.
+     */
+    public Set<String> variables() {
+        return Collections.unmodifiableSet(variables);
+    }
+
+    /**
+     * Frame variables the node reads.
+     */
+    public Set<String> uses(Node node) {
+        var uses = new LinkedHashSet<String>();
+        switch (node) {
+            case Node.Simple(Term.SubroutineCall call) -> uses((Term) call, uses);
+            case Node.Simple(Statement.IndexedLetStatement(String name, Expression index, Expression value)) -> {
+                use(name, uses);
+                uses(index, uses);
+                uses(value, uses);
+            }
+            case Node.Simple(Statement.OldLetStatement(String name, Optional<Expression> index, Expression value)) -> {
+                index.ifPresent(i -> {
+                    use(name, uses);
+                    uses(i, uses);
+                });
+                uses(value, uses);
+            }
+            default -> node.expressions().forEach(e -> uses(e, uses));
+        }
+        return uses;
+    }
+
+    /**
+     * The frame variable the node assigns, if any, and the value it assigns.
+     */
+    public Optional<Definition> definition(Node node) {
+        return switch (node) {
+            case Node.Simple(Statement.NonIndexedLetStatement(String name, Expression value)) when variables
+                .contains(name) -> Optional.of(new Definition(name, value));
+            case Node.Simple(Statement.OldLetStatement(String name, Optional<Expression> index, Expression value)) when index
+                .isEmpty() && variables.contains(name) -> Optional.of(new Definition(name, value));
+            default -> Optional.empty();
+        };
+    }
+
+    private void use(String name, Set<String> uses) {
+        if (variables.contains(name)) {
+            uses.add(name);
+        }
+    }
+
+    private void uses(Expression expression, Set<String> uses) {
+        uses(expression.term(), uses);
+        expression.continuation().ifPresent(c -> uses(c.term(), uses));
+    }
+
+    private void uses(Term term, Set<String> uses) {
+        switch (term) {
+            case Term.NonIndexedVarName(String name) -> use(name, uses);
+            case Term.IndexedVarname(String name, Expression index) -> {
+                use(name, uses);
+                uses(index, uses);
+            }
+            case Term.ParenthesisExpression(Expression e) -> uses(e, uses);
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> uses(t, uses);
+            case Term.ObjectSubroutineCall(String target, String name, List<Expression> arguments) -> {
+                use(target, uses);
+                arguments.forEach(a -> uses(a, uses));
+            }
+            case Term.LocalSubroutineCall(String name, List<Expression> arguments) ->
+                arguments.forEach(a -> uses(a, uses));
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Adds the statements to the block, returning the block control ends up in, or null
+     * if every path returned.
+     */
+    private Block build(List<Statement> statements, Block current, List<Block> returning) {
+        for (var statement : statements) {
+            if (current == null) {
+                current = block();
+            }
+            switch (statement) {
+                case Statement.IfStatement(Expression condition, List<Statement> then,
+                        Optional<Statement.ElseBlock> elseBlock) -> {
+                    current.nodes.add(new Node.Condition(statement, condition));
+                    var thenBlock = block();
+                    var elseStart = block();
+                    link(current, thenBlock);
+                    link(current, elseStart);
+                    var thenEnd = build(then, thenBlock, returning);
+                    var elseEnd = build(elseBlock.map(Statement.ElseBlock::statements).orElse(List.of()), elseStart,
+                            returning);
+                    current = block();
+                    if (thenEnd != null) {
+                        link(thenEnd, current);
+                    }
+                    if (elseEnd != null) {
+                        link(elseEnd, current);
+                    }
+                }
+                case Statement.WhileStatement(Expression condition, List<Statement> body) -> {
+                    var head = block();
+                    link(current, head);
+                    head.nodes.add(new Node.Condition(statement, condition));
+                    var bodyStart = block();
+                    var after = block();
+                    link(head, bodyStart);
+                    link(head, after);
+                    var bodyEnd = build(body, bodyStart, returning);
+                    if (bodyEnd != null) {
+                        link(bodyEnd, head);
+                    }
+                    current = after;
+                }
+                case Statement.ReturnStatement r -> {
+                    current.nodes.add(new Node.Simple(r));
+                    returning.add(current);
+                    current = null;
+                }
+                default -> current.nodes.add(new Node.Simple(statement));
+            }
+        }
+        return current;
+    }
+
+    private Block block() {
+        var block = new Block(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    private static void link(Block from, Block to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    public static final class Block {
+
+        private final int id;
+
+        private final List<Node> nodes = new ArrayList<>();
+
+        private final List<Block> successors = new ArrayList<>();
+
+        private final List<Block> predecessors = new ArrayList<>();
+
+        private Block(int id) {
+            this.id = id;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public List<Node> nodes() {
+            return Collections.unmodifiableList(nodes);
+        }
+
+        public List<Block> successors() {
+            return Collections.unmodifiableList(successors);
+        }
+
+        public List<Block> predecessors() {
+            return Collections.unmodifiableList(predecessors);
+        }
+
+        @Override
+        public String toString() {
+            return "B" + id;
+        }
+
+    }
+
+    public sealed interface Node {
+
+        /**
+         * Expressions the node evaluates, in order.
+         */
+        default List<Expression> expressions() {
+            return switch (this) {
+                case Simple(Statement.NonIndexedLetStatement l) -> List.of(l.value());
+                case Simple(Statement.IndexedLetStatement l) -> List.of(l.index(), l.value());
+                case Simple(Statement.OldLetStatement l) -> l.index()
+                    .map(i -> List.of(i, l.value()))
+                    .orElseGet(() -> List.of(l.value()));
+                case Simple(Statement.ReturnStatement r) -> r.returnValue().stream().toList();
+                case Simple(Term.SubroutineCall call) -> CallGraph.arguments(call);
+                case Simple s -> List.of();
+                case Condition c -> List.of(c.condition());
+            };
+        }
+
+        /**
+         * A let, do or return statement.
+         */
+        record Simple(Statement statement) implements Node {
+        }
+
+        /**
+         * The condition ending the block of an if or while statement.
+         */
+        record Condition(Statement owner, Expression condition) implements Node {
+        }
+
+    }
+
+    public record Definition(String name, Expression value) {
+    }
+
+}
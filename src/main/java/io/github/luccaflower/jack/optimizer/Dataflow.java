@@ -0,0 +1,124 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Block;
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Node;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Worklist solver for dataflow problems over a {@link ControlFlowGraph}. A block is
+ * revisited whenever the fact flowing into it changes, until nothing does.
+ */
+public final class Dataflow {
+
+    private Dataflow() {
+    }
+
+    public interface Analysis<F> {
+
+        boolean forward();
+
+        /**
+         * Fact at the entry of a forward analysis, or at the exit of a backward one.
+         */
+        F boundary();
+
+        /**
+         * Fact every other block starts out with. Joining it with any fact must give that
+         * fact back.
+         */
+        F initial();
+
+        F join(F left, F right);
+
+        F transfer(Node node, F fact);
+
+        /**
+         * Fact passed along the edge between two blocks, in the direction of the analysis.
+         * Analyses that can tell an edge is never taken override this.
+         */
+        default F edge(Block from, Block to, F fact) {
+            return fact;
+        }
+
+    }
+
+    public static <F> Result<F> solve(ControlFlowGraph graph, Analysis<F> analysis) {
+        var forward = analysis.forward();
+        var start = forward ? graph.entry() : graph.exit();
+        var entering = new HashMap<Block, F>();
+        var leaving = new HashMap<Block, F>();
+        var worklist = new ArrayDeque<Block>();
+        var queued = new HashSet<Block>();
+        var blocks = forward ? graph.blocks() : graph.blocks().reversed();
+        for (var block : blocks) {
+            leaving.put(block, analysis.initial());
+            worklist.add(block);
+            queued.add(block);
+        }
+        while (!worklist.isEmpty()) {
+            var block = worklist.poll();
+            queued.remove(block);
+            var fact = block == start ? analysis.boundary() : analysis.initial();
+            for (var other : forward ? block.predecessors() : block.successors()) {
+                var along = forward ? analysis.edge(other, block, leaving.get(other))
+                        : analysis.edge(block, other, leaving.get(other));
+                fact = analysis.join(fact, along);
+            }
+            entering.put(block, fact);
+            for (var node : forward ? block.nodes() : block.nodes().reversed()) {
+                fact = analysis.transfer(node, fact);
+            }
+            if (!Objects.equals(fact, leaving.put(block, fact))) {
+                for (var next : forward ? block.successors() : block.predecessors()) {
+                    if (queued.add(next)) {
+                        worklist.add(next);
+                    }
+                }
+            }
+        }
+        return new Result<>(analysis, entering, leaving);
+    }
+
+    public static final class Result<F> {
+
+        private final Analysis<F> analysis;
+
+        private final Map<Block, F> entering;
+
+        private final Map<Block, F> leaving;
+
+        private Result(Analysis<F> analysis, Map<Block, F> entering, Map<Block, F> leaving) {
+            this.analysis = analysis;
+            this.entering = entering;
+            this.leaving = leaving;
+        }
+
+        /**
+         * Fact where the analysis enters the block: its start for a forward analysis, its
+         * end for a backward one.
+         */
+        public F entering(Block block) {
+            return entering.get(block);
+        }
+
+        public F leaving(Block block) {
+            return leaving.get(block);
+        }
+
+        /**
+         * Visits the nodes of the block in the direction of the analysis, along with the
+         * fact each node's transfer receives.
+         */
+        public void forEachNode(Block block, BiConsumer<Node, F> action) {
+            var fact = entering(block);
+            for (var node : analysis.forward() ? block.nodes() : block.nodes().reversed()) {
+                action.accept(node, fact);
+                fact = analysis.transfer(node, fact);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,246 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Node;
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+
+import java.util.*;
+
+/**
+ * Global constant propagation, dead-store elimination and removal of unreachable code,
+ * driven by dataflow analyses over each subroutine's control-flow graph. Subroutines
+ * are optimized independently of each other, in parallel.
+ */
+public class DataflowOptimizer {
+
+    private static final int MAX_ROUNDS = 4;
+
+    public Result optimize(List<JackClass> classes) {
+        var outcomes = new ArrayList<Outcome>();
+        var optimized = classes.stream().map(c -> {
+            var optimizedSubroutines = c.subroutines().values().parallelStream().map(this::optimize).toList();
+            outcomes.addAll(optimizedSubroutines);
+            var subroutines = new LinkedHashMap<String, Subroutine>();
+            optimizedSubroutines.forEach(o -> subroutines.put(o.subroutine().name(), o.subroutine()));
+            return JackClass.builder()
+                .name(c.name())
+                .statics(c.statics())
+                .fields(c.fields())
+                .subroutines(subroutines)
+                .build();
+        }).toList();
+        return new Result(optimized, outcomes.stream().mapToInt(Outcome::propagatedConstants).sum(),
+                outcomes.stream().mapToInt(Outcome::removedStores).sum(),
+                outcomes.stream().mapToInt(Outcome::removedBlocks).sum());
+    }
+
+    private Outcome optimize(Subroutine subroutine) {
+        var propagated = 0;
+        var removedStores = 0;
+        var removedBlocks = 0;
+        for (var round = 0; round < MAX_ROUNDS; round++) {
+            var before = subroutine;
+            var constants = new Propagation(subroutine);
+            subroutine = subroutine.withStatements(constants.rewrite(subroutine.statements()));
+            propagated += constants.propagated;
+            removedBlocks += constants.unreachableBlocks;
+            var stores = new DeadStores(subroutine);
+            subroutine = subroutine.withStatements(stores.rewrite(subroutine.statements()));
+            removedStores += stores.removed;
+            if (subroutine.equals(before)) {
+                break;
+            }
+        }
+        return new Outcome(subroutine, propagated, removedStores, removedBlocks);
+    }
+
+    public record Result(List<JackClass> classes, int propagatedConstants, int removedStores, int removedBlocks) {
+    }
+
+    private record Outcome(Subroutine subroutine, int propagatedConstants, int removedStores, int removedBlocks) {
+    }
+
+    /**
+     * Replaces frame variables known to be constant by their value, folds what becomes
+     * constant and drops statements no path reaches.
+     */
+    private static class Propagation {
+
+        // keyed by identity, as equal statements may hold different facts
+        private final Map<Statement, Map<String, Integer>> facts = new IdentityHashMap<>();
+
+        private int propagated = 0;
+
+        private int unreachableBlocks = 0;
+
+        private Map<String, Integer> constants = Map.of();
+
+        Propagation(Subroutine subroutine) {
+            var graph = ControlFlowGraph.of(subroutine);
+            var analysis = new ConstantPropagation(graph, subroutine);
+            var result = Dataflow.solve(graph, analysis);
+            for (var block : graph.blocks()) {
+                if (result.entering(block) == null) {
+                    unreachableBlocks += block.nodes().isEmpty() ? 0 : 1;
+                    continue;
+                }
+                result.forEachNode(block, (node, fact) -> facts.merge(statement(node), fact, analysis::join));
+            }
+        }
+
+        List<Statement> rewrite(List<Statement> statements) {
+            var rewritten = new ArrayList<Statement>();
+            for (var statement : statements) {
+                constants = facts.get(statement);
+                if (constants == null) {
+                    continue;
+                }
+                switch (statement) {
+                    case Statement.IfStatement(Expression condition, List<Statement> then,
+                            Optional<Statement.ElseBlock> elseBlock) -> {
+                        var folded = fold(condition);
+                        var value = ConstantPropagation.evaluate(folded, Map.of());
+                        if (value.isPresent()) {
+                            rewritten.addAll(rewrite(value.get() != 0 ? then
+                                    : elseBlock.map(Statement.ElseBlock::statements).orElse(List.of())));
+                        }
+                        else {
+                            rewritten.add(new Statement.IfStatement(folded, rewrite(then),
+                                    elseBlock.map(e -> new Statement.ElseBlock(rewrite(e.statements())))));
+                        }
+                    }
+                    case Statement.WhileStatement(Expression condition, List<Statement> body) -> {
+                        var folded = fold(condition);
+                        if (!ConstantPropagation.evaluate(folded, Map.of()).equals(Optional.of(0))) {
+                            rewritten.add(new Statement.WhileStatement(folded, rewrite(body)));
+                        }
+                    }
+                    case Statement.NonIndexedLetStatement(String name, Expression value) ->
+                        rewritten.add(new Statement.NonIndexedLetStatement(name, fold(value)));
+                    case Statement.IndexedLetStatement(String name, Expression index, Expression value) ->
+                        rewritten.add(new Statement.IndexedLetStatement(name, fold(index), fold(value)));
+                    case Statement.ReturnStatement(Optional<Expression> value) ->
+                        rewritten.add(new Statement.ReturnStatement(value.map(this::fold)));
+                    case Term.SubroutineCall call -> rewritten.add((Statement) fold((Term) call));
+                    default -> rewritten.add(statement);
+                }
+            }
+            return rewritten;
+        }
+
+        private Expression fold(Expression expression) {
+            var folded = new Expression(fold(expression.term()), expression.continuation()
+                .map(c -> new Expression.OpAndExpression(c.op(), fold(c.term()))));
+            if (folded.continuation().isEmpty()) {
+                return folded;
+            }
+            return ConstantPropagation.evaluate(folded, Map.of())
+                .map(v -> new Expression(constant(v), Optional.empty()))
+                .orElse(folded);
+        }
+
+        private Term fold(Term term) {
+            return switch (term) {
+                case Term.NonIndexedVarName(String name) when constants.containsKey(name) -> {
+                    propagated++;
+                    yield constant(constants.get(name));
+                }
+                case Term.IndexedVarname(String name, Expression index) -> new Term.IndexedVarname(name, fold(index));
+                case Term.ParenthesisExpression(Expression e) -> {
+                    var inner = fold(e);
+                    yield ConstantPropagation.evaluate(inner, Map.of())
+                        .map(Propagation::constant)
+                        .orElseGet(() -> new Term.ParenthesisExpression(inner));
+                }
+                case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> {
+                    var folded = new Term.UnaryOpTerm(op, fold(t));
+                    yield ConstantPropagation.evaluate(new Expression(folded, Optional.empty()), Map.of())
+                        .map(Propagation::constant)
+                        .orElse(folded);
+                }
+                case Term.LocalSubroutineCall(String name, List<Expression> arguments) ->
+                    new Term.LocalSubroutineCall(name, arguments.stream().map(this::fold).toList());
+                case Term.ObjectSubroutineCall(String target, String name, List<Expression> arguments) ->
+                    new Term.ObjectSubroutineCall(target, name, arguments.stream().map(this::fold).toList());
+                default -> term;
+            };
+        }
+
+        private static Term constant(int value) {
+            if (value >= 0) {
+                return new Term.Constant(new Token.IntegerLiteral(value));
+            }
+            if (value == Short.MIN_VALUE) {
+                return new Term.UnaryOpTerm(Term.UnaryOp.NOT, new Term.Constant(new Token.IntegerLiteral(-value - 1)));
+            }
+            return new Term.UnaryOpTerm(Term.UnaryOp.NEGATIVE, new Term.Constant(new Token.IntegerLiteral(-value)));
+        }
+
+    }
+
+    /**
+     * Drops assignments to frame variables that are never read afterwards.
+     */
+    private static class DeadStores {
+
+        private final ControlFlowGraph graph;
+
+        // live after each statement, joined over every place an equal statement occurs
+        private final Map<Statement, Set<String>> liveAfter = new IdentityHashMap<>();
+
+        private int removed = 0;
+
+        DeadStores(Subroutine subroutine) {
+            graph = ControlFlowGraph.of(subroutine);
+            var analysis = new Liveness(graph);
+            var result = Dataflow.solve(graph, analysis);
+            graph.blocks()
+                .forEach(block -> result.forEachNode(block,
+                        (node, live) -> liveAfter.merge(statement(node), live, analysis::join)));
+        }
+
+        List<Statement> rewrite(List<Statement> statements) {
+            var rewritten = new ArrayList<Statement>();
+            for (var statement : statements) {
+                switch (statement) {
+                    case Statement.NonIndexedLetStatement(String name, Expression value) when isDead(statement,
+                            name) -> {
+                        if (Inliner.isPure(value)) {
+                            removed++;
+                        }
+                        else if (value.continuation().isEmpty() && value.term() instanceof Term.SubroutineCall call) {
+                            // the call still has to happen, but its result can be thrown away
+                            removed++;
+                            rewritten.add(call);
+                        }
+                        else {
+                            rewritten.add(statement);
+                        }
+                    }
+                    case Statement.IfStatement(Expression condition, List<Statement> then,
+                            Optional<Statement.ElseBlock> elseBlock) ->
+                        rewritten.add(new Statement.IfStatement(condition, rewrite(then),
+                                elseBlock.map(e -> new Statement.ElseBlock(rewrite(e.statements())))));
+                    case Statement.WhileStatement(Expression condition, List<Statement> body) ->
+                        rewritten.add(new Statement.WhileStatement(condition, rewrite(body)));
+                    default -> rewritten.add(statement);
+                }
+            }
+            return rewritten;
+        }
+
+        private boolean isDead(Statement statement, String name) {
+            return graph.variables().contains(name) && liveAfter.containsKey(statement)
+                    && !liveAfter.get(statement).contains(name);
+        }
+
+    }
+
+    private static Statement statement(Node node) {
+        return switch (node) {
+            case Node.Simple(Statement statement) -> statement;
+            case Node.Condition(Statement owner, Expression condition) -> owner;
+        };
+    }
+
+}
@@ -0,0 +1,106 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.JackClass;
+import io.github.luccaflower.jack.parser.Statement;
+import io.github.luccaflower.jack.parser.Subroutine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Drops subroutines that can't be reached from the program's entry points, and
+ * statements that follow a return.
+ */
+public class DeadCodeEliminator {
+
+    public static final List<String> ENTRY_POINTS = List.of("Sys.init", "Main.main");
+
+    /**
+     * Whether the classes are a whole program rather than a library, which has nothing to
+     * eliminate dead code from.
+     */
+    public static boolean hasEntryPoint(List<JackClass> classes) {
+        var calls = CallGraph.of(classes).calls();
+        return ENTRY_POINTS.stream().anyMatch(calls::containsKey);
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no entry point
+     */
+    public Result eliminate(List<JackClass> classes) {
+        var callGraph = CallGraph.of(classes);
+        var entryPoints = ENTRY_POINTS.stream().filter(callGraph.calls()::containsKey).toList();
+        if (entryPoints.isEmpty()) {
+            throw new IllegalArgumentException("Program has no entry point, expected one of " + ENTRY_POINTS);
+        }
+        var reachable = callGraph.reachableFrom(entryPoints);
+        var removedSubroutines = new ArrayList<String>();
+        var removedStatements = new int[] { 0 };
+        var pruned = classes.stream().map(c -> {
+            var subroutines = new LinkedHashMap<String, Subroutine>();
+            c.subroutines().forEach((name, subroutine) -> {
+                var qualifiedName = CallGraph.qualifiedName(c, subroutine);
+                if (!reachable.contains(qualifiedName)) {
+                    removedSubroutines.add(qualifiedName);
+                    return;
+                }
+                var statements = withoutUnreachable(subroutine.statements());
+                removedStatements[0] += count(subroutine.statements()) - count(statements);
+                subroutines.put(name, subroutine.withStatements(statements));
+            });
+            return JackClass.builder()
+                .name(c.name())
+                .statics(c.statics())
+                .fields(c.fields())
+                .subroutines(subroutines)
+                .build();
+        }).toList();
+        return new Result(pruned, removedSubroutines, removedStatements[0]);
+    }
+
+    static List<Statement> withoutUnreachable(List<Statement> statements) {
+        var reachable = new ArrayList<Statement>();
+        for (var statement : statements) {
+            var pruned = switch (statement) {
+                case Statement.WhileStatement w ->
+                    new Statement.WhileStatement(w.condition(), withoutUnreachable(w.statements()));
+                case Statement.IfStatement i -> new Statement.IfStatement(i.condition(),
+                        withoutUnreachable(i.statements()),
+                        i.elseBlock().map(e -> new Statement.ElseBlock(withoutUnreachable(e.statements()))));
+                default -> statement;
+            };
+            reachable.add(pruned);
+            if (alwaysReturns(pruned)) {
+                break;
+            }
+        }
+        return reachable;
+    }
+
+    static boolean alwaysReturns(Statement statement) {
+        return switch (statement) {
+            case Statement.ReturnStatement ignored -> true;
+            case Statement.IfStatement i -> i.elseBlock().isPresent() && alwaysReturns(i.statements())
+                    && alwaysReturns(i.elseBlock().get().statements());
+            default -> false;
+        };
+    }
+
+    static boolean alwaysReturns(List<Statement> statements) {
+        return !statements.isEmpty() && alwaysReturns(statements.getLast());
+    }
+
+    private static int count(List<Statement> statements) {
+        return statements.stream().mapToInt(s -> switch (s) {
+            case Statement.WhileStatement w -> 1 + count(w.statements());
+            case Statement.IfStatement i ->
+                1 + count(i.statements()) + i.elseBlock().map(e -> count(e.statements())).orElse(0);
+            default -> 1;
+        }).sum();
+    }
+
+    public record Result(List<JackClass> classes, List<String> removedSubroutines, int removedStatements) {
+    }
+
+}
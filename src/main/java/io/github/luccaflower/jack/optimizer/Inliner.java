@@ -0,0 +1,752 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Replaces calls to small, non-recursive functions and methods with their bodies.
+ * <p>
+ * A callee whose body is a single {@code return} is substituted into the calling
+ * expression. Other callees are inlined where the call is a statement of its own
+ * ({@code do f(..)} or {@code let v = f(..)}): arguments, the receiver and the
+ * callee's locals are bound to fresh locals of the caller, and the body is spliced
+ * in. Fields of a receiver other than {@code this} are reached by indexing the
+ * receiver, the same way the code writer lays objects out.
+ */
+public class Inliner {
+
+    private static final int MAX_ROUNDS = 4;
+
+    private final int maxCalleeSize;
+
+    private final int growthBudget;
+
+    public Inliner() {
+        this(16, 2000);
+    }
+
+    /**
+     * @param maxCalleeSize the largest callee to inline, in statements and terms
+     * @param growthBudget how many statements and terms inlining may add to the program
+     */
+    public Inliner(int maxCalleeSize, int growthBudget) {
+        this.maxCalleeSize = maxCalleeSize;
+        this.growthBudget = growthBudget;
+    }
+
+    public Result inline(List<JackClass> classes) {
+        var program = classes;
+        var inlined = 0;
+        var budget = growthBudget;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            var run = new Run(program, budget);
+            program = run.inlineAll();
+            if (run.inlined == 0) {
+                break;
+            }
+            inlined += run.inlined;
+            budget = run.budget;
+        }
+        return new Result(program, inlined);
+    }
+
+    public record Result(List<JackClass> classes, int inlinedCallSites) {
+    }
+
+    private class Run {
+
+        private final List<JackClass> classes;
+
+        private final Map<String, JackClass> classesByName;
+
+        private final Set<String> recursive;
+
+        private int budget;
+
+        private int inlined = 0;
+
+        Run(List<JackClass> classes, int budget) {
+            this.classes = classes;
+            this.budget = budget;
+            classesByName = classes.stream().collect(Collectors.toMap(JackClass::name, c -> c));
+            var callGraph = CallGraph.of(classes);
+            recursive = callGraph.calls()
+                .keySet()
+                .stream()
+                .filter(s -> callGraph.reachableFrom(callGraph.callees(s)).contains(s))
+                .collect(Collectors.toSet());
+        }
+
+        List<JackClass> inlineAll() {
+            return classes.stream().map(c -> {
+                var subroutines = new LinkedHashMap<String, Subroutine>();
+                c.subroutines().forEach((name, s) -> subroutines.put(name, new Caller(this, c, s).inline()));
+                return JackClass.builder()
+                    .name(c.name())
+                    .statics(c.statics())
+                    .fields(c.fields())
+                    .subroutines(subroutines)
+                    .build();
+            }).toList();
+        }
+
+        private Optional<Callee> callee(Caller caller, Term.SubroutineCall call) {
+            var className = CallGraph.targetClass(caller.jackClass, caller.subroutine, call);
+            var name = CallGraph.subroutineName(call);
+            if (recursive.contains(className + "." + name) || !classesByName.containsKey(className)) {
+                return Optional.empty();
+            }
+            var jackClass = classesByName.get(className);
+            var subroutine = jackClass.subroutines().get(name);
+            var receiver = switch (subroutine) {
+                case null -> null;
+                case Subroutine.JackConstructor ignored -> null;
+                case Subroutine.JackFunction ignored -> new Receiver.None();
+                case Subroutine.JackMethod ignored -> switch (call) {
+                    case Term.LocalSubroutineCall l -> new Receiver.SameObject();
+                    case Term.ObjectSubroutineCall o -> new Receiver.Variable(o.target());
+                };
+            };
+            if (receiver == null || size(subroutine) > maxCalleeSize || size(subroutine) > budget) {
+                return Optional.empty();
+            }
+            return Optional.of(new Callee(jackClass, subroutine, receiver));
+        }
+
+    }
+
+    private record Callee(JackClass jackClass, Subroutine subroutine, Receiver receiver) {
+    }
+
+    private sealed interface Receiver {
+
+        record None() implements Receiver {
+        }
+
+        record SameObject() implements Receiver {
+        }
+
+        record Variable(String name) implements Receiver {
+        }
+
+    }
+
+    private static class NotInlinable extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        NotInlinable() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    /**
+     * Rewrites the statements of one subroutine, inlining the calls it makes.
+     */
+    private class Caller {
+
+        private final JackClass jackClass;
+
+        private final Subroutine subroutine;
+
+        private final Map<String, Type.VarType> locals;
+
+        private final Run run;
+
+        private int temporaries;
+
+        Caller(Run run, JackClass jackClass, Subroutine subroutine) {
+            this.run = run;
+            this.jackClass = jackClass;
+            this.subroutine = subroutine;
+            this.locals = new LinkedHashMap<>(subroutine.locals());
+            // an earlier round may have left its temporaries, which can still be live
+            temporaries = locals.keySet()
+                .stream()
+                .filter(name -> name.matches("\\$inline\\d+\\..*"))
+                .mapToInt(name -> Integer.parseInt(name.substring("$inline".length(), name.indexOf('.'))) + 1)
+                .max()
+                .orElse(0);
+        }
+
+        Subroutine inline() {
+            var statements = inline(subroutine.statements());
+            return subroutine.withStatements(statements).withLocals(locals);
+        }
+
+        private List<Statement> inline(List<Statement> statements) {
+            return statements.stream().flatMap(s -> inline(s).stream()).toList();
+        }
+
+        private List<Statement> inline(Statement statement) {
+            return switch (statement) {
+                case Term.SubroutineCall call -> {
+                    var withArguments = withArguments(call, arguments(call).stream().map(this::inline).toList());
+                    var substituted = substitute(withArguments, e -> isPure(e) || isCall(e));
+                    if (substituted.isPresent()) {
+                        yield substituted.filter(Inliner::isCall)
+                            .map(e -> List.of((Statement) e.term()))
+                            .orElse(List.of());
+                    }
+                    yield splice(withArguments, Optional.empty()).orElse(List.of(withArguments));
+                }
+                case Statement.NonIndexedLetStatement(String name, Expression value) -> {
+                    var inlined = inline(value);
+                    if (inlined.continuation().isEmpty() && inlined.term() instanceof Term.SubroutineCall call) {
+                        yield splice(call, Optional.of(name))
+                            .orElse(List.of(new Statement.NonIndexedLetStatement(name, inlined)));
+                    }
+                    yield List.of(new Statement.NonIndexedLetStatement(name, inlined));
+                }
+                case Statement.IndexedLetStatement(String name, Expression index, Expression value) ->
+                    List.of(new Statement.IndexedLetStatement(name, inline(index), inline(value)));
+                case Statement.OldLetStatement(String name, Optional<Expression> index, Expression value) ->
+                    List.of(new Statement.OldLetStatement(name, index.map(this::inline), inline(value)));
+                case Statement.ReturnStatement(Optional<Expression> value) ->
+                    List.of(new Statement.ReturnStatement(value.map(this::inline)));
+                case Statement.WhileStatement(Expression condition, List<Statement> statements) ->
+                    List.of(new Statement.WhileStatement(inline(condition), inline(statements)));
+                case Statement.IfStatement(Expression condition, List<Statement> statements,
+                        Optional<Statement.ElseBlock> elseBlock) ->
+                    List.of(new Statement.IfStatement(inline(condition), inline(statements),
+                            elseBlock.map(e -> new Statement.ElseBlock(inline(e.statements())))));
+            };
+        }
+
+        private Expression inline(Expression expression) {
+            return new Expression(inline(expression.term()), expression.continuation()
+                .map(c -> new Expression.OpAndExpression(c.op(), inline(c.term()))));
+        }
+
+        private Term inline(Term term) {
+            return switch (term) {
+                case Term.IndexedVarname(String name, Expression index) ->
+                    new Term.IndexedVarname(name, inline(index));
+                case Term.ParenthesisExpression(Expression e) -> new Term.ParenthesisExpression(inline(e));
+                case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> new Term.UnaryOpTerm(op, inline(t));
+                case Term.SubroutineCall call -> {
+                    var withArguments = withArguments(call, arguments(call).stream().map(this::inline).toList());
+                    yield substitute(withArguments, e -> true).map(Inliner::asTerm).orElse(withArguments);
+                }
+                default -> term;
+            };
+        }
+
+        /**
+         * Substitutes the returned expression of a callee whose whole body is a return
+         * statement. Arguments are substituted for the parameters, which is only safe
+         * if doing so can't change what they evaluate to or how often side effects
+         * happen.
+         */
+        private Optional<Expression> substitute(Term.SubroutineCall call, Predicate<Expression> usable) {
+            var found = run.callee(this, call);
+            if (found.isEmpty()) {
+                return Optional.empty();
+            }
+            var callee = found.get();
+            var body = callee.subroutine().statements();
+            if (body.size() != 1 || !(body.getFirst() instanceof Statement.ReturnStatement(Optional<Expression> value))
+                    || value.isEmpty()) {
+                return Optional.empty();
+            }
+            var returned = value.get();
+            var calleeIsPure = isPure(returned);
+            if (callee.receiver() instanceof Receiver.Variable(String name) && !calleeIsPure && !isFrameLocal(name)) {
+                return Optional.empty();
+            }
+            var parameters = callee.subroutine().arguments();
+            var arguments = arguments(call);
+            var substitutions = new HashMap<String, Expression>();
+            for (int i = 0; i < parameters.size(); i++) {
+                var parameter = parameters.get(i).name();
+                var argument = arguments.get(i);
+                var uses = uses(returned, parameter);
+                var stable = isStable(argument);
+                if (!calleeIsPure && !stable && !(uses == 1 && readBeforeAnyCall(returned, parameter))) {
+                    return Optional.empty();
+                }
+                if (!isPure(argument) || uses > 1 && !(stable || isSingleTerm(argument))) {
+                    return Optional.empty();
+                }
+                substitutions.put(parameter, argument);
+            }
+            try {
+                var translated = new Translator(callee, substitutions, Map.of()).translate(returned);
+                if (!usable.test(translated)) {
+                    return Optional.empty();
+                }
+                run.budget -= size(callee.subroutine());
+                run.inlined++;
+                return Optional.of(translated);
+            }
+            catch (NotInlinable e) {
+                return Optional.empty();
+            }
+        }
+
+        /**
+         * Splices the body of a callee in place of a call statement. The callee may
+         * only return at the end of its body.
+         */
+        private Optional<List<Statement>> splice(Term.SubroutineCall call, Optional<String> assignTo) {
+            var found = run.callee(this, call);
+            if (found.isEmpty()) {
+                return Optional.empty();
+            }
+            var callee = found.get();
+            var body = callee.subroutine().statements();
+            if (body.isEmpty() || !(body.getLast() instanceof Statement.ReturnStatement(Optional<Expression> returned))
+                    || containsReturn(body.subList(0, body.size() - 1))
+                    || assignTo.isPresent() && returned.isEmpty()) {
+                return Optional.empty();
+            }
+            var temporary = "$inline%d.".formatted(temporaries);
+            var bindings = new ArrayList<Statement>();
+            var renames = new HashMap<String, String>();
+            var newLocals = new LinkedHashMap<String, Type.VarType>();
+            var receiver = callee.receiver();
+            if (receiver instanceof Receiver.Variable(String name) && !isFrameLocal(name)) {
+                var bound = temporary + "this";
+                newLocals.put(bound, new Type.ClassType(callee.jackClass().name()));
+                bindings.add(variable(bound, name));
+                receiver = new Receiver.Variable(bound);
+            }
+            var parameters = callee.subroutine().arguments();
+            var arguments = arguments(call);
+            var substitutions = new HashMap<String, Expression>();
+            for (int i = 0; i < parameters.size(); i++) {
+                if (isStable(arguments.get(i)) && !assigns(body, parameters.get(i).name())) {
+                    substitutions.put(parameters.get(i).name(), arguments.get(i));
+                    continue;
+                }
+                var bound = temporary + parameters.get(i).name();
+                newLocals.put(bound, parameters.get(i).type());
+                renames.put(parameters.get(i).name(), bound);
+                bindings.add(new Statement.NonIndexedLetStatement(bound, arguments.get(i)));
+            }
+            for (var local : callee.subroutine().locals().entrySet()) {
+                var bound = temporary + local.getKey();
+                newLocals.put(bound, local.getValue());
+                renames.put(local.getKey(), bound);
+                bindings.add(new Statement.NonIndexedLetStatement(bound,
+                        new Expression(new Term.Constant(new Token.IntegerLiteral(0)), Optional.empty())));
+            }
+            try {
+                var translator = new Translator(new Callee(callee.jackClass(), callee.subroutine(), receiver),
+                        substitutions, renames);
+                var statements = new ArrayList<>(bindings);
+                statements.addAll(translator.translate(body.subList(0, body.size() - 1)));
+                var result = returned.map(translator::translate);
+                if (assignTo.isPresent()) {
+                    statements.add(new Statement.NonIndexedLetStatement(assignTo.get(), result.get()));
+                }
+                else if (result.isPresent() && !isPure(result.get())) {
+                    if (!isCall(result.get())) {
+                        return Optional.empty();
+                    }
+                    statements.add((Statement) result.get().term());
+                }
+                temporaries++;
+                locals.putAll(newLocals);
+                run.budget -= size(callee.subroutine()) + bindings.size();
+                run.inlined++;
+                return Optional.of(inline(statements));
+            }
+            catch (NotInlinable e) {
+                return Optional.empty();
+            }
+        }
+
+        private boolean isFrameLocal(String name) {
+            return locals.containsKey(name)
+                    || subroutine.arguments().stream().map(Parameter::name).anyMatch(name::equals);
+        }
+
+        private boolean isVariable(String name) {
+            return isFrameLocal(name) || jackClass.fields().containsKey(name) || jackClass.statics().containsKey(name);
+        }
+
+        /**
+         * Whether the expression reads the same value wherever it is evaluated in the
+         * inlined callee: constants and the caller's own arguments and locals.
+         */
+        private boolean isStable(Expression expression) {
+            return expression.continuation().isEmpty() && isStable(expression.term());
+        }
+
+        private boolean isStable(Term term) {
+            return switch (term) {
+                case Term.Constant(Token.IntegerLiteral ignored) -> true;
+                case Term.KeywordLiteral ignored -> true;
+                case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> isStable(t);
+                case Term.NonIndexedVarName(String name) -> isFrameLocal(name);
+                default -> false;
+            };
+        }
+
+        /**
+         * Translates a callee's statements and expressions into the caller's scope.
+         */
+        private class Translator {
+
+            private final Callee callee;
+
+            private final Map<String, Expression> substitutions;
+
+            private final Map<String, String> renames;
+
+            Translator(Callee callee, Map<String, Expression> substitutions, Map<String, String> renames) {
+                this.callee = callee;
+                this.substitutions = substitutions;
+                this.renames = renames;
+            }
+
+            List<Statement> translate(List<Statement> statements) {
+                return statements.stream().map(this::translate).toList();
+            }
+
+            Statement translate(Statement statement) {
+                return switch (statement) {
+                    case Term.SubroutineCall call -> (Statement) translate((Term) call);
+                    case Statement.NonIndexedLetStatement(String name, Expression value) -> {
+                        var translated = translate(value);
+                        if (renames.containsKey(name)) {
+                            yield new Statement.NonIndexedLetStatement(renames.get(name), translated);
+                        }
+                        if (callee.receiver() instanceof Receiver.Variable(String receiver)
+                                && callee.jackClass().fields().containsKey(name)) {
+                            yield new Statement.IndexedLetStatement(receiver, constant(fieldIndex(name)), translated);
+                        }
+                        yield new Statement.NonIndexedLetStatement(memberName(name), translated);
+                    }
+                    case Statement.IndexedLetStatement(String name, Expression index, Expression value) ->
+                        new Statement.IndexedLetStatement(arrayName(name), translate(index), translate(value));
+                    case Statement.OldLetStatement ignored -> throw new NotInlinable();
+                    case Statement.ReturnStatement ignored -> throw new NotInlinable();
+                    case Statement.WhileStatement(Expression condition, List<Statement> statements) ->
+                        new Statement.WhileStatement(translate(condition), translate(statements));
+                    case Statement.IfStatement(Expression condition, List<Statement> statements,
+                            Optional<Statement.ElseBlock> elseBlock) ->
+                        new Statement.IfStatement(translate(condition), translate(statements),
+                                elseBlock.map(e -> new Statement.ElseBlock(translate(e.statements()))));
+                };
+            }
+
+            Expression translate(Expression expression) {
+                if (expression.continuation().isEmpty()
+                        && expression.term() instanceof Term.NonIndexedVarName(String name)
+                        && substitutions.containsKey(name)) {
+                    return substitutions.get(name);
+                }
+                return new Expression(translate(expression.term()), expression.continuation()
+                    .map(c -> new Expression.OpAndExpression(c.op(), translate(c.term()))));
+            }
+
+            Term translate(Term term) {
+                return switch (term) {
+                    case Term.Constant c -> c;
+                    case Term.KeywordLiteral(Token.KeywordType k) when k == Token.KeywordType.THIS ->
+                        switch (callee.receiver()) {
+                            case Receiver.SameObject ignored -> term;
+                            case Receiver.Variable(String receiver) -> new Term.NonIndexedVarName(receiver);
+                            case Receiver.None ignored -> throw new NotInlinable();
+                        };
+                    case Term.KeywordLiteral k -> k;
+                    case Term.NonIndexedVarName(String name) -> {
+                        if (substitutions.containsKey(name)) {
+                            yield asTerm(substitutions.get(name));
+                        }
+                        if (renames.containsKey(name)) {
+                            yield new Term.NonIndexedVarName(renames.get(name));
+                        }
+                        if (callee.receiver() instanceof Receiver.Variable(String receiver)
+                                && callee.jackClass().fields().containsKey(name)) {
+                            yield new Term.IndexedVarname(receiver, constant(fieldIndex(name)));
+                        }
+                        yield new Term.NonIndexedVarName(memberName(name));
+                    }
+                    case Term.IndexedVarname(String name, Expression index) ->
+                        new Term.IndexedVarname(arrayName(name), translate(index));
+                    case Term.ParenthesisExpression(Expression e) -> new Term.ParenthesisExpression(translate(e));
+                    case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> new Term.UnaryOpTerm(op, translate(t));
+                    case Term.LocalSubroutineCall(String name, List<Expression> arguments) -> {
+                        var translated = arguments.stream().map(this::translate).toList();
+                        var target = callee.jackClass().subroutines().get(name);
+                        if (callee.jackClass().name().equals(jackClass.name())
+                                && !(callee.receiver() instanceof Receiver.Variable)) {
+                            yield new Term.LocalSubroutineCall(name, translated);
+                        }
+                        if (target instanceof Subroutine.JackMethod) {
+                            if (callee.receiver() instanceof Receiver.Variable(String receiver)) {
+                                yield new Term.ObjectSubroutineCall(receiver, name, translated);
+                            }
+                            throw new NotInlinable();
+                        }
+                        yield new Term.ObjectSubroutineCall(className(callee.jackClass().name()), name,
+                                translated);
+                    }
+                    case Term.ObjectSubroutineCall(String target, String name, List<Expression> arguments) -> {
+                        var translated = arguments.stream().map(this::translate).toList();
+                        yield new Term.ObjectSubroutineCall(targetName(target), name, translated);
+                    }
+                };
+            }
+
+            private String arrayName(String name) {
+                if (substitutions.containsKey(name)) {
+                    if (substitutions.get(name).continuation().isEmpty()
+                            && substitutions.get(name).term() instanceof Term.NonIndexedVarName(String v)) {
+                        return v;
+                    }
+                    throw new NotInlinable();
+                }
+                if (renames.containsKey(name)) {
+                    return renames.get(name);
+                }
+                if (callee.receiver() instanceof Receiver.Variable && callee.jackClass().fields().containsKey(name)) {
+                    throw new NotInlinable();
+                }
+                return memberName(name);
+            }
+
+            private String targetName(String target) {
+                if (substitutions.containsKey(target) || renames.containsKey(target)) {
+                    return arrayName(target);
+                }
+                var calleeClass = callee.jackClass();
+                if (calleeClass.fields().containsKey(target) || calleeClass.statics().containsKey(target)) {
+                    if (callee.receiver() instanceof Receiver.Variable) {
+                        throw new NotInlinable();
+                    }
+                    return memberName(target);
+                }
+                if (callee.subroutine().locals().containsKey(target)) {
+                    throw new NotInlinable();
+                }
+                return className(target);
+            }
+
+            /**
+             * A field or static of the callee, which keeps its name only when it means
+             * the same thing in the caller.
+             */
+            private String memberName(String name) {
+                var calleeClass = callee.jackClass();
+                if (callee.subroutine().locals().containsKey(name)) {
+                    throw new NotInlinable();
+                }
+                var isField = calleeClass.fields().containsKey(name);
+                var isStatic = calleeClass.statics().containsKey(name);
+                if (!isField && !isStatic || !calleeClass.name().equals(jackClass.name()) || isFrameLocal(name)
+                        || isField && !(callee.receiver() instanceof Receiver.SameObject)) {
+                    throw new NotInlinable();
+                }
+                return name;
+            }
+
+            private String className(String name) {
+                if (isVariable(name)) {
+                    throw new NotInlinable();
+                }
+                return name;
+            }
+
+            private int fieldIndex(String name) {
+                // fields are laid out in the order the code writer's symbol table numbers them
+                return List.copyOf(callee.jackClass().fields().keySet()).indexOf(name);
+            }
+
+        }
+
+    }
+
+    private static Term.SubroutineCall withArguments(Term.SubroutineCall call, List<Expression> arguments) {
+        return switch (call) {
+            case Term.LocalSubroutineCall c -> new Term.LocalSubroutineCall(c.subroutineName(), arguments);
+            case Term.ObjectSubroutineCall c ->
+                new Term.ObjectSubroutineCall(c.target(), c.subroutineName(), arguments);
+        };
+    }
+
+    private static List<Expression> arguments(Term.SubroutineCall call) {
+        return CallGraph.arguments(call);
+    }
+
+    private static Term asTerm(Expression expression) {
+        if (expression.continuation().isEmpty()) {
+            return expression.term();
+        }
+        return new Term.ParenthesisExpression(expression);
+    }
+
+    private static Statement variable(String name, String value) {
+        return new Statement.NonIndexedLetStatement(name,
+                new Expression(new Term.NonIndexedVarName(value), Optional.empty()));
+    }
+
+    private static Expression constant(int i) {
+        return new Expression(new Term.Constant(new Token.IntegerLiteral(i)), Optional.empty());
+    }
+
+    private static boolean isCall(Expression expression) {
+        return expression.continuation().isEmpty() && expression.term() instanceof Term.SubroutineCall;
+    }
+
+    private static boolean isSingleTerm(Expression expression) {
+        return expression.continuation().isEmpty() && switch (expression.term()) {
+            case Term.NonIndexedVarName ignored -> true;
+            case Term.Constant(Token.IntegerLiteral ignored) -> true;
+            case Term.KeywordLiteral ignored -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Whether evaluating the expression has no side effects. String literals allocate,
+     * so they count as impure.
+     */
+    static boolean isPure(Expression expression) {
+        return isPure(expression.term()) && expression.continuation().map(c -> isPure(c.term())).orElse(true);
+    }
+
+    private static boolean isPure(Term term) {
+        return switch (term) {
+            case Term.Constant(Token.StringLiteral ignored) -> false;
+            case Term.SubroutineCall ignored -> false;
+            case Term.IndexedVarname(String name, Expression index) -> isPure(index);
+            case Term.ParenthesisExpression(Expression e) -> isPure(e);
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> isPure(t);
+            default -> true;
+        };
+    }
+
+    private static int uses(Expression expression, String name) {
+        return count(expression, t -> switch (t) {
+            case Term.VarName v when v.name().equals(name) -> 1;
+            case Term.ObjectSubroutineCall c when c.target().equals(name) -> 1;
+            default -> 0;
+        });
+    }
+
+    private static int count(Expression expression, Function<Term, Integer> counter) {
+        return count(expression.term(), counter)
+                + expression.continuation().map(c -> count(c.term(), counter)).orElse(0);
+    }
+
+    private static int count(Term term, Function<Term, Integer> counter) {
+        var own = counter.apply(term);
+        return own + switch (term) {
+            case Term.IndexedVarname(String name, Expression index) -> count(index, counter);
+            case Term.ParenthesisExpression(Expression e) -> count(e, counter);
+            case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> count(t, counter);
+            case Term.SubroutineCall call -> arguments(call).stream().mapToInt(a -> count(a, counter)).sum();
+            default -> 0;
+        };
+    }
+
+    private static boolean assigns(List<Statement> statements, String name) {
+        return statements.stream().anyMatch(s -> switch (s) {
+            case Statement.NonIndexedLetStatement l -> l.name().equals(name);
+            case Statement.OldLetStatement l -> l.name().equals(name);
+            case Statement.WhileStatement w -> assigns(w.statements(), name);
+            case Statement.IfStatement i -> assigns(i.statements(), name)
+                    || i.elseBlock().map(e -> assigns(e.statements(), name)).orElse(false);
+            default -> false;
+        });
+    }
+
+    /**
+     * Whether the variable is read before any call in the expression returns, following
+     * the order the code writer evaluates terms in. Substituting an expression for it is
+     * then not affected by what the calls do.
+     */
+    private static boolean readBeforeAnyCall(Expression expression, String name) {
+        var order = new EvaluationOrder(name);
+        order.visit(expression);
+        return !order.readAfterCall;
+    }
+
+    private static class EvaluationOrder {
+
+        private final String name;
+
+        private boolean called = false;
+
+        private boolean readAfterCall = false;
+
+        EvaluationOrder(String name) {
+            this.name = name;
+        }
+
+        void visit(Expression expression) {
+            visit(expression.term());
+            expression.continuation().ifPresent(c -> visit(c.term()));
+        }
+
+        void visit(Term term) {
+            switch (term) {
+                case Term.NonIndexedVarName(String n) -> read(n);
+                case Term.IndexedVarname(String n, Expression index) -> {
+                    read(n);
+                    visit(index);
+                }
+                case Term.ParenthesisExpression(Expression e) -> visit(e);
+                case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> visit(t);
+                case Term.SubroutineCall call -> {
+                    if (call instanceof Term.ObjectSubroutineCall o) {
+                        read(o.target());
+                    }
+                    arguments(call).forEach(this::visit);
+                    called = true;
+                }
+                default -> {
+                }
+            }
+        }
+
+        private void read(String n) {
+            if (n.equals(name) && called) {
+                readAfterCall = true;
+            }
+        }
+
+    }
+
+    private static boolean containsReturn(List<Statement> statements) {
+        return statements.stream().anyMatch(s -> switch (s) {
+            case Statement.ReturnStatement ignored -> true;
+            case Statement.WhileStatement w -> containsReturn(w.statements());
+            case Statement.IfStatement i -> containsReturn(i.statements())
+                    || i.elseBlock().map(e -> containsReturn(e.statements())).orElse(false);
+            default -> false;
+        });
+    }
+
+    /**
+     * Size of a subroutine in statements and terms, the unit of the inlining budget.
+     */
+    static int size(Subroutine subroutine) {
+        return size(subroutine.statements());
+    }
+
+    private static int size(List<Statement> statements) {
+        return statements.stream().mapToInt(s -> 1 + switch (s) {
+            case Term.SubroutineCall call -> count((Term) call, t -> 1) - 1;
+            case Statement.NonIndexedLetStatement l -> count(l.value(), t -> 1);
+            case Statement.IndexedLetStatement l -> count(l.index(), t -> 1) + count(l.value(), t -> 1);
+            case Statement.OldLetStatement l -> l.index().map(i -> count(i, t -> 1)).orElse(0)
+                    + count(l.value(), t -> 1);
+            case Statement.ReturnStatement r -> r.returnValue().map(v -> count(v, t -> 1)).orElse(0);
+            case Statement.WhileStatement w -> count(w.condition(), t -> 1) + size(w.statements());
+            case Statement.IfStatement i -> count(i.condition(), t -> 1) + size(i.statements())
+                    + i.elseBlock().map(e -> size(e.statements())).orElse(0);
+        }).sum();
+    }
+
+}
@@ -0,0 +1,49 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Node;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Frame variables whose current value may still be read.
+ */
+final class Liveness implements Dataflow.Analysis<Set<String>> {
+
+    private final ControlFlowGraph graph;
+
+    Liveness(ControlFlowGraph graph) {
+        this.graph = graph;
+    }
+
+    @Override
+    public boolean forward() {
+        return false;
+    }
+
+    @Override
+    public Set<String> boundary() {
+        return Set.of();
+    }
+
+    @Override
+    public Set<String> initial() {
+        return Set.of();
+    }
+
+    @Override
+    public Set<String> join(Set<String> left, Set<String> right) {
+        var joined = new HashSet<>(left);
+        joined.addAll(right);
+        return joined;
+    }
+
+    @Override
+    public Set<String> transfer(Node node, Set<String> live) {
+        var before = new HashSet<>(live);
+        graph.definition(node).ifPresent(d -> before.remove(d.name()));
+        before.addAll(graph.uses(node));
+        return before;
+    }
+
+}
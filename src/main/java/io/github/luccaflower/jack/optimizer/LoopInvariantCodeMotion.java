@@ -0,0 +1,248 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+
+import java.util.*;
+
+/**
+ * Moves expressions whose value can't change inside a while loop into a fresh local
+ * assigned just before the loop.
+ * <p>
+ * Only pure expressions are hoisted. An expression is invariant when no variable it reads
+ * is assigned in the loop. Fields and statics must also not be reachable by a call or an
+ * array write in the loop, and array elements are only invariant in loops with neither,
+ * as any array write may alias them. Division is only hoisted by a known, non-zero
+ * divisor, since a loop that never runs must not start failing. Inner loops are handled
+ * first, so what they hoist can move further out.
+ */
+public class LoopInvariantCodeMotion {
+
+    public Result hoist(List<JackClass> classes) {
+        var hoisted = 0;
+        var optimized = new ArrayList<JackClass>();
+        for (var c : classes) {
+            var subroutines = new LinkedHashMap<String, Subroutine>();
+            for (var subroutine : c.subroutines().values()) {
+                var hoisting = new Hoisting(subroutine);
+                var statements = hoisting.rewrite(subroutine.statements());
+                hoisted += hoisting.hoisted;
+                subroutines.put(subroutine.name(),
+                        subroutine.withStatements(statements).withLocals(hoisting.locals));
+            }
+            optimized.add(JackClass.builder()
+                .name(c.name())
+                .statics(c.statics())
+                .fields(c.fields())
+                .subroutines(subroutines)
+                .build());
+        }
+        return new Result(optimized, hoisted);
+    }
+
+    public record Result(List<JackClass> classes, int hoistedExpressions) {
+    }
+
+    private static class Hoisting {
+
+        private final Set<String> frame = new HashSet<>();
+
+        private final Map<String, Type.VarType> locals;
+
+        private int hoisted = 0;
+
+        Hoisting(Subroutine subroutine) {
+            locals = new LinkedHashMap<>(subroutine.locals());
+            frame.addAll(subroutine.locals().keySet());
+            subroutine.arguments().forEach(p -> frame.add(p.name()));
+        }
+
+        List<Statement> rewrite(List<Statement> statements) {
+            var rewritten = new ArrayList<Statement>();
+            for (var statement : statements) {
+                switch (statement) {
+                    case Statement.WhileStatement(Expression condition, List<Statement> body) -> {
+                        var inner = new Statement.WhileStatement(condition, rewrite(body));
+                        var loop = new Loop(inner);
+                        var moved = new Statement.WhileStatement(loop.replace(condition),
+                                loop.replace(inner.statements()));
+                        loop.temporaries.forEach((value, name) -> {
+                            locals.put(name, Type.PrimitiveType.INT);
+                            frame.add(name);
+                            rewritten.add(new Statement.NonIndexedLetStatement(name, value));
+                        });
+                        rewritten.add(moved);
+                    }
+                    case Statement.IfStatement(Expression condition, List<Statement> then,
+                            Optional<Statement.ElseBlock> elseBlock) ->
+                        rewritten.add(new Statement.IfStatement(condition, rewrite(then),
+                                elseBlock.map(e -> new Statement.ElseBlock(rewrite(e.statements())))));
+                    default -> rewritten.add(statement);
+                }
+            }
+            return rewritten;
+        }
+
+        /**
+         * What a loop writes to, and the temporaries holding what has been hoisted out of
+         * it so far.
+         */
+        private class Loop {
+
+            private final Set<String> assigned = new HashSet<>();
+
+            private boolean calls = false;
+
+            private boolean arrayWrites = false;
+
+            private final Map<Expression, String> temporaries = new LinkedHashMap<>();
+
+            Loop(Statement.WhileStatement loop) {
+                scan(loop);
+            }
+
+            private void scan(Statement statement) {
+                switch (statement) {
+                    case Statement.WhileStatement w -> {
+                        scan(w.condition());
+                        w.statements().forEach(this::scan);
+                    }
+                    case Statement.IfStatement i -> {
+                        scan(i.condition());
+                        i.statements().forEach(this::scan);
+                        i.elseBlock().ifPresent(e -> e.statements().forEach(this::scan));
+                    }
+                    case Statement.NonIndexedLetStatement l -> {
+                        assigned.add(l.name());
+                        scan(l.value());
+                    }
+                    case Statement.IndexedLetStatement l -> {
+                        arrayWrites = true;
+                        scan(l.index());
+                        scan(l.value());
+                    }
+                    case Statement.OldLetStatement l -> {
+                        if (l.index().isPresent()) {
+                            arrayWrites = true;
+                        }
+                        else {
+                            assigned.add(l.name());
+                        }
+                        scan(l.value());
+                    }
+                    case Statement.ReturnStatement r -> r.returnValue().ifPresent(this::scan);
+                    case Term.SubroutineCall call -> calls = true;
+                }
+            }
+
+            private void scan(Expression expression) {
+                if (!Inliner.isPure(expression)) {
+                    calls = true;
+                }
+            }
+
+            List<Statement> replace(List<Statement> statements) {
+                return statements.stream().map(this::replace).toList();
+            }
+
+            private Statement replace(Statement statement) {
+                return switch (statement) {
+                    case Statement.WhileStatement w ->
+                        new Statement.WhileStatement(replace(w.condition()), replace(w.statements()));
+                    case Statement.IfStatement i -> new Statement.IfStatement(replace(i.condition()),
+                            replace(i.statements()),
+                            i.elseBlock().map(e -> new Statement.ElseBlock(replace(e.statements()))));
+                    case Statement.NonIndexedLetStatement l ->
+                        new Statement.NonIndexedLetStatement(l.name(), replace(l.value()));
+                    case Statement.IndexedLetStatement l ->
+                        new Statement.IndexedLetStatement(l.name(), replace(l.index()), replace(l.value()));
+                    case Statement.ReturnStatement r -> new Statement.ReturnStatement(r.returnValue().map(this::replace));
+                    case Term.SubroutineCall call -> (Statement) replace((Term) call);
+                    default -> statement;
+                };
+            }
+
+            private Expression replace(Expression expression) {
+                if (isInvariant(expression) && isWorthHoisting(expression)) {
+                    return new Expression(temporary(expression), Optional.empty());
+                }
+                return new Expression(replace(expression.term()), expression.continuation()
+                    .map(c -> new Expression.OpAndExpression(c.op(), replace(c.term()))));
+            }
+
+            private Term replace(Term term) {
+                if (isInvariant(term) && isWorthHoisting(term)) {
+                    return temporary(new Expression(term, Optional.empty()));
+                }
+                return switch (term) {
+                    case Term.ParenthesisExpression(Expression e) -> new Term.ParenthesisExpression(replace(e));
+                    case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> new Term.UnaryOpTerm(op, replace(t));
+                    case Term.IndexedVarname(String name, Expression index) ->
+                        new Term.IndexedVarname(name, replace(index));
+                    case Term.LocalSubroutineCall(String name, List<Expression> arguments) ->
+                        new Term.LocalSubroutineCall(name, arguments.stream().map(this::replace).toList());
+                    case Term.ObjectSubroutineCall(String target, String name, List<Expression> arguments) ->
+                        new Term.ObjectSubroutineCall(target, name, arguments.stream().map(this::replace).toList());
+                    default -> term;
+                };
+            }
+
+            private Term temporary(Expression value) {
+                while (value.continuation().isEmpty() && value.term() instanceof Term.ParenthesisExpression(Expression e)) {
+                    value = e;
+                }
+                return new Term.NonIndexedVarName(
+                        temporaries.computeIfAbsent(value, ignored -> "$licm%d".formatted(hoisted++)));
+            }
+
+            private boolean isInvariant(Expression expression) {
+                return isInvariant(expression.term()) && expression.continuation().map(c -> {
+                    if (c.op() == Expression.Operator.DIVIDED_BY) {
+                        var divisor = ConstantPropagation.evaluate(c.term(), Map.of());
+                        return divisor.isPresent() && divisor.get() != 0;
+                    }
+                    return isInvariant(c.term());
+                }).orElse(true);
+            }
+
+            private boolean isInvariant(Term term) {
+                return switch (term) {
+                    case Term.Constant c -> Inliner.isPure(new Expression(c, Optional.empty()));
+                    case Term.KeywordLiteral k -> true;
+                    case Term.NonIndexedVarName(String name) -> isInvariant(name);
+                    case Term.IndexedVarname(String name, Expression index) ->
+                        !calls && !arrayWrites && isInvariant(name) && isInvariant(index);
+                    case Term.ParenthesisExpression(Expression e) -> isInvariant(e);
+                    case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> isInvariant(t);
+                    case Term.SubroutineCall call -> false;
+                };
+            }
+
+            private boolean isInvariant(String name) {
+                if (assigned.contains(name)) {
+                    return false;
+                }
+                // memory outside the frame may change through a call or an array write
+                return frame.contains(name) || !calls && !arrayWrites;
+            }
+
+            /**
+             * Anything that takes an operation to compute, other than a negative literal.
+             */
+            private static boolean isWorthHoisting(Expression expression) {
+                return expression.continuation().isPresent() || isWorthHoisting(expression.term());
+            }
+
+            private static boolean isWorthHoisting(Term term) {
+                return switch (term) {
+                    case Term.IndexedVarname v -> true;
+                    case Term.UnaryOpTerm(Term.UnaryOp op, Term t) -> !(t instanceof Term.Constant);
+                    case Term.ParenthesisExpression(Expression e) -> isWorthHoisting(e);
+                    default -> false;
+                };
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.JackClass;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A named transformation of the whole program, run by a {@link PassManager}.
+ */
+public interface Pass {
+
+    String name();
+
+    /**
+     * Passes whose output this one expects. Requesting this pass schedules them as well,
+     * ahead of it.
+     */
+    Set<String> dependencies();
+
+    Result run(List<JackClass> classes);
+
+    static Pass of(String name, Set<String> dependencies, Function<List<JackClass>, Result> body) {
+        return new Simple(name, dependencies, body);
+    }
+
+    /**
+     * @param summary what the pass did, in a line or more
+     */
+    record Result(List<JackClass> classes, String summary) {
+    }
+
+    record Simple(String name, Set<String> dependencies, Function<List<JackClass>, Result> body) implements Pass {
+
+        @Override
+        public Result run(List<JackClass> classes) {
+            return body.apply(classes);
+        }
+
+    }
+
+}
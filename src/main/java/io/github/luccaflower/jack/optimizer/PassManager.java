@@ -0,0 +1,135 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.JackClass;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the requested passes, and the ones they depend on, in the order they were
+ * registered in. As a pass can only depend on passes registered before it, that order
+ * always puts dependencies first. Each pass is timed, and the program is measured
+ * before and after it.
+ */
+public class PassManager {
+
+    public static final String INLINE = "inline";
+
+    public static final String DATAFLOW = "dataflow";
+
+    public static final String LICM = "licm";
+
+    public static final String WHOLE_PROGRAM = "whole-program";
+
+    private final Map<String, Pass> passes = new LinkedHashMap<>();
+
+    private final ToLongFunction<List<JackClass>> instructionCount;
+
+    /**
+     * @param instructionCount size of the program's compiled code, to report each pass's
+     * effect with
+     */
+    public PassManager(ToLongFunction<List<JackClass>> instructionCount) {
+        this.instructionCount = instructionCount;
+    }
+
+    /**
+     * The compiler's own passes. Hoisting runs after constant propagation, so that what
+     * folds to a constant isn't hoisted into a local instead.
+     */
+    public static PassManager standard(ToLongFunction<List<JackClass>> instructionCount) {
+        return new PassManager(instructionCount).register(Pass.of(INLINE, Set.of(), classes -> {
+            var result = new Inliner().inline(classes);
+            return new Pass.Result(result.classes(), "Inlined %d call sites".formatted(result.inlinedCallSites()));
+        })).register(Pass.of(DATAFLOW, Set.of(), classes -> {
+            var result = new DataflowOptimizer().optimize(classes);
+            return new Pass.Result(result.classes(),
+                    "Propagated %d constants, removed %d dead stores and %d unreachable blocks".formatted(
+                            result.propagatedConstants(), result.removedStores(), result.removedBlocks()));
+        })).register(Pass.of(LICM, Set.of(DATAFLOW), classes -> {
+            var result = new LoopInvariantCodeMotion().hoist(classes);
+            return new Pass.Result(result.classes(),
+                    "Hoisted %d loop-invariant expressions".formatted(result.hoistedExpressions()));
+        })).register(Pass.of(WHOLE_PROGRAM, Set.of(), classes -> {
+            if (!DeadCodeEliminator.hasEntryPoint(classes)) {
+                // a library is used by programs compiled separately, so all of it is live
+                return new Pass.Result(classes, "Skipped, as there is no entry point, expected one of "
+                        + DeadCodeEliminator.ENTRY_POINTS);
+            }
+            var result = new DeadCodeEliminator().eliminate(classes);
+            var summary = "Removed %d unreachable subroutines and %d unreachable statements"
+                .formatted(result.removedSubroutines().size(), result.removedStatements());
+            var removed = result.removedSubroutines().stream().map(s -> "\n  " + s).collect(Collectors.joining());
+            return new Pass.Result(result.classes(), summary + removed);
+        }));
+    }
+
+    public PassManager register(Pass pass) {
+        if (passes.containsKey(pass.name())) {
+            throw new IllegalArgumentException("Pass %s is already registered".formatted(pass.name()));
+        }
+        pass.dependencies().forEach(this::require);
+        passes.put(pass.name(), pass);
+        return this;
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(passes.keySet());
+    }
+
+    /**
+     * The requested passes along with everything they depend on, in the order they run
+     * in.
+     */
+    public List<Pass> schedule(Set<String> requested) {
+        var scheduled = new HashSet<String>();
+        var pending = new ArrayDeque<>(requested);
+        while (!pending.isEmpty()) {
+            var name = pending.poll();
+            if (scheduled.add(name)) {
+                pending.addAll(require(name).dependencies());
+            }
+        }
+        return passes.values().stream().filter(p -> scheduled.contains(p.name())).toList();
+    }
+
+    public Run run(List<JackClass> classes, Set<String> requested) {
+        var reports = new ArrayList<Report>();
+        var before = instructionCount.applyAsLong(classes);
+        for (var pass : schedule(requested)) {
+            var start = System.nanoTime();
+            var result = pass.run(classes);
+            var time = Duration.ofNanos(System.nanoTime() - start);
+            classes = result.classes();
+            var after = instructionCount.applyAsLong(classes);
+            reports.add(new Report(pass.name(), result.summary(), time, before, after));
+            before = after;
+        }
+        return new Run(classes, reports);
+    }
+
+    private Pass require(String name) {
+        var pass = passes.get(name);
+        if (pass == null) {
+            throw new IllegalArgumentException("Unknown pass %s, expected one of %s".formatted(name, passes.keySet()));
+        }
+        return pass;
+    }
+
+    public record Run(List<JackClass> classes, List<Report> reports) {
+    }
+
+    public record Report(String pass, String summary, Duration time, long instructionsBefore,
+            long instructionsAfter) {
+
+        @Override
+        public String toString() {
+            return "%s: %.1f ms, %d -> %d instructions. %s".formatted(pass, time.toNanos() / 1e6, instructionsBefore,
+                    instructionsAfter, summary);
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.optimizer.ControlFlowGraph.Node;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Assignments to frame variables that may not have been overwritten yet. Nodes are told
+ * apart by identity, as equal statements can occur in several places.
+ */
+final class ReachingDefinitions implements Dataflow.Analysis<Set<Node>> {
+
+    private final ControlFlowGraph graph;
+
+    ReachingDefinitions(ControlFlowGraph graph) {
+        this.graph = graph;
+    }
+
+    @Override
+    public boolean forward() {
+        return true;
+    }
+
+    @Override
+    public Set<Node> boundary() {
+        return Set.of();
+    }
+
+    @Override
+    public Set<Node> initial() {
+        return Set.of();
+    }
+
+    @Override
+    public Set<Node> join(Set<Node> left, Set<Node> right) {
+        var joined = nodes();
+        joined.addAll(left);
+        joined.addAll(right);
+        return joined;
+    }
+
+    @Override
+    public Set<Node> transfer(Node node, Set<Node> reaching) {
+        var definition = graph.definition(node);
+        if (definition.isEmpty()) {
+            return reaching;
+        }
+        var after = nodes();
+        reaching.stream()
+            .filter(d -> !graph.definition(d).orElseThrow().name().equals(definition.get().name()))
+            .forEach(after::add);
+        after.add(node);
+        return after;
+    }
+
+    private static Set<Node> nodes() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+}
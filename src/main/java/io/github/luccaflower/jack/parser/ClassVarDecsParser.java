@@ -8,8 +8,8 @@ import java.util.*;
 class ClassVarDecsParser {
 
     public ClassVarDec parse(IteratingTokenizer tokenizer) {
-        var statics = new HashMap<String, Type.VarType>();
-        var fields = new HashMap<String, Type.VarType>();
+        var statics = new LinkedHashMap<String, Type.VarType>();
+        var fields = new LinkedHashMap<String, Type.VarType>();
         var fieldParser = new FieldDecParser();
         while (fieldParser.parse(tokenizer).orElse(null) instanceof FieldDec dec) {
             if (dec.scope() == ClassVarScope.STATIC) {
@@ -1,6 +1,6 @@
 package io.github.luccaflower.jack.parser;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public record JackClass(String name, Map<String, Type.VarType> statics, Map<String, Type.VarType> fields,
@@ -14,11 +14,11 @@ public record JackClass(String name, Map<String, Type.VarType> statics, Map<Stri
 
         private String name = "";
 
-        private Map<String, Type.VarType> statics = new HashMap<>();
+        private Map<String, Type.VarType> statics = new LinkedHashMap<>();
 
-        private Map<String, Type.VarType> fields = new HashMap<>();
+        private Map<String, Type.VarType> fields = new LinkedHashMap<>();
 
-        private Map<String, Subroutine> subroutines = new HashMap<>();
+        private Map<String, Subroutine> subroutines = new LinkedHashMap<>();
 
         private Builder() {
         }
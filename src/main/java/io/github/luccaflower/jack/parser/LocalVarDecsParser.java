@@ -4,7 +4,7 @@ import io.github.luccaflower.jack.tokenizer.IteratingTokenizer;
 import io.github.luccaflower.jack.tokenizer.SyntaxError;
 import io.github.luccaflower.jack.tokenizer.Token;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -12,7 +12,7 @@ import java.util.stream.Collectors;
 class LocalVarDecsParser {
 
     Map<String, Type.VarType> parse(IteratingTokenizer tokenizer) {
-        var locals = new HashMap<String, Type.VarType>();
+        var locals = new LinkedHashMap<String, Type.VarType>();
         var localVarParser = new LocalVarParser();
         while (localVarParser.parse(tokenizer).orElse(null) instanceof VarTypeAndNamesParser.VarTypeAndNames v) {
             v.names().forEach(n -> locals.put(n, v.type()));
@@ -37,11 +37,13 @@ public class StatementsParser {
     public static class StatementParser {
 
         public Optional<Statement> parse(IteratingTokenizer tokenizer) {
+            var position = tokenizer.position();
             return new ReturnParser().parse(tokenizer)
                 .or(() -> new LetStatementParser().parse(tokenizer))
                 .or(() -> new IfStatementParser().parse(tokenizer))
                 .or(() -> new WhileStatementParser().parse(tokenizer))
-                .or(() -> new SubroutineCallStatementParser().parse(tokenizer));
+                .or(() -> new SubroutineCallStatementParser().parse(tokenizer))
+                .map(s -> tokenizer.locate(s, position));
         }
 
     }
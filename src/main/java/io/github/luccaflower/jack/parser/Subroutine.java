@@ -13,19 +13,55 @@ public sealed interface Subroutine {
 
     List<Statement> statements();
 
+    Type.ReturnType type();
+
+    Subroutine withStatements(List<Statement> statements);
+
+    Subroutine withLocals(Map<String, Type.VarType> locals);
+
     record JackFunction(String name, Type.ReturnType type, List<Parameter> arguments,
             Map<String, Type.VarType> locals, List<Statement> statements) implements Subroutine {
 
+        @Override
+        public Subroutine withStatements(List<Statement> statements) {
+            return new JackFunction(name, type, arguments, locals, statements);
+        }
+
+        @Override
+        public Subroutine withLocals(Map<String, Type.VarType> locals) {
+            return new JackFunction(name, type, arguments, locals, statements);
+        }
+
     }
 
     record JackMethod(String name, Type.ReturnType type, List<Parameter> arguments,
             Map<String, Type.VarType> locals, List<Statement> statements) implements Subroutine {
 
+        @Override
+        public Subroutine withStatements(List<Statement> statements) {
+            return new JackMethod(name, type, arguments, locals, statements);
+        }
+
+        @Override
+        public Subroutine withLocals(Map<String, Type.VarType> locals) {
+            return new JackMethod(name, type, arguments, locals, statements);
+        }
+
     }
 
     record JackConstructor(String name, Type.ReturnType type, List<Parameter> arguments,
             Map<String, Type.VarType> locals, List<Statement> statements) implements Subroutine {
 
+        @Override
+        public Subroutine withStatements(List<Statement> statements) {
+            return new JackConstructor(name, type, arguments, locals, statements);
+        }
+
+        @Override
+        public Subroutine withLocals(Map<String, Type.VarType> locals) {
+            return new JackConstructor(name, type, arguments, locals, statements);
+        }
+
     }
 
 }
@@ -25,7 +25,7 @@ public class SubroutinesDecsParser {
 
     public SubroutineDecs parse(IteratingTokenizer tokenizer) {
         var subroutineParser = new SubroutineParser();
-        Map<String, Subroutine> subroutines = new HashMap<>();
+        Map<String, Subroutine> subroutines = new LinkedHashMap<>();
         while (subroutineParser.parse(tokenizer).orElse(null) instanceof SubroutineDec s) {
             subroutines.put(s.name(), s.subroutine());
         }
@@ -50,6 +50,7 @@ public class SubroutinesDecsParser {
                 default:
                     return Optional.empty();
             }
+            var position = tokenizer.position();
             tokenizer.advance();
             var type = returnTypeParser.parse(tokenizer)
                 .orElseThrow(() -> new SyntaxError("Function must have a return type"));
@@ -59,13 +60,13 @@ public class SubroutinesDecsParser {
             var locals = localVarDecsParser.parse(tokenizer);
             var statements = statementsParser.parse(tokenizer);
             endBlockParser.parse(tokenizer);
-            return Optional.of(new SubroutineDec(name,
-                    builder(subroutineKind).type(type)
-                        .name(name)
-                        .arguments(arguments)
-                        .locals(locals)
-                        .statements(statements)
-                        .build()));
+            var subroutine = builder(subroutineKind).type(type)
+                .name(name)
+                .arguments(arguments)
+                .locals(locals)
+                .statements(statements)
+                .build();
+            return Optional.of(new SubroutineDec(name, tokenizer.locate(subroutine, position)));
         }
 
     }
@@ -90,7 +91,7 @@ public class SubroutinesDecsParser {
 
         private List<Parameter> arguments = new ArrayList<>();
 
-        private Map<String, Type.VarType> locals = new HashMap<>();
+        private Map<String, Type.VarType> locals = new LinkedHashMap<>();
 
         private List<Statement> statements = new ArrayList<>();
 
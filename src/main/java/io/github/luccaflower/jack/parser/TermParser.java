@@ -133,12 +133,14 @@ class TermParser {
                 default:
                     return Optional.empty();
             }
+            var position = tokenizer.position();
             switch (tokenizer.lookAhead(1).peek()) {
                 case Token.Symbol s when s.type() == OPEN_PAREN: {
                     // identifier assured at the start of the function
                     var subroutineName = nameParser.parse(tokenizer).get();
                     var expressions = expressionListParser.parse(tokenizer);
-                    return Optional.of(new Term.LocalSubroutineCall(subroutineName, expressions));
+                    return Optional
+                        .of(tokenizer.locate(new Term.LocalSubroutineCall(subroutineName, expressions), position));
                 }
                 case Token.Symbol s when s.type() == DOT: {
                     var className = nameParser.parse(tokenizer).get();
@@ -146,7 +148,8 @@ class TermParser {
                     var subroutineName = nameParser.parse(tokenizer)
                         .orElseThrow(() -> new SyntaxError("Identifier expected after dot"));
                     var expressions = expressionListParser.parse(tokenizer);
-                    return Optional.of(new Term.ObjectSubroutineCall(className, subroutineName, expressions));
+                    return Optional.of(tokenizer
+                        .locate(new Term.ObjectSubroutineCall(className, subroutineName, expressions), position));
                 }
                 default:
                     return Optional.empty();
@@ -4,7 +4,7 @@ import io.github.luccaflower.jack.tokenizer.IteratingTokenizer;
 import io.github.luccaflower.jack.tokenizer.SyntaxError;
 import io.github.luccaflower.jack.tokenizer.Token;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 class VarTypeAndNamesParser {
@@ -12,7 +12,7 @@ class VarTypeAndNamesParser {
     VarTypeAndNames parse(IteratingTokenizer tokenizer) {
         var type = new TypeParser.VarTypeParser().parse(tokenizer)
             .orElseThrow(() -> new SyntaxError("Field must have a type"));
-        Set<String> names = new HashSet<>();
+        Set<String> names = new LinkedHashSet<>();
         var nameParser = new NameParser();
         loop: while (nameParser.parse(tokenizer).orElse(null) instanceof String name) {
             names.add(name);
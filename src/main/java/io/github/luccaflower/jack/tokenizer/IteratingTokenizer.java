@@ -1,6 +1,9 @@
 package io.github.luccaflower.jack.tokenizer;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -27,6 +30,15 @@ public class IteratingTokenizer {
 
     private int cursor = 0;
 
+    // how far lines have been counted, for positions
+    private int counted = 0;
+
+    private int line = 1;
+
+    private int lineStart = 0;
+
+    private final Map<Object, Position> positions = new IdentityHashMap<>();
+
     public IteratingTokenizer(String input) {
         this.input = input;
         cursor += skipWhitespacesAndComments(input);
@@ -55,6 +67,36 @@ public class IteratingTokenizer {
         return getNext(rest()).orElseThrow(() -> new SyntaxError("Unexpected EOF")).token();
     }
 
+    /**
+     * @return where the next token starts
+     */
+    public Position position() {
+        for (; counted < cursor; counted++) {
+            if (input.charAt(counted) == '\n') {
+                line++;
+                lineStart = counted + 1;
+            }
+        }
+        return new Position(line, cursor - lineStart + 1);
+    }
+
+    /**
+     * Records that the node was parsed from the given position on.
+     * @return the node
+     */
+    public <T> T locate(T node, Position position) {
+        positions.put(node, position);
+        return node;
+    }
+
+    /**
+     * @return the position of every node parsed from this input, by identity, since
+     * structurally equal nodes may come from different places
+     */
+    public Map<Object, Position> positions() {
+        return Collections.unmodifiableMap(positions);
+    }
+
     public IteratingTokenizer lookAhead(int count) throws SyntaxError {
         IteratingTokenizer iteratingTokenizer = new IteratingTokenizer(rest());
         for (int i = 0; i < count; i++) {
@@ -0,0 +1,7 @@
+package io.github.luccaflower.jack.tokenizer;
+
+/**
+ * Where something starts in a source file, both counted from 1.
+ */
+public record Position(int line, int column) {
+}
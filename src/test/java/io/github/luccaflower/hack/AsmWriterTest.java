@@ -0,0 +1,188 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.Interpreter;
+import io.github.luccaflower.hack.vm.VmClass;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AsmWriterTest {
+
+    @Test
+    void bootstrapSetsUpTheStackAndCallsSysInit() {
+        var asm = write(VmClass.parse("Sys", """
+                function Sys.init 0
+                call Main.main 0
+                return"""), VmClass.parse("Main", """
+                function Main.main 0
+                push constant 0
+                return"""));
+        assertThat(asm).startsWith("@256", "D=A", "@SP", "M=D", "@Sys.init", "D=A", "@R13", "M=D", "@R14", "M=0")
+            .contains("($call)", "($return)", "($halt)");
+    }
+
+    @Test
+    void labelsAreScopedToTheirFunctionAndStaticsToTheirClass() {
+        var asm = write(VmClass.parse("Main", """
+                function Main.main 0
+                label loop
+                push static 0
+                pop static 1
+                goto loop
+                function Main.other 0
+                label loop
+                goto loop"""));
+        assertThat(asm).contains("(Main.main$loop)", "(Main.other$loop)", "@Main.0", "@Main.1")
+            .containsSequence("@Main.other$loop", "0;JMP");
+    }
+
+    @Test
+    void comparisonsGoThroughTheSharedRoutines() {
+        var asm = write(VmClass.parse("Main", """
+                function Main.main 0
+                push constant 1
+                push constant 2
+                lt
+                return"""));
+        assertThat(asm).containsSequence("@$lt", "0;JMP").contains("($lt)", "($gt)", "($true)", "($false)");
+    }
+
+    @Test
+    void callsToFunctionsMissingFromTheProgramAreRejected() {
+        assertThatThrownBy(() -> write(VmClass.parse("Main", """
+                function Main.main 0
+                call Output.printInt 1
+                return"""))).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Output.printInt");
+    }
+
+    @Test
+    void aPushFollowedByAPopMovesTheValueThroughD() {
+        var asm = write(VmClass.parse("Main", """
+                function Main.main 0
+                push argument 1
+                pop local 2
+                push constant 1
+                pop static 0
+                return"""));
+        assertThat(asm).containsSequence("(Main.main)", "@ARG", "A=M+1", "D=M", "@LCL", "A=M+1", "A=A+1", "M=D",
+                "@Main.0", "M=1", "@$return");
+    }
+
+    @Test
+    void sizeModeSharesEqualityAndTheArgumentCountOfCalls() {
+        var program = new AsmWriter(AsmWriter.Mode.SIZE).write(List.of(VmClass.parse("Main", """
+                function Main.main 3
+                push local 0
+                push local 1
+                eq
+                push constant 2
+                call Main.main 2
+                return""")));
+        assertThat(program.asm().lines().toList()).containsSequence("@$eq", "0;JMP")
+            .containsSequence("@$call.2", "0;JMP")
+            .containsSequence("($call.2)", "@R14", "M=1", "M=M+1", "@$call", "0;JMP")
+            .contains("($eq)")
+            .anyMatch(l -> l.startsWith("(Main.main$zero."));
+        assertThat(program.functions()).extracting(AsmWriter.FunctionSize::mode).containsExactly(AsmWriter.Mode.SIZE);
+    }
+
+    @Test
+    void aBudgetShrinksOnlyAsManyFunctionsAsItTakes() {
+        var classes = List.of(VmClass.parse("Main", """
+                function Main.main 0
+                call Main.small 0
+                call Main.large 0
+                return
+                function Main.small 0
+                push constant 0
+                return
+                function Main.large 8
+                push local 0
+                push local 1
+                eq
+                return"""));
+        var fast = new AsmWriter().write(classes);
+        var small = new AsmWriter(AsmWriter.Mode.SIZE).write(classes);
+        assertThat(small.instructions()).isLessThan(fast.instructions());
+        var budget = AsmWriter.withinBudget((int) fast.instructions() - 1).write(classes);
+        assertThat(budget.instructions()).isLessThan(fast.instructions());
+        assertThat(budget.functions()).extracting(AsmWriter.FunctionSize::mode)
+            .containsExactly(AsmWriter.Mode.SPEED, AsmWriter.Mode.SPEED, AsmWriter.Mode.SIZE);
+        assertThat(budget.functions().stream().mapToInt(AsmWriter.FunctionSize::instructions).sum())
+            .isLessThan((int) budget.instructions());
+    }
+
+    @Test
+    void translatedProgramsComputeWhatTheInterpreterDoesInBothModes() {
+        var classes = List.of(VmClass.parse("Sys", """
+                function Sys.init 0
+                push constant 3000
+                pop pointer 1
+                push constant 7
+                push constant 5
+                call Main.main 2
+                pop that 0
+                push constant 32767
+                neg
+                push constant 1
+                sub
+                push constant 32767
+                lt
+                pop that 1
+                push constant 32767
+                push constant 1
+                neg
+                gt
+                pop that 2
+                push static 0
+                pop that 3
+                return"""), VmClass.parse("Main", """
+                function Main.main 4
+                push argument 0
+                push argument 1
+                eq
+                pop local 3
+                label loop
+                push local 0
+                push argument 0
+                add
+                pop local 0
+                push argument 1
+                push constant 1
+                sub
+                pop argument 1
+                push argument 1
+                if-goto loop
+                push local 0
+                push local 1
+                push local 2
+                or
+                or
+                push local 3
+                not
+                and
+                pop static 0
+                push static 0
+                push constant 1
+                add
+                return"""));
+        var interpreter = new Interpreter(classes);
+        interpreter.run(Long.MAX_VALUE);
+        var expected = Arrays.copyOfRange(interpreter.ram(), 3000, 3004);
+        assertThat(expected).containsExactly(36, -1, -1, 0);
+        for (var mode : AsmWriter.Mode.values()) {
+            var cpu = new Cpu(new Assembler().assemble(new AsmWriter(mode).write(classes).code()));
+            assertThat(cpu.run(Long.MAX_VALUE).status()).isEqualTo(Cpu.Status.HALTED);
+            assertThat(Arrays.copyOfRange(cpu.ram(), 3000, 3004)).as(mode.name()).isEqualTo(expected);
+        }
+    }
+
+    private static List<String> write(VmClass... classes) {
+        return new AsmWriter().write(List.of(classes)).asm().lines().toList();
+    }
+
+}
@@ -0,0 +1,93 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.VmClass;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Times the assembler on a translated program of about 30K instructions, the size of a
+ * full ROM. Run it with {@code java -cp target/classes:target/test-classes}; it is not
+ * part of the test suite.
+ */
+public class AssemblerBenchmark {
+
+    private static final int WARM_UP = 20;
+
+    private static final int RUNS = 50;
+
+    public static void main(String[] args) {
+        var program = new AsmWriter().write(program(190));
+        var asm = program.asm();
+        var assembler = new Assembler();
+        time("from text", () -> assembler.assemble(asm, Writer.nullWriter()));
+        time("from the writer", () -> assembler.assemble(program.code(), Writer.nullWriter()));
+    }
+
+    private static void time(String name, IntSupplier assemble) {
+        var instructions = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            instructions = assemble.getAsInt();
+        }
+        var start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            assemble.getAsInt();
+        }
+        var nanos = (System.nanoTime() - start) / RUNS;
+        System.out.printf("%s: %d instructions in %.2f ms, %.1f M instructions/s%n", name, instructions, nanos / 1e6,
+                instructions * 1e3 / nanos);
+    }
+
+    /**
+     * Functions that loop, branch, call each other and use statics, so the symbol table
+     * sees labels, return addresses and variables in proportions like a real program's.
+     */
+    private static List<VmClass> program(int functions) {
+        var classes = new ArrayList<VmClass>();
+        classes.add(VmClass.parse("Sys", "function Sys.init 0\ncall C0.f0 0\nreturn"));
+        var perClass = 10;
+        for (int c = 0; c < functions / perClass; c++) {
+            var code = new StringBuilder();
+            for (int f = 0; f < perClass; f++) {
+                var callee = "C%d.f%d".formatted((c + 1) % (functions / perClass), f);
+                code.append("""
+                        function C%1$d.f%2$d 3
+                        label loop
+                        push local 0
+                        push constant 100
+                        lt
+                        not
+                        if-goto done
+                        push static %2$d
+                        push argument 1
+                        add
+                        pop static %2$d
+                        push local 0
+                        push local 1
+                        eq
+                        if-goto skip
+                        push local 2
+                        push constant 3
+                        call %3$s 2
+                        pop local 2
+                        label skip
+                        push local 0
+                        push constant 1
+                        add
+                        pop local 0
+                        goto loop
+                        label done
+                        push this 4
+                        pop that 7
+                        push local 2
+                        return
+                        """.formatted(c, f, callee));
+            }
+            classes.add(VmClass.parse("C" + c, code.toString()));
+        }
+        return classes;
+    }
+
+}
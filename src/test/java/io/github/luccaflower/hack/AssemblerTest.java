@@ -0,0 +1,130 @@
+package io.github.luccaflower.hack;
+
+import io.github.luccaflower.hack.vm.VmClass;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+class AssemblerTest {
+
+    @Test
+    void instructionsAreEncodedOnePerLine() {
+        assertThat(assemble("""
+                // Computes R0 = 2 + 3
+                @2
+                D=A
+                @3
+                D = D + A   // spaces are fine
+                @0
+                M=D
+                0;JMP""")).containsExactly("0000000000000010", "1110110000010000", "0000000000000011",
+                "1110000010010000", "0000000000000000", "1110001100001000", "1110101010000111");
+    }
+
+    @Test
+    void labelsPointAtTheNextInstructionAndVariablesStartAt16() {
+        assertThat(assemble("""
+                @i
+                M=1
+                (LOOP)
+                @j
+                AM=M-1
+                @LOOP
+                D;JGT
+                @i
+                @SCREEN""")).containsExactly("0000000000010000", "1110111111001000", "0000000000010001",
+                "1111110010101000", "0000000000000010", "1110001100000001", "0000000000010000", "0100000000000000");
+    }
+
+    @Test
+    void errorsNameTheLine() {
+        assertThatThrownBy(() -> assemble("""
+                @1
+                D=X""")).isInstanceOf(IllegalArgumentException.class).hasMessage("line 2: Invalid computation X");
+        assertThatThrownBy(() -> assemble("@32768")).hasMessageContaining("out of range");
+        assertThatThrownBy(() -> assemble("(A)\n(A)")).hasMessageContaining("Duplicate label A");
+    }
+
+    @Test
+    void labelsPastTheEndOfRomAreRejected() {
+        var asm = "@end\n" + "0;JMP\n".repeat(Short.MAX_VALUE) + "(end)\n0;JMP";
+        assertThatThrownBy(() -> assemble(asm)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("line 1: Address out of range end");
+        assertThat(assemble(asm.substring(asm.indexOf('\n') + 1))).hasSize(Short.MAX_VALUE + 1);
+    }
+
+    @Test
+    void translatedProgramsAssembleToOneWordPerInstruction() {
+        var program = new AsmWriter().write(List.of(VmClass.parse("Main", """
+                function Main.main 1
+                push constant 7
+                pop static 0
+                push static 0
+                push local 0
+                lt
+                return""")));
+        assertThat(assemble(program.asm())).hasSize((int) program.instructions())
+            .allMatch(word -> word.matches("[01]{16}"));
+    }
+
+    @Test
+    void translatedProgramsAssembleWithoutGoingThroughText() {
+        var program = new AsmWriter().write(List.of(VmClass.parse("Main", """
+                function Main.main 0
+                label loop
+                push static 1
+                push constant 2
+                gt
+                if-goto loop
+                push constant 0
+                call Main.main 1
+                return""")));
+        var out = new StringWriter();
+        new Assembler().assemble(program.code(), out);
+        assertThat(out.toString().lines().toList()).isEqualTo(assemble(program.asm()));
+        assertThat(new Assembler().assemble(program.code()).labels())
+            .isEqualTo(new Assembler().assemble(program.asm()).labels());
+    }
+
+    @Test
+    void piecesOfCodeKeepTheirLabelsWhenJoined() {
+        var first = new Assembler().read("(start)\n@end\n0;JMP");
+        var second = new ObjectCode();
+        second.add("@x");
+        second.label("end");
+        second.add("@start");
+        first.append(second);
+        assertThat(first.labels()).containsExactly(entry("start", 0), entry("end", 3));
+        assertThat(first.asm()).isEqualTo("(start)\n@end\n0;JMP\n@x\n(end)\n@start\n");
+        var words = new ArrayList<Integer>();
+        first.assemble(words::add);
+        assertThat(words).containsExactly(3, 0b1110101010000111, 16, 0);
+        assertThatThrownBy(() -> first.append(second)).hasMessage("Duplicate label end");
+    }
+
+    @Test
+    void theSymbolTableGrowsPastItsInitialCapacity() {
+        var symbols = new SymbolTable(4);
+        for (int i = 0; i < 1000; i++) {
+            symbols.put("Main." + i, i);
+        }
+        symbols.put("Main.7", 70);
+        assertThat(symbols.size()).isEqualTo(1000);
+        assertThat(symbols.get("Main.999")).isEqualTo(999);
+        assertThat(symbols.get("Main.7")).isEqualTo(70);
+        assertThat(symbols.get("Main.1000")).isEqualTo(SymbolTable.MISSING);
+    }
+
+    private static List<String> assemble(String asm) {
+        var out = new StringWriter();
+        new Assembler().assemble(asm, out);
+        return out.toString().lines().toList();
+    }
+
+}
@@ -0,0 +1,134 @@
+package io.github.luccaflower.hack;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CpuTest {
+
+    private static final String COUNT_DOWN = """
+            @5
+            D=A
+            @R0
+            M=D
+            (Main.loop)
+            @R1
+            M=M+1
+            @R0
+            MD=M-1
+            @Main.loop
+            D;JGT
+            ($done)
+            @$done
+            0;JMP""";
+
+    @Test
+    void runsUntilTheHaltIdiom() {
+        var cpu = new Cpu(new Assembler().assemble(COUNT_DOWN));
+        var result = cpu.run(Long.MAX_VALUE);
+        assertThat(result.status()).isEqualTo(Cpu.Status.HALTED);
+        assertThat(result.cycles()).isEqualTo(4 + 5 * 6);
+        assertThat(cpu.ram()[0]).isZero();
+        assertThat(cpu.ram()[1]).isEqualTo((short) 5);
+    }
+
+    @Test
+    void theHackFormatRunsTheSame() {
+        var hack = new StringWriter();
+        new Assembler().assemble(COUNT_DOWN, hack);
+        var cpu = Cpu.fromHack(hack.toString());
+        assertThat(cpu.run(Long.MAX_VALUE)).isEqualTo(new Cpu.Result(Cpu.Status.HALTED, 34));
+    }
+
+    @Test
+    void aBudgetStopsTheRunAndItCanBeResumed() {
+        var cpu = new Cpu(new Assembler().assemble(COUNT_DOWN));
+        assertThat(cpu.run(10)).isEqualTo(new Cpu.Result(Cpu.Status.OUT_OF_CYCLES, 10));
+        assertThat(cpu.run(Long.MAX_VALUE)).isEqualTo(new Cpu.Result(Cpu.Status.HALTED, 34));
+    }
+
+    @Test
+    void arithmeticWrapsAroundAt16Bits() {
+        var cpu = new Cpu(new Assembler().assemble("""
+                @32767
+                D=A+1
+                @R0
+                M=D
+                D=-1
+                @R1
+                M=!D
+                M=M-1
+                (end)
+                @end
+                0;JMP"""));
+        cpu.run(Long.MAX_VALUE);
+        assertThat(cpu.ram()[0]).isEqualTo(Short.MIN_VALUE);
+        assertThat(cpu.ram()[1]).isEqualTo((short) -1);
+    }
+
+    @Test
+    void aNegativeAIsNegativeToTheAlu() {
+        var cpu = new Cpu(new Assembler().assemble("""
+                A=-1
+                D=A
+                @R0
+                M=1
+                @negative
+                D;JLT
+                @R0
+                M=-1
+                (negative)
+                A=-1
+                D=!A
+                @zero
+                D;JEQ
+                @R1
+                M=-1
+                (zero)
+                @32767
+                A=!A
+                D=-A
+                @wrapped
+                D;JLT
+                @R2
+                M=-1
+                (wrapped)
+                (end)
+                @end
+                0;JMP"""));
+        assertThat(cpu.run(Long.MAX_VALUE).status()).isEqualTo(Cpu.Status.HALTED);
+        assertThat(cpu.ram()[0]).isEqualTo((short) 1);
+        assertThat(cpu.ram()[1]).isZero();
+        assertThat(cpu.ram()[2]).isZero();
+    }
+
+    @Test
+    void jumpsToANegativeAFault() {
+        var cpu = new Cpu(new Assembler().assemble("""
+                A=-1
+                0;JMP"""));
+        assertThat(cpu.run(Long.MAX_VALUE).status()).isEqualTo(Cpu.Status.FAULT);
+    }
+
+    @Test
+    void cyclesAreAttributedToTheFunctionOrRoutineTheyRanIn() {
+        var cpu = new Cpu(new Assembler().assemble(COUNT_DOWN)).countInstructions();
+        cpu.run(Long.MAX_VALUE);
+        assertThat(cpu.cyclesPerFunction()).containsExactly(Map.entry("Main.loop", 30L),
+                Map.entry("$bootstrap", 4L));
+        assertThat(cpu.counters()[4]).isEqualTo(5);
+    }
+
+    @Test
+    void accessesOutsideOfMemoryFault() {
+        var cpu = new Cpu(new Assembler().assemble("""
+                D=-1
+                A=D
+                M=1"""));
+        assertThat(cpu.run(Long.MAX_VALUE).status()).isEqualTo(Cpu.Status.FAULT);
+    }
+
+}
@@ -0,0 +1,107 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InterpreterTest {
+
+    private static final VmClass FACTORIAL = VmClass.parse("Main", """
+            function Main.main 1
+            push constant 7
+            call Main.factorial 1
+            pop static 0
+            label loop
+            push local 0
+            push constant 1
+            add
+            pop local 0
+            push local 0
+            push constant 1000
+            lt
+            if-goto loop
+            push static 0
+            return
+            function Main.factorial 0
+            push argument 0
+            push constant 1
+            gt
+            if-goto recurse
+            push constant 1
+            return
+            label recurse
+            push argument 0
+            push argument 0
+            push constant 1
+            sub
+            call Main.factorial 1
+            call Main.multiply 2
+            return
+            function Main.multiply 1
+            label loop
+            push argument 1
+            if-goto add
+            push local 0
+            return
+            label add
+            push local 0
+            push argument 0
+            add
+            pop local 0
+            push argument 1
+            push constant 1
+            sub
+            pop argument 1
+            goto loop""");
+
+    @Test
+    void theEntryPointsValueIsLeftAtTheBottomOfTheStack() {
+        var interpreter = new Interpreter(List.of(FACTORIAL));
+        var result = interpreter.run(Long.MAX_VALUE);
+        assertThat(result.status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(interpreter.ram()[Interpreter.STACK]).isEqualTo((short) 5040);
+        assertThat(interpreter.ram()[Bytecode.FIRST_STATIC]).isEqualTo((short) 5040);
+        assertThat(interpreter.ram()[0]).isEqualTo((short) (Interpreter.STACK + 1));
+    }
+
+    @Test
+    void superinstructionsCountAsTheCommandsTheyStandFor() {
+        var plain = new Interpreter(Bytecode.decode(List.of(FACTORIAL), false));
+        var fused = new Interpreter(Bytecode.decode(List.of(FACTORIAL), true));
+        var plainResult = plain.run(Long.MAX_VALUE);
+        assertThat(fused.run(Long.MAX_VALUE)).isEqualTo(plainResult);
+        // what a fused comparison leaves above the stack differs, and is never read
+        assertThat(Arrays.copyOf(fused.ram(), Interpreter.STACK + 1))
+            .isEqualTo(Arrays.copyOf(plain.ram(), Interpreter.STACK + 1));
+        assertThat(Bytecode.decode(List.of(FACTORIAL), true).code())
+            .hasSizeLessThan(Bytecode.decode(List.of(FACTORIAL), false).code().length);
+    }
+
+    @Test
+    void aBudgetStopsTheRunAtTheSamePointEveryTimeAndCanBeResumed() {
+        var first = new Interpreter(List.of(FACTORIAL));
+        var second = new Interpreter(List.of(FACTORIAL));
+        var stopped = first.run(500);
+        assertThat(stopped.status()).isEqualTo(Interpreter.Status.OUT_OF_BUDGET);
+        assertThat(second.run(500)).isEqualTo(stopped);
+        assertThat(second.ram()).isEqualTo(first.ram());
+        assertThat(first.run(Long.MAX_VALUE).status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(first.ram()[Interpreter.STACK]).isEqualTo((short) 5040);
+    }
+
+    @Test
+    void unboundedRecursionOverflowsTheStack() {
+        var interpreter = new Interpreter(List.of(VmClass.parse("Main", """
+                function Main.main 0
+                call Main.main 0
+                return""")));
+        var result = interpreter.run(Long.MAX_VALUE);
+        assertThat(result.status()).isEqualTo(Interpreter.Status.STACK_OVERFLOW);
+        assertThat(interpreter.ram()[0]).isBetween((short) (Interpreter.HEAP - 5), (short) Interpreter.HEAP);
+        assertThat(interpreter.function()).isEqualTo("Main.main");
+    }
+
+}
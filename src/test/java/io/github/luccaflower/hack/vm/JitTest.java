@@ -0,0 +1,97 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JitTest {
+
+    private static final List<VmClass> PROGRAM = List.of(VmClass.parse("Main", """
+            function Main.main 2
+            push constant 3000
+            pop pointer 1
+            push constant 32767
+            push constant 1
+            add
+            pop that 0
+            push constant 0
+            not
+            neg
+            pop that 1
+            push constant 4000
+            pop pointer 0
+            label loop
+            push local 0
+            push constant 10
+            call Main.clamp 2
+            push this 0
+            add
+            pop this 0
+            push local 0
+            push constant 1
+            add
+            pop local 0
+            push local 0
+            push constant 20
+            lt
+            if-goto loop
+            push pointer 0
+            push constant 0
+            eq
+            pop static 0
+            push this 0
+            return
+            function Main.clamp 0
+            push argument 0
+            push argument 0
+            push argument 1
+            gt
+            if-goto over
+            goto done
+            label over
+            pop temp 0
+            push argument 1
+            label done
+            push constant 1000
+            pop pointer 0
+            return"""));
+
+    @Test
+    void runsLikeTheInterpreter() {
+        var interpreter = new Interpreter(PROGRAM);
+        var jit = new Jit(PROGRAM);
+        var expected = interpreter.run(Long.MAX_VALUE);
+        assertThat(jit.run(Long.MAX_VALUE)).isEqualTo(expected);
+        assertThat(expected.status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(jit.ram()[Interpreter.STACK]).isEqualTo((short) 145);
+        assertThat(Arrays.copyOf(jit.ram(), Interpreter.STACK + 1))
+            .isEqualTo(Arrays.copyOf(interpreter.ram(), Interpreter.STACK + 1));
+        assertThat(Arrays.copyOfRange(jit.ram(), Interpreter.HEAP, 32768))
+            .isEqualTo(Arrays.copyOfRange(interpreter.ram(), Interpreter.HEAP, 32768));
+    }
+
+    @Test
+    void unboundedRecursionOverflowsTheStack() {
+        var jit = new Jit(List.of(VmClass.parse("Main", """
+                function Main.main 0
+                call Main.main 0
+                return""")));
+        assertThat(jit.run(Long.MAX_VALUE).status()).isEqualTo(Interpreter.Status.STACK_OVERFLOW);
+    }
+
+    @Test
+    void aBudgetStopsInfiniteLoops() {
+        var jit = new Jit(List.of(VmClass.parse("Main", """
+                function Main.main 0
+                label forever
+                goto forever""")));
+        var result = jit.run(1000);
+        assertThat(result.status()).isEqualTo(Interpreter.Status.OUT_OF_BUDGET);
+        assertThat(result.executed()).isBetween(1000L, 1002L);
+        assertThat(jit.run(1000)).isEqualTo(result);
+    }
+
+}
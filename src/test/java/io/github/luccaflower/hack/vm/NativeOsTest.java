@@ -0,0 +1,167 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NativeOsTest {
+
+    private static final int ERROR_CODE = Bytecode.FIRST_STATIC, MAIN_STATICS = ERROR_CODE + 1;
+
+    private static final VmClass SYS = VmClass.parse("Sys", """
+            function Sys.init 0
+            call Memory.init 0
+            pop temp 0
+            call Main.main 0
+            return
+            function Sys.error 0
+            push argument 0
+            pop static 0
+            push constant 0
+            return""");
+
+    @Test
+    void mathComputesWhatTheReferenceOsComputes() {
+        var interpreter = run(VmClass.parse("Main", """
+                function Main.main 0
+                push constant 300
+                push constant 300
+                call Math.multiply 2
+                pop static 0
+                push constant 7
+                neg
+                push constant 2
+                call Math.divide 2
+                pop static 1
+                push constant 32767
+                call Math.sqrt 1
+                pop static 2
+                push constant 32767
+                neg
+                push constant 1
+                sub
+                call Math.abs 1
+                return"""));
+        var ram = interpreter.ram();
+        assertThat(ram[MAIN_STATICS]).isEqualTo((short) (300 * 300));
+        assertThat(ram[MAIN_STATICS + 1]).isEqualTo((short) -3);
+        assertThat(ram[MAIN_STATICS + 2]).isEqualTo((short) 181);
+        assertThat(ram[Interpreter.STACK]).isEqualTo(Short.MIN_VALUE);
+    }
+
+    @Test
+    void stringsArePrintedToTheConsole() {
+        var os = new NativeOs();
+        var interpreter = new Interpreter(List.of(SYS, VmClass.parse("Main", """
+                function Main.main 1
+                push constant 6
+                call String.new 1
+                push constant 52
+                call String.appendChar 2
+                push constant 50
+                call String.appendChar 2
+                pop local 0
+                push local 0
+                call Output.printString 1
+                pop temp 0
+                call Output.println 0
+                pop temp 0
+                push local 0
+                push constant 105
+                neg
+                call String.setInt 2
+                pop temp 0
+                push local 0
+                call String.intValue 1
+                call Output.printInt 1
+                pop temp 0
+                push local 0
+                call String.length 1
+                return""")), os);
+        assertThat(interpreter.run(Long.MAX_VALUE).status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(os.output()).isEqualTo("42\n-105");
+        assertThat(interpreter.ram()[Interpreter.STACK]).isEqualTo((short) 4);
+    }
+
+    @Test
+    void freedBlocksAreAllocatedAgain() {
+        var interpreter = run(VmClass.parse("Main", """
+                function Main.main 2
+                push constant 10
+                call Memory.alloc 1
+                pop local 0
+                push constant 10
+                call Array.new 1
+                pop local 1
+                push local 0
+                call Memory.deAlloc 1
+                pop temp 0
+                push constant 4
+                call Memory.alloc 1
+                pop static 0
+                push local 0
+                pop static 1
+                push local 1
+                return"""));
+        var ram = interpreter.ram();
+        var first = ram[MAIN_STATICS + 1];
+        assertThat(first).isGreaterThan((short) NativeOs.HEAP);
+        assertThat(ram[Interpreter.STACK]).isGreaterThanOrEqualTo((short) (first + 10));
+        assertThat(ram[MAIN_STATICS]).isEqualTo(first);
+    }
+
+    @Test
+    void errorsAreReportedThroughSysError() {
+        var interpreter = run(VmClass.parse("Main", """
+                function Main.main 0
+                push constant 1
+                push constant 0
+                call Math.divide 2
+                return"""));
+        assertThat(interpreter.ram()[ERROR_CODE]).isEqualTo((short) 3);
+        var withoutSys = new Interpreter(List.of(VmClass.parse("Main", """
+                function Main.main 0
+                push constant 1
+                neg
+                call Math.sqrt 1
+                return""")), new NativeOs());
+        assertThat(withoutSys.run(Long.MAX_VALUE).status()).isEqualTo(Interpreter.Status.OS_ERROR);
+        assertThat(withoutSys.function()).isEqualTo("Main.main");
+    }
+
+    @Test
+    void theJitCallsTheSameFunctions() {
+        var classes = List.of(SYS, VmClass.parse("Main", """
+                function Main.main 1
+                push constant 1
+                call String.new 1
+                pop local 0
+                push local 0
+                push constant 33
+                call String.appendChar 2
+                push constant 63
+                call String.appendChar 2
+                pop temp 0
+                push constant 200
+                push constant 200
+                call Math.multiply 2
+                return"""));
+        var interpreter = new Interpreter(classes, new NativeOs());
+        var jit = new Jit(classes, new NativeOs());
+        assertThat(jit.run(Long.MAX_VALUE)).isEqualTo(interpreter.run(Long.MAX_VALUE));
+        assertThat(Arrays.copyOfRange(jit.ram(), NativeOs.HEAP, NativeOs.HEAP + 16))
+            .isEqualTo(Arrays.copyOfRange(interpreter.ram(), NativeOs.HEAP, NativeOs.HEAP + 16));
+        assertThat(jit.ram()[ERROR_CODE]).isEqualTo((short) 17);
+        assertThat(jit.ram()[Interpreter.STACK]).isEqualTo((short) 40000);
+    }
+
+    private static Interpreter run(VmClass main) {
+        var interpreter = new Interpreter(List.of(SYS, main), new NativeOs());
+        assertThat(interpreter.run(Long.MAX_VALUE).status()).isEqualTo(Interpreter.Status.FINISHED);
+        return interpreter;
+    }
+
+}
@@ -0,0 +1,96 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProfileTest {
+
+    private static final VmClass COUNT_DOWN = VmClass.parse("Main", """
+            function Main.main 0
+            push constant 3
+            call Main.down 1
+            push constant 2
+            call Main.leaf 1
+            add
+            return
+            function Main.down 0
+            push argument 0
+            if-goto recurse
+            push constant 0
+            return
+            label recurse
+            push argument 0
+            call Main.leaf 1
+            push argument 0
+            push constant 1
+            sub
+            call Main.down 1
+            add
+            return
+            function Main.leaf 0
+            push argument 0
+            return""");
+
+    @Test
+    void recursiveFunctionsCountTheirCallsOnceTowardsInclusiveCost() {
+        var interpreter = new Interpreter(List.of(COUNT_DOWN)).profiling();
+        var result = interpreter.run(Long.MAX_VALUE);
+        var functions = interpreter.profile().functions();
+        assertThat(functions).extracting(Profile.FunctionCost::name)
+            .containsExactly("Main.down", "Main.leaf", "Main.main");
+        // down runs 11 commands on each way down and 5 at the bottom, and leaf 3 per call
+        assertThat(functions).containsExactly(new Profile.FunctionCost("Main.down", 4, 3 * 11 + 5, 3 * 11 + 5 + 9),
+                new Profile.FunctionCost("Main.leaf", 4, 12, 12),
+                new Profile.FunctionCost("Main.main", 1, 7, result.executed()));
+        assertThat(functions.stream().mapToLong(Profile.FunctionCost::exclusive).sum()).isEqualTo(result.executed());
+    }
+
+    @Test
+    void callsAreCountedPerEdgeAndPerStack() {
+        var interpreter = new Interpreter(List.of(COUNT_DOWN)).profiling();
+        interpreter.run(Long.MAX_VALUE);
+        var profile = interpreter.profile();
+        assertThat(profile.edges()).containsExactly(new Profile.Edge("Main.down", "Main.down", 3),
+                new Profile.Edge("Main.down", "Main.leaf", 3), new Profile.Edge("Main.main", "Main.down", 1),
+                new Profile.Edge("Main.main", "Main.leaf", 1));
+        assertThat(profile.collapsedStacks().lines()).contains("Main.main 7", "Main.main;Main.leaf 3",
+                "Main.main;Main.down;Main.down;Main.down;Main.down 5", "Main.main;Main.down;Main.down;Main.leaf 3");
+    }
+
+    @Test
+    void commandsFusedIntoASuperinstructionAreEachCounted() {
+        var interpreter = new Interpreter(List.of(VmClass.parse("Main", """
+                function Main.main 1
+                label loop
+                push local 0
+                push constant 1
+                add
+                pop local 0
+                push local 0
+                push constant 5
+                lt
+                if-goto loop
+                push local 0
+                return"""))).profiling();
+        interpreter.run(Long.MAX_VALUE);
+        var commands = interpreter.profile().commands();
+        assertThat(commands).filteredOn(c -> c.command() >= 2 && c.command() <= 9)
+            .extracting(Profile.CommandCost::executed)
+            .containsOnly(5L)
+            .hasSize(8);
+        assertThat(commands).contains(new Profile.CommandCost("Main", 10, 1));
+        assertThat(interpreter.profile().report(3)).contains("Main.main", "Main.vm #");
+    }
+
+    @Test
+    void profilingHasToStartBeforeTheProgramRuns() {
+        var interpreter = new Interpreter(List.of(COUNT_DOWN));
+        interpreter.run(3);
+        assertThatThrownBy(interpreter::profiling).isInstanceOf(IllegalStateException.class);
+    }
+
+}
@@ -0,0 +1,94 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StackDepthTest {
+
+    @Test
+    void theTotalAddsTheDeepestCallOnTopOfTheOperandsBelowIt() {
+        var depth = StackDepth.of(List.of(VmClass.parse("Sys", """
+                function Sys.init 0
+                call Main.main 0
+                call Output.flush 0
+                return
+                """), VmClass.parse("Main", """
+                function Main.main 1
+                push constant 1
+                push constant 2
+                call Main.add 2
+                pop local 0
+                push constant 0
+                return
+                function Main.add 0
+                push argument 0
+                push argument 1
+                add
+                return
+                """)));
+        assertThat(depth.functions()).containsExactly(
+                new StackDepth.FunctionStack("Sys.init", 0, OptionalInt.of(2), OptionalInt.of(15), false),
+                new StackDepth.FunctionStack("Main.main", 1, OptionalInt.of(2), OptionalInt.of(10), false),
+                new StackDepth.FunctionStack("Main.add", 0, OptionalInt.of(2), OptionalInt.of(2), false));
+        // Main.main's local, the two arguments, Main.add's frame and its two operands
+        assertThat(depth.worstCase("Main.main")).hasValue(StackDepth.FRAME + 1 + 2 + StackDepth.FRAME + 2);
+        assertThat(depth.worstCase("Sys.init")).hasValue(20);
+        assertThat(depth.unresolved()).containsExactly("Output.flush");
+    }
+
+    @Test
+    void recursionAndStacksGrowingAroundALoopHaveNoBound() {
+        var depth = StackDepth.of(List.of(VmClass.parse("Main", """
+                function Main.caller 0
+                call Main.even 0
+                return
+                function Main.even 0
+                call Main.odd 0
+                return
+                function Main.odd 0
+                call Main.even 0
+                return
+                function Main.later 0
+                call Main.caller 0
+                return
+                function Main.growing 0
+                label loop
+                push constant 0
+                goto loop
+                function Main.self 0
+                call Main.self 0
+                return
+                """)));
+        var recursive = depth.functions()
+            .stream()
+            .filter(StackDepth.FunctionStack::recursive)
+            .map(StackDepth.FunctionStack::name)
+            .toList();
+        assertThat(recursive).containsExactlyInAnyOrder("Main.even", "Main.odd", "Main.self");
+        assertThat(depth.functions()).allSatisfy(f -> assertThat(f.total()).isEmpty());
+        assertThat(depth.functions().get(4).operands()).isEmpty();
+        assertThat(depth.worstCase("Main.later")).isEmpty();
+        assertThat(depth.report("Main.later", 3)).contains("Main.later has no bound on its stack");
+    }
+
+    @Test
+    void codePoppingMoreThanItPushedIsRejected() {
+        var vmClass = VmClass.parse("Main", """
+                function Main.main 0
+                push constant 1
+                add
+                return
+                """);
+        assertThatThrownBy(() -> StackDepth.of(List.of(vmClass))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> StackDepth.of(List.of()).worstCase("Main.main"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(StackDepth.of(List.of()).unresolved()).isEqualTo(Set.of());
+    }
+
+}
@@ -0,0 +1,54 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VmBinaryTest {
+
+    private static final String CODE = """
+            function Main.main 2
+            push constant 300
+            pop local 1
+            label loop
+            push local 1
+            push constant 1
+            sub
+            pop local 1
+            push local 1
+            if-goto loop
+            push static 0
+            neg
+            call Main.main 0
+            pop pointer 1
+            goto loop
+            return
+            """;
+
+    @Test
+    void classesReadBackAsTheyWereWritten() {
+        var vmClass = VmClass.parse("Main", CODE);
+        var bytes = VmBinary.write(vmClass);
+        assertThat(VmBinary.read(bytes)).isEqualTo(vmClass);
+        assertThat(VmBinary.read(bytes).code()).isEqualTo(CODE);
+        // every name once, and a byte or two per command
+        assertThat(bytes.length).isLessThan(CODE.length() / 3);
+    }
+
+    @Test
+    void anythingElseIsRejected() {
+        var bytes = VmBinary.write(VmClass.parse("Main", CODE));
+        assertThatThrownBy(() -> VmBinary.read(CODE.getBytes())).isInstanceOf(IllegalArgumentException.class)
+            .hasMessageStartingWith("Not a binary VM class");
+        var newer = bytes.clone();
+        newer[3] = VmBinary.VERSION + 1;
+        assertThatThrownBy(() -> VmBinary.read(newer)).hasMessageStartingWith("Unsupported binary VM version");
+        assertThatThrownBy(() -> VmBinary.read(Arrays.copyOf(bytes, bytes.length - 1)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageEndingWith("ends early");
+    }
+
+}
@@ -0,0 +1,40 @@
+package io.github.luccaflower.hack.vm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VmClassTest {
+
+    @Test
+    void commandsAreReadOnePerLineSkippingComments() {
+        var vmClass = VmClass.parse("Main", """
+                // computes 2 + 3
+                function Main.main 1
+                push constant 2   // first
+                push constant 3
+
+                add
+                pop local 0
+                label end
+                if-goto end
+                call Output.printInt 1
+                return""");
+        assertThat(vmClass.commands()).containsExactly(new VmCommand.Function("Main.main", 1),
+                new VmCommand.Push(Segment.CONSTANT, 2), new VmCommand.Push(Segment.CONSTANT, 3),
+                new VmCommand.Arithmetic(VmCommand.Operation.ADD), new VmCommand.Pop(Segment.LOCAL, 0),
+                new VmCommand.Label("end"), new VmCommand.IfGoto("end"), new VmCommand.Call("Output.printInt", 1),
+                new VmCommand.Return());
+    }
+
+    @Test
+    void errorsPointAtTheLine() {
+        assertThatThrownBy(() -> VmClass.parse("Main", """
+                function Main.main 0
+                pop constant 1"""))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageStartingWith("Main.vm:2:");
+    }
+
+}
@@ -0,0 +1,470 @@
+package io.github.luccaflower.jack;
+
+import io.github.luccaflower.hack.vm.Interpreter;
+import io.github.luccaflower.hack.vm.Jit;
+import io.github.luccaflower.hack.vm.NativeOs;
+import io.github.luccaflower.hack.vm.Profile;
+import io.github.luccaflower.hack.vm.VmClass;
+import io.github.luccaflower.jack.codewriter.Counters;
+import io.github.luccaflower.jack.codewriter.Options;
+import io.github.luccaflower.jack.codewriter.SourceMap;
+import io.github.luccaflower.jack.optimizer.PassManager;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs compiled programs on the interpreter, for what only shows when the code runs.
+ */
+class ExecutionTest {
+
+    private static final String SUM = """
+            class Main {
+                function int main() {
+                    return Main.sum(20000, 0);
+                }
+                function int sum(int n, int total) {
+                    if (n = 0) {
+                        return total;
+                    }
+                    return Main.sum(n - 1, total + (n & 1));
+                }
+            }""";
+
+    /**
+     * The parts of the OS the intrinsics stand in for, written the way the OS does.
+     */
+    private static final List<String> OS = List.of("""
+            class Math {
+                function int abs(int x) {
+                    if (x < 0) {
+                        return -x;
+                    }
+                    return x;
+                }
+                function int min(int x, int y) {
+                    if (x < y) {
+                        return x;
+                    }
+                    return y;
+                }
+                function int max(int x, int y) {
+                    if (x > y) {
+                        return x;
+                    }
+                    return y;
+                }
+                function int multiply(int x, int y) {
+                    var int sum, shifted, bit;
+                    let shifted = x;
+                    let bit = 1;
+                    while (~(bit = 0)) {
+                        if (~((y & bit) = 0)) {
+                            let sum = sum + shifted;
+                        }
+                        let shifted = shifted + shifted;
+                        let bit = bit + bit;
+                    }
+                    return sum;
+                }
+                function int divide(int x, int y) {
+                    var int q;
+                    let q = Math.quotient(Math.abs(x), Math.abs(y));
+                    if ((x < 0) = (y < 0)) {
+                        return q;
+                    }
+                    return -q;
+                }
+                function int quotient(int x, int y) {
+                    var int q;
+                    if ((y > x) | (y < 0)) {
+                        return 0;
+                    }
+                    let q = Math.quotient(x, y + y);
+                    if ((x - ((q + q) * y)) < y) {
+                        return q + q;
+                    }
+                    return q + q + 1;
+                }
+            }""", """
+            class Memory {
+                static Array ram;
+                function int peek(int address) {
+                    return ram[address];
+                }
+                function void poke(int address, int value) {
+                    let ram[address] = value;
+                    return;
+                }
+            }""");
+
+    private static final String INTRINSICS = """
+            class Main {
+                static int calls;
+                function int main() {
+                    var int smallest, i;
+                    let smallest = -32767 - 1;
+                    do Memory.poke(8000, Math.abs(smallest));
+                    do Memory.poke(8001, Math.abs(-5) + Math.abs(7));
+                    do Memory.poke(8002, Math.min(smallest, 32767));
+                    do Memory.poke(8003, Math.max(smallest, 32767));
+                    do Memory.poke(8004, Math.min(-3, Math.max(-9, -4)));
+                    do Memory.poke(8005 + Main.next(), Main.next());
+                    while (i < 4) {
+                        do Memory.poke(8010 + i, Memory.peek(8000 + i) + Memory.peek(8009 + i));
+                        let i = i + 1;
+                    }
+                    return Memory.peek(8006);
+                }
+                function int next() {
+                    let calls = calls + 1;
+                    return calls;
+                }
+            }""";
+
+    private static final String ARITHMETIC = """
+            class Main {
+                function int main() {
+                    do Memory.poke(8000, 300 * 300);
+                    do Memory.poke(8001, -7 * 13);
+                    do Memory.poke(8002, 123 * -45);
+                    do Memory.poke(8003, -100 / 7);
+                    do Memory.poke(8004, 32767 / -3);
+                    do Memory.poke(8005, 5 / 9);
+                    do Memory.poke(8006, Math.max(-3, Math.min(1000 / 10, 99)));
+                    return (8000 * 3) / 7;
+                }
+            }""";
+
+    private static final String LOOP = """
+            class Main {
+                function int main() {
+                    var int i, odd;
+                    while (i < 10) {
+                        if ((i & 1) = 1) {
+                            let odd = odd + 1;
+                        }
+                        let i = i + 1;
+                    }
+                    return odd + Main.twice(odd);
+                }
+                function int twice(int x) {
+                    return x + x;
+                }
+            }""";
+
+    private static final String HOT_LOOP = """
+            class Main {
+                function int main() {
+                    var int i, sum;
+                    while (i < 100) {
+                        let sum = sum + i;
+                        let i = i + 1;
+                    }
+                    return sum;
+                }
+            }""";
+
+    /**
+     * Prints literals from a loop and from a subroutine that calls itself in tail
+     * position.
+     */
+    private static final String GREETINGS = """
+            class Main {
+                function int main() {
+                    var int i;
+                    while (i < 3) {
+                        do Output.printString("hi ");
+                        let i = i + 1;
+                    }
+                    return Main.countdown(3);
+                }
+                function int countdown(int n) {
+                    do Output.printString("n");
+                    if (n = 0) {
+                        do Output.printString("hi ");
+                        return 7;
+                    }
+                    return Main.countdown(n - 1);
+                }
+            }""";
+
+    /**
+     * Fills most of the heap from its top down, the way an OS carving blocks off the end
+     * of its free space would.
+     */
+    private static final List<String> HEAP_FROM_THE_TOP = List.of("""
+            class Main {
+                function int main() {
+                    var int i, j;
+                    var Array a;
+                    while (i < 100) {
+                        let a = Memory.alloc(100);
+                        let j = 0;
+                        while (j < 100) {
+                            let a[j] = i;
+                            let j = j + 1;
+                        }
+                        let i = i + 1;
+                    }
+                    return a[99];
+                }
+            }""", """
+            class Memory {
+                static int top;
+                function int alloc(int size) {
+                    if (top = 0) {
+                        let top = 16384;
+                    }
+                    let top = top - size;
+                    return top;
+                }
+            }""");
+
+    /**
+     * Inlining {@code f} into {@code main} leaves a call to {@code h} for the next round,
+     * whose locals must not take the names of {@code f}'s inlined ones.
+     */
+    private static final String NESTED_LOCALS = """
+            class Main {
+                function int main() {
+                    var int r;
+                    let r = Main.f(5);
+                    return r;
+                }
+                function int f(int n) {
+                    var int k;
+                    let k = n;
+                    do Main.g();
+                    return k + n;
+                }
+                function int g() {
+                    return Main.h();
+                }
+                function int h() {
+                    var int k;
+                    let k = 7;
+                    let k = k + 1;
+                    return k;
+                }
+            }""";
+
+    @Test
+    void inliningInSeveralRoundsKeepsTheLocalsOfEachRoundApart() {
+        var inlined = new JackCompiler(Options.defaults(), Set.of(PassManager.INLINE),
+                new PrintStream(OutputStream.nullOutputStream()))
+            .compile(List.of(NESTED_LOCALS))
+            .stream()
+            .map(JackCompiler.CompiledClass::vmClass)
+            .toList();
+        var interpreter = new Interpreter(inlined);
+        assertThat(interpreter.run(10_000_000).status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(interpreter.ram()[Interpreter.STACK]).isEqualTo((short) 10);
+        assertThat(run(List.of(NESTED_LOCALS), Options.defaults()).ram()[Interpreter.STACK]).isEqualTo((short) 10);
+    }
+
+    @Test
+    void tailCallsRunInConstantStackSpace() {
+        var run = run(List.of(SUM), Options.defaults());
+        assertThat(run.result().status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(run.ram()[Interpreter.STACK]).isEqualTo((short) 10000);
+        var withoutTailCalls = run(List.of(SUM), Options.builder().eliminateTailCalls(false).build());
+        assertThat(withoutTailCalls.result().status()).isEqualTo(Interpreter.Status.STACK_OVERFLOW);
+    }
+
+    @Test
+    void intrinsicsComputeWhatTheOsComputes() {
+        var lowered = run(program(INTRINSICS), Options.defaults());
+        var called = run(program(INTRINSICS), Options.builder().intrinsics(Set.of()).build());
+        assertThat(lowered.result().status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(called.result().status()).isEqualTo(Interpreter.Status.FINISHED);
+        var memory = Arrays.copyOfRange(lowered.ram(), 8000, 8014);
+        assertThat(memory).isEqualTo(Arrays.copyOfRange(called.ram(), 8000, 8014));
+        assertThat(memory).startsWith((short) -32768, (short) 12, (short) -32768, (short) 32767, (short) -4, (short) 0,
+                (short) 2);
+        assertThat(lowered.ram()[Interpreter.STACK]).isEqualTo((short) 2);
+        assertThat(lowered.result().executed()).isLessThan(called.result().executed());
+    }
+
+    @Test
+    void programsDefiningTheirOwnMemoryCallIt() {
+        var memory = """
+                class Memory {
+                    static int pokes;
+                    function void poke(int address, int value) {
+                        var Array ram;
+                        let ram = 0;
+                        let ram[address] = value;
+                        let pokes = pokes + 1;
+                        return;
+                    }
+                    function int pokes() {
+                        return pokes;
+                    }
+                }""";
+        var main = """
+                class Main {
+                    function int main() {
+                        do Memory.poke(8000, 5);
+                        do Memory.poke(8001, 6);
+                        return Memory.pokes();
+                    }
+                }""";
+        var log = new PrintStream(OutputStream.nullOutputStream());
+        for (var flags : List.of(List.<String>of(), List.of("--intrinsic=Memory.poke"))) {
+            var classes = JackCompiler.fromFlags(flags, log)
+                .compile(List.of(memory, main))
+                .stream()
+                .map(JackCompiler.CompiledClass::vmClass)
+                .toList();
+            var interpreter = new Interpreter(classes);
+            assertThat(interpreter.run(10_000).status()).isEqualTo(Interpreter.Status.FINISHED);
+            assertThat(interpreter.ram()[8000]).isEqualTo((short) 5);
+            assertThat(interpreter.ram()[8001]).isEqualTo((short) 6);
+            // lowered only when asked for, which skips the program's count
+            assertThat(interpreter.ram()[Interpreter.STACK]).as(flags.toString())
+                .isEqualTo((short) (flags.isEmpty() ? 2 : 0));
+        }
+    }
+
+    @Test
+    void theJitRunsCompiledProgramsLikeTheInterpreter() {
+        for (var options : List.of(Options.defaults(), Options.builder().intrinsics(Set.of()).build())) {
+            var classes = compile(program(INTRINSICS), options);
+            var interpreter = new Interpreter(classes);
+            var jit = new Jit(classes);
+            assertThat(jit.run(10_000_000)).isEqualTo(interpreter.run(10_000_000));
+            assertThat(Arrays.copyOfRange(jit.ram(), 8000, 8014))
+                .isEqualTo(Arrays.copyOfRange(interpreter.ram(), 8000, 8014));
+            assertThat(jit.ram()[Interpreter.STACK]).isEqualTo(interpreter.ram()[Interpreter.STACK]);
+        }
+        var sum = compile(List.of(SUM), Options.defaults());
+        assertThat(new Jit(sum).run(10_000_000)).isEqualTo(new Interpreter(sum).run(10_000_000));
+    }
+
+    @Test
+    void theNativeOsComputesWhatTheOsComputes() {
+        var classes = compile(program(ARITHMETIC), Options.builder().intrinsics(Set.of()).build());
+        var interpreted = new Interpreter(classes);
+        var calledNatively = new Interpreter(classes, new NativeOs());
+        var interpretedResult = interpreted.run(10_000_000);
+        var nativeResult = calledNatively.run(10_000_000);
+        assertThat(interpretedResult.status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(nativeResult.status()).isEqualTo(Interpreter.Status.FINISHED);
+        var memory = Arrays.copyOfRange(interpreted.ram(), 8000, 8007);
+        assertThat(memory).containsExactly((short) (300 * 300), (short) -91, (short) -5535, (short) -14,
+                (short) -10922, (short) 0, (short) 99);
+        assertThat(Arrays.copyOfRange(calledNatively.ram(), 8000, 8007)).isEqualTo(memory);
+        assertThat(calledNatively.ram()[Interpreter.STACK]).isEqualTo(interpreted.ram()[Interpreter.STACK]);
+        assertThat(nativeResult.executed() * 10).isLessThan(interpretedResult.executed());
+    }
+
+    @Test
+    void instrumentedProgramsCountCallsBranchesAndIterations() {
+        var log = new PrintStream(OutputStream.nullOutputStream());
+        var compiled = new JackCompiler(Options.builder().instrument(true).build(), Set.of(), log)
+            .compile(List.of(LOOP))
+            .getFirst();
+        var interpreter = new Interpreter(List.of(compiled.vmClass()));
+        assertThat(interpreter.run(10_000_000).status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(interpreter.ram()[Interpreter.STACK]).isEqualTo((short) 15);
+        var ram = new HashMap<Integer, Integer>();
+        compiled.counters().forEach(c -> ram.put(c.address(), (int) interpreter.ram()[c.address()]));
+        assertThat(compiled.counters()).extracting(c -> c.function() + " " + c.kind() + " " + ram.get(c.address()))
+            .containsExactly("Main.main ENTRY 1", "Main.main LOOP 10", "Main.main THEN 5", "Main.main ELSE 5",
+                    "Main.twice ENTRY 1");
+        assertThat(Counters.readLayout(Counters.layout(compiled.counters()))).isEqualTo(compiled.counters());
+        assertThat(Counters.report(compiled.counters(), ram)).contains("50.0%", "10.0/call");
+        assertThat(run(List.of(LOOP), Options.defaults()).ram()[Interpreter.STACK]).isEqualTo((short) 15);
+    }
+
+    @Test
+    void profilesAddUpTheCostOfEachJackLine() {
+        var log = new PrintStream(OutputStream.nullOutputStream());
+        var compiled = new JackCompiler(Options.builder().sourceMap(true).build(), Set.of(), log)
+            .compile(List.of(HOT_LOOP))
+            .getFirst();
+        var interpreter = new Interpreter(List.of(compiled.vmClass()));
+        interpreter.profiling();
+        assertThat(interpreter.run(10_000_000).status()).isEqualTo(Interpreter.Status.FINISHED);
+        Profile.Lines lines = (className, command) -> compiled.sourceMap()
+            .at(command)
+            .map(SourceMap.Entry::line)
+            .orElse(0);
+        var costs = interpreter.profile().lines(lines);
+        // the condition and the two statements of the loop, each run a hundred times
+        assertThat(costs.subList(0, 3)).extracting(Profile.LineCost::line).containsExactlyInAnyOrder(4, 5, 6);
+        assertThat(costs.subList(0, 3)).allMatch(c -> c.className().equals("Main") && c.executed() >= 400);
+        assertThat(costs).filteredOn(c -> c.line() == 8).singleElement()
+            .satisfies(c -> assertThat(c.executed()).isLessThan(10));
+        assertThat(interpreter.profile().lineReport(1, lines)).contains("Main.jack:");
+    }
+
+    @Test
+    void pooledStringsPrintWhatFreshOnesPrint() {
+        var freshOs = new NativeOs();
+        var fresh = new Interpreter(compile(List.of(GREETINGS), Options.defaults()), freshOs);
+        var pooledOs = new NativeOs();
+        var pooled = new Interpreter(compile(List.of(GREETINGS), Options.builder().poolStrings(true).build()),
+                pooledOs);
+        assertThat(fresh.run(10_000_000).status()).isEqualTo(Interpreter.Status.FINISHED);
+        var result = pooled.run(10_000_000);
+        assertThat(result.status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(pooled.ram()[Interpreter.STACK]).isEqualTo((short) 7);
+        assertThat(pooledOs.output()).isEqualTo("hi hi hi nnnnhi ").isEqualTo(freshOs.output());
+    }
+
+    @Test
+    void countersAndTheHeapStayApartWhereverTheOsAllocates() {
+        var log = new PrintStream(OutputStream.nullOutputStream());
+        var compiled = new JackCompiler(Options.builder().instrument(true).build(), Set.of(), log)
+            .compile(HEAP_FROM_THE_TOP);
+        var interpreter = new Interpreter(compiled.stream().map(JackCompiler.CompiledClass::vmClass).toList());
+        assertThat(interpreter.run(10_000_000).status()).isEqualTo(Interpreter.Status.FINISHED);
+        assertThat(interpreter.ram()[Interpreter.STACK]).isEqualTo((short) 99);
+        for (int block = 0; block < 100; block++) {
+            var start = 16384 - 100 * (block + 1);
+            var expected = new short[100];
+            Arrays.fill(expected, (short) block);
+            assertThat(Arrays.copyOfRange(interpreter.ram(), start, start + 100)).isEqualTo(expected);
+        }
+        var counters = compiled.stream().flatMap(c -> c.counters().stream()).toList();
+        assertThat(counters).allMatch(c -> c.address() >= Counters.START && c.address() < Counters.END);
+        assertThat(counters).extracting(c -> c.function() + " " + c.kind() + " " + interpreter.ram()[c.address()])
+            .containsExactly("Main.main ENTRY 1", "Main.main LOOP 100", "Main.main LOOP 10000",
+                    "Memory.alloc ENTRY 100", "Memory.alloc THEN 1", "Memory.alloc ELSE 99");
+    }
+
+    private static List<String> program(String main) {
+        var sources = new ArrayList<>(OS);
+        sources.add(main);
+        return sources;
+    }
+
+    private static List<VmClass> compile(List<String> sources, Options options) {
+        var log = new PrintStream(OutputStream.nullOutputStream());
+        // the OS here does what the intrinsics do, so they stand in for it
+        return new JackCompiler(options, Set.of(), options.intrinsics(), log).compile(sources)
+            .stream()
+            .map(JackCompiler.CompiledClass::vmClass)
+            .toList();
+    }
+
+    private static Run run(List<String> sources, Options options) {
+        var interpreter = new Interpreter(compile(sources, options));
+        var result = interpreter.run(10_000_000);
+        return new Run(result, interpreter.ram());
+    }
+
+    private record Run(Interpreter.Result result, short[] ram) {
+    }
+
+}
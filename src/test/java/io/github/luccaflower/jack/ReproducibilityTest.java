@@ -0,0 +1,56 @@
+package io.github.luccaflower.jack;
+
+import io.github.luccaflower.jack.codewriter.ClassWriter;
+import io.github.luccaflower.jack.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReproducibilityTest {
+
+    private static final String input = """
+            class Main {
+                static int %s, total;
+                field int zeta, alpha, mid;
+                method int sum(int c, int b, int a) {
+                    var int zz, yy, xx;
+                    let xx = a;
+                    let yy = b;
+                    let zz = c;
+                    let total = alpha + mid + zeta;
+                    return xx + yy + zz + total;
+                }
+                method int twice() {
+                    return sum(zeta, alpha, mid) * 2;
+                }
+                function void main() {
+                    return;
+                }
+            }""";
+
+    @Test
+    void slotsAndSubroutinesFollowDeclarationOrder() {
+        var compiled = compile(input.formatted("unused"));
+        assertThat(compiled).containsSubsequence("function Main.sum 3", "push argument 3", "pop local 2",
+                "push argument 2", "pop local 1", "push argument 1", "pop local 0", "push this 1", "push this 2",
+                "push this 0", "pop static 1", "function Main.twice 0", "function Main.main 0");
+    }
+
+    @Test
+    void renamingAnUnrelatedVariableDoesNotMoveAnyOtherSlot() {
+        // names that hash differently stand in for a different hash seed: layout must not depend on either
+        var first = compile(input.formatted("a"));
+        for (var name : new String[] { "b", "counter", "zzzzzzzz", "Aa", "BB" }) {
+            assertThat(compile(input.formatted(name)).getBytes(StandardCharsets.UTF_8)).isEqualTo(
+                    first.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String compile(String input) {
+        return new ClassWriter(new Parser().parse(tokenize(input))).write();
+    }
+
+}
@@ -0,0 +1,434 @@
+package io.github.luccaflower.jack.codewriter;
+
+import io.github.luccaflower.jack.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClassWriterTest {
+
+    @Test
+    void whileLoopsAreRotatedSoTheConditionIsAtTheBottom() {
+        var input = """
+                class Main {
+                    function void fill(int length) {
+                        while (length > 0) {
+                            let length = length - 1;
+                        }
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).containsSequence("label while.0.condition", "push argument 0", "push constant 0",
+                "gt", "if-goto while.0.block", "push constant 0", "return")
+            .filteredOn(l -> l.startsWith("goto") || l.startsWith("if-goto"))
+            .containsExactly("goto while.0.condition", "if-goto while.0.block");
+    }
+
+    @Test
+    void negatedComparisonsBranchToTheElseBlock() {
+        var input = """
+                class Main {
+                    function void f(int position) {
+                        if (~(position > 16)) {
+                            let position = 0;
+                        }
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 0", "push argument 0", "push constant 16", "gt",
+                "if-goto if-end.0")
+            .doesNotContain("not");
+    }
+
+    @Test
+    void comparisonsWithZeroBranchOnTheValueItself() {
+        var input = """
+                class Main {
+                    function int f(int mask) {
+                        if (mask = 0) {
+                            return 1;
+                        }
+                        else {
+                            return 2;
+                        }
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 0", "push argument 0", "if-goto if-not.0")
+            .doesNotContain("eq");
+    }
+
+    @Test
+    void branchesOnArbitraryValuesKeepNonZeroAsTrue() {
+        var input = """
+                class Main {
+                    function void f(int x) {
+                        if (x) {
+                            let x = 0;
+                        }
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 0", "push argument 0", "if-goto if-true.0",
+                "goto if-end.0");
+    }
+
+    @Test
+    void branchLoweringCanBeTurnedOff() {
+        var input = """
+                class Main {
+                    function void f(int x) {
+                        while (x) {
+                            let x = 0;
+                        }
+                        return;
+                    }
+                }""";
+        var options = Options.builder().optimizeBranches(false).build();
+        assertThat(compile(input, options)).startsWith("function Main.f 0", "label while.0.start", "push argument 0",
+                "if-goto while.0.block", "goto while.0.end");
+    }
+
+    @Test
+    void pooledStringLiteralsAreBuiltOnceIntoAStaticAfterTheClassStatics() {
+        var input = """
+                class Main {
+                    static int count;
+                    function void f() {
+                        do Output.printString("ab");
+                        do Output.printString("ab");
+                        return;
+                    }
+                    function void g() {
+                        do Output.printString("c");
+                        do Output.printString("ab");
+                        return;
+                    }
+                    function void h() {
+                        return;
+                    }
+                }""";
+        var options = Options.builder().poolStrings(true).build();
+        var code = compile(input, options);
+        assertThat(code).containsSequence("function Main.f 0", "push static 1", "if-goto strings-built",
+                "call Main.strings.pool 0", "pop temp 0", "label strings-built", "push static 1",
+                "call Output.printString 1", "pop temp 0", "push static 1", "call Output.printString 1");
+        assertThat(code).containsSequence("function Main.g 0", "push static 1", "if-goto strings-built");
+        assertThat(code).containsSequence("function Main.h 0", "push constant 0", "return");
+        assertThat(code).endsWith("function Main.strings.pool 0", "push constant 2", "call String.new 1",
+                "push constant 97", "call String.appendChar 2", "push constant 98", "call String.appendChar 2",
+                "pop static 1", "push constant 1", "call String.new 1", "push constant 99",
+                "call String.appendChar 2", "pop static 2", "push constant 0", "return");
+        // each use is a single push, and each literal is built in one place
+        assertThat(code).filteredOn("call String.new 1"::equals).hasSize(2);
+    }
+
+    @Test
+    void stringLiteralsAreBuiltOnEveryEvaluationByDefault() {
+        var input = """
+                class Main {
+                    function void f() {
+                        do Output.printString("a");
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).containsSequence("push constant 1", "call String.new 1", "push constant 97",
+                "call String.appendChar 2", "call Output.printString 1")
+            .noneMatch(l -> l.contains("static"));
+    }
+
+    @Test
+    void methodsCalledFromExpressionsReceiveTheCurrentObject() {
+        var input = """
+                class Point {
+                    field int x;
+                    method int getX() {
+                        return x;
+                    }
+                    method int twice() {
+                        return getX() + x;
+                    }
+                }""";
+        assertThat(compile(input)).containsSequence("push pointer 0", "call Point.getX 1", "push this 0", "add");
+    }
+
+    @Test
+    void argumentsShadowFieldsAndStatics() {
+        var input = """
+                class Main {
+                    static int x;
+                    field int y;
+                    method void f(int x, int y) {
+                        let x = y;
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).containsSequence("push argument 2", "pop argument 1");
+    }
+
+    @Test
+    void localsThatAreNeverLiveTogetherShareASlot() {
+        var input = """
+                class Main {
+                    function int f() {
+                        var int a, b;
+                        let a = 1;
+                        do Output.printInt(a);
+                        let b = 2;
+                        return b;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 1", "push constant 1", "pop local 0")
+            .containsSequence("push constant 2", "pop local 0", "push local 0", "return");
+    }
+
+    @Test
+    void localsReadBeforeTheyAreAssignedKeepTheirZeroedSlot() {
+        var input = """
+                class Main {
+                    function int f() {
+                        var int count, step;
+                        while (count < 10) {
+                            let step = 2;
+                            let count = count + step;
+                        }
+                        return count;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 2");
+    }
+
+    @Test
+    void localSlotReuseCanBeTurnedOff() {
+        var input = """
+                class Main {
+                    function void f() {
+                        var int a, b;
+                        let a = 1;
+                        let b = 2;
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 1");
+        assertThat(compile(input, Options.builder().reuseLocals(false).build())).startsWith("function Main.f 2");
+    }
+
+    @Test
+    void selfCallsInTailPositionJumpBackToTheEntry() {
+        var input = """
+                class Main {
+                    function int sum(int n, int total) {
+                        var int seen;
+                        if (n = 0) {
+                            return total + seen;
+                        }
+                        let seen = 1;
+                        return Main.sum(n - 1, total + n);
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.sum 1", "label entry")
+            .containsSequence("push argument 0", "push constant 1", "sub", "push argument 1", "push argument 0", "add",
+                    "pop argument 1", "pop argument 0", "push constant 0", "pop local 0", "goto entry")
+            .noneMatch(l -> l.startsWith("call"));
+    }
+
+    @Test
+    void tailCallsInMethodsKeepTheReceiver() {
+        var input = """
+                class List {
+                    field int next;
+                    method int last(int steps) {
+                        if (steps = 0) {
+                            return next;
+                        }
+                        return last(steps - 1);
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function List.last 0", "push argument 0", "pop pointer 0",
+                "label entry")
+            .containsSequence("sub", "pop argument 1", "goto entry")
+            .noneMatch(l -> l.startsWith("call"));
+    }
+
+    @Test
+    void callsThatAreNotInTailPositionAreKept() {
+        var input = """
+                class Main {
+                    function int factorial(int n) {
+                        if (n = 0) {
+                            return 1;
+                        }
+                        return n * Main.factorial(n - 1);
+                    }
+                }""";
+        assertThat(compile(input)).contains("call Main.factorial 1").doesNotContain("label entry");
+    }
+
+    @Test
+    void constantIndicesAreAddressedOffASinglePointerSetUp() {
+        var input = """
+                class Main {
+                    function int f(Array point) {
+                        let point[2] = point[0] + point[1];
+                        return point[2];
+                    }
+                }""";
+        assertThat(compile(input)).containsExactly("function Main.f 0", "push argument 0", "pop pointer 1",
+                "push that 0", "push that 1", "add", "pop that 2", "push that 2", "return");
+    }
+
+    @Test
+    void readModifyWritesComputeTheAddressOnce() {
+        var input = """
+                class Main {
+                    function void f(Array counts, int i) {
+                        let counts[i] = counts[i] + 1;
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 0", "push argument 0", "push argument 1", "add",
+                "pop pointer 1", "push that 0", "push constant 1", "add", "pop that 0")
+            .doesNotContain("pop temp 0");
+    }
+
+    @Test
+    void indicesWithCallsAreComputedForEveryRead() {
+        var input = """
+                class Main {
+                    function void f(Array counts) {
+                        let counts[Main.next()] = counts[Main.next()] + 1;
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).filteredOn(l -> l.equals("call Main.next 0")).hasSize(2);
+    }
+
+    @Test
+    void fieldArraysAreLookedUpAgainAfterACall() {
+        var input = """
+                class Buffer {
+                    field Array data;
+                    method void f() {
+                        let data[0] = 1;
+                        do Buffer.flush();
+                        let data[1] = 2;
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).filteredOn(l -> l.equals("pop pointer 1")).hasSize(2);
+    }
+
+    @Test
+    void arrayFastPathsCanBeTurnedOff() {
+        var input = """
+                class Main {
+                    function void f(Array a) {
+                        let a[0] = a[0];
+                        return;
+                    }
+                }""";
+        assertThat(compile(input, Options.builder().optimizeArrays(false).build())).containsSequence("add",
+                "pop pointer 1", "push that 0", "pop temp 0", "pop pointer 1", "push temp 0", "pop that 0");
+    }
+
+    @Test
+    void memoryAccessIsLoweredToThatInsteadOfCalls() {
+        var input = """
+                class Main {
+                    function void f() {
+                        do Memory.poke(8001, Memory.peek(8000));
+                        return;
+                    }
+                }""";
+        assertThat(compile(input)).startsWith("function Main.f 0", "push constant 8001", "push constant 8000",
+                "pop pointer 1", "push that 0", "pop temp 0", "pop pointer 1", "push temp 0", "pop that 0")
+            .noneMatch(l -> l.startsWith("call"));
+    }
+
+    @Test
+    void minAndMaxBranchInsteadOfCalling() {
+        var input = """
+                class Main {
+                    function int f(int a, int b) {
+                        return Math.abs(Math.min(a, b));
+                    }
+                }""";
+        assertThat(compile(input)).containsSequence("push argument 0", "push argument 1", "pop temp 1", "pop temp 0",
+                "push temp 0", "push temp 1", "lt", "if-goto intrinsic.0")
+            .containsSequence("lt", "not", "if-goto intrinsic.1")
+            .noneMatch(l -> l.startsWith("call"));
+    }
+
+    @Test
+    void intrinsicsCanBeTurnedOffOneByOne() {
+        var input = """
+                class Main {
+                    function int f(int a) {
+                        return Math.max(Math.abs(a), Memory.peek(a));
+                    }
+                }""";
+        var options = Options.builder().intrinsics(Set.of(Intrinsic.MEMORY_PEEK, Intrinsic.MATH_MAX)).build();
+        assertThat(compile(input, options)).filteredOn(l -> l.startsWith("call")).containsExactly("call Math.abs 1");
+    }
+
+    @Test
+    void variablesNamedLikeAnOsClassAreStillCalled() {
+        var input = """
+                class Main {
+                    function int f(Cache Memory) {
+                        return Memory.peek(0);
+                    }
+                }""";
+        assertThat(compile(input)).contains("call Cache.peek 2");
+    }
+
+    @Test
+    void theSourceMapPointsEachCommandAtTheStatementOrCallItCameFrom() {
+        var input = """
+                class Main {
+                    function int f(int a) {
+                        let a = a + 1;
+                        if (a > 2) {
+                            let a = Main.g(a) + 3;
+                        }
+                        return a;
+                    }
+                    function int g(int b) {
+                        return b;
+                    }
+                }""";
+        var tokenizer = tokenize(input);
+        var writer = new ClassWriter(new Parser().parse(tokenizer), Options.builder().sourceMap(true).build(),
+                tokenizer.positions());
+        var code = writer.write().lines().filter(l -> !l.isBlank()).toList();
+        assertThat(code).isEqualTo(compile(input));
+        var map = writer.sourceMap();
+        assertThat(map.at(0)).contains(new SourceMap.Entry(0, 2, 5, "Main.f"));
+        assertThat(map.at(1).map(SourceMap.Entry::line)).contains(3);
+        assertThat(map.at(code.indexOf("call Main.g 1"))).hasValueSatisfying(e -> {
+            assertThat(e.line()).isEqualTo(5);
+            assertThat(e.column()).isEqualTo(21);
+        });
+        // what's left of the statement after the call goes back to the statement
+        assertThat(map.at(code.lastIndexOf("pop argument 0")).map(SourceMap.Entry::column)).contains(13);
+        assertThat(map.at(code.indexOf("return")).map(SourceMap.Entry::line)).contains(7);
+        assertThat(map.at(code.indexOf("function Main.g 0"))).contains(new SourceMap.Entry(code.indexOf(
+                "function Main.g 0"), 9, 5, "Main.g"));
+        assertThat(SourceMap.read(map.toBytes())).isEqualTo(map);
+    }
+
+    private static List<String> compile(String input) {
+        return compile(input, Options.defaults());
+    }
+
+    private static List<String> compile(String input, Options options) {
+        return new ClassWriter(new Parser().parse(tokenize(input)), options).write()
+            .lines()
+            .filter(l -> !l.isBlank())
+            .toList();
+    }
+
+}
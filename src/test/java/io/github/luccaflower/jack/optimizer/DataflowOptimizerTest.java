@@ -0,0 +1,116 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataflowOptimizerTest {
+
+    private final DataflowOptimizer optimizer = new DataflowOptimizer();
+
+    @Test
+    void constantsArePropagatedAndTheirStoresRemoved() {
+        var result = optimizer.optimize(parse("""
+                class Main {
+                    function int f() {
+                        var int width, height;
+                        let width = 16;
+                        let height = width * 2;
+                        return width + height;
+                    }
+                }"""));
+        assertThat(statementsOf(result)).containsExactly(
+                new Statement.ReturnStatement(Optional.of(expression(constant(48)))));
+        assertThat(result.propagatedConstants()).isEqualTo(3);
+        assertThat(result.removedStores()).isEqualTo(2);
+    }
+
+    @Test
+    void valuesThatDifferBetweenPathsAreNotPropagated() {
+        var result = optimizer.optimize(parse("""
+                class Main {
+                    function int f(int n) {
+                        var int i;
+                        while (i < n) {
+                            let i = i + 1;
+                        }
+                        return i;
+                    }
+                }"""));
+        assertThat(result.propagatedConstants()).isZero();
+        assertThat(result.removedStores()).isZero();
+    }
+
+    @Test
+    void branchesThatCanNeverBeTakenAreRemoved() {
+        var result = optimizer.optimize(parse("""
+                class Main {
+                    function void f() {
+                        var boolean debug;
+                        if (debug) {
+                            do Output.printString("debug");
+                        }
+                        else {
+                            do Output.println();
+                        }
+                        while (debug) {
+                            do Output.println();
+                        }
+                        return;
+                    }
+                }"""));
+        assertThat(statementsOf(result)).containsExactly(
+                new Term.ObjectSubroutineCall("Output", "println", List.of()),
+                new Statement.ReturnStatement(Optional.empty()));
+        assertThat(result.removedBlocks()).isEqualTo(2);
+    }
+
+    @Test
+    void deadStoresOfCallsKeepTheCall() {
+        var result = optimizer.optimize(parse("""
+                class Main {
+                    function void f() {
+                        var int ignored;
+                        let ignored = Keyboard.readInt("?");
+                        return;
+                    }
+                }"""));
+        assertThat(statementsOf(result)).first().isInstanceOf(Term.ObjectSubroutineCall.class);
+    }
+
+    @Test
+    void storesToFieldsAndStaticsAreKept() {
+        var result = optimizer.optimize(parse("""
+                class Main {
+                    static int last;
+                    function void f() {
+                        let last = 1;
+                        return;
+                    }
+                }"""));
+        assertThat(result.removedStores()).isZero();
+    }
+
+    private static List<Statement> statementsOf(DataflowOptimizer.Result result) {
+        return result.classes().getFirst().subroutines().get("f").statements();
+    }
+
+    private static Expression expression(Term term) {
+        return new Expression(term, Optional.empty());
+    }
+
+    private static Term constant(int i) {
+        return new Term.Constant(new Token.IntegerLiteral(i));
+    }
+
+    private static List<JackClass> parse(String input) {
+        return List.of(new Parser().parse(tokenize(input)));
+    }
+
+}
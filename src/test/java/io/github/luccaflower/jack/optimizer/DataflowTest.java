@@ -0,0 +1,87 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataflowTest {
+
+    private static final Subroutine LOOP = parse("""
+            class Main {
+                function int f(int n) {
+                    var int i, total;
+                    let total = 0;
+                    while (i < n) {
+                        if (i = 3) {
+                            let total = total + 1;
+                        }
+                        let i = i + 1;
+                    }
+                    return total;
+                }
+            }""");
+
+    @Test
+    void ifsAndWhilesEndTheirBlockWithTheConditionAndBranchTwoWays() {
+        var graph = ControlFlowGraph.of(LOOP);
+        var conditions = graph.blocks()
+            .stream()
+            .filter(b -> !b.nodes().isEmpty() && b.nodes().getLast() instanceof ControlFlowGraph.Node.Condition)
+            .toList();
+        assertThat(conditions).hasSize(2).allSatisfy(b -> assertThat(b.successors()).hasSize(2));
+        assertThat(graph.exit().predecessors()).singleElement()
+            .satisfies(b -> assertThat(b.nodes()).singleElement()
+                .extracting(n -> ((ControlFlowGraph.Node.Simple) n).statement())
+                .isInstanceOf(Statement.ReturnStatement.class));
+    }
+
+    @Test
+    void livenessFlowsAroundLoops() {
+        var graph = ControlFlowGraph.of(LOOP);
+        var result = Dataflow.solve(graph, new Liveness(graph));
+        assertThat(result.leaving(graph.entry())).containsExactlyInAnyOrder("i", "n");
+    }
+
+    @Test
+    void definitionsFromBeforeAndInsideTheLoopBothReachTheReturn() {
+        var graph = ControlFlowGraph.of(LOOP);
+        var result = Dataflow.solve(graph, new ReachingDefinitions(graph));
+        var atReturn = new ArrayList<String>();
+        result.forEachNode(graph.exit().predecessors().getFirst(), (node, reaching) -> reaching
+            .forEach(d -> atReturn.add(graph.definition(d).orElseThrow().value().toString())));
+        assertThat(atReturn).hasSize(3);
+    }
+
+    @Test
+    void branchesOnKnownConditionsLeaveTheOtherSideUnreachable() {
+        var subroutine = parse("""
+                class Main {
+                    function int f() {
+                        var int debug;
+                        if (debug) {
+                            return 1;
+                        }
+                        return 2;
+                    }
+                }""");
+        var graph = ControlFlowGraph.of(subroutine);
+        var result = Dataflow.solve(graph, new ConstantPropagation(graph, subroutine));
+        assertThat(graph.blocks()).filteredOn(b -> result.entering(b) == null)
+            .flatExtracting(ControlFlowGraph.Block::nodes)
+            .containsExactly(new ControlFlowGraph.Node.Simple(new Statement.ReturnStatement(Optional
+                .of(new Expression(new Term.Constant(new Token.IntegerLiteral(1)), Optional.empty())))));
+        assertThat(result.entering(graph.exit())).isEqualTo(Map.of("debug", 0));
+    }
+
+    private static Subroutine parse(String input) {
+        return new Parser().parse(tokenize(input)).subroutines().values().iterator().next();
+    }
+
+}
@@ -0,0 +1,94 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.JackClass;
+import io.github.luccaflower.jack.parser.Parser;
+import io.github.luccaflower.jack.parser.Statement;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeadCodeEliminatorTest {
+
+    private final DeadCodeEliminator eliminator = new DeadCodeEliminator();
+
+    @Test
+    void subroutinesUnreachableFromMainAreRemoved() {
+        var result = eliminator.eliminate(parse("""
+                class Main {
+                    function void main() {
+                        do Main.used();
+                        return;
+                    }
+                    function void used() { return; }
+                    function void unused() { do Main.used(); return; }
+                }"""));
+        assertThat(result.removedSubroutines()).containsExactly("Main.unused");
+        assertThat(result.classes().getFirst().subroutines()).containsOnlyKeys("main", "used");
+    }
+
+    @Test
+    void methodCallsAreResolvedThroughTheDeclaredTypeOfTheTarget() {
+        var result = eliminator.eliminate(parse("""
+                class Main {
+                    function void main() {
+                        var Point p;
+                        let p = Point.new();
+                        do p.draw();
+                        return;
+                    }
+                }""", """
+                class Point {
+                    constructor Point new() { return this; }
+                    method void draw() { return; }
+                    method void erase() { return; }
+                }"""));
+        assertThat(result.removedSubroutines()).containsExactly("Point.erase");
+    }
+
+    @Test
+    void implicitCallsToTheOperatingSystemAreKept() {
+        var result = eliminator.eliminate(parse("""
+                class Main {
+                    function int main() {
+                        return 2 * 3;
+                    }
+                }""", """
+                class Math {
+                    function int multiply(int x, int y) { return 0; }
+                    function int divide(int x, int y) { return 0; }
+                }"""));
+        assertThat(result.removedSubroutines()).containsExactly("Math.divide");
+    }
+
+    @Test
+    void statementsAfterAReturnAreRemoved() {
+        var result = eliminator.eliminate(parse("""
+                class Main {
+                    function int main() {
+                        var int x;
+                        if (x) { return 1; } else { return 2; }
+                        let x = 3;
+                        return x;
+                    }
+                }"""));
+        assertThat(result.removedStatements()).isEqualTo(2);
+        assertThat(result.classes().getFirst().subroutines().get("main").statements()).singleElement()
+            .isInstanceOf(Statement.IfStatement.class);
+    }
+
+    @Test
+    void aProgramNeedsAnEntryPoint() {
+        assertThatThrownBy(() -> eliminator.eliminate(parse("class Lib { function void f() { return; } }")))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<JackClass> parse(String... classes) {
+        return Arrays.stream(classes).map(c -> new Parser().parse(tokenize(c))).toList();
+    }
+
+}
@@ -0,0 +1,133 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InlinerTest {
+
+    private final Inliner inliner = new Inliner();
+
+    private static final String POINT = """
+            class Point {
+                field int x, y;
+                method int getY() { return y; }
+                method void move(int dx) {
+                    var int t;
+                    let t = y + dx;
+                    let y = t;
+                    return;
+                }
+            }""";
+
+    @Test
+    void gettersAreReplacedByReadingTheFieldOfTheReceiver() {
+        var result = inliner.inline(parse("""
+                class Main {
+                    function int main() {
+                        var Point p;
+                        return p.getY();
+                    }
+                }""", POINT));
+        assertThat(statementsOf(result, "main")).containsExactly(
+                new Statement.ReturnStatement(Optional.of(expression(new Term.IndexedVarname("p", constant(1))))));
+    }
+
+    @Test
+    void wrappersAroundOtherCallsTakeTheirArgumentsAlong() {
+        var result = inliner.inline(parse("""
+                class Main {
+                    function int main() {
+                        var int i;
+                        return Main.peek(i + 1);
+                    }
+                    function int peek(int address) { return Memory.peek(address); }
+                }"""));
+        assertThat(statementsOf(result, "main")).singleElement()
+            .isEqualTo(new Statement.ReturnStatement(Optional.of(expression(new Term.ObjectSubroutineCall("Memory",
+                    "peek", List.of(new Expression(new Term.NonIndexedVarName("i"), Optional.of(
+                            new Expression.OpAndExpression(Expression.Operator.PLUS, constant(1))))))))));
+    }
+
+    @Test
+    void argumentsWithSideEffectsAreNotDuplicated() {
+        var result = inliner.inline(parse("""
+                class Main {
+                    function int main() {
+                        return Main.twice(Main.next());
+                    }
+                    function int twice(int x) { return x + x; }
+                    function int next() { return Memory.peek(0); }
+                }"""));
+        assertThat(statementsOf(result, "main")).singleElement()
+            .asString()
+            .contains("subroutineName=twice");
+    }
+
+    @Test
+    void methodBodiesAreSplicedIntoTheCallersFrame() {
+        var result = inliner.inline(parse("""
+                class Main {
+                    function void main() {
+                        var Point p;
+                        var int d;
+                        do p.move(d);
+                        return;
+                    }
+                }""", POINT));
+        assertThat(result.classes().getFirst().subroutines().get("main").locals()).containsKeys("p", "d",
+                "$inline0.t");
+        assertThat(statementsOf(result, "main")).filteredOn(Statement.LetStatement.class::isInstance)
+            .extracting(s -> ((Statement.LetStatement) s).name())
+            .containsExactly("$inline0.t", "$inline0.t", "p");
+    }
+
+    @Test
+    void recursiveSubroutinesAreNotInlined() {
+        var result = inliner.inline(parse("""
+                class Main {
+                    function int main() {
+                        return Main.loop(1);
+                    }
+                    function int loop(int x) { return Main.loop(x); }
+                }"""));
+        assertThat(result.inlinedCallSites()).isZero();
+    }
+
+    @Test
+    void calleesLargerThanTheBudgetAreNotInlined() {
+        var result = new Inliner(1, 100).inline(parse("""
+                class Main {
+                    function void main() {
+                        var Point p;
+                        do p.move(1);
+                        return;
+                    }
+                }""", POINT));
+        assertThat(result.inlinedCallSites()).isZero();
+    }
+
+    private static List<Statement> statementsOf(Inliner.Result result, String name) {
+        return result.classes().getFirst().subroutines().get(name).statements();
+    }
+
+    private static Expression expression(Term term) {
+        return new Expression(term, Optional.empty());
+    }
+
+    private static Expression constant(int i) {
+        return expression(new Term.Constant(new Token.IntegerLiteral(i)));
+    }
+
+    private static List<JackClass> parse(String... classes) {
+        return Arrays.stream(classes).map(c -> new Parser().parse(tokenize(c))).toList();
+    }
+
+}
@@ -0,0 +1,124 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.parser.*;
+import io.github.luccaflower.jack.tokenizer.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoopInvariantCodeMotionTest {
+
+    private final LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion();
+
+    @Test
+    void invariantPartsOfTheConditionAreComputedBeforeTheLoop() {
+        var result = licm.hoist(parse("""
+                class Main {
+                    function void f(Array a, int length) {
+                        var int i;
+                        while (i < (length - 1)) {
+                            let a[i] = 0;
+                            let i = i + 1;
+                        }
+                        return;
+                    }
+                }"""));
+        var f = result.classes().getFirst().subroutines().get("f");
+        assertThat(f.statements().getFirst()).isEqualTo(new Statement.NonIndexedLetStatement("$licm0",
+                new Expression(variable("length"),
+                        Optional.of(new Expression.OpAndExpression(Expression.Operator.MINUS,
+                                expression(new Term.Constant(new Token.IntegerLiteral(1))))))));
+        assertThat(f.statements().get(1)).isInstanceOfSatisfying(Statement.WhileStatement.class,
+                w -> assertThat(w.condition()).isEqualTo(new Expression(variable("i"),
+                        Optional.of(new Expression.OpAndExpression(Expression.Operator.LESS_THAN,
+                                expression(variable("$licm0")))))));
+        assertThat(f.locals()).containsKey("$licm0");
+        assertThat(result.hoistedExpressions()).isEqualTo(1);
+    }
+
+    @Test
+    void operandsAssignedInTheLoopAreNotInvariant() {
+        var result = licm.hoist(parse("""
+                class Main {
+                    function int f(int n) {
+                        var int i, total;
+                        while (i < n) {
+                            let total = total + (n - i);
+                            let i = i + 1;
+                        }
+                        return total;
+                    }
+                }"""));
+        assertThat(result.hoistedExpressions()).isZero();
+    }
+
+    @Test
+    void arrayReadsStayInLoopsThatWriteToArrays() {
+        var result = licm.hoist(parse("""
+                class Main {
+                    function void f(Array a, Array b, int n) {
+                        var int i;
+                        while (i < n) {
+                            let b[i] = a[0];
+                            let i = i + 1;
+                        }
+                        return;
+                    }
+                }"""));
+        assertThat(result.hoistedExpressions()).isZero();
+    }
+
+    @Test
+    void fieldsStayInLoopsThatCallSubroutines() {
+        var result = licm.hoist(parse("""
+                class Counter {
+                    field int step;
+                    method void f(int n) {
+                        var int i;
+                        while (i < n) {
+                            do Output.printInt(step + 1);
+                            let i = i + 1;
+                        }
+                        return;
+                    }
+                }"""));
+        assertThat(result.hoistedExpressions()).isZero();
+    }
+
+    @Test
+    void onlyDivisionByAKnownNonZeroValueIsHoisted() {
+        var result = licm.hoist(parse("""
+                class Main {
+                    function int f(int n, int d) {
+                        var int i, total;
+                        while (i < n) {
+                            let total = total + (n / d) + (n / 2);
+                            let i = i + 1;
+                        }
+                        return total;
+                    }
+                }"""));
+        var f = result.classes().getFirst().subroutines().get("f");
+        assertThat(f.statements().getFirst()).isInstanceOfSatisfying(Statement.NonIndexedLetStatement.class,
+                let -> assertThat(let.value().continuation()).hasValueSatisfying(
+                        c -> assertThat(c.term()).isEqualTo(expression(new Term.Constant(new Token.IntegerLiteral(2))))));
+        assertThat(result.hoistedExpressions()).isEqualTo(1);
+    }
+
+    private static Expression expression(Term term) {
+        return new Expression(term, Optional.empty());
+    }
+
+    private static Term variable(String name) {
+        return new Term.NonIndexedVarName(name);
+    }
+
+    private static List<JackClass> parse(String input) {
+        return List.of(new Parser().parse(tokenize(input)));
+    }
+
+}
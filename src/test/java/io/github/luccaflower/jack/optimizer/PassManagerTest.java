@@ -0,0 +1,97 @@
+package io.github.luccaflower.jack.optimizer;
+
+import io.github.luccaflower.jack.Main;
+import io.github.luccaflower.jack.parser.JackClass;
+import io.github.luccaflower.jack.parser.Parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.luccaflower.jack.TokenizerUtils.tokenize;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PassManagerTest {
+
+    private final List<String> ran = new ArrayList<>();
+
+    @Test
+    void dependenciesAreScheduledAheadOfThePassesNeedingThem() {
+        var manager = new PassManager(classes -> 0).register(recording("first", Set.of()))
+            .register(recording("second", Set.of("first")))
+            .register(recording("third", Set.of("second")));
+        manager.run(List.of(), Set.of("third"));
+        assertThat(ran).containsExactly("first", "second", "third");
+    }
+
+    @Test
+    void passesCanOnlyDependOnPassesRegisteredBeforeThem() {
+        assertThatThrownBy(() -> new PassManager(classes -> 0).register(recording("second", Set.of("first"))))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("first");
+    }
+
+    @Test
+    void everyPassReportsTheInstructionCountsAroundIt() {
+        var manager = PassManager.standard(classes -> classes.getFirst().subroutines().size());
+        var run = manager.run(parse("""
+                class Main {
+                    function void main() {
+                        return;
+                    }
+                    function void unused() {
+                        return;
+                    }
+                }"""), Set.of(PassManager.WHOLE_PROGRAM));
+        assertThat(run.reports()).singleElement().satisfies(report -> {
+            assertThat(report.pass()).isEqualTo(PassManager.WHOLE_PROGRAM);
+            assertThat(report.instructionsBefore()).isEqualTo(2);
+            assertThat(report.instructionsAfter()).isEqualTo(1);
+            assertThat(report.summary()).contains("Main.unused");
+        });
+    }
+
+    @Test
+    void librariesAreCompiledAtTheHighestLevel(@TempDir Path library) throws IOException {
+        Files.writeString(library.resolve("Util.jack"), """
+                class Util {
+                    function int twice(int x) {
+                        return Util.add(x, x);
+                    }
+                    function int add(int x, int y) {
+                        return x + y;
+                    }
+                }""");
+        Main.main(new String[] { library.toString(), "-O2" });
+        assertThat(Files.readString(library.resolve("Util.vm"))).contains("function Util.twice", "function Util.add");
+        var run = PassManager.standard(classes -> 0).run(parse(Files.readString(library.resolve("Util.jack"))),
+                Set.of(PassManager.WHOLE_PROGRAM));
+        assertThat(run.reports()).singleElement()
+            .satisfies(report -> assertThat(report.summary()).startsWith("Skipped"));
+    }
+
+    @Test
+    void hoistingRunsAfterConstantsArePropagated() {
+        var manager = PassManager.standard(classes -> 0);
+        assertThat(manager.schedule(Set.of(PassManager.LICM))).extracting(Pass::name)
+            .containsExactly(PassManager.DATAFLOW, PassManager.LICM);
+    }
+
+    private Pass recording(String name, Set<String> dependencies) {
+        return Pass.of(name, dependencies, classes -> {
+            ran.add(name);
+            return new Pass.Result(classes, name);
+        });
+    }
+
+    private static List<JackClass> parse(String input) {
+        return List.of(new Parser().parse(tokenize(input)));
+    }
+
+}